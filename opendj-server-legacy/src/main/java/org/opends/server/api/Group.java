@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.api;
 
@@ -40,7 +40,9 @@ import org.opends.server.types.DN;
 import org.opends.server.types.Entry;
 import org.opends.server.types.InitializationException;
 import org.opends.server.types.MemberList;
+import org.opends.server.types.Modification;
 import org.opends.server.types.SearchFilter;
+import org.forgerock.opendj.ldap.DN.CompactDn;
 import org.forgerock.opendj.ldap.SearchScope;
 
 /**
@@ -446,6 +448,63 @@ public abstract class Group<T extends GroupImplementationCfg>
 
 
 
+  /**
+   * Retrieves the DNs of the members explicitly listed in this group,
+   * not including the members of nested groups.  The group manager
+   * uses them to maintain an index of the groups of each member, so
+   * a group returning them must notify the group manager when its
+   * member list is updated without modifying its entry.
+   *
+   * @return  The DNs of the members explicitly listed in this group,
+   *          which must not be modified, or {@code null} if the
+   *          members of this group are computed and cannot be listed
+   *          in advance.
+   */
+  public Set<CompactDn> getExplicitMemberDNs()
+  {
+    return null;
+  }
+
+
+
+  /**
+   * Attempts to apply the provided modifications of the entry of this
+   * group to this group instance, rather than having the group
+   * manager create a new instance from the modified entry.  A group
+   * applying them must notify the group manager of each member that
+   * it adds or removes.
+   *
+   * @param  modifications  The modifications applied to the entry of
+   *                        this group.
+   *
+   * @return  {@code true} if the modifications have been applied to
+   *          this group instance, or {@code false} if a new group
+   *          instance must be created from the modified entry.
+   */
+  public boolean applyModifications(List<Modification> modifications)
+  {
+    return false;
+  }
+
+
+
+
+  /**
+   * Retrieves an estimate of the memory used by this group instance
+   * to hold its member list.  It is used by the group manager to
+   * report the memory footprint of the groups.
+   *
+   * @return  An estimate of the memory used to hold the member list
+   *          of this group, in bytes, or zero if this group does not
+   *          hold its members in memory.
+   */
+  public long getMemberListSizeInBytes()
+  {
+    return 0;
+  }
+
+
+
   /**
    * Indicates whether it is possible to alter the member list for
    * this group (e.g., in order to add members to the group or remove
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.authorization.dseecompat;
 
@@ -102,6 +102,12 @@ implements AciTargetMatchContext, AciEvalContext {
      */
     private final Operation operation;
 
+    /**
+     * The cache of the bind rules results of the operation, or {@code null}
+     * if they cannot be cached.
+     */
+    private final BindRuleEvalCache bindRuleEvalCache;
+
     /**
      * True if a targattrfilters match was found.
      */
@@ -231,6 +237,7 @@ implements AciTargetMatchContext, AciEvalContext {
     protected AciContainer(Operation operation, int rights, Entry entry) {
       this.resourceEntry=entry;
       this.operation=operation;
+      this.bindRuleEvalCache=BindRuleEvalCache.getInstance(operation);
       this.clientConnection=operation.getClientConnection();
       this.authInfo = clientConnection.getAuthenticationInfo();
 
@@ -301,6 +308,7 @@ implements AciTargetMatchContext, AciEvalContext {
                             int rights) {
         this.resourceEntry=e;
         this.operation=operation;
+        this.bindRuleEvalCache=BindRuleEvalCache.getInstance(operation);
         this.clientConnection=operation.getClientConnection();
         this.authInfo = authInfo;
         this.authorizationEntry = authInfo.getAuthorizationEntry();
@@ -888,6 +896,12 @@ implements AciTargetMatchContext, AciEvalContext {
       return clientConnection.getSSF();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public BindRuleEvalCache getBindRuleEvalCache() {
+      return bindRuleEvalCache;
+  }
+
   /** {@inheritDoc} */
   @Override
   public String toString()
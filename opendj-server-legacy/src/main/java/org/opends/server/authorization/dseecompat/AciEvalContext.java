@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.authorization.dseecompat;
 
@@ -306,4 +306,13 @@ public interface AciEvalContext
      * @return The current SSF of the connection.
      */
     int getCurrentSSF();
+
+    /**
+     * Returns the cache of the bind rules results of the operation being
+     * evaluated.
+     *
+     * @return The cache of the bind rules results, or {@code null} if the
+     *         bind rules of this operation must always be evaluated.
+     */
+    BindRuleEvalCache getBindRuleEvalCache();
 }
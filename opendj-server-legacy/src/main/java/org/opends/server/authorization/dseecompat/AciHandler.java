@@ -22,11 +22,12 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  *      Portions Copyright 2013 Manuel Gaupp
  */
 package org.opends.server.authorization.dseecompat;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.SortedSet;
@@ -39,9 +40,11 @@ import org.forgerock.opendj.ldap.ModificationType;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.opends.server.admin.std.server.DseeCompatAccessControlHandlerCfg;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
 import org.opends.server.api.AccessControlHandler;
 import org.opends.server.api.ClientConnection;
 import org.opends.server.api.ConfigHandler;
+import org.opends.server.api.MonitorProvider;
 import org.opends.server.backends.pluggable.SuffixContainer;
 import org.opends.server.controls.GetEffectiveRightsRequestControl;
 import org.opends.server.core.BindOperation;
@@ -147,6 +150,9 @@ public final class AciHandler extends
    */
   private AciListenerManager aciListenerMgr;
 
+  /** The monitor provider of the caches used by ACI evaluation. */
+  private final AciListMonitorProvider aciListMonitor = new AciListMonitorProvider();
+
   /** Creates a new DSEE-compatible access control handler. */
   public AciHandler()
   {
@@ -184,6 +190,7 @@ public final class AciHandler extends
   @Override
   public void finalizeAccessControlHandler()
   {
+    DirectoryServer.deregisterMonitorProvider(aciListMonitor);
     aciListenerMgr.finalizeListenerManager();
     AciEffectiveRights.finalizeOnShutdown();
     DirectoryServer.deregisterSupportedControl(OID_GET_EFFECTIVE_RIGHTS);
@@ -202,6 +209,7 @@ public final class AciHandler extends
     processGlobalAcis(configuration);
     processConfigAcis();
     DirectoryServer.registerSupportedControl(OID_GET_EFFECTIVE_RIGHTS);
+    DirectoryServer.registerMonitorProvider(aciListMonitor);
   }
 
   /** {@inheritDoc} */
@@ -1332,4 +1340,46 @@ public final class AciHandler extends
     }
     return true;
   }
+
+  /**
+   * Monitors the cache of the ACIs inherited from the parent entries and the
+   * cache of the bind rules results of search operations.
+   */
+  private class AciListMonitorProvider extends MonitorProvider<MonitorProviderCfg>
+  {
+    /** {@inheritDoc} */
+    @Override
+    public List<Attribute> getMonitorData()
+    {
+      final long hits = aciList.getCacheHits();
+      final long misses = aciList.getCacheMisses();
+      final long total = hits + misses;
+      final List<Attribute> attributes = new ArrayList<>();
+      attributes.add(Attributes.create("inherited-aci-cache-size", String.valueOf(aciList.getCacheSize())));
+      attributes.add(Attributes.create("inherited-aci-cache-hits", String.valueOf(hits)));
+      attributes.add(Attributes.create("inherited-aci-cache-misses", String.valueOf(misses)));
+      attributes.add(Attributes.create("inherited-aci-cache-hit-ratio",
+          String.valueOf(total != 0 ? hits * 100 / total : 0)));
+      attributes.add(Attributes.create("bind-rule-evaluations",
+          String.valueOf(BindRuleEvalCache.getEvaluations())));
+      attributes.add(Attributes.create("bind-rule-evaluations-skipped",
+          String.valueOf(BindRuleEvalCache.getSkippedEvaluations())));
+      return attributes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getMonitorInstanceName()
+    {
+      return "Access Control Handler";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void initializeMonitorProvider(MonitorProviderCfg configuration)
+        throws ConfigException, InitializationException
+    {
+      // Nothing to do
+    }
+  }
 }
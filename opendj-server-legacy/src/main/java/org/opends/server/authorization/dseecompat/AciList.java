@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2013-2015 ForgeRock AS
+ *      Portions Copyright 2013-2016 ForgeRock AS
  */
 package org.opends.server.authorization.dseecompat;
 
@@ -30,6 +30,8 @@ import static org.opends.messages.AccessControlMessages.*;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import static org.opends.server.authorization.dseecompat.AciHandler.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -59,6 +61,22 @@ public class AciList {
   private final ReentrantReadWriteLock lock =
           new ReentrantReadWriteLock();
 
+  /** The maximum number of entries whose inherited ACIs are cached. */
+  private static final int MAX_CACHED_DNS = 10000;
+
+  /**
+   * Cache of the non global ACIs held by an entry and all its parents, keyed
+   * by the DN of the entry. It is cleared each time the ACI list is modified.
+   */
+  private final ConcurrentHashMap<DN, List<Aci>> inheritedAcisCache =
+          new ConcurrentHashMap<>();
+
+  /** The number of inherited ACIs read from the cache. */
+  private final AtomicLong cacheHits = new AtomicLong();
+
+  /** The number of inherited ACIs gathered from the ACI list. */
+  private final AtomicLong cacheMisses = new AtomicLong();
+
   /** The configuration DN used to compare against the global ACI entry DN. */
   private DN configDN;
 
@@ -77,12 +95,15 @@ public class AciList {
    * and are included in the candidate set only if they have no
    * "target" keyword rules, or if the target keyword rule matches for
    * the specified base DN.
+   * <p>
+   * The ACIs inherited from the parents of the base DN are read from a cache,
+   * since the entries returned by a search usually share the same parents.
    *
    * @param baseDN  The DN to check.
    * @return A list of candidate ACIs that might be applicable.
    */
   public List<Aci> getCandidateAcis(DN baseDN) {
-    List<Aci> candidates = new LinkedList<>();
+    List<Aci> candidates = new ArrayList<>();
     if(baseDN == null)
     {
       return candidates;
@@ -91,35 +112,25 @@ public class AciList {
     lock.readLock().lock();
     try
     {
-      //Save the baseDN in case we need to evaluate a global ACI.
-      DN entryDN=baseDN;
-      while (baseDN != null) {
+      if (!baseDN.isRootDN()) {
         List<Aci> acis = aciList.get(baseDN);
         if (acis != null) {
-          //Check if there are global ACIs. Global ACI has a NULL DN.
-          if (baseDN.isRootDN()) {
-            for (Aci aci : acis) {
-              AciTargets targets = aci.getTargets();
-              //If there is a target, evaluate it to see if this ACI should
-              //be included in the candidate set.
-              if (targets != null
-                  && AciTargets.isTargetApplicable(aci, targets, entryDN))
-              {
-                  candidates.add(aci);  //Add this ACI to the candidates.
-              }
-            }
-          } else {
-            candidates.addAll(acis);
-          }
-        }
-        if(baseDN.isRootDN()) {
-          break;
+          candidates.addAll(acis);
         }
-        DN parentDN=baseDN.parent();
-        if(parentDN == null) {
-          baseDN=DN.rootDN();
-        } else {
-          baseDN=parentDN;
+        candidates.addAll(getInheritedAcis(getParent(baseDN)));
+      }
+      //Check if there are global ACIs. Global ACI has a NULL DN.
+      List<Aci> globalAcis = aciList.get(DN.rootDN());
+      if (globalAcis != null) {
+        for (Aci aci : globalAcis) {
+          AciTargets targets = aci.getTargets();
+          //If there is a target, evaluate it to see if this ACI should
+          //be included in the candidate set.
+          if (targets != null
+              && AciTargets.isTargetApplicable(aci, targets, baseDN))
+          {
+              candidates.add(aci);  //Add this ACI to the candidates.
+          }
         }
       }
     }
@@ -131,6 +142,87 @@ public class AciList {
     return candidates;
   }
 
+  /**
+   * Returns the non global ACIs held by the provided entry and by all its
+   * parents, reading them from the cache if possible.
+   * <p>
+   * Must be called while holding the read lock: the cache is only cleared
+   * while holding the write lock, so the ACIs cached here are always up to
+   * date.
+   *
+   * @param dn The DN of the entry.
+   * @return The ACIs held by the entry and its parents.
+   */
+  private List<Aci> getInheritedAcis(DN dn) {
+    if (dn.isRootDN()) {
+      return Collections.emptyList();
+    }
+    List<Aci> inheritedAcis = inheritedAcisCache.get(dn);
+    if (inheritedAcis != null) {
+      cacheHits.incrementAndGet();
+      return inheritedAcis;
+    }
+    cacheMisses.incrementAndGet();
+
+    List<Aci> acis = aciList.get(dn);
+    List<Aci> parentAcis = getInheritedAcis(getParent(dn));
+    if (acis == null) {
+      inheritedAcis = parentAcis;
+    } else {
+      List<Aci> tmpAcis = new ArrayList<>(acis.size() + parentAcis.size());
+      tmpAcis.addAll(acis);
+      tmpAcis.addAll(parentAcis);
+      inheritedAcis = Collections.unmodifiableList(tmpAcis);
+    }
+    if (inheritedAcisCache.size() >= MAX_CACHED_DNS) {
+      inheritedAcisCache.clear();
+    }
+    inheritedAcisCache.put(dn, inheritedAcis);
+    return inheritedAcis;
+  }
+
+  private static DN getParent(DN dn) {
+    DN parentDN=dn.parent();
+    return parentDN != null ? parentDN : DN.rootDN();
+  }
+
+  /**
+   * Removes all the ACIs inherited from the cache. Must be called by each
+   * method modifying the ACI list, before releasing the write lock.
+   */
+  private void invalidateCache() {
+    inheritedAcisCache.clear();
+  }
+
+  /**
+   * Returns the number of times the ACIs inherited from the parents of an
+   * entry were read from the cache.
+   *
+   * @return The number of cache hits.
+   */
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  /**
+   * Returns the number of times the ACIs inherited from the parents of an
+   * entry had to be gathered from the ACI list.
+   *
+   * @return The number of cache misses.
+   */
+  public long getCacheMisses() {
+    return cacheMisses.get();
+  }
+
+  /**
+   * Returns the number of entries whose inherited ACIs are currently cached.
+   *
+   * @return The number of entries in the cache.
+   */
+  public int getCacheSize() {
+    return inheritedAcisCache.size();
+  }
+
   /**
    * Add all the ACI from a set of entries to the ACI list. There is no need
    * to check for global ACIs since they are processe by the AciHandler at
@@ -158,6 +250,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
 
@@ -181,6 +274,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
   }
@@ -221,6 +315,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
 
@@ -314,6 +409,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
   }
@@ -368,6 +464,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
 
@@ -397,6 +494,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
   }
@@ -452,6 +550,7 @@ public class AciList {
     }
     finally
     {
+      invalidateCache();
       lock.writeLock().unlock();
     }
   }
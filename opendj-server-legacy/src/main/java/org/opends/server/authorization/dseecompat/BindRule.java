@@ -464,7 +464,9 @@ public class BindRule {
      * Evaluate an bind rule against an evaluation context. If it is a simple
      * bind rule (no boolean type) then grab the keyword rule from the map
      * table and call the corresponding evaluate function. If it is a
-     * complex rule call the routine above "evalComplex()".
+     * complex rule call the routine above "evalComplex()". The result of
+     * simple bind rules which do not depend on the resource entry may be read
+     * from the cache of the operation.
      * @param evalCtx The evaluation context to pass to the keyword
      * evaluation function.
      * @return An result enumeration containing the result of the evaluation.
@@ -474,7 +476,8 @@ public class BindRule {
         //Simple bind rules have a null booleanType enumeration.
         if(this.booleanType == null) {
             KeywordBindRule rule=keywordRuleMap.get(keyword.toString());
-            ret = rule.evaluate(evalCtx);
+            BindRuleEvalCache cache=evalCtx.getBindRuleEvalCache();
+            ret = cache != null ? cache.evaluate(rule, evalCtx) : rule.evaluate(evalCtx);
         } else {
             ret = evalComplex(left.evaluate(evalCtx),right.evaluate(evalCtx));
         }
@@ -0,0 +1,174 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.authorization.dseecompat;
+
+import static org.opends.server.util.ServerConstants.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.util.Pair;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.types.Control;
+import org.opends.server.types.DN;
+import org.opends.server.types.Operation;
+
+/**
+ * Results of the keyword bind rules which do not depend on the resource
+ * entry, cached for the duration of a search operation.
+ * <p>
+ * The groupdn, ip, dns and ssf bind rules only depend on the client
+ * connection and on the authorization identity, so their result is the same
+ * for all the entries returned by a search. They are evaluated once per
+ * authorization DN, then read from this cache while filtering the following
+ * entries. The other bind rules are always evaluated, because they depend on
+ * the resource entry (userdn, userattr), on the current time (dayofweek,
+ * timeofday) or on the authentication information of the container (authmethod).
+ * <p>
+ * Persistent searches are not cached, because they can last long enough for
+ * group memberships to change.
+ */
+final class BindRuleEvalCache
+{
+  /** Name of the operation attachment holding the cache of a search operation. */
+  private static final String ATTACHMENT_NAME = "aciBindRuleEvalCache";
+
+  /**
+   * Marker attached to the search operations whose bind rules cannot be
+   * cached, so that their request controls are only checked once.
+   */
+  private static final BindRuleEvalCache NOT_CACHEABLE = new BindRuleEvalCache();
+
+  /** The number of bind rules evaluations, including those read from the cache. */
+  private static final AtomicLong evaluations = new AtomicLong();
+  /** The number of bind rules evaluations skipped by reading their result from the cache. */
+  private static final AtomicLong skippedEvaluations = new AtomicLong();
+
+  /** The cached results, keyed by bind rule and authorization DN. */
+  private final Map<Pair<KeywordBindRule, DN>, EnumEvalResult> results = new HashMap<>();
+
+  private BindRuleEvalCache()
+  {
+    // use getInstance()
+  }
+
+  /**
+   * Returns the cache attached to the provided operation, creating it if
+   * needed.
+   *
+   * @param operation
+   *          The operation being evaluated.
+   * @return The cache attached to the operation, or {@code null} if the bind
+   *         rules of this operation cannot be cached.
+   */
+  static BindRuleEvalCache getInstance(Operation operation)
+  {
+    if (!(operation instanceof SearchOperation))
+    {
+      return null;
+    }
+    BindRuleEvalCache cache = operation.getAttachment(ATTACHMENT_NAME);
+    if (cache == null)
+    {
+      cache = isPersistentSearch(operation) ? NOT_CACHEABLE : new BindRuleEvalCache();
+      operation.setAttachment(ATTACHMENT_NAME, cache);
+    }
+    return cache != NOT_CACHEABLE ? cache : null;
+  }
+
+  private static boolean isPersistentSearch(Operation operation)
+  {
+    for (Control control : operation.getRequestControls())
+    {
+      if (OID_PERSISTENT_SEARCH.equals(control.getOID()))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Evaluates the provided keyword bind rule, reading its result from this
+   * cache if it does not depend on the resource entry.
+   *
+   * @param rule
+   *          The keyword bind rule to evaluate.
+   * @param evalCtx
+   *          The evaluation context to use in the evaluation.
+   * @return The result of the evaluation.
+   */
+  EnumEvalResult evaluate(KeywordBindRule rule, AciEvalContext evalCtx)
+  {
+    evaluations.incrementAndGet();
+    if (!isCacheable(rule))
+    {
+      return rule.evaluate(evalCtx);
+    }
+
+    final Pair<KeywordBindRule, DN> key = Pair.of(rule, evalCtx.getClientDN());
+    EnumEvalResult result = results.get(key);
+    if (result != null)
+    {
+      skippedEvaluations.incrementAndGet();
+      return result;
+    }
+    result = rule.evaluate(evalCtx);
+    results.put(key, result);
+    return result;
+  }
+
+  private static boolean isCacheable(KeywordBindRule rule)
+  {
+    return rule instanceof GroupDN
+        || rule instanceof IP
+        || rule instanceof DNS
+        || rule instanceof SSF;
+  }
+
+  /**
+   * Returns the number of keyword bind rules evaluated in any operation,
+   * including those whose result was read from a cache.
+   *
+   * @return The number of keyword bind rules evaluations.
+   */
+  static long getEvaluations()
+  {
+    return evaluations.get();
+  }
+
+  /**
+   * Returns the number of keyword bind rules evaluations skipped because their
+   * result was read from a cache.
+   *
+   * @return The number of skipped keyword bind rules evaluations.
+   */
+  static long getSkippedEvaluations()
+  {
+    return skippedEvaluations.get();
+  }
+}
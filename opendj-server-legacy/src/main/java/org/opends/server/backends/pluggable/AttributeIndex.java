@@ -250,6 +250,8 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
 
   /** The mapping from names to indexes. */
   private Map<String, MatchingRuleIndex> indexIdToIndexes;
+  /** The index used to evaluate each type of filter, rebuilt with {@link #indexIdToIndexes}. */
+  private Map<IndexFilterType, MatchingRuleIndex> indexFilterTypeToIndex;
   private IndexingOptions indexingOptions;
   private final State state;
 
@@ -260,6 +262,7 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     this.state = state;
     this.indexingOptions = new IndexingOptionsImpl(config.getSubstringLength());
     this.indexIdToIndexes = Collections.unmodifiableMap(buildIndexes(entryContainer, state, config));
+    this.indexFilterTypeToIndex = buildIndexFilterTypeToIndex(config, indexingOptions, indexIdToIndexes);
   }
 
   private static Map<String, MatchingRuleIndex> buildIndexes(EntryContainer entryContainer, State state,
@@ -831,6 +834,7 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
       config = newConfiguration;
       indexingOptions = newIndexingOptions;
       indexIdToIndexes = Collections.unmodifiableMap(newIndexIdToIndexes);
+      indexFilterTypeToIndex = buildIndexFilterTypeToIndex(newConfiguration, newIndexingOptions, indexIdToIndexes);
 
       // We get exclusive lock to ensure that no query is actually using the indexes that will be deleted.
       entryContainer.lock();
@@ -933,6 +937,61 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     return indexIdToIndexes;
   }
 
+  /**
+   * Estimates the number of candidate entry IDs returned by a key lookup for a filter of the provided type, based on
+   * the key statistics of the index used to evaluate it.
+   *
+   * @param indexFilterType
+   *          The type of the filter.
+   * @return The estimated number of candidates, or {@link IndexStatistics#UNKNOWN} if no estimation is available.
+   */
+  long getEstimatedCandidateCount(IndexFilterType indexFilterType)
+  {
+    final MatchingRuleIndex index = indexFilterTypeToIndex.get(indexFilterType);
+    if (index == null)
+    {
+      return IndexStatistics.UNKNOWN;
+    }
+    return index.getStatistics().getEstimatedEntryIDsPerKey(index.getIndexEntryLimit());
+  }
+
+  private static Map<IndexFilterType, MatchingRuleIndex> buildIndexFilterTypeToIndex(BackendIndexCfg config,
+      IndexingOptions indexingOptions, Map<String, MatchingRuleIndex> indexes)
+  {
+    final Map<IndexFilterType, MatchingRuleIndex> results = new EnumMap<>(IndexFilterType.class);
+    for (IndexFilterType indexFilterType : IndexFilterType.values())
+    {
+      final MatchingRuleIndex index = getIndex(config, indexingOptions, indexes, indexFilterType);
+      if (index != null)
+      {
+        results.put(indexFilterType, index);
+      }
+    }
+    return results;
+  }
+
+  private static MatchingRuleIndex getIndex(BackendIndexCfg config, IndexingOptions indexingOptions,
+      Map<String, MatchingRuleIndex> indexes, IndexFilterType indexFilterType)
+  {
+    if (indexFilterType == IndexFilterType.PRESENCE)
+    {
+      return indexes.get(PRESENCE_INDEXER.getIndexID());
+    }
+    final MatchingRule rule = getMatchingRule(indexFilterType.indexType, config.getAttribute());
+    if (rule != null)
+    {
+      for (Indexer indexer : rule.createIndexers(indexingOptions))
+      {
+        final MatchingRuleIndex index = indexes.get(indexer.getIndexID());
+        if (index != null)
+        {
+          return index;
+        }
+      }
+    }
+    return null;
+  }
+
   /**
    * Retrieve the entry IDs that might match an extensible filter.
    *
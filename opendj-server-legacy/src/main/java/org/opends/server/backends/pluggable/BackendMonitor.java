@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2014-2015 ForgeRock AS
+ *      Portions Copyright 2014-2016 ForgeRock AS
  */
 package org.opends.server.backends.pluggable;
 
@@ -32,6 +32,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.opends.server.admin.std.server.MonitorProviderCfg;
@@ -91,6 +92,12 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
   private final HashMap<SearchFilter, FilterStats> filterToStats = new HashMap<>();
   private final AtomicInteger indexedSearchCount = new AtomicInteger();
   private final AtomicInteger unindexedSearchCount = new AtomicInteger();
+  /** Number of AND filter components not evaluated against indexes because of their estimated cost. */
+  private final AtomicLong skippedFilterComponentCount = new AtomicLong();
+  /** Number of OR filters whose components have been evaluated by several threads. */
+  private final AtomicLong parallelFilterCount = new AtomicLong();
+  /** Evaluation time saved by evaluating OR filter components in parallel, in nanoseconds. */
+  private final AtomicLong parallelFilterSavedNanos = new AtomicLong();
 
   /**
    * Creates a new backend monitor.
@@ -128,6 +135,11 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
       monitorAttrs.add(needReindex.toAttribute());
     }
 
+    monitorAttrs.add(createIndexStatistics("index-key-statistics"));
+    monitorAttrs.add(createAttribute("filter-planner-skipped-components", skippedFilterComponentCount));
+    monitorAttrs.add(createAttribute("filter-parallel-evaluations", parallelFilterCount));
+    monitorAttrs.add(createAttribute("filter-parallel-time-saved-ms", parallelFilterSavedNanos.get() / 1000000));
+
     if (filterUseEnabled)
     {
       monitorAttrs.add(createAttribute("filter-use-startTime", startTimeStamp));
@@ -155,6 +167,28 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
     return needReindex;
   }
 
+  private Attribute createIndexStatistics(String attrName)
+  {
+    AttributeBuilder builder = new AttributeBuilder(attrName);
+
+    StringBuilder value = new StringBuilder();
+    for (EntryContainer ec : rootContainer.getEntryContainers())
+    {
+      for (Tree tree : ec.listTrees())
+      {
+        if (tree instanceof DefaultIndex)
+        {
+          final DefaultIndex index = (DefaultIndex) tree;
+          value.append(index.getName());
+          index.getStatistics().toString(value, index.getIndexEntryLimit());
+          builder.add(value.toString());
+          value.setLength(0);
+        }
+      }
+    }
+    return builder.toAttribute();
+  }
+
   private Attribute createFilterUse(String attrName)
   {
     AttributeBuilder builder = new AttributeBuilder(attrName);
@@ -307,6 +341,28 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
     }
   }
 
+  /**
+   * Increments the statistics counter to include an AND filter component which has not been evaluated against the
+   * indexes because its estimated cost was higher than filtering the candidate entries.
+   */
+  void incrementSkippedFilterComponentCount()
+  {
+    skippedFilterComponentCount.getAndIncrement();
+  }
+
+  /**
+   * Updates the statistics of OR filters whose components have been evaluated by several threads.
+   *
+   * @param savedNanos
+   *          the time it would have taken to evaluate all the components in a single thread minus the time it took
+   *          to evaluate them in parallel, in nanoseconds. It is negative when the parallel evaluation was slower.
+   */
+  void updateParallelFilterStats(long savedNanos)
+  {
+    parallelFilterCount.getAndIncrement();
+    parallelFilterSavedNanos.getAndAdd(savedNanos);
+  }
+
   private void removeLowestHit()
   {
     while (!filterToStats.isEmpty() && filterToStats.size() > maxEntries)
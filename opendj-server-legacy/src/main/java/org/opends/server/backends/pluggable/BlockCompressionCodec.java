@@ -0,0 +1,283 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Fast LZ77 compression codec, using a block format similar to LZ4.
+ * <p>
+ * The compressed data is a list of sequences, each made of a token byte, literal bytes copied as is, and a match
+ * referring to bytes previously decompressed:
+ *
+ * <pre>
+ * token          1 byte: literal length (4 high bits), match length - 4 (4 low bits)
+ * literal length 0-n bytes: present if the literal length is 15, each byte is added to it until one is not 255
+ * literals       literal length bytes
+ * match offset   2 bytes, little endian: distance from the current position to the start of the match
+ * match length   0-n bytes: present if the match length - 4 is 15, same encoding as the literal length
+ * </pre>
+ *
+ * The last sequence only holds literals. When a dictionary is used, it is considered to be decompressed data
+ * immediately preceding the data, so that matches may refer to it: small entries sharing most of their attribute
+ * descriptions and values with the dictionary compress well, whereas they barely compress on their own.
+ */
+final class BlockCompressionCodec implements CompressionCodec
+{
+  /** Identifier of this codec. */
+  static final int ID = 2;
+
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 0xFFFF;
+  private static final int HASH_LOG = 12;
+  private static final int RUN_MASK = 0x0F;
+
+  /** Hash tables, from 4 bytes of data to their last position. */
+  private static final ThreadLocal<int[]> HASH_TABLES = new ThreadLocal<int[]>()
+  {
+    @Override
+    protected int[] initialValue()
+    {
+      return new int[1 << HASH_LOG];
+    }
+  };
+
+  @Override
+  public int getID()
+  {
+    return ID;
+  }
+
+  @Override
+  public void compress(ByteSequence data, CompressionDictionary dictionary, ByteStringBuilder output)
+  {
+    // Work on the dictionary followed by the data, so that matches can refer to the dictionary.
+    final byte[] dictionaryBytes = dictionary != null ? dictionary.getBytes() : new byte[0];
+    final int start = dictionaryBytes.length;
+    final int end = start + data.length();
+    final byte[] src = Arrays.copyOf(dictionaryBytes, end);
+    data.copyTo(src, start);
+
+    final int[] hashTable = HASH_TABLES.get();
+    if (dictionary != null)
+    {
+      final int[] dictionaryHashTable = dictionary.getBlockHashTable();
+      System.arraycopy(dictionaryHashTable, 0, hashTable, 0, dictionaryHashTable.length);
+    }
+    else
+    {
+      Arrays.fill(hashTable, -1);
+    }
+
+    int anchor = start;
+    int position = start;
+    while (position + MIN_MATCH <= end)
+    {
+      final int h = hash(src, position);
+      final int reference = hashTable[h];
+      hashTable[h] = position;
+      if (reference < 0 || position - reference > MAX_OFFSET || !matches(src, reference, position))
+      {
+        position++;
+        continue;
+      }
+
+      int matchLength = MIN_MATCH;
+      while (position + matchLength < end && src[reference + matchLength] == src[position + matchLength])
+      {
+        matchLength++;
+      }
+      writeSequence(output, src, anchor, position - anchor, position - reference, matchLength);
+      position += matchLength;
+      anchor = position;
+    }
+    writeSequence(output, src, anchor, end - anchor, 0, 0);
+  }
+
+  /**
+   * Returns a new hash table holding the positions of the provided dictionary, as if it had been compressed
+   * immediately before the data.
+   *
+   * @param dictionaryBytes
+   *          the content of a dictionary
+   * @return a new hash table holding the positions of the dictionary
+   */
+  static int[] newHashTable(byte[] dictionaryBytes)
+  {
+    final int[] hashTable = new int[1 << HASH_LOG];
+    Arrays.fill(hashTable, -1);
+    final int start = dictionaryBytes.length;
+    for (int i = Math.max(start - MAX_OFFSET, 0); i + MIN_MATCH <= start; i++)
+    {
+      hashTable[hash(dictionaryBytes, i)] = i;
+    }
+    return hashTable;
+  }
+
+  private static int hash(byte[] src, int position)
+  {
+    final int value = (src[position] & 0xFF)
+        | (src[position + 1] & 0xFF) << 8
+        | (src[position + 2] & 0xFF) << 16
+        | (src[position + 3] & 0xFF) << 24;
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static boolean matches(byte[] src, int reference, int position)
+  {
+    return src[reference] == src[position]
+        && src[reference + 1] == src[position + 1]
+        && src[reference + 2] == src[position + 2]
+        && src[reference + 3] == src[position + 3];
+  }
+
+  private static void writeSequence(ByteStringBuilder output, byte[] src, int literalStart, int literalLength,
+      int matchOffset, int matchLength)
+  {
+    final int matchRun = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+    output.appendByte(Math.min(literalLength, RUN_MASK) << 4 | Math.min(matchRun, RUN_MASK));
+    if (literalLength >= RUN_MASK)
+    {
+      writeLength(output, literalLength - RUN_MASK);
+    }
+    output.appendBytes(src, literalStart, literalLength);
+    if (matchLength > 0)
+    {
+      output.appendByte(matchOffset);
+      output.appendByte(matchOffset >>> 8);
+      if (matchRun >= RUN_MASK)
+      {
+        writeLength(output, matchRun - RUN_MASK);
+      }
+    }
+  }
+
+  private static void writeLength(ByteStringBuilder output, int length)
+  {
+    int remaining = length;
+    while (remaining >= 0xFF)
+    {
+      output.appendByte(0xFF);
+      remaining -= 0xFF;
+    }
+    output.appendByte(remaining);
+  }
+
+  @Override
+  public void decompress(ByteSequence compressedData, CompressionDictionary dictionary, int uncompressedSize,
+      ByteStringBuilder output) throws DataFormatException
+  {
+    final byte[] src = compressedData.toByteArray();
+    final byte[] dictionaryBytes = dictionary != null ? dictionary.getBytes() : new byte[0];
+    final int start = dictionaryBytes.length;
+    final int end = start + uncompressedSize;
+    final byte[] dst = Arrays.copyOf(dictionaryBytes, end);
+
+    int srcPosition = 0;
+    int dstPosition = start;
+    while (true)
+    {
+      if (srcPosition >= src.length)
+      {
+        throw new DataFormatException("Truncated compressed data");
+      }
+      final int token = src[srcPosition++] & 0xFF;
+
+      int literalLength = token >>> 4;
+      if (literalLength == RUN_MASK)
+      {
+        int b;
+        do
+        {
+          checkAvailable(src, srcPosition, 1);
+          b = src[srcPosition++] & 0xFF;
+          literalLength += b;
+        }
+        while (b == 0xFF);
+      }
+      checkAvailable(src, srcPosition, literalLength);
+      if (dstPosition + literalLength > end)
+      {
+        throw new DataFormatException("Decompressed data is larger than expected");
+      }
+      System.arraycopy(src, srcPosition, dst, dstPosition, literalLength);
+      srcPosition += literalLength;
+      dstPosition += literalLength;
+
+      if (srcPosition == src.length)
+      {
+        // Last sequence.
+        break;
+      }
+
+      checkAvailable(src, srcPosition, 2);
+      final int matchOffset = (src[srcPosition] & 0xFF) | (src[srcPosition + 1] & 0xFF) << 8;
+      srcPosition += 2;
+      int matchLength = token & RUN_MASK;
+      if (matchLength == RUN_MASK)
+      {
+        int b;
+        do
+        {
+          checkAvailable(src, srcPosition, 1);
+          b = src[srcPosition++] & 0xFF;
+          matchLength += b;
+        }
+        while (b == 0xFF);
+      }
+      matchLength += MIN_MATCH;
+
+      int reference = dstPosition - matchOffset;
+      if (matchOffset == 0 || reference < 0 || dstPosition + matchLength > end)
+      {
+        throw new DataFormatException("Invalid match in compressed data");
+      }
+      // Matches may overlap the bytes they produce: copy byte by byte.
+      for (int i = 0; i < matchLength; i++)
+      {
+        dst[dstPosition++] = dst[reference++];
+      }
+    }
+
+    if (dstPosition != end)
+    {
+      throw new DataFormatException("Expected " + uncompressedSize + " bytes but got " + (dstPosition - start));
+    }
+    output.appendBytes(dst, start, uncompressedSize);
+  }
+
+  private static void checkAvailable(byte[] src, int position, int length) throws DataFormatException
+  {
+    if (position + length > src.length)
+    {
+      throw new DataFormatException("Truncated compressed data");
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.zip.DataFormatException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compression algorithm used for storing entries in the id2entry tree.
+ * <p>
+ * The ID of a codec is stored in every record it compressed: it must never change once records have been written.
+ * Codecs must be thread safe.
+ */
+interface CompressionCodec
+{
+  /**
+   * Returns the identifier of this codec, as stored in the compressed records.
+   *
+   * @return the identifier of this codec
+   */
+  int getID();
+
+  /**
+   * Compresses the provided data.
+   *
+   * @param data
+   *          the data to compress
+   * @param dictionary
+   *          the dictionary to use, or {@code null} if none
+   * @param output
+   *          the buffer where to append the compressed data
+   */
+  void compress(ByteSequence data, CompressionDictionary dictionary, ByteStringBuilder output);
+
+  /**
+   * Decompresses the provided data.
+   *
+   * @param compressedData
+   *          the compressed data
+   * @param dictionary
+   *          the dictionary used for compressing the data, or {@code null} if none
+   * @param uncompressedSize
+   *          the size of the data before compression
+   * @param output
+   *          the buffer where to append the decompressed data
+   * @throws DataFormatException
+   *           if the compressed data is corrupted
+   */
+  void decompress(ByteSequence compressedData, CompressionDictionary dictionary, int uncompressedSize,
+      ByteStringBuilder output) throws DataFormatException;
+}
@@ -0,0 +1,272 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.DirectoryException;
+
+/**
+ * The compression dictionaries of a backend, persisted in a tree.
+ * <p>
+ * Dictionaries are never removed since records compressed with them may still exist. Until a dictionary exists, the
+ * entries written to the backend are sampled, and a dictionary is trained once enough entries have been sampled. The
+ * dictionary is trained and stored by a background thread, outside of the transaction writing the last sampled
+ * entry. The dictionary with the highest identifier is used for compressing new records.
+ */
+final class CompressionDictionaries
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Identifier stored in records compressed without dictionary. */
+  static final int NO_DICTIONARY = 0;
+
+  /** The tree holding the dictionaries, keyed by their identifier. */
+  private static final TreeName TREE_NAME = new TreeName("compression_dictionaries", "dictionaries");
+
+  /** Maximum size of a dictionary. */
+  private static final int DICTIONARY_SIZE = 16 * 1024;
+  /** Number of entries to sample before training a dictionary. */
+  private static final int SAMPLE_ENTRIES = 500;
+  /** Maximum total size of the sampled entries. */
+  private static final int SAMPLE_MAX_BYTES = 4 * 1024 * 1024;
+
+  private final String backendID;
+  private final Storage storage;
+  private final Map<Integer, CompressionDictionary> dictionaries = new ConcurrentHashMap<>();
+  /** The dictionary used for compressing new records, {@code null} until one has been trained. */
+  private volatile CompressionDictionary current;
+
+  /** The following fields are guarded by the samples lock. */
+  private final Object samplesLock = new Object();
+  private List<byte[]> samples = new ArrayList<>();
+  private int samplesSize;
+  /** The thread training and storing the first dictionary, {@code null} until enough entries have been sampled. */
+  private Thread trainer;
+
+  /**
+   * Loads the compression dictionaries of a backend.
+   *
+   * @param backendID
+   *          the identifier of the backend
+   * @param storage
+   *          the storage in which the dictionaries are held
+   * @param txn
+   *          a non null transaction
+   * @param accessMode
+   *          specifies how the storage has been opened (read only or read/write)
+   * @throws StorageRuntimeException
+   *           if a problem occurs while loading the dictionaries
+   */
+  CompressionDictionaries(String backendID, Storage storage, WriteableTransaction txn, AccessMode accessMode)
+      throws StorageRuntimeException
+  {
+    this.backendID = backendID;
+    this.storage = storage;
+
+    txn.openTree(TREE_NAME, accessMode.isWriteable());
+    try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(TREE_NAME))
+    {
+      while (cursor.next())
+      {
+        final CompressionDictionary dictionary =
+            new CompressionDictionary(cursor.getKey().toInt(), cursor.getValue().toByteArray());
+        dictionaries.put(dictionary.getID(), dictionary);
+        if (current == null || dictionary.getID() > current.getID())
+        {
+          current = dictionary;
+        }
+      }
+    }
+    if (current != null || !accessMode.isWriteable())
+    {
+      samples = null;
+    }
+  }
+
+  /**
+   * Returns the dictionary to use for compressing new records.
+   *
+   * @return the dictionary to use for compressing new records, or {@code null} if none has been trained yet
+   */
+  CompressionDictionary getCurrent()
+  {
+    return current;
+  }
+
+  /**
+   * Returns the dictionary with the provided identifier.
+   *
+   * @param id
+   *          the identifier of the dictionary
+   * @return the dictionary with the provided identifier, or {@code null} for {@link #NO_DICTIONARY}
+   * @throws DecodeException
+   *           if there is no such dictionary
+   */
+  CompressionDictionary get(int id) throws DecodeException
+  {
+    if (id == NO_DICTIONARY)
+    {
+      return null;
+    }
+    final CompressionDictionary dictionary = dictionaries.get(id);
+    if (dictionary == null)
+    {
+      throw DecodeException.error(ERR_COMPRESSION_UNKNOWN_DICTIONARY.get(id));
+    }
+    return dictionary;
+  }
+
+  /**
+   * Adds an encoded entry to the sample used for training the first dictionary. Once enough entries have been
+   * sampled, the dictionary is trained and stored in the background.
+   *
+   * @param encodedEntry
+   *          the encoded entry, before compression
+   */
+  void sample(ByteSequence encodedEntry)
+  {
+    if (current != null)
+    {
+      return;
+    }
+    synchronized (samplesLock)
+    {
+      if (samples == null)
+      {
+        return;
+      }
+      samples.add(encodedEntry.toByteArray());
+      samplesSize += encodedEntry.length();
+      if (samples.size() < SAMPLE_ENTRIES && samplesSize < SAMPLE_MAX_BYTES)
+      {
+        return;
+      }
+      final List<byte[]> trainingSamples = samples;
+      samples = null;
+      trainer = new DirectoryThread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          trainAndStore(trainingSamples);
+        }
+      }, "Compression Dictionary Trainer " + backendID);
+      trainer.start();
+    }
+  }
+
+  /**
+   * Stops sampling the entries, and waits for the first dictionary to be stored if it is being trained. This must be
+   * called before closing the storage.
+   */
+  void close()
+  {
+    final Thread trainerToJoin;
+    synchronized (samplesLock)
+    {
+      samples = null;
+      trainerToJoin = trainer;
+    }
+    if (trainerToJoin != null)
+    {
+      try
+      {
+        trainerToJoin.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void trainAndStore(List<byte[]> trainingSamples)
+  {
+    final byte[] bytes = CompressionDictionary.train(trainingSamples, DICTIONARY_SIZE);
+    if (bytes.length == 0)
+    {
+      return;
+    }
+    final CompressionDictionary dictionary = new CompressionDictionary(NO_DICTIONARY + 1, bytes);
+    try
+    {
+      store(dictionary);
+    }
+    catch (DirectoryException e)
+    {
+      // Keep on compressing without dictionary.
+      logger.traceException(e);
+      logger.error(e.getMessageObject());
+      return;
+    }
+    // Only use the dictionary once it is safely stored.
+    dictionaries.put(dictionary.getID(), dictionary);
+    current = dictionary;
+    logger.info(NOTE_COMPRESSION_DICTIONARY_TRAINED, bytes.length, trainingSamples.size(), backendID);
+  }
+
+  private void store(CompressionDictionary dictionary) throws DirectoryException
+  {
+    final ByteString key = new ByteStringBuilder(4).appendInt(dictionary.getID()).toByteString();
+    final ByteString value = ByteString.wrap(dictionary.getBytes());
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(TREE_NAME, key, value);
+        }
+      });
+    }
+    catch (final Exception e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_COMPRESSION_CANNOT_STORE_DICTIONARY.get(e.getMessage()), e);
+    }
+  }
+}
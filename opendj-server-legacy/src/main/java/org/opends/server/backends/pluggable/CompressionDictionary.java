@@ -0,0 +1,226 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * A dictionary shared by the compressed entries of a backend.
+ * <p>
+ * A dictionary is the concatenation of byte segments found in many entries, such as attribute descriptions and
+ * common values. It is used as if it had been compressed immediately before each entry, so that the entries can refer
+ * to it.
+ */
+final class CompressionDictionary
+{
+  /** Length of the byte sequences counted in the samples. */
+  private static final int GRAM_LENGTH = 8;
+  /** Length of the segments copied from the samples to the dictionary. */
+  private static final int SEGMENT_LENGTH = 64;
+  /** Gap between the start of two candidate segments. */
+  private static final int SEGMENT_STEP = SEGMENT_LENGTH / 2;
+  private static final int HASH_LOG = 18;
+
+  private final int id;
+  private final byte[] bytes;
+  /** The positions of the dictionary bytes used by the block compression codec, computed on first use. */
+  private volatile int[] blockHashTable;
+
+  /**
+   * Creates a dictionary.
+   *
+   * @param id
+   *          the identifier of the dictionary, stored in the records it was used for
+   * @param bytes
+   *          the content of the dictionary
+   */
+  CompressionDictionary(int id, byte[] bytes)
+  {
+    this.id = id;
+    this.bytes = bytes;
+  }
+
+  int getID()
+  {
+    return id;
+  }
+
+  byte[] getBytes()
+  {
+    return bytes;
+  }
+
+  /**
+   * Returns the hash table of the content of this dictionary, as used by the {@link BlockCompressionCodec} before it
+   * processes the data to compress. The hash table is computed once, and must not be modified.
+   *
+   * @return the hash table of the content of this dictionary
+   */
+  int[] getBlockHashTable()
+  {
+    int[] hashTable = blockHashTable;
+    if (hashTable == null)
+    {
+      // Computing it concurrently is harmless.
+      hashTable = BlockCompressionCodec.newHashTable(bytes);
+      blockHashTable = hashTable;
+    }
+    return hashTable;
+  }
+
+  /** A candidate segment of a sample, with its score when it was last computed. */
+  private static final class Segment implements Comparable<Segment>
+  {
+    private final byte[] sample;
+    private final int offset;
+    private final int length;
+    private long score;
+
+    private Segment(byte[] sample, int offset, int length)
+    {
+      this.sample = sample;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int compareTo(Segment other)
+    {
+      return Long.compare(other.score, score);
+    }
+  }
+
+  /**
+   * Builds the content of a dictionary from a sample of encoded entries.
+   * <p>
+   * Byte sequences are counted once per sample they appear in. Segments of the samples containing the sequences found
+   * in the most samples are then greedily selected, the sequences of a selected segment no longer counting for the
+   * other segments. The best segments are put at the end of the dictionary, closest to the compressed data.
+   *
+   * @param samples
+   *          the encoded entries
+   * @param maxSize
+   *          the maximum size of the dictionary
+   * @return the content of the dictionary, which may be empty if the samples have nothing in common
+   */
+  static byte[] train(List<byte[]> samples, int maxSize)
+  {
+    final int[] counts = new int[1 << HASH_LOG];
+    final int[] lastSample = new int[1 << HASH_LOG];
+    for (int s = 0; s < samples.size(); s++)
+    {
+      final byte[] sample = samples.get(s);
+      for (int i = 0; i + GRAM_LENGTH <= sample.length; i++)
+      {
+        final int h = hash(sample, i);
+        if (lastSample[h] != s + 1)
+        {
+          lastSample[h] = s + 1;
+          counts[h]++;
+        }
+      }
+    }
+
+    final PriorityQueue<Segment> candidates = new PriorityQueue<>();
+    for (byte[] sample : samples)
+    {
+      for (int offset = 0; offset + GRAM_LENGTH <= sample.length; offset += SEGMENT_STEP)
+      {
+        final Segment segment = new Segment(sample, offset, Math.min(SEGMENT_LENGTH, sample.length - offset));
+        segment.score = score(segment, counts);
+        if (segment.score > 0)
+        {
+          candidates.add(segment);
+        }
+      }
+    }
+
+    // Scores only decrease as segments are selected: a segment whose updated
+    // score is still the best one can be selected without rescoring the others.
+    final List<Segment> selected = new ArrayList<>();
+    int size = 0;
+    Segment segment;
+    while (size < maxSize && (segment = candidates.poll()) != null)
+    {
+      final long score = score(segment, counts);
+      if (score <= 0)
+      {
+        continue;
+      }
+      final Segment next = candidates.peek();
+      if (next != null && score < next.score)
+      {
+        segment.score = score;
+        candidates.add(segment);
+        continue;
+      }
+      selected.add(segment);
+      size += segment.length;
+      for (int i = segment.offset; i + GRAM_LENGTH <= segment.offset + segment.length; i++)
+      {
+        counts[hash(segment.sample, i)] = 0;
+      }
+    }
+
+    final ByteStringBuilder dictionary = new ByteStringBuilder(Math.min(size, maxSize));
+    for (int i = selected.size() - 1; i >= 0; i--)
+    {
+      final Segment s = selected.get(i);
+      dictionary.appendBytes(s.sample, s.offset, s.length);
+    }
+    // Keep the best segments if the last selected segment made the dictionary too large.
+    final byte[] bytes = dictionary.toByteArray();
+    final int length = Math.min(bytes.length, maxSize);
+    final byte[] result = new byte[length];
+    System.arraycopy(bytes, bytes.length - length, result, 0, length);
+    return result;
+  }
+
+  /** Sequences found in a single sample do not help compressing other entries. */
+  private static long score(Segment segment, int[] counts)
+  {
+    long score = 0;
+    for (int i = segment.offset; i + GRAM_LENGTH <= segment.offset + segment.length; i++)
+    {
+      score += Math.max(counts[hash(segment.sample, i)] - 1, 0);
+    }
+    return score;
+  }
+
+  private static int hash(byte[] bytes, int offset)
+  {
+    long value = 0;
+    for (int i = 0; i < GRAM_LENGTH; i++)
+    {
+      value = value << 8 | (bytes[offset + i] & 0xFF);
+    }
+    return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - HASH_LOG));
+  }
+}
@@ -42,6 +42,12 @@ final class DataConfig
   /** The configuration to use when encoding entries in the tree. */
   private final EntryEncodeConfig encodeConfig;
 
+  /** The codec used for compressing entries. */
+  private final CompressionCodec compressionCodec;
+
+  /** The compression dictionaries of the backend, may be {@code null}. */
+  private final CompressionDictionaries compressionDictionaries;
+
   /**
    * Construct a new DataConfig object with the specified settings.
    *
@@ -53,7 +59,28 @@ final class DataConfig
    */
   DataConfig(boolean compressed, boolean compactEncoding, CompressedSchema compressedSchema)
   {
+    this(compressed, compactEncoding, compressedSchema, ID2Entry.DEFLATE_CODEC, null);
+  }
+
+  /**
+   * Construct a new DataConfig object with the specified settings.
+   *
+   * @param compressed true if data should be compressed, false if not.
+   * @param compactEncoding true if data should be encoded in compact form,
+   * false if not.
+   * @param compressedSchema the compressed schema manager to use.  It must not
+   * be {@code null} if compactEncoding is {@code true}.
+   * @param compressionCodec the codec used for compressing data.
+   * @param compressionDictionaries the compression dictionaries of the backend.
+   * It must not be {@code null} if the codec is not the deflate codec.
+   */
+  DataConfig(boolean compressed, boolean compactEncoding, CompressedSchema compressedSchema,
+      CompressionCodec compressionCodec, CompressionDictionaries compressionDictionaries)
+  {
+    Reject.ifTrue(compressionCodec != ID2Entry.DEFLATE_CODEC && compressionDictionaries == null);
     this.compressed = compressed;
+    this.compressionCodec = compressionCodec;
+    this.compressionDictionaries = compressionDictionaries;
 
     if (compressedSchema == null)
     {
@@ -76,6 +103,25 @@ final class DataConfig
     return compressed;
   }
 
+  /**
+   * Get the codec used for compressing data.
+   * @return the codec used for compressing data.
+   */
+  CompressionCodec getCompressionCodec()
+  {
+    return compressionCodec;
+  }
+
+  /**
+   * Get the compression dictionaries of the backend.
+   * @return the compression dictionaries of the backend, or {@code null} if
+   * the data is compressed without dictionaries.
+   */
+  CompressionDictionaries getCompressionDictionaries()
+  {
+    return compressionDictionaries;
+  }
+
   /**
    * Get the EntryEncodeConfig object in use by this configuration.
    * @return the EntryEncodeConfig object in use by this configuration.
@@ -95,6 +141,8 @@ final class DataConfig
     final StringBuilder builder = new StringBuilder();
     builder.append("DataConfig(compressed=");
     builder.append(compressed);
+    builder.append(", codec=");
+    builder.append(compressionCodec.getID());
     builder.append(", ");
     encodeConfig.toString(builder);
     builder.append(")");
@@ -61,6 +61,8 @@ class DefaultIndex extends AbstractTree implements Index
   private final EntryContainer entryContainer;
   private int indexEntryLimit;
   private EntryIDSetCodec codec;
+  /** Key cardinality statistics, used to estimate the cost of evaluating filters against this index. */
+  private final IndexStatistics statistics = new IndexStatistics();
 
   /**
    * A flag to indicate if this index should be trusted to be consistent with the entries tree.
@@ -101,7 +103,7 @@ class DefaultIndex extends AbstractTree implements Index
   final void afterOpen(WriteableTransaction txn, boolean createOnDemand)
   {
     final EnumSet<IndexFlag> flags = state.getIndexFlags(txn, getName());
-    codec = flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+    codec = flags.contains(BITMAP) ? CODEC_V3 : flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
     trusted = flags.contains(TRUSTED);
     if (!trusted && entryContainer.getHighestEntryID(txn).longValue() == 0)
     {
@@ -148,7 +150,8 @@ class DefaultIndex extends AbstractTree implements Index
     return codec.decode(key, value);
   }
 
-  ByteString toValue(EntryIDSet entryIDSet)
+  @Override
+  public final ByteString toValue(EntryIDSet entryIDSet)
   {
     return codec.encode(entryIDSet);
   }
@@ -173,20 +176,32 @@ class DefaultIndex extends AbstractTree implements Index
     }
 
     // The record is going to be changed in some way.
-    txn.update(getName(), key, new UpdateFunction()
+    // The update function may be invoked several times: only the last invocation is accounted in statistics.
+    final long[] oldSize = new long[1];
+    final EntryIDSet[] newValue = new EntryIDSet[1];
+    final boolean updated = txn.update(getName(), key, new UpdateFunction()
     {
       @Override
       public ByteSequence computeNewValue(final ByteSequence oldValue)
       {
+        oldSize[0] = IndexStatistics.NO_KEY;
+        newValue[0] = null;
         if (oldValue != null)
         {
-          EntryIDSet entryIDSet = computeEntryIDSet(key, oldValue.toByteString(), deletedIDs, addedIDs);
+          final EntryIDSet oldEntryIDSet = decodeValue(key, oldValue.toByteString());
+          oldSize[0] = oldEntryIDSet.size();
+          EntryIDSet entryIDSet = computeEntryIDSet(key, oldEntryIDSet, deletedIDs, addedIDs);
           /*
            * If there are no more IDs then return null indicating that the record should be removed.
            * If index is not trusted then this will cause all subsequent reads for this key to
            * return undefined set.
            */
-          return entryIDSet.size() == 0 ? null : toValue(entryIDSet);
+          if (entryIDSet.size() == 0)
+          {
+            return null;
+          }
+          newValue[0] = entryIDSet;
+          return toValue(entryIDSet);
         }
         else if (trusted)
         {
@@ -196,12 +211,17 @@ class DefaultIndex extends AbstractTree implements Index
           }
           if (isNotEmpty(addedIDs))
           {
+            newValue[0] = addedIDs;
             return toValue(addedIDs);
           }
         }
         return null; // no change.
       }
     });
+    if (updated)
+    {
+      statistics.keyUpdated(oldSize[0], newValue[0]);
+    }
   }
 
   private static boolean isNullOrEmpty(EntryIDSet entryIDSet)
@@ -214,9 +234,9 @@ class DefaultIndex extends AbstractTree implements Index
     return entryIDSet != null && entryIDSet.size() > 0;
   }
 
-  private EntryIDSet computeEntryIDSet(ByteString key, ByteString value, EntryIDSet deletedIDs, EntryIDSet addedIDs)
+  private EntryIDSet computeEntryIDSet(ByteString key, EntryIDSet entryIDSet, EntryIDSet deletedIDs,
+      EntryIDSet addedIDs)
   {
-    EntryIDSet entryIDSet = decodeValue(key, value);
     if (addedIDs != null)
     {
       if (entryIDSet.isDefined() && indexEntryLimit > 0)
@@ -262,9 +282,17 @@ class DefaultIndex extends AbstractTree implements Index
       ByteString value = txn.read(getName(), key);
       if (value != null)
       {
-        return decodeValue(key, value);
+        final EntryIDSet entryIDSet = decodeValue(key, value);
+        statistics.keyRead(entryIDSet);
+        return entryIDSet;
+      }
+      if (trusted)
+      {
+        final EntryIDSet entryIDSet = newDefinedSet();
+        statistics.keyRead(entryIDSet);
+        return entryIDSet;
       }
-      return trusted ? newDefinedSet() : newUndefinedSet();
+      return newUndefinedSet();
     }
     catch (StorageRuntimeException e)
     {
@@ -306,4 +334,14 @@ class DefaultIndex extends AbstractTree implements Index
   {
     return trusted;
   }
+
+  /**
+   * Returns the key cardinality statistics of this index.
+   *
+   * @return the key cardinality statistics of this index
+   */
+  final IndexStatistics getStatistics()
+  {
+    return statistics;
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compresses data with the deflate algorithm, using the zlib format written by
+ * {@link java.util.zip.DeflaterOutputStream}.
+ */
+final class DeflateCompressionCodec implements CompressionCodec
+{
+  /** Identifier of this codec. */
+  static final int ID = 1;
+
+  private static final int BUFFER_SIZE = 512;
+
+  @Override
+  public int getID()
+  {
+    return ID;
+  }
+
+  @Override
+  public void compress(ByteSequence data, CompressionDictionary dictionary, ByteStringBuilder output)
+  {
+    final Deflater deflater = new Deflater();
+    try
+    {
+      if (dictionary != null)
+      {
+        deflater.setDictionary(dictionary.getBytes());
+      }
+      deflater.setInput(data.toByteArray());
+      deflater.finish();
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      while (!deflater.finished())
+      {
+        output.appendBytes(buffer, 0, deflater.deflate(buffer));
+      }
+    }
+    finally
+    {
+      deflater.end();
+    }
+  }
+
+  @Override
+  public void decompress(ByteSequence compressedData, CompressionDictionary dictionary, int uncompressedSize,
+      ByteStringBuilder output) throws DataFormatException
+  {
+    final Inflater inflater = new Inflater();
+    try
+    {
+      inflater.setInput(compressedData.toByteArray());
+      final byte[] buffer = new byte[uncompressedSize];
+      int length = 0;
+      while (length < uncompressedSize && !inflater.finished())
+      {
+        final int inflated = inflater.inflate(buffer, length, uncompressedSize - length);
+        if (inflated == 0)
+        {
+          if (inflater.needsDictionary() && dictionary != null)
+          {
+            inflater.setDictionary(dictionary.getBytes());
+          }
+          else if (inflater.needsInput() || inflater.needsDictionary())
+          {
+            throw new DataFormatException("Truncated compressed data");
+          }
+        }
+        length += inflated;
+      }
+      if (length != uncompressedSize)
+      {
+        throw new DataFormatException("Expected " + uncompressedSize + " bytes but got " + length);
+      }
+      output.appendBytes(buffer, 0, length);
+    }
+    finally
+    {
+      inflater.end();
+    }
+  }
+}
@@ -36,6 +36,8 @@ public class DnKeyFormat
 {
   /** The format version used by this class to encode and decode a ByteString. */
   static final byte FORMAT_VERSION = 0x01;
+  /** The format version of the entries compressed with a {@link CompressionCodec} or a dictionary. */
+  static final byte FORMAT_VERSION_COMPRESSION_CODEC = 0x02;
 
   /**
    * Find the length of bytes that represents the superior DN of the given DN
@@ -65,6 +65,7 @@ import org.opends.messages.CoreMessages;
 import org.opends.server.admin.server.ConfigurationAddListener;
 import org.opends.server.admin.server.ConfigurationChangeListener;
 import org.opends.server.admin.server.ConfigurationDeleteListener;
+import org.opends.server.admin.std.meta.PluggableBackendCfgDefn.EntriesCompressionCodec;
 import org.opends.server.admin.std.server.BackendIndexCfg;
 import org.opends.server.admin.std.server.BackendVLVIndexCfg;
 import org.opends.server.admin.std.server.PluggableBackendCfg;
@@ -448,8 +449,7 @@ public class EntryContainer
     boolean shouldCreate = accessMode.isWriteable();
     try
     {
-      DataConfig entryDataConfig = new DataConfig(
-          config.isEntriesCompressed(), config.isCompactEncoding(), rootContainer.getCompressedSchema());
+      DataConfig entryDataConfig = newDataConfig(config);
 
       id2entry = new ID2Entry(getIndexName(ID2ENTRY_TREE_NAME), entryDataConfig);
       id2entry.open(txn, shouldCreate);
@@ -2506,8 +2506,7 @@ public class EntryContainer
         @Override
         public void run(WriteableTransaction txn) throws Exception
         {
-          DataConfig entryDataConfig = new DataConfig(cfg.isEntriesCompressed(),
-              cfg.isCompactEncoding(), rootContainer.getCompressedSchema());
+          DataConfig entryDataConfig = newDataConfig(cfg);
           id2entry.setDataConfig(entryDataConfig);
 
           EntryContainer.this.config = cfg;
@@ -2527,6 +2526,15 @@ public class EntryContainer
     return ccr;
   }
 
+  private DataConfig newDataConfig(PluggableBackendCfg cfg)
+  {
+    final CompressionCodec codec = cfg.getEntriesCompressionCodec() == EntriesCompressionCodec.BLOCK
+        ? ID2Entry.BLOCK_CODEC
+        : ID2Entry.DEFLATE_CODEC;
+    return new DataConfig(cfg.isEntriesCompressed(), cfg.isCompactEncoding(), rootContainer.getCompressedSchema(),
+        codec, rootContainer.getCompressionDictionaries());
+  }
+
   /**
    * Clear the contents of this entry container.
    *
@@ -0,0 +1,990 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Reject.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compressed bitmap of entry IDs.
+ * <p>
+ * Entry IDs are partitioned by their high-order bits into chunks of 65536 consecutive IDs. Each non-empty chunk is held
+ * by a container which is either a sorted array of the low-order 16 bits (for sparse chunks) or a 1024 words bitmap
+ * (for dense chunks). Intersections, unions and differences between two bitmaps are performed container by container,
+ * dense containers being combined a word at a time. This layout is the one described by "roaring" bitmaps.
+ * <p>
+ * This class is not thread safe.
+ */
+final class EntryIDBitmap
+{
+  /** Number of low-order bits of an entry ID stored inside a container. */
+  private static final int CONTAINER_BITS = 16;
+  private static final int CONTAINER_MASK = (1 << CONTAINER_BITS) - 1;
+  private static final int BITMAP_WORDS = (1 << CONTAINER_BITS) / Long.SIZE;
+  /** Above this cardinality, a bitmap container is smaller than an array container. */
+  static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+  private static final byte ARRAY_CONTAINER = 0;
+  private static final byte BITMAP_CONTAINER = 1;
+
+  private static final long[] NO_KEYS = new long[0];
+  private static final Container[] NO_CONTAINERS = new Container[0];
+
+  /** High-order bits of the entry IDs held by each container, in ascending order. */
+  private long[] keys;
+  private Container[] containers;
+  private int nbContainers;
+  private long cardinality;
+
+  /** Creates a new empty bitmap. */
+  EntryIDBitmap()
+  {
+    this(NO_KEYS, NO_CONTAINERS, 0, 0);
+  }
+
+  private EntryIDBitmap(long[] keys, Container[] containers, int nbContainers, long cardinality)
+  {
+    this.keys = keys;
+    this.containers = containers;
+    this.nbContainers = nbContainers;
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * Creates a new bitmap containing the provided entry IDs.
+   *
+   * @param sortedIDs
+   *          the entry IDs, sorted in ascending order and without duplicates
+   * @return a new bitmap containing the provided entry IDs
+   */
+  static EntryIDBitmap valueOf(long... sortedIDs)
+  {
+    checkNotNull(sortedIDs, "sortedIDs must not be null");
+    final EntryIDBitmap bitmap = new EntryIDBitmap();
+    int start = 0;
+    while (start < sortedIDs.length)
+    {
+      final long key = highBits(sortedIDs[start]);
+      int end = start + 1;
+      while (end < sortedIDs.length && highBits(sortedIDs[end]) == key)
+      {
+        end++;
+      }
+      final int count = end - start;
+      final Container container;
+      if (count <= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        final char[] values = new char[count];
+        for (int i = 0; i < count; i++)
+        {
+          values[i] = lowBits(sortedIDs[start + i]);
+        }
+        container = new ArrayContainer(values, count);
+      }
+      else
+      {
+        final long[] words = new long[BITMAP_WORDS];
+        for (int i = start; i < end; i++)
+        {
+          final char low = lowBits(sortedIDs[i]);
+          words[low >>> 6] |= 1L << low;
+        }
+        container = new BitmapContainer(words, count);
+      }
+      bitmap.append(key, container);
+      start = end;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Decodes a bitmap previously written by {@link #encode(ByteStringBuilder)}.
+   *
+   * @param reader
+   *          the reader positioned at the beginning of the encoded bitmap
+   * @return the decoded bitmap
+   */
+  static EntryIDBitmap decode(ByteSequenceReader reader)
+  {
+    checkNotNull(reader, "reader must not be null");
+    final int nb = reader.readCompactUnsignedInt();
+    final EntryIDBitmap bitmap = new EntryIDBitmap(new long[nb], new Container[nb], 0, 0);
+    long key = 0;
+    for (int i = 0; i < nb; i++)
+    {
+      key += reader.readCompactUnsignedLong();
+      final byte type = reader.readByte();
+      switch (type)
+      {
+      case ARRAY_CONTAINER:
+        bitmap.append(key, ArrayContainer.decode(reader));
+        break;
+      case BITMAP_CONTAINER:
+        bitmap.append(key, BitmapContainer.decode(reader));
+        break;
+      default:
+        throw new IllegalStateException("Unknown bitmap container type " + type);
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * Appends the encoded form of this bitmap to the provided builder.
+   *
+   * @param builder
+   *          the builder where to write the encoded bitmap
+   * @return the provided builder
+   */
+  ByteStringBuilder encode(ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(nbContainers);
+    long previousKey = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      builder.appendCompactUnsigned(keys[i] - previousKey);
+      previousKey = keys[i];
+      containers[i].encode(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * Returns the number of entry IDs contained in this bitmap.
+   *
+   * @return the number of entry IDs contained in this bitmap
+   */
+  long cardinality()
+  {
+    return cardinality;
+  }
+
+  /**
+   * Returns the smallest entry ID contained in this bitmap.
+   *
+   * @return the smallest entry ID contained in this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long first()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return keys[0] << CONTAINER_BITS | containers[0].first();
+  }
+
+  /**
+   * Returns the greatest entry ID contained in this bitmap.
+   *
+   * @return the greatest entry ID contained in this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long last()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return keys[nbContainers - 1] << CONTAINER_BITS | containers[nbContainers - 1].last();
+  }
+
+  boolean contains(long id)
+  {
+    final int pos = Arrays.binarySearch(keys, 0, nbContainers, highBits(id));
+    return pos >= 0 && containers[pos].contains(lowBits(id));
+  }
+
+  boolean add(long id)
+  {
+    final long key = highBits(id);
+    int pos = Arrays.binarySearch(keys, 0, nbContainers, key);
+    if (pos < 0)
+    {
+      pos = -(pos + 1);
+      insertContainerAt(pos, key, new ArrayContainer(new char[1], 0));
+    }
+    final Container container = containers[pos];
+    final int before = container.cardinality();
+    containers[pos] = container.add(lowBits(id));
+    return updateCardinality(before, containers[pos].cardinality());
+  }
+
+  boolean remove(long id)
+  {
+    final int pos = Arrays.binarySearch(keys, 0, nbContainers, highBits(id));
+    if (pos < 0)
+    {
+      return false;
+    }
+    final Container container = containers[pos];
+    final int before = container.cardinality();
+    containers[pos] = container.remove(lowBits(id));
+    final int after = containers[pos].cardinality();
+    if (after == 0)
+    {
+      removeContainerAt(pos);
+    }
+    return updateCardinality(before, after);
+  }
+
+  /**
+   * Returns a new bitmap holding the entry IDs contained in both this bitmap and the provided one. Neither of the
+   * bitmaps is modified.
+   *
+   * @param that
+   *          the other bitmap
+   * @return the intersection of the two bitmaps
+   */
+  EntryIDBitmap and(EntryIDBitmap that)
+  {
+    final int capacity = Math.min(nbContainers, that.nbContainers);
+    final EntryIDBitmap result = new EntryIDBitmap(new long[capacity], new Container[capacity], 0, 0);
+    int i = 0, j = 0;
+    while (i < nbContainers && j < that.nbContainers)
+    {
+      if (keys[i] < that.keys[j])
+      {
+        i++;
+      }
+      else if (keys[i] > that.keys[j])
+      {
+        j++;
+      }
+      else
+      {
+        result.appendIfNotEmpty(keys[i], containers[i].and(that.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a new bitmap holding the entry IDs contained in either this bitmap or the provided one. Neither of the
+   * bitmaps is modified.
+   *
+   * @param that
+   *          the other bitmap
+   * @return the union of the two bitmaps
+   */
+  EntryIDBitmap or(EntryIDBitmap that)
+  {
+    final int capacity = nbContainers + that.nbContainers;
+    final EntryIDBitmap result = new EntryIDBitmap(new long[capacity], new Container[capacity], 0, 0);
+    int i = 0, j = 0;
+    while (i < nbContainers || j < that.nbContainers)
+    {
+      if (j == that.nbContainers || (i < nbContainers && keys[i] < that.keys[j]))
+      {
+        result.append(keys[i], containers[i].copy());
+        i++;
+      }
+      else if (i == nbContainers || keys[i] > that.keys[j])
+      {
+        result.append(that.keys[j], that.containers[j].copy());
+        j++;
+      }
+      else
+      {
+        result.append(keys[i], containers[i].or(that.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a new bitmap holding the entry IDs contained in this bitmap but not in the provided one. Neither of the
+   * bitmaps is modified.
+   *
+   * @param that
+   *          the bitmap containing the entry IDs to remove
+   * @return the difference of the two bitmaps
+   */
+  EntryIDBitmap andNot(EntryIDBitmap that)
+  {
+    final EntryIDBitmap result = new EntryIDBitmap(new long[nbContainers], new Container[nbContainers], 0, 0);
+    int j = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      while (j < that.nbContainers && that.keys[j] < keys[i])
+      {
+        j++;
+      }
+      if (j < that.nbContainers && that.keys[j] == keys[i])
+      {
+        result.appendIfNotEmpty(keys[i], containers[i].andNot(that.containers[j]));
+      }
+      else
+      {
+        result.append(keys[i], containers[i].copy());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns all the entry IDs contained in this bitmap.
+   *
+   * @return a new array containing all the entry IDs of this bitmap, sorted in ascending order
+   */
+  long[] toArray()
+  {
+    final long[] ids = new long[(int) cardinality];
+    int offset = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      offset = containers[i].fill(keys[i] << CONTAINER_BITS, ids, offset);
+    }
+    return ids;
+  }
+
+  /**
+   * Returns an iterator over the entry IDs of this bitmap.
+   *
+   * @param begin
+   *          the entry ID of the first entry ID to return. If this bitmap does not contain it, iteration starts at the
+   *          smallest entry ID.
+   * @return an iterator over the entry IDs of this bitmap, in ascending order
+   */
+  Iterator<EntryID> iterator(long begin)
+  {
+    final BitmapIterator iterator = new BitmapIterator();
+    if (contains(begin))
+    {
+      iterator.seek(begin);
+    }
+    return iterator;
+  }
+
+  private boolean updateCardinality(int before, int after)
+  {
+    cardinality += after - before;
+    return before != after;
+  }
+
+  private void appendIfNotEmpty(long key, Container container)
+  {
+    if (container.cardinality() > 0)
+    {
+      append(key, container);
+    }
+  }
+
+  private void append(long key, Container container)
+  {
+    insertContainerAt(nbContainers, key, container);
+    cardinality += container.cardinality();
+  }
+
+  private void insertContainerAt(int pos, long key, Container container)
+  {
+    if (nbContainers == keys.length)
+    {
+      final int newCapacity = Math.max(4, nbContainers + (nbContainers >> 1));
+      keys = Arrays.copyOf(keys, newCapacity);
+      containers = Arrays.copyOf(containers, newCapacity);
+    }
+    System.arraycopy(keys, pos, keys, pos + 1, nbContainers - pos);
+    System.arraycopy(containers, pos, containers, pos + 1, nbContainers - pos);
+    keys[pos] = key;
+    containers[pos] = container;
+    nbContainers++;
+  }
+
+  private void removeContainerAt(int pos)
+  {
+    System.arraycopy(keys, pos + 1, keys, pos, nbContainers - pos - 1);
+    System.arraycopy(containers, pos + 1, containers, pos, nbContainers - pos - 1);
+    nbContainers--;
+    containers[nbContainers] = null;
+  }
+
+  private static long highBits(long id)
+  {
+    return id >>> CONTAINER_BITS;
+  }
+
+  private static char lowBits(long id)
+  {
+    return (char) (id & CONTAINER_MASK);
+  }
+
+  /** Holds the low-order bits of the entry IDs sharing the same high-order bits. */
+  private abstract static class Container
+  {
+    abstract int cardinality();
+
+    abstract char first();
+
+    abstract char last();
+
+    abstract boolean contains(char value);
+
+    /** Adds the value, possibly converting this container. Returns the container to use from now on. */
+    abstract Container add(char value);
+
+    /** Removes the value, possibly converting this container. Returns the container to use from now on. */
+    abstract Container remove(char value);
+
+    /** Returns a new container holding the intersection of this container with the provided one. */
+    abstract Container and(Container that);
+
+    /** Returns a new container holding the union of this container with the provided one. */
+    abstract Container or(Container that);
+
+    /** Returns a new container holding the values of this container not present in the provided one. */
+    abstract Container andNot(Container that);
+
+    abstract Container copy();
+
+    /** Returns the values of this container in ascending order. The returned array must not be modified. */
+    abstract char[] values();
+
+    abstract int fill(long base, long[] target, int offset);
+
+    abstract void encode(ByteStringBuilder builder);
+  }
+
+  /** Container storing a sorted array of values, used for sparse chunks. */
+  private static final class ArrayContainer extends Container
+  {
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer(char[] values, int cardinality)
+    {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    static ArrayContainer decode(ByteSequenceReader reader)
+    {
+      final int count = reader.readCompactUnsignedInt();
+      final char[] values = new char[count];
+      int value = 0;
+      for (int i = 0; i < count; i++)
+      {
+        value += reader.readCompactUnsignedInt();
+        values[i] = (char) value;
+      }
+      return new ArrayContainer(values, count);
+    }
+
+    @Override
+    void encode(ByteStringBuilder builder)
+    {
+      builder.appendByte(ARRAY_CONTAINER);
+      builder.appendCompactUnsigned(cardinality);
+      int basis = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        builder.appendCompactUnsigned(values[i] - basis);
+        basis = values[i];
+      }
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    char first()
+    {
+      return values[0];
+    }
+
+    @Override
+    char last()
+    {
+      return values[cardinality - 1];
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      int pos = Arrays.binarySearch(values, 0, cardinality, value);
+      if (pos >= 0)
+      {
+        return this;
+      }
+      if (cardinality >= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().add(value);
+      }
+      pos = -(pos + 1);
+      if (cardinality == values.length)
+      {
+        values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX_SIZE, Math.max(4, cardinality << 1)));
+      }
+      System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+      values[pos] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value)
+    {
+      final int pos = Arrays.binarySearch(values, 0, cardinality, value);
+      if (pos >= 0)
+      {
+        System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    Container and(Container that)
+    {
+      final char[] result = new char[Math.min(cardinality, that.cardinality())];
+      int count = 0;
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        int i = 0, j = 0;
+        while (i < cardinality && j < other.cardinality)
+        {
+          if (values[i] < other.values[j])
+          {
+            i++;
+          }
+          else if (values[i] > other.values[j])
+          {
+            j++;
+          }
+          else
+          {
+            result[count++] = values[i];
+            i++;
+            j++;
+          }
+        }
+      }
+      else
+      {
+        for (int i = 0; i < cardinality; i++)
+        {
+          if (that.contains(values[i]))
+          {
+            result[count++] = values[i];
+          }
+        }
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    @Override
+    Container or(Container that)
+    {
+      if (that instanceof BitmapContainer)
+      {
+        return that.or(this);
+      }
+      final ArrayContainer other = (ArrayContainer) that;
+      if (cardinality + other.cardinality > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().or(other);
+      }
+      final char[] result = new char[cardinality + other.cardinality];
+      int i = 0, j = 0, count = 0;
+      while (i < cardinality && j < other.cardinality)
+      {
+        if (values[i] < other.values[j])
+        {
+          result[count++] = values[i++];
+        }
+        else if (values[i] > other.values[j])
+        {
+          result[count++] = other.values[j++];
+        }
+        else
+        {
+          result[count++] = values[i];
+          i++;
+          j++;
+        }
+      }
+      System.arraycopy(values, i, result, count, cardinality - i);
+      count += cardinality - i;
+      System.arraycopy(other.values, j, result, count, other.cardinality - j);
+      count += other.cardinality - j;
+      return new ArrayContainer(result, count);
+    }
+
+    @Override
+    Container andNot(Container that)
+    {
+      final char[] result = new char[cardinality];
+      int count = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        if (!that.contains(values[i]))
+        {
+          result[count++] = values[i];
+        }
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    @Override
+    Container copy()
+    {
+      return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+    }
+
+    @Override
+    char[] values()
+    {
+      return Arrays.copyOf(values, cardinality);
+    }
+
+    @Override
+    int fill(long base, long[] target, int offset)
+    {
+      for (int i = 0; i < cardinality; i++)
+      {
+        target[offset++] = base | values[i];
+      }
+      return offset;
+    }
+
+    private BitmapContainer toBitmapContainer()
+    {
+      final long[] words = new long[BITMAP_WORDS];
+      for (int i = 0; i < cardinality; i++)
+      {
+        words[values[i] >>> 6] |= 1L << values[i];
+      }
+      return new BitmapContainer(words, cardinality);
+    }
+  }
+
+  /** Container storing a fixed size bitmap, used for dense chunks. */
+  private static final class BitmapContainer extends Container
+  {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(long[] words, int cardinality)
+    {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    static BitmapContainer decode(ByteSequenceReader reader)
+    {
+      final int nbWords = reader.readCompactUnsignedInt();
+      final long[] words = new long[BITMAP_WORDS];
+      int count = 0;
+      for (int i = 0; i < nbWords; i++)
+      {
+        words[i] = reader.readLong();
+        count += Long.bitCount(words[i]);
+      }
+      return new BitmapContainer(words, count);
+    }
+
+    @Override
+    void encode(ByteStringBuilder builder)
+    {
+      // Trailing empty words are not written
+      int nbWords = BITMAP_WORDS;
+      while (nbWords > 0 && words[nbWords - 1] == 0)
+      {
+        nbWords--;
+      }
+      builder.appendByte(BITMAP_CONTAINER);
+      builder.appendCompactUnsigned(nbWords);
+      for (int i = 0; i < nbWords; i++)
+      {
+        builder.appendLong(words[i]);
+      }
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    char first()
+    {
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        if (words[i] != 0)
+        {
+          return (char) ((i << 6) + Long.numberOfTrailingZeros(words[i]));
+        }
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    char last()
+    {
+      for (int i = BITMAP_WORDS - 1; i >= 0; i--)
+      {
+        if (words[i] != 0)
+        {
+          return (char) ((i << 6) + 63 - Long.numberOfLeadingZeros(words[i]));
+        }
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      final long before = words[value >>> 6];
+      final long after = before | (1L << value);
+      if (before != after)
+      {
+        words[value >>> 6] = after;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value)
+    {
+      final long before = words[value >>> 6];
+      final long after = before & ~(1L << value);
+      if (before != after)
+      {
+        words[value >>> 6] = after;
+        cardinality--;
+      }
+      return cardinality <= ARRAY_CONTAINER_MAX_SIZE ? toArrayContainer(words, cardinality) : this;
+    }
+
+    @Override
+    Container and(Container that)
+    {
+      if (that instanceof ArrayContainer)
+      {
+        return that.and(this);
+      }
+      final long[] otherWords = ((BitmapContainer) that).words;
+      final long[] result = new long[BITMAP_WORDS];
+      int count = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        result[i] = words[i] & otherWords[i];
+        count += Long.bitCount(result[i]);
+      }
+      return newContainer(result, count);
+    }
+
+    @Override
+    Container or(Container that)
+    {
+      final long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+      int count = 0;
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        count = cardinality;
+        for (int i = 0; i < other.cardinality; i++)
+        {
+          final char value = other.values[i];
+          final long before = result[value >>> 6];
+          result[value >>> 6] = before | (1L << value);
+          if (before != result[value >>> 6])
+          {
+            count++;
+          }
+        }
+      }
+      else
+      {
+        final long[] otherWords = ((BitmapContainer) that).words;
+        for (int i = 0; i < BITMAP_WORDS; i++)
+        {
+          result[i] |= otherWords[i];
+          count += Long.bitCount(result[i]);
+        }
+      }
+      return new BitmapContainer(result, count);
+    }
+
+    @Override
+    Container andNot(Container that)
+    {
+      final long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+      int count = 0;
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        count = cardinality;
+        for (int i = 0; i < other.cardinality; i++)
+        {
+          final char value = other.values[i];
+          final long before = result[value >>> 6];
+          result[value >>> 6] = before & ~(1L << value);
+          if (before != result[value >>> 6])
+          {
+            count--;
+          }
+        }
+      }
+      else
+      {
+        final long[] otherWords = ((BitmapContainer) that).words;
+        for (int i = 0; i < BITMAP_WORDS; i++)
+        {
+          result[i] &= ~otherWords[i];
+          count += Long.bitCount(result[i]);
+        }
+      }
+      return newContainer(result, count);
+    }
+
+    @Override
+    Container copy()
+    {
+      return new BitmapContainer(Arrays.copyOf(words, BITMAP_WORDS), cardinality);
+    }
+
+    @Override
+    char[] values()
+    {
+      final char[] values = new char[cardinality];
+      int count = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return values;
+    }
+
+    @Override
+    int fill(long base, long[] target, int offset)
+    {
+      for (int i = 0; i < BITMAP_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          target[offset++] = base | ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return offset;
+    }
+
+    private static Container newContainer(long[] words, int cardinality)
+    {
+      return cardinality <= ARRAY_CONTAINER_MAX_SIZE ? toArrayContainer(words, cardinality)
+                                                     : new BitmapContainer(words, cardinality);
+    }
+
+    private static ArrayContainer toArrayContainer(long[] words, int cardinality)
+    {
+      return new ArrayContainer(new BitmapContainer(words, cardinality).values(), cardinality);
+    }
+  }
+
+  /** Iterator over the entry IDs of this bitmap, expanding one container at a time. */
+  private final class BitmapIterator implements Iterator<EntryID>
+  {
+    private int containerIndex = -1;
+    private char[] currentValues = new char[0];
+    private int valueIndex;
+
+    private void seek(long begin)
+    {
+      containerIndex = Arrays.binarySearch(keys, 0, nbContainers, highBits(begin));
+      currentValues = containers[containerIndex].values();
+      valueIndex = Arrays.binarySearch(currentValues, lowBits(begin));
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      while (valueIndex >= currentValues.length)
+      {
+        if (containerIndex + 1 >= nbContainers)
+        {
+          return false;
+        }
+        containerIndex++;
+        currentValues = containers[containerIndex].values();
+        valueIndex = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public EntryID next()
+    {
+      if (hasNext())
+      {
+        return new EntryID(keys[containerIndex] << CONTAINER_BITS | currentValues[valueIndex++]);
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
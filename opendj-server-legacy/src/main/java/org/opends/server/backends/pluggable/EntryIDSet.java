@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2008 Sun Microsystems, Inc.
- *      Portions Copyright 2014-2015 ForgeRock AS
+ *      Portions Copyright 2014-2016 ForgeRock AS
  */
 package org.opends.server.backends.pluggable;
 
@@ -50,6 +50,7 @@ final class EntryIDSet implements Iterable<EntryID>
 {
   public static final EntryIDSetCodec CODEC_V1 = new EntryIDSetCodecV1();
   public static final EntryIDSetCodec CODEC_V2 = new EntryIDSetCodecV2();
+  public static final EntryIDSetCodec CODEC_V3 = new EntryIDSetCodecV3();
 
   private static final ByteSequence NO_KEY = ByteString.valueOfUtf8("<none>");
   private static final long[] EMPTY_LONG_ARRAY = new long[0];
@@ -287,6 +288,119 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /**
+   * Concrete implementation representing a set of EntryIDs stored in a compressed bitmap. Intersections, unions and
+   * differences with other bitmap backed sets are performed without materializing the IDs.
+   */
+  private static final class BitmapImpl implements EntryIDSetImplementor
+  {
+    /** \@NotNull */
+    private EntryIDBitmap bitmap;
+
+    BitmapImpl(EntryIDBitmap bitmap)
+    {
+      Reject.ifNull(bitmap, "bitmap must not be null");
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    public long size()
+    {
+      return bitmap.cardinality();
+    }
+
+    @Override
+    public void toString(StringBuilder buffer)
+    {
+      buffer.append("[COUNT:").append(size()).append("]");
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean add(EntryID entryID)
+    {
+      return bitmap.add(entryID.longValue());
+    }
+
+    @Override
+    public boolean remove(EntryID entryID)
+    {
+      return bitmap.remove(entryID.longValue());
+    }
+
+    @Override
+    public boolean contains(EntryID entryID)
+    {
+      return bitmap.contains(entryID.longValue());
+    }
+
+    @Override
+    public void addAll(EntryIDSet that)
+    {
+      if (that.concreteImpl instanceof BitmapImpl)
+      {
+        bitmap = bitmap.or(that.toBitmap());
+        return;
+      }
+      // Avoid building a bitmap for the small sets coming from the index buffers
+      for (long id : that.getIDs())
+      {
+        bitmap.add(id);
+      }
+    }
+
+    @Override
+    public void removeAll(EntryIDSet that)
+    {
+      if (compareForOverlap(getRange(), that.getRange()) != 0)
+      {
+        return;
+      }
+      if (that.concreteImpl instanceof BitmapImpl)
+      {
+        bitmap = bitmap.andNot(that.toBitmap());
+        return;
+      }
+      for (long id : that.getIDs())
+      {
+        bitmap.remove(id);
+      }
+    }
+
+    @Override
+    public Iterator<EntryID> iterator()
+    {
+      return bitmap.iterator(-1);
+    }
+
+    @Override
+    public Iterator<EntryID> iterator(EntryID begin)
+    {
+      return bitmap.iterator(begin == null ? -1 : begin.longValue());
+    }
+
+    @Override
+    public long[] getRange()
+    {
+      if (bitmap.cardinality() != 0)
+      {
+        return new long[] { bitmap.first(), bitmap.last() };
+      }
+      return NO_ENTRY_IDS_RANGE;
+    }
+
+    @Override
+    public long[] getIDs()
+    {
+      return bitmap.toArray();
+    }
+  }
+
   /**
    * Concrete implementation where the EntryIDs are not defined, for example when the index entry
    * limit has been exceeded.
@@ -565,6 +679,45 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /**
+   * Compressed bitmap EntryIDSet codec implementation. IDs are stored as a sequence of containers, each holding either
+   * a delta encoded array or a bitmap of the IDs sharing the same high-order bits (see {@link EntryIDBitmap}). Sets
+   * decoded by this codec are backed by a compressed bitmap, which keeps large sets compact in memory and allows
+   * intersections and unions to be computed a word at a time.
+   */
+  private static final class EntryIDSetCodecV3 implements EntryIDSetCodec
+  {
+    private static final byte UNDEFINED_SET = (byte) 0xFF;
+
+    @Override
+    public ByteString encode(EntryIDSet idSet)
+    {
+      checkNotNull(idSet, "idSet must not be null");
+      final ByteStringBuilder builder = new ByteStringBuilder();
+      if (idSet.isDefined())
+      {
+        idSet.toBitmap().encode(builder);
+      }
+      else
+      {
+        builder.appendByte(UNDEFINED_SET);
+      }
+      return ByteString.wrap(builder.getBackingArray(), 0, builder.length());
+    }
+
+    @Override
+    public EntryIDSet decode(ByteSequence key, ByteString value)
+    {
+      checkNotNull(key, "key must not be null");
+      checkNotNull(value, "value must not be null");
+      if (value.byteAt(0) == UNDEFINED_SET)
+      {
+        return newUndefinedSetWithKey(key);
+      }
+      return new EntryIDSet(new BitmapImpl(EntryIDBitmap.decode(value.asReader())));
+    }
+  }
+
   static EntryIDSet newUndefinedSet()
   {
     return newUndefinedSetWithKey(NO_KEY);
@@ -592,6 +745,23 @@ final class EntryIDSet implements Iterable<EntryID>
     return new EntryIDSet(new DefinedImpl(entryIDs));
   }
 
+  /**
+   * Creates a new defined entry ID set backed by a compressed bitmap and containing the specified sorted entryIDs.
+   * <p>
+   * If the provided array is not sorted, then the resulting EntryIDSet will misbehave.
+   *
+   * @param entryIDs
+   *          Sorted Entry IDs contained in the set.
+   * @return A new defined {@link EntryIDSet} containing the provided entryIDs
+   * @throws NullPointerException
+   *           if entryIDs is null
+   */
+  static EntryIDSet newBitmapSet(long... entryIDs)
+  {
+    checkNotNull(entryIDs, "ids must not be null");
+    return new EntryIDSet(new BitmapImpl(EntryIDBitmap.valueOf(entryIDs)));
+  }
+
   private static long[] intersection(long[] set1, long[] set2)
   {
     long[] target = new long[Math.min(set1.length, set2.length)];
@@ -653,6 +823,16 @@ final class EntryIDSet implements Iterable<EntryID>
       return newUndefinedSet();
     }
 
+    if (containsBitmapSet(sets))
+    {
+      EntryIDBitmap union = new EntryIDBitmap();
+      for (EntryIDSet l : sets)
+      {
+        union = union.or(l.toBitmap());
+      }
+      return new EntryIDSet(new BitmapImpl(union));
+    }
+
     boolean needSort = false;
     long[] n = new long[count];
     int pos = 0;
@@ -687,6 +867,18 @@ final class EntryIDSet implements Iterable<EntryID>
     return newDefinedSet(Arrays.copyOf(n1, j));
   }
 
+  private static boolean containsBitmapSet(List<EntryIDSet> sets)
+  {
+    for (EntryIDSet l : sets)
+    {
+      if (l.concreteImpl instanceof BitmapImpl)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private EntryIDSetImplementor concreteImpl;
 
   private EntryIDSet(EntryIDSetImplementor concreteImpl)
@@ -829,7 +1021,9 @@ final class EntryIDSet implements Iterable<EntryID>
     checkNotNull(that, "that must not be null");
     if (!concreteImpl.isDefined())
     {
-      if ( that.isDefined() ) {
+      if (that.concreteImpl instanceof BitmapImpl) {
+        concreteImpl = new BitmapImpl(new EntryIDBitmap().or(that.toBitmap()));
+      } else if ( that.isDefined() ) {
         // NOTE: It's ok to share the same array instance here thanks to the copy-on-write
         // performed by the implementation.
         concreteImpl = new DefinedImpl(that.getIDs());
@@ -844,7 +1038,11 @@ final class EntryIDSet implements Iterable<EntryID>
     }
 
     final boolean thatSetOverlap = compareForOverlap(getRange(), that.getRange()) == 0;
-    if (thatSetOverlap)
+    if (thatSetOverlap && (concreteImpl instanceof BitmapImpl || that.concreteImpl instanceof BitmapImpl))
+    {
+      concreteImpl = new BitmapImpl(toBitmap().and(that.toBitmap()));
+    }
+    else if (thatSetOverlap)
     {
       concreteImpl = new DefinedImpl(intersection(concreteImpl.getIDs(), that.getIDs()));
     }
@@ -904,6 +1102,19 @@ final class EntryIDSet implements Iterable<EntryID>
     return concreteImpl.getRange();
   }
 
+  /**
+   * Returns the compressed bitmap backing this defined set, or a new one built from its IDs. The returned bitmap must
+   * not be modified.
+   */
+  private EntryIDBitmap toBitmap()
+  {
+    if (concreteImpl instanceof BitmapImpl)
+    {
+      return ((BitmapImpl) concreteImpl).bitmap;
+    }
+    return EntryIDBitmap.valueOf(concreteImpl.getIDs());
+  }
+
   private static long[] mergeOverlappingEntryIDSet(long set1[], long set2[])
   {
     final long[] a, b;
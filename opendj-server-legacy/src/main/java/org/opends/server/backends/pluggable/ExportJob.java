@@ -220,7 +220,8 @@ class ExportJob
         try
         {
           entry = ID2Entry.entryFromDatabase(value,
-                       entryContainer.getRootContainer().getCompressedSchema());
+                       entryContainer.getRootContainer().getCompressedSchema(),
+                       entryContainer.getRootContainer().getCompressionDictionaries());
         }
         catch (Exception e)
         {
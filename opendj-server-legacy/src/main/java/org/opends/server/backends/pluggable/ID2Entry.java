@@ -33,10 +33,7 @@ import static org.opends.server.core.DirectoryServer.*;
 import static org.opends.server.backends.pluggable.CursorTransformer.transformKeysAndValues;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.zip.DataFormatException;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterOutputStream;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.io.ASN1;
@@ -85,6 +82,11 @@ class ID2Entry extends AbstractTree
     }
   };
 
+  /** Codec compressing entries with deflate, the only codec supported by the first entry format version. */
+  static final CompressionCodec DEFLATE_CODEC = new DeflateCompressionCodec();
+  /** Fast codec compressing entries with a dictionary. */
+  static final CompressionCodec BLOCK_CODEC = new BlockCompressionCodec();
+
   /** Parameters for compression and encryption. */
   private DataConfig dataConfig;
 
@@ -137,12 +139,14 @@ class ID2Entry extends AbstractTree
       compressedEntryBuffer.clearAndTruncate(maxBufferSize, BUFFER_INIT_SIZE);
     }
 
-    private Entry decode(ByteString bytes, CompressedSchema compressedSchema)
-        throws DirectoryException, DecodeException, IOException
+    private Entry decode(ByteString bytes, CompressedSchema compressedSchema,
+        CompressionDictionaries compressionDictionaries) throws DirectoryException, DecodeException, IOException,
+        DataFormatException
     {
       // Get the format version.
       byte formatVersion = bytes.byteAt(0);
-      if(formatVersion != DnKeyFormat.FORMAT_VERSION)
+      if (formatVersion != DnKeyFormat.FORMAT_VERSION
+          && formatVersion != DnKeyFormat.FORMAT_VERSION_COMPRESSION_CODEC)
       {
         throw DecodeException.error(ERR_INCOMPATIBLE_ENTRY_VERSION.get(formatVersion));
       }
@@ -156,18 +160,23 @@ class ID2Entry extends AbstractTree
       if(uncompressedSize > 0)
       {
         // It was compressed.
-        reader.readOctetString(compressedEntryBuffer);
-
-        OutputStream decompressor = null;
-        try
+        CompressionCodec codec = DEFLATE_CODEC;
+        CompressionDictionary dictionary = null;
+        if (formatVersion == DnKeyFormat.FORMAT_VERSION_COMPRESSION_CODEC)
         {
-          // TODO: Should handle the case where uncompress fails
-          decompressor = new InflaterOutputStream(entryBuffer.asOutputStream());
-          compressedEntryBuffer.copyTo(decompressor);
-        }
-        finally {
-          closeSilently(decompressor);
+          codec = getCompressionCodec((int) reader.readInteger());
+          int dictionaryID = (int) reader.readInteger();
+          if (dictionaryID != CompressionDictionaries.NO_DICTIONARY)
+          {
+            if (compressionDictionaries == null)
+            {
+              throw DecodeException.error(ERR_COMPRESSION_UNKNOWN_DICTIONARY.get(dictionaryID));
+            }
+            dictionary = compressionDictionaries.get(dictionaryID);
+          }
         }
+        reader.readOctetString(compressedEntryBuffer);
+        codec.decompress(compressedEntryBuffer, dictionary, uncompressedSize, entryBuffer);
 
         // Since we are used the cached buffers (ByteStringBuilders),
         // the decoded attribute values will not refer back to the
@@ -194,27 +203,35 @@ class ID2Entry extends AbstractTree
       // Encode the entry for later use.
       entry.encode(entryBuffer, dataConfig.getEntryEncodeConfig());
 
-      // First write the DB format version byte.
-      encodedBuffer.appendByte(DnKeyFormat.FORMAT_VERSION);
+      final CompressionCodec codec = dataConfig.getCompressionCodec();
+      final boolean compressed = dataConfig.isCompressed();
+      final boolean useCodecFormat = compressed && codec != DEFLATE_CODEC;
+
+      // First write the DB format version byte.  Entries compressed with
+      // deflate keep the first format, readable by previous versions.
+      encodedBuffer.appendByte(
+          useCodecFormat ? DnKeyFormat.FORMAT_VERSION_COMPRESSION_CODEC : DnKeyFormat.FORMAT_VERSION);
 
       try
       {
         // Then start the ASN1 sequence.
         writer.writeStartSequence(TAG_TREE_ENTRY);
 
-        if (dataConfig.isCompressed())
+        if (compressed)
         {
-          OutputStream compressor = null;
-          try {
-            compressor = new DeflaterOutputStream(compressedEntryBuffer.asOutputStream());
-            entryBuffer.copyTo(compressor);
-          }
-          finally {
-            closeSilently(compressor);
+          CompressionDictionary dictionary = null;
+          writer.writeInteger(entryBuffer.length());
+          if (useCodecFormat)
+          {
+            final CompressionDictionaries dictionaries = dataConfig.getCompressionDictionaries();
+            dictionaries.sample(entryBuffer);
+            dictionary = dictionaries.getCurrent();
+            writer.writeInteger(codec.getID());
+            writer.writeInteger(dictionary != null ? dictionary.getID() : CompressionDictionaries.NO_DICTIONARY);
           }
+          codec.compress(entryBuffer, dictionary, compressedEntryBuffer);
 
           // Compression needed and successful.
-          writer.writeInteger(entryBuffer.length());
           writer.writeOctetString(compressedEntryBuffer);
         }
         else
@@ -233,6 +250,26 @@ class ID2Entry extends AbstractTree
     }
   }
 
+  /**
+   * Returns the compression codec with the provided identifier.
+   *
+   * @param id the identifier of the codec, as stored in the records.
+   * @return the compression codec with the provided identifier.
+   * @throws DecodeException if there is no codec with this identifier.
+   */
+  static CompressionCodec getCompressionCodec(int id) throws DecodeException
+  {
+    switch (id)
+    {
+    case DeflateCompressionCodec.ID:
+      return DEFLATE_CODEC;
+    case BlockCompressionCodec.ID:
+      return BLOCK_CODEC;
+    default:
+      throw DecodeException.error(ERR_COMPRESSION_UNKNOWN_CODEC.get(id));
+    }
+  }
+
   /**
    * Create a new ID2Entry object.
    *
@@ -261,11 +298,15 @@ class ID2Entry extends AbstractTree
   /**
    * Decodes an entry from its tree representation.
    * <p>
-   * An entry on disk is ASN1 encoded in this format:
+   * An entry on disk is a format version byte followed by an ASN1 encoding in
+   * this format:
    *
    * <pre>
    * ByteString ::= [APPLICATION 0] IMPLICIT SEQUENCE {
    *  uncompressedSize      INTEGER,      -- A zero value means not compressed.
+   *  codec                 INTEGER,      -- Only present in version 2 records.
+   *  dictionary            INTEGER,      -- Only present in version 2 records,
+   *                                         a zero value means no dictionary.
    *  dataBytes             OCTET STRING  -- Optionally compressed encoding of
    *                                         the data bytes.
    * }
@@ -283,6 +324,8 @@ class ID2Entry extends AbstractTree
    *
    * @param bytes A byte array containing the encoded tree value.
    * @param compressedSchema The compressed schema manager to use when decoding.
+   * @param compressionDictionaries The compression dictionaries of the backend,
+   * or {@code null} if the entry was not compressed with a dictionary.
    * @return The decoded entry.
    * @throws DecodeException If the data is not in the expected ASN.1 encoding
    * format.
@@ -294,13 +337,13 @@ class ID2Entry extends AbstractTree
    * @throws IOException if an error occurs while reading the ASN1 sequence.
    */
   static Entry entryFromDatabase(ByteString bytes,
-      CompressedSchema compressedSchema) throws DirectoryException,
+      CompressedSchema compressedSchema, CompressionDictionaries compressionDictionaries) throws DirectoryException,
       DecodeException, LDAPException, DataFormatException, IOException
   {
     EntryCodec codec = acquireEntryCodec();
     try
     {
-      return codec.decode(bytes, compressedSchema);
+      return codec.decode(bytes, compressedSchema, compressionDictionaries);
     }
     finally
     {
@@ -421,7 +464,8 @@ class ID2Entry extends AbstractTree
     {
       return null;
     }
-    final Entry entry = entryFromDatabase(value, dataConfig.getEntryEncodeConfig().getCompressedSchema());
+    final Entry entry = entryFromDatabase(value, dataConfig.getEntryEncodeConfig().getCompressedSchema(),
+        dataConfig.getCompressionDictionaries());
     entry.processVirtualAttributes();
     return entry;
   }
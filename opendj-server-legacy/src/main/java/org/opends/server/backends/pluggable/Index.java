@@ -51,5 +51,7 @@ interface Index extends Tree
 
   void setTrusted(WriteableTransaction txn, boolean trusted);
 
+  ByteString toValue(EntryIDSet entryIDSet);
+
   void update(WriteableTransaction txn, ByteString key, EntryIDSet deletedIDs, EntryIDSet addedIDs);
 }
@@ -282,20 +282,21 @@ class IndexBuffer
   {
     private final WriteableTransaction txn;
     private final EntryID expectedEntryID;
-    private final ByteString encodedEntryID;
+    private final EntryIDSet entryIDSet;
 
     ImportIndexBuffer(WriteableTransaction txn, EntryID expectedEntryID)
     {
       this.txn = txn;
       this.expectedEntryID = expectedEntryID;
-      this.encodedEntryID = CODEC_V2.encode(EntryIDSet.newDefinedSet(expectedEntryID.longValue()));
+      this.entryIDSet = EntryIDSet.newDefinedSet(expectedEntryID.longValue());
     }
 
     @Override
     public void put(Index index, ByteString key, EntryID entryID)
     {
       Reject.ifFalse(this.expectedEntryID.equals(entryID), "Unexpected entryID");
-      txn.put(index.getName(), key, encodedEntryID);
+      // Each index encodes the entry ID with its own codec, which will be used to decode it while merging
+      txn.put(index.getName(), key, index.toValue(entryIDSet));
     }
 
     @Override
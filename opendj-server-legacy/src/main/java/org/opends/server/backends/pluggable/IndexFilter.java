@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions copyright 2011-2015 ForgeRock AS
+ *      Portions copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.backends.pluggable;
 
@@ -30,11 +30,22 @@ import static org.opends.messages.BackendMessages.*;
 import static org.opends.server.backends.pluggable.EntryIDSet.*;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.types.AttributeType;
 import org.opends.server.types.FilterType;
@@ -55,6 +66,88 @@ class IndexFilter
   /** Limit on the number of entry IDs that may be retrieved by cursoring through an index. */
   static final int CURSOR_ENTRY_LIMIT = 100000;
 
+  /**
+   * Number of entry IDs which can be read from an index for the cost of fetching and filtering one candidate entry.
+   * When a component of an AND filter is estimated to read more entry IDs than this ratio times the number of
+   * remaining candidates, the index is not read and the candidates are filtered against the entries instead.
+   */
+  private static final int ENTRY_SCAN_COST_RATIO = 100;
+
+  /** A substring lookup reads and intersects several keys, so its cost is a multiple of the key estimation. */
+  private static final int SUBSTRING_COST_FACTOR = 4;
+
+  /**
+   * Costs of the AND components for which no estimation is available. They preserve the historical evaluation order:
+   * equality, presence and approximate components first, then the others.
+   */
+  private static final long UNKNOWN_FAST_COST = 1000;
+  private static final long UNKNOWN_OTHER_COST = 10000;
+
+  /** Estimated cost of evaluating a range component: it may cursor through many keys. */
+  private static final long RANGE_COST = CURSOR_ENTRY_LIMIT;
+
+  /** Orders AND components by ascending estimated cost. */
+  private static final Comparator<PlannedFilter> BY_COST = new Comparator<PlannedFilter>()
+  {
+    @Override
+    public int compare(PlannedFilter o1, PlannedFilter o2)
+    {
+      return Long.compare(o1.cost, o2.cost);
+    }
+  };
+
+  /** A component of an AND filter along with the estimated cost of evaluating it against the indexes. */
+  private static final class PlannedFilter
+  {
+    private final SearchFilter filter;
+    private final long cost;
+    /** Whether the cost comes from index statistics. */
+    private final boolean isEstimated;
+
+    private PlannedFilter(SearchFilter filter, long cost, boolean isEstimated)
+    {
+      this.filter = filter;
+      this.cost = cost;
+      this.isEstimated = isEstimated;
+    }
+  }
+
+  /**
+   * Evaluates some components of an OR filter in a dedicated transaction, so that it can run in a thread other than
+   * the one processing the search.
+   */
+  private final class OrComponentsEvaluation implements Callable<EntryIDSet>, ReadOperation<EntryIDSet>
+  {
+    private final List<SearchFilter> filters;
+    /** Time spent evaluating the filters, visible once the evaluation is complete. */
+    private long elapsedNanos;
+
+    private OrComponentsEvaluation(List<SearchFilter> filters)
+    {
+      this.filters = filters;
+    }
+
+    @Override
+    public EntryIDSet call() throws Exception
+    {
+      return entryContainer.getRootContainer().getStorage().read(this);
+    }
+
+    @Override
+    public EntryIDSet run(ReadableTransaction txn)
+    {
+      final long startTime = System.nanoTime();
+      try
+      {
+        return new IndexFilter(entryContainer, txn, searchOp, null, monitor, false).evaluateOrComponents(filters);
+      }
+      finally
+      {
+        elapsedNanos = System.nanoTime() - startTime;
+      }
+    }
+  }
+
   /** The entry container holding the attribute indexes. */
   private final EntryContainer entryContainer;
   private final ReadableTransaction txn;
@@ -71,6 +164,8 @@ class IndexFilter
    */
   private final StringBuilder buffer;
   private final BackendMonitor monitor;
+  /** Whether the components of OR filters may be evaluated by other threads. */
+  private final boolean mayEvaluateInParallel;
 
   /**
    * Construct an index filter for a search operation.
@@ -85,12 +180,20 @@ class IndexFilter
    */
   IndexFilter(EntryContainer entryContainer, ReadableTransaction txn, SearchOperation searchOp,
       StringBuilder debugBuilder, BackendMonitor monitor)
+  {
+    // The diagnostic string lists the components in order: it cannot be built by several threads.
+    this(entryContainer, txn, searchOp, debugBuilder, monitor, debugBuilder == null);
+  }
+
+  private IndexFilter(EntryContainer entryContainer, ReadableTransaction txn, SearchOperation searchOp,
+      StringBuilder debugBuilder, BackendMonitor monitor, boolean mayEvaluateInParallel)
   {
     this.entryContainer = entryContainer;
     this.txn = txn;
     this.searchOp = searchOp;
     this.buffer = debugBuilder;
     this.monitor = monitor;
+    this.mayEvaluateInParallel = mayEvaluateInParallel;
   }
 
   /**
@@ -181,11 +284,11 @@ class IndexFilter
   private EntryIDSet evaluateLogicalAndFilter(SearchFilter andFilter)
   {
     // Put the slow range filters (greater-or-equal, less-or-equal)
-    // into a hash map, the faster components (equality, presence, approx)
-    // into one list and the remainder into another list.
+    // into a hash map, and the other components into a list ordered by
+    // their estimated cost. Without index statistics, the faster components
+    // (equality, presence, approx) come before the remainder.
 
-    ArrayList<SearchFilter> fastComps = new ArrayList<>();
-    ArrayList<SearchFilter> otherComps = new ArrayList<>();
+    List<PlannedFilter> plannedComps = new ArrayList<>();
     HashMap<AttributeType, ArrayList<SearchFilter>> rangeComps = new HashMap<>();
 
     for (SearchFilter filter : andFilter.getFilterComponents())
@@ -203,27 +306,26 @@ class IndexFilter
         }
         rangeList.add(filter);
       }
-      else if (filterType == FilterType.EQUALITY ||
-           filterType == FilterType.PRESENT ||
-           filterType == FilterType.APPROXIMATE_MATCH)
-      {
-        fastComps.add(filter);
-      }
       else
       {
-        otherComps.add(filter);
+        plannedComps.add(plan(filter));
       }
     }
+    // Stable sort: components having the same cost keep their order.
+    Collections.sort(plannedComps, BY_COST);
 
     EntryIDSet results = newUndefinedSet();
-    // First, process the fast components.
-    results = applyFiltersUntilThreshold(results, fastComps);
-    // Next, process the other (non-range) components.
-    results = applyFiltersUntilThreshold(results, otherComps);
+    // First, process the non-range components, cheapest first.
+    results = applyPlannedFiltersUntilThreshold(results, plannedComps);
 
     if ( isBelowFilterThreshold(results) || rangeComps.isEmpty() ) {
       return results;
     }
+    if (isCheaperToScanEntries(results, RANGE_COST))
+    {
+      skipRangeComponents(rangeComps);
+      return results;
+    }
 
     // Next, process range component pairs like (cn>=A)(cn<=B).
     ArrayList<SearchFilter> remainComps = new ArrayList<>();
@@ -269,6 +371,93 @@ class IndexFilter
     return applyFiltersUntilThreshold(results, remainComps);
   }
 
+  private PlannedFilter plan(SearchFilter filter)
+  {
+    final IndexFilterType indexFilterType = toIndexFilterType(filter.getFilterType());
+    if (indexFilterType != null)
+    {
+      final AttributeIndex attributeIndex = entryContainer.getAttributeIndex(filter.getAttributeType());
+      if (attributeIndex != null)
+      {
+        final long estimate = attributeIndex.getEstimatedCandidateCount(indexFilterType);
+        if (estimate != IndexStatistics.UNKNOWN)
+        {
+          final long factor = indexFilterType == IndexFilterType.SUBSTRING ? SUBSTRING_COST_FACTOR : 1;
+          return new PlannedFilter(filter, estimate * factor, true);
+        }
+      }
+    }
+    final boolean isFast = indexFilterType == IndexFilterType.EQUALITY
+        || indexFilterType == IndexFilterType.PRESENCE
+        || indexFilterType == IndexFilterType.APPROXIMATE;
+    return new PlannedFilter(filter, isFast ? UNKNOWN_FAST_COST : UNKNOWN_OTHER_COST, false);
+  }
+
+  private static IndexFilterType toIndexFilterType(FilterType filterType)
+  {
+    switch (filterType)
+    {
+    case EQUALITY:
+      return IndexFilterType.EQUALITY;
+    case PRESENT:
+      return IndexFilterType.PRESENCE;
+    case APPROXIMATE_MATCH:
+      return IndexFilterType.APPROXIMATE;
+    case SUBSTRING:
+      return IndexFilterType.SUBSTRING;
+    default:
+      return null;
+    }
+  }
+
+  private EntryIDSet applyPlannedFiltersUntilThreshold(EntryIDSet results, List<PlannedFilter> filters)
+  {
+    for (PlannedFilter planned : filters)
+    {
+      if (isBelowFilterThreshold(results))
+      {
+        return results;
+      }
+      if (planned.isEstimated && isCheaperToScanEntries(results, planned.cost))
+      {
+        skipComponent(planned.filter, planned.cost);
+        continue;
+      }
+      results.retainAll(evaluateFilter(planned.filter));
+    }
+    return results;
+  }
+
+  /**
+   * Returns whether filtering the candidates against their entries is cheaper than reading an index
+   * in order to reduce the candidates.
+   */
+  private static boolean isCheaperToScanEntries(EntryIDSet candidates, long estimatedCost)
+  {
+    return candidates.isDefined() && estimatedCost / ENTRY_SCAN_COST_RATIO > candidates.size();
+  }
+
+  private void skipRangeComponents(Map<AttributeType, ArrayList<SearchFilter>> rangeComps)
+  {
+    for (ArrayList<SearchFilter> rangeList : rangeComps.values())
+    {
+      for (SearchFilter filter : rangeList)
+      {
+        skipComponent(filter, RANGE_COST);
+      }
+    }
+  }
+
+  private void skipComponent(SearchFilter filter, long estimatedCost)
+  {
+    monitor.incrementSkippedFilterComponentCount();
+    if (buffer != null)
+    {
+      filter.toString(buffer);
+      buffer.append("[SKIPPED:estimated-cost=").append(estimatedCost).append("]");
+    }
+  }
+
   private EntryIDSet applyFiltersUntilThreshold(EntryIDSet results, ArrayList<SearchFilter> filters)
   {
     for(SearchFilter filter : filters) {
@@ -293,9 +482,25 @@ class IndexFilter
    */
   private EntryIDSet evaluateLogicalOrFilter(SearchFilter orFilter)
   {
-    ArrayList<EntryIDSet> candidateSets = new ArrayList<>(orFilter.getFilterComponents().size());
+    final Collection<SearchFilter> components = orFilter.getFilterComponents();
+    if (mayEvaluateInParallel && components.size() > 1)
+    {
+      final RootContainer rootContainer = entryContainer.getRootContainer();
+      final ForkJoinPool pool = rootContainer.getIndexFilterPool();
+      final int parallelism = Math.min(rootContainer.getIndexFilterParallelism(), components.size());
+      if (pool != null && parallelism > 1)
+      {
+        return evaluateOrComponentsInParallel(new ArrayList<>(components), pool, parallelism);
+      }
+    }
+    return evaluateOrComponents(components);
+  }
+
+  private EntryIDSet evaluateOrComponents(Collection<SearchFilter> filters)
+  {
+    ArrayList<EntryIDSet> candidateSets = new ArrayList<>(filters.size());
 
-    for (SearchFilter filter : orFilter.getFilterComponents())
+    for (SearchFilter filter : filters)
     {
       EntryIDSet set = evaluateFilter(filter);
       if (!set.isDefined())
@@ -308,6 +513,88 @@ class IndexFilter
     return newSetFromUnion(candidateSets);
   }
 
+  /**
+   * Spreads the components of an OR filter over several groups. The first group is evaluated by the current thread
+   * while the others are evaluated by the index filter threads, each in its own transaction.
+   */
+  private EntryIDSet evaluateOrComponentsInParallel(List<SearchFilter> components, ForkJoinPool pool,
+      int parallelism)
+  {
+    final long startTime = System.nanoTime();
+    final List<OrComponentsEvaluation> evaluations = new ArrayList<>(parallelism);
+    for (int i = 0; i < parallelism; i++)
+    {
+      evaluations.add(new OrComponentsEvaluation(new ArrayList<SearchFilter>()));
+    }
+    for (int i = 0; i < components.size(); i++)
+    {
+      evaluations.get(i % parallelism).filters.add(components.get(i));
+    }
+
+    final List<Future<EntryIDSet>> futures = new ArrayList<>(parallelism - 1);
+    final List<OrComponentsEvaluation> localEvaluations = new ArrayList<>();
+    localEvaluations.add(evaluations.get(0));
+    for (OrComponentsEvaluation evaluation : evaluations.subList(1, parallelism))
+    {
+      try
+      {
+        futures.add(pool.submit(evaluation));
+      }
+      catch (RejectedExecutionException e)
+      {
+        // The threads are being reconfigured.
+        localEvaluations.add(evaluation);
+      }
+    }
+
+    final List<EntryIDSet> candidateSets = new ArrayList<>(parallelism);
+    for (OrComponentsEvaluation evaluation : localEvaluations)
+    {
+      candidateSets.add(evaluation.run(txn));
+    }
+    for (Future<EntryIDSet> future : futures)
+    {
+      candidateSets.add(getResult(future));
+    }
+
+    long sequentialNanos = 0;
+    for (OrComponentsEvaluation evaluation : evaluations)
+    {
+      sequentialNanos += evaluation.elapsedNanos;
+    }
+    monitor.updateParallelFilterStats(sequentialNanos - (System.nanoTime() - startTime));
+
+    for (EntryIDSet set : candidateSets)
+    {
+      if (!set.isDefined())
+      {
+        return set;
+      }
+    }
+    return newSetFromUnion(candidateSets);
+  }
+
+  private static EntryIDSet getResult(Future<EntryIDSet> future)
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new StorageRuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof StorageRuntimeException)
+      {
+        throw (StorageRuntimeException) e.getCause();
+      }
+      throw new StorageRuntimeException(e.getCause());
+    }
+  }
+
   private EntryIDSet evaluateFilterWithDiagnostic(IndexFilterType indexFilterType, SearchFilter filter)
   {
     if (buffer != null)
@@ -0,0 +1,183 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key cardinality statistics of an index, maintained incrementally as keys are read and updated.
+ * <p>
+ * Every key value decoded by the index is accounted for, which gives an estimation of the number of entry IDs a key
+ * lookup will return. These statistics are used by the {@link IndexFilter} to order the components of AND filters.
+ * Statistics are kept in memory only: until enough keys have been observed, no estimation is available.
+ * <p>
+ * Counters are updated on every index read by all the worker threads, so they are held in {@link AtomicLong}s rather
+ * than guarded by a lock.
+ */
+final class IndexStatistics
+{
+  /** Returned when no estimation is available yet. */
+  static final long UNKNOWN = -1;
+  /** Size of a key which does not exist, see {@link #keyUpdated(long, EntryIDSet)}. */
+  static final long NO_KEY = -1;
+
+  /** Minimum number of observed keys before providing an estimation. */
+  private static final long MIN_OBSERVED_KEYS = 16;
+  /** Once this number of keys has been observed, older observations are progressively forgotten. */
+  private static final long DECAY_THRESHOLD = 1 << 20;
+
+  private final AtomicLong observedKeys = new AtomicLong();
+  private final AtomicLong observedEntryIDs = new AtomicLong();
+  private final AtomicLong observedLimitExceededKeys = new AtomicLong();
+
+  private final AtomicLong keysAdded = new AtomicLong();
+  private final AtomicLong keysRemoved = new AtomicLong();
+  private final AtomicLong keysExceedingLimit = new AtomicLong();
+  private final AtomicLong entryIDsAdded = new AtomicLong();
+  private final AtomicLong entryIDsRemoved = new AtomicLong();
+
+  /**
+   * Accounts for a key value read from the index.
+   *
+   * @param value
+   *          the decoded value of the key, or an empty set if the key does not exist
+   */
+  void keyRead(EntryIDSet value)
+  {
+    if (observedKeys.incrementAndGet() > DECAY_THRESHOLD)
+    {
+      decay();
+    }
+    if (value.isDefined())
+    {
+      observedEntryIDs.addAndGet(value.size());
+    }
+    else
+    {
+      observedLimitExceededKeys.incrementAndGet();
+    }
+  }
+
+  /**
+   * Accounts for a key value updated in the index.
+   *
+   * @param oldSize
+   *          the number of entry IDs of the key before the update: {@link #NO_KEY} if the key did not exist, or
+   *          {@link Long#MAX_VALUE} if it had exceeded the index entry limit
+   * @param newValue
+   *          the value of the key after the update, or {@code null} if the key has been removed
+   */
+  void keyUpdated(long oldSize, EntryIDSet newValue)
+  {
+    if (oldSize == NO_KEY && newValue != null)
+    {
+      keysAdded.incrementAndGet();
+    }
+    else if (oldSize != NO_KEY && newValue == null)
+    {
+      keysRemoved.incrementAndGet();
+    }
+
+    final long definedOldSize = oldSize == NO_KEY || oldSize == Long.MAX_VALUE ? 0 : oldSize;
+    long newSize = 0;
+    if (newValue != null && newValue.isDefined())
+    {
+      newSize = newValue.size();
+    }
+    else if (newValue != null && oldSize != Long.MAX_VALUE)
+    {
+      keysExceedingLimit.incrementAndGet();
+    }
+
+    if (newSize > definedOldSize)
+    {
+      entryIDsAdded.addAndGet(newSize - definedOldSize);
+    }
+    else
+    {
+      entryIDsRemoved.addAndGet(definedOldSize - newSize);
+    }
+    if (newValue != null)
+    {
+      keyRead(newValue);
+    }
+  }
+
+  /**
+   * Returns the estimated number of entry IDs returned by a key lookup.
+   *
+   * @param indexEntryLimit
+   *          the index entry limit, used as the size of the keys which exceeded it
+   * @return the estimated number of entry IDs returned by a key lookup, or {@link #UNKNOWN} if not enough keys have
+   *         been observed yet
+   */
+  long getEstimatedEntryIDsPerKey(int indexEntryLimit)
+  {
+    final long keys = observedKeys.get();
+    if (keys < MIN_OBSERVED_KEYS)
+    {
+      return UNKNOWN;
+    }
+    final long limit = indexEntryLimit > 0 ? indexEntryLimit : IndexFilter.CURSOR_ENTRY_LIMIT;
+    return (observedEntryIDs.get() + observedLimitExceededKeys.get() * limit) / keys;
+  }
+
+  /** Halves the observations. Concurrent observations may be lost, which is acceptable for estimations. */
+  private synchronized void decay()
+  {
+    if (observedKeys.get() > DECAY_THRESHOLD)
+    {
+      halve(observedKeys);
+      halve(observedEntryIDs);
+      halve(observedLimitExceededKeys);
+    }
+  }
+
+  private static void halve(AtomicLong counter)
+  {
+    counter.addAndGet(-(counter.get() / 2));
+  }
+
+  /**
+   * Appends a string representation of these statistics, suitable for the backend monitor.
+   *
+   * @param buffer
+   *          the buffer where to append the statistics
+   * @param indexEntryLimit
+   *          the index entry limit of the index
+   */
+  void toString(StringBuilder buffer, int indexEntryLimit)
+  {
+    buffer.append(" observedKeys:").append(observedKeys.get());
+    buffer.append(" estimatedEntryIDsPerKey:").append(getEstimatedEntryIDsPerKey(indexEntryLimit));
+    buffer.append(" observedLimitExceededKeys:").append(observedLimitExceededKeys.get());
+    buffer.append(" keysAdded:").append(keysAdded.get());
+    buffer.append(" keysRemoved:").append(keysRemoved.get());
+    buffer.append(" keysExceedingLimit:").append(keysExceedingLimit.get());
+    buffer.append(" entryIDsAdded:").append(entryIDsAdded.get());
+    buffer.append(" entryIDsRemoved:").append(entryIDsRemoved.get());
+  }
+}
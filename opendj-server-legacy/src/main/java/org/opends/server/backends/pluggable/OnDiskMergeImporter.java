@@ -685,6 +685,7 @@ final class OnDiskMergeImporter
 
     private final EntryContainer entryContainer;
     private final CompressedSchema schema;
+    private final CompressionDictionaries compressionDictionaries;
     private final Importer importer;
     private final ExecutorService executor;
     private final long nbTotalEntries;
@@ -698,6 +699,7 @@ final class OnDiskMergeImporter
       this.entryContainer = entryContainer;
       this.importer = importer;
       this.schema = entryContainer.getRootContainer().getCompressedSchema();
+      this.compressionDictionaries = entryContainer.getRootContainer().getCompressionDictionaries();
       // by default (unfortunately) the ThreadPoolExecutor will throw an exception when queue is full.
       this.executor =
           new ThreadPoolExecutor(nbThread, nbThread, 0, TimeUnit.SECONDS,
@@ -742,7 +744,7 @@ final class OnDiskMergeImporter
               try
               {
                 entryProcessor.processEntry(entryContainer,
-                    new EntryID(key), ID2Entry.entryFromDatabase(value, schema));
+                    new EntryID(key), ID2Entry.entryFromDatabase(value, schema, compressionDictionaries));
                 nbEntriesProcessed.incrementAndGet();
               }
               catch (Exception e)
@@ -3290,27 +3292,19 @@ final class OnDiskMergeImporter
 
     private EntryIDSet buildEntryIDSet(Collection<ByteString> encodedIDSets)
     {
-      final long[] entryIDs = new long[indexLimit];
-
-      // accumulate in array
-      int i = 0;
+      // accumulate in a compressed bitmap rather than in an array sized by the index entry limit
+      final EntryIDSet entryIDs = EntryIDSet.newBitmapSet();
       for (ByteString encodedIDSet : encodedIDSets)
       {
         final EntryIDSet entryIDSet = index.decodeValue(ByteString.empty(), encodedIDSet);
-        if (!entryIDSet.isDefined() || i + entryIDSet.size() >= indexLimit)
+        if (!entryIDSet.isDefined() || entryIDs.size() + entryIDSet.size() >= indexLimit)
         {
           // above index entry limit
           return EntryIDSet.newUndefinedSet();
         }
-
-        for (EntryID entryID : entryIDSet)
-        {
-          entryIDs[i++] = entryID.longValue();
-        }
+        entryIDs.addAll(entryIDSet);
       }
-
-      Arrays.sort(entryIDs, 0, i);
-      return EntryIDSet.newDefinedSet(Arrays.copyOf(entryIDs, i));
+      return entryIDs;
     }
   }
 
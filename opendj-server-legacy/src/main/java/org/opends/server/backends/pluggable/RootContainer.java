@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.backends.pluggable;
 
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -89,6 +90,14 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   /** The compressed schema manager for this backend. */
   private PersistentCompressedSchema compressedSchema;
 
+  /** The compression dictionaries of this backend. */
+  private CompressionDictionaries compressionDictionaries;
+
+  /** The threads evaluating OR filter components in parallel, {@code null} if disabled. */
+  private volatile ForkJoinPool indexFilterPool;
+  /** Maximum number of threads evaluating the components of an OR filter for one search. */
+  private volatile int indexFilterParallelism;
+
   /**
    * Creates a new RootContainer object representing a storage.
    *
@@ -106,6 +115,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
     getMonitorProvider().enableFilterUseStats(config.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(config.getIndexFilterAnalyzerMaxFilters());
+    this.indexFilterParallelism = config.getIndexFilterParallelism();
 
     config.addPluggableChangeListener(this);
   }
@@ -135,12 +145,14 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     try
     {
       storage.open(accessMode);
+      indexFilterPool = newIndexFilterPool(config.getIndexFilterThreads());
       storage.write(new WriteOperation()
       {
         @Override
         public void run(WriteableTransaction txn) throws Exception
         {
           compressedSchema = new PersistentCompressedSchema(storage, txn, accessMode);
+          compressionDictionaries = new CompressionDictionaries(backendId, storage, txn, accessMode);
           openAndRegisterEntryContainers(txn, config.getBaseDN(), accessMode);
         }
       });
@@ -259,6 +271,16 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     return compressedSchema;
   }
 
+  /**
+   * Retrieves the compression dictionaries for this backend.
+   *
+   * @return The compression dictionaries for this backend.
+   */
+  CompressionDictionaries getCompressionDictionaries()
+  {
+    return compressionDictionaries;
+  }
+
   /**
    * Get the BackendMonitor object used by this root container.
    *
@@ -337,12 +359,54 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
       }
     }
     config.removePluggableChangeListener(this);
+    shutdown(indexFilterPool);
+    indexFilterPool = null;
+    if (compressionDictionaries != null)
+    {
+      compressionDictionaries.close();
+    }
     if (storage != null)
     {
       storage.close();
     }
   }
 
+  private static ForkJoinPool newIndexFilterPool(int threads)
+  {
+    return threads > 0 ? new ForkJoinPool(threads) : null;
+  }
+
+  private static void shutdown(ForkJoinPool pool)
+  {
+    if (pool != null)
+    {
+      // Already submitted evaluations complete normally.
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Returns the threads evaluating the components of OR filters in parallel.
+   *
+   * @return the threads evaluating the components of OR filters in parallel, or {@code null} if OR filters must be
+   *         evaluated by the thread processing the search
+   */
+  ForkJoinPool getIndexFilterPool()
+  {
+    return indexFilterPool;
+  }
+
+  /**
+   * Returns the maximum number of threads evaluating the components of an OR filter for a single search, including
+   * the thread processing the search.
+   *
+   * @return the maximum number of threads evaluating the components of an OR filter for a single search
+   */
+  int getIndexFilterParallelism()
+  {
+    return indexFilterParallelism;
+  }
+
   /**
    * Return all the entry containers in this root container.
    *
@@ -456,6 +520,15 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     getMonitorProvider().enableFilterUseStats(configuration.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(configuration.getIndexFilterAnalyzerMaxFilters());
 
+    indexFilterParallelism = configuration.getIndexFilterParallelism();
+    final ForkJoinPool pool = indexFilterPool;
+    final int threads = pool != null ? pool.getParallelism() : 0;
+    if (threads != configuration.getIndexFilterThreads())
+    {
+      indexFilterPool = newIndexFilterPool(configuration.getIndexFilterThreads());
+      shutdown(pool);
+    }
+
     return new ConfigChangeResult();
   }
 
@@ -383,7 +383,8 @@ class VerifyJob
         Entry entry;
         try
         {
-          entry = ID2Entry.entryFromDatabase(value, rootContainer.getCompressedSchema());
+          entry = ID2Entry.entryFromDatabase(value, rootContainer.getCompressedSchema(),
+              rootContainer.getCompressionDictionaries());
         }
         catch (Exception e)
         {
@@ -0,0 +1,143 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.core;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opends.server.types.DN;
+
+/**
+ * Cache of the computed groups, such as dynamic groups, matching the stored
+ * entry of each member.
+ * <p>
+ * An entry of the cache must be invalidated whenever the corresponding entry
+ * is added, modified, renamed or deleted, and the whole cache must be
+ * invalidated whenever a group changes.
+ * <p>
+ * Results are computed without holding any lock, so they can race with an
+ * invalidation. To prevent caching stale results, each invalidation
+ * increments a generation, and results computed from an older generation are
+ * discarded.
+ * <p>
+ * This class is thread safe.
+ */
+class ComputedGroupMembershipCache
+{
+  /** The maximum number of members cached before the cache is cleared. */
+  static final int MAX_CACHED_MEMBERS = 10000;
+
+  /** The DNs of the computed groups matching each member. */
+  private final ConcurrentMap<DN, Set<DN>> groupDNsByMember = new ConcurrentHashMap<>();
+  /** Incremented on each invalidation. */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Returns the current generation of this cache, which must be read before
+   * computing the results to cache.
+   *
+   * @return The current generation of this cache.
+   */
+  long getGeneration()
+  {
+    return generation.get();
+  }
+
+  /**
+   * Returns the cached DNs of the computed groups matching the provided
+   * member.
+   *
+   * @param memberDN
+   *          The DN of the member.
+   * @return The DNs of the computed groups matching the member, or
+   *         {@code null} if they are not cached.
+   */
+  Set<DN> get(DN memberDN)
+  {
+    return groupDNsByMember.get(memberDN);
+  }
+
+  /**
+   * Caches the DNs of the computed groups matching the provided member,
+   * unless the cache has been invalidated since they were computed.
+   *
+   * @param memberDN
+   *          The DN of the member.
+   * @param groupDNs
+   *          The DNs of the computed groups matching the member.
+   * @param computedGeneration
+   *          The generation of the cache read before computing the group DNs.
+   */
+  void put(DN memberDN, Set<DN> groupDNs, long computedGeneration)
+  {
+    if (groupDNsByMember.size() >= MAX_CACHED_MEMBERS)
+    {
+      groupDNsByMember.clear();
+    }
+    groupDNsByMember.put(memberDN, groupDNs);
+    if (generation.get() != computedGeneration)
+    {
+      // an invalidation may have missed the results being cached
+      groupDNsByMember.remove(memberDN);
+    }
+  }
+
+  /**
+   * Invalidates the cached results of the provided entry, and optionally of
+   * all its subordinate entries.
+   *
+   * @param baseDN
+   *          The DN of the entry to invalidate.
+   * @param subtree
+   *          Whether the subordinate entries must also be invalidated.
+   */
+  void invalidate(DN baseDN, boolean subtree)
+  {
+    generation.incrementAndGet();
+    if (!subtree)
+    {
+      groupDNsByMember.remove(baseDN);
+      return;
+    }
+    for (Iterator<DN> it = groupDNsByMember.keySet().iterator(); it.hasNext();)
+    {
+      if (it.next().isDescendantOf(baseDN))
+      {
+        it.remove();
+      }
+    }
+  }
+
+  /** Invalidates all the cached results. */
+  void invalidateAll()
+  {
+    generation.incrementAndGet();
+    groupDNsByMember.clear();
+  }
+}
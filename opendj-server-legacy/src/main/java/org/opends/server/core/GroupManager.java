@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2007-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.core;
 
@@ -34,9 +34,13 @@ import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,8 +52,10 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.config.server.ConfigChangeResult;
 import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.DN.CompactDn;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.util.Pair;
 import org.forgerock.util.Utils;
 import org.opends.server.admin.ClassPropertyDefinition;
 import org.opends.server.admin.server.ConfigurationAddListener;
@@ -58,11 +64,13 @@ import org.opends.server.admin.server.ConfigurationDeleteListener;
 import org.opends.server.admin.server.ServerManagementContext;
 import org.opends.server.admin.std.meta.GroupImplementationCfgDefn;
 import org.opends.server.admin.std.server.GroupImplementationCfg;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
 import org.opends.server.admin.std.server.RootCfg;
 import org.opends.server.api.Backend;
 import org.opends.server.api.BackendInitializationListener;
 import org.opends.server.api.DITCacheMap;
 import org.opends.server.api.Group;
+import org.opends.server.api.MonitorProvider;
 import org.opends.server.api.plugin.InternalDirectoryServerPlugin;
 import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.api.plugin.PluginResult.PostOperation;
@@ -71,11 +79,15 @@ import org.opends.server.protocols.internal.InternalClientConnection;
 import org.opends.server.protocols.internal.InternalSearchOperation;
 import org.opends.server.protocols.internal.SearchRequest;
 import org.opends.server.protocols.ldap.LDAPControl;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.AttributeBuilder;
+import org.opends.server.types.Attributes;
 import org.opends.server.types.Control;
 import org.opends.server.types.DN;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.InitializationException;
+import org.opends.server.types.Modification;
 import org.opends.server.types.SearchFilter;
 import org.opends.server.types.SearchResultEntry;
 import org.opends.server.types.operation.PluginOperation;
@@ -127,9 +139,24 @@ public class GroupManager extends InternalDirectoryServerPlugin
    */
   private DITCacheMap<Group<?>> groupInstances;
 
+  /** The computed groups matching the stored entry of each member. */
+  private final ComputedGroupMembershipCache computedGroupsCache = new ComputedGroupMembershipCache();
+
+  /** The entry which each thread is evaluating against the computed groups. */
+  private final ThreadLocal<Entry> evaluatedEntry = new ThreadLocal<>();
+
+  /** The index of the groups of each member, for all the group instances. */
+  private final GroupMembershipIndex membershipIndex = new GroupMembershipIndex(computedGroupsCache);
+
   /** Lock to protect internal data structures. */
   private final ReentrantReadWriteLock lock;
 
+  /** The maximum number of groups whose memory footprint is reported by the monitor. */
+  private static final int MAX_MONITORED_GROUPS = 10;
+
+  /** Monitor reporting the memory footprint of the group instances. */
+  private final GroupManagerMonitorProvider monitor = new GroupManagerMonitorProvider();
+
   /** Dummy configuration DN for Group Manager. */
   private static final String CONFIG_DN = "cn=Group Manager,cn=config";
 
@@ -192,6 +219,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     // can be notified if any group implementation entries are added or removed.
     rootConfiguration.addGroupImplementationAddListener(this);
     rootConfiguration.addGroupImplementationDeleteListener(this);
+    DirectoryServer.registerMonitorProvider(monitor);
 
 
     //Initialize the existing group implementations.
@@ -312,6 +340,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           if (g.getClass().getName().equals(group.getClass().getName()))
           {
             iterator.remove();
+            membershipIndex.removeGroup(g);
           }
         }
       }
@@ -379,6 +408,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
               if (g.getClass().getName().equals(group.getClass().getName()))
               {
                 iterator.remove();
+                membershipIndex.removeGroup(g);
               }
             }
           }
@@ -500,6 +530,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
   {
     DirectoryServer.deregisterInternalPlugin(this);
     DirectoryServer.deregisterBackendInitializationListener(this);
+    DirectoryServer.deregisterMonitorProvider(monitor);
 
     deregisterAllGroups();
 
@@ -574,6 +605,250 @@ public class GroupManager extends InternalDirectoryServerPlugin
 
 
 
+  /**
+   * Retrieves the DNs of all the groups the provided entry is a member of,
+   * either directly or through nested groups.
+   * <p>
+   * The groups explicitly listing their members are read from an index of
+   * the groups of each member, so that only the groups whose members are
+   * computed, such as dynamic groups, need to be evaluated against the entry.
+   *
+   * @param  userEntry  The entry for which to retrieve the groups.
+   *
+   * @return  The DNs of the groups the provided entry is a member of.
+   */
+  public Set<DN> getGroupDNsOf(Entry userEntry)
+  {
+    // Evaluate the computed groups without holding the lock
+    final Set<DN> computedGroupDNs = evaluateComputedGroups(getComputedGroups(), userEntry);
+    final List<DN> memberDNs = new ArrayList<>();
+    memberDNs.add(userEntry.getName());
+    memberDNs.addAll(computedGroupDNs);
+
+    lock.readLock().lock();
+    try
+    {
+      final Set<DN> groupDNs = membershipIndex.getGroupDNs(memberDNs);
+      groupDNs.addAll(computedGroupDNs);
+      return groupDNs;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+
+
+  /**
+   * Retrieves the DNs of the groups whose members are computed, such as
+   * dynamic groups, matching the stored entry with the provided DN.
+   * <p>
+   * All the computed groups are evaluated at once against the entry, and the
+   * results are cached until the entry or any group changes, so that checking
+   * the membership of the same user in several computed groups only reads and
+   * evaluates its entry once.
+   *
+   * @param  userDN  The DN of the entry for which to retrieve the groups.
+   *
+   * @return  The DNs of the computed groups matching the entry, which is empty
+   *          if the entry does not exist.
+   *
+   * @throws  DirectoryException  If a problem occurs while reading the entry.
+   */
+  public Set<DN> getComputedGroupDNsOf(DN userDN) throws DirectoryException
+  {
+    Set<DN> groupDNs = computedGroupsCache.get(userDN);
+    if (groupDNs != null)
+    {
+      return groupDNs;
+    }
+
+    // Read the generation first so that any concurrent change discards the results
+    final long generation = computedGroupsCache.getGeneration();
+    final List<Group<?>> computedGroups = getComputedGroups();
+    final Entry userEntry = DirectoryServer.getEntry(userDN);
+    groupDNs = userEntry != null
+        ? Collections.unmodifiableSet(evaluateComputedGroups(computedGroups, userEntry))
+        : Collections.<DN> emptySet();
+    computedGroupsCache.put(userDN, groupDNs, generation);
+    return groupDNs;
+  }
+
+
+
+  private List<Group<?>> getComputedGroups()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return new ArrayList<>(membershipIndex.getComputedGroups());
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+
+
+  private Set<DN> evaluateComputedGroups(List<Group<?>> computedGroups, Entry userEntry)
+  {
+    final Entry previousEntry = evaluatedEntry.get();
+    evaluatedEntry.set(userEntry);
+    try
+    {
+      final Set<DN> groupDNs = new LinkedHashSet<>();
+      for (Group<?> group : computedGroups)
+      {
+        try
+        {
+          if (group.isMember(userEntry))
+          {
+            groupDNs.add(group.getGroupDN());
+          }
+        }
+        catch (DirectoryException e)
+        {
+          logger.traceException(e);
+        }
+      }
+      return groupDNs;
+    }
+    finally
+    {
+      if (previousEntry != null)
+      {
+        evaluatedEntry.set(previousEntry);
+      }
+      else
+      {
+        evaluatedEntry.remove();
+      }
+    }
+  }
+
+
+
+  /**
+   * Retrieves the entry which the current thread is evaluating against the
+   * computed groups, if any.  A computed group whose membership is checked
+   * while this entry is evaluated, for instance because it is nested in a
+   * static group targeted by a virtual static group, must evaluate the entry
+   * itself: calling {@link #getComputedGroupDNsOf(DN)} would evaluate the
+   * computed groups again, endlessly.
+   *
+   * @return  The entry which the current thread is evaluating against the
+   *          computed groups, or {@code null} if there is none.
+   */
+  public Entry getEvaluatedEntry()
+  {
+    return evaluatedEntry.get();
+  }
+
+
+
+  /**
+   * Notifies this group manager that a member has been added to a group
+   * without modifying the group entry through an operation processed by this
+   * group manager.
+   *
+   * @param  group      The group instance to which the member was added.
+   * @param  memberDN   The DN of the added member.
+   */
+  public void memberAdded(Group<?> group, CompactDn memberDN)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      if (groupInstances.get(group.getGroupDN()) == group)
+      {
+        membershipIndex.addMember(group.getGroupDN(), memberDN);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+
+  /**
+   * Notifies this group manager that a member has been removed from a group
+   * without modifying the group entry through an operation processed by this
+   * group manager.
+   *
+   * @param  group      The group instance from which the member was removed.
+   * @param  memberDN   The DN of the removed member.
+   */
+  public void memberRemoved(Group<?> group, CompactDn memberDN)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      if (groupInstances.get(group.getGroupDN()) == group)
+      {
+        membershipIndex.removeMember(group.getGroupDN(), memberDN);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+
+  /**
+   * Notifies this group manager that members have been added to and removed
+   * from a group, all at once, without creating a new instance of the group.
+   *
+   * @param  group             The group instance whose members changed.
+   * @param  addedMemberDNs    The DNs of the added members.
+   * @param  removedMemberDNs  The DNs of the removed members.
+   */
+  public void membersChanged(Group<?> group, Collection<CompactDn> addedMemberDNs,
+      Collection<CompactDn> removedMemberDNs)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      if (groupInstances.get(group.getGroupDN()) == group)
+      {
+        membershipIndex.updateMembers(group.getGroupDN(), addedMemberDNs, removedMemberDNs);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+
+  /**
+   * Registers the provided group instance, replacing any group instance
+   * registered with the same DN, in which case only the members which differ
+   * between both instances are re-indexed.
+   * <p>
+   * @GuardedBy("lock.writeLock()")
+   */
+  private void putGroupInstance(DN groupDN, Group<?> groupInstance)
+  {
+    Group<?> oldGroupInstance = groupInstances.put(groupDN, groupInstance);
+    if (oldGroupInstance != null)
+    {
+      membershipIndex.replaceGroup(oldGroupInstance, groupInstance);
+    }
+    else
+    {
+      membershipIndex.addGroup(groupInstance);
+    }
+  }
+
+
+
   /**
    * {@inheritDoc}  In this case, the server will search the backend to find
    * all group instances that it may contain and register them with this group
@@ -582,6 +857,8 @@ public class GroupManager extends InternalDirectoryServerPlugin
   @Override
   public void performBackendPreInitializationProcessing(Backend<?> backend)
   {
+    // The entries of the backend may have changed while it was offline
+    computedGroupsCache.invalidateAll();
     InternalClientConnection conn = getRootConnection();
 
     LDAPControl control = new LDAPControl(OID_INTERNAL_GROUP_MEMBERSHIP_UPDATE, false);
@@ -646,7 +923,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
             try
             {
               Group<?> groupInstance = groupImplementation.newInstance(null, entry);
-              groupInstances.put(entry.getName(), groupInstance);
+              putGroupInstance(entry.getName(), groupInstance);
               refreshToken++;
             }
             catch (DirectoryException e)
@@ -673,6 +950,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
   @Override
   public void performBackendPostFinalizationProcessing(Backend<?> backend)
   {
+    computedGroupsCache.invalidateAll();
     lock.writeLock().lock();
     try
     {
@@ -684,6 +962,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
         if (backend.handlesEntry(groupEntryDN))
         {
           iterator.remove();
+          membershipIndex.removeGroup(mapEntry.getValue());
         }
       }
     }
@@ -711,6 +990,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
    */
   private void doPostAdd(PluginOperation addOperation, Entry entry)
   {
+    computedGroupsCache.invalidate(entry.getName(), false);
     if (hasGroupMembershipUpdateControl(addOperation))
     {
       return;
@@ -745,6 +1025,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
    */
   private void doPostDelete(PluginOperation deleteOperation, Entry entry)
   {
+    computedGroupsCache.invalidate(entry.getName(), true);
     if (hasGroupMembershipUpdateControl(deleteOperation))
     {
       return;
@@ -753,8 +1034,13 @@ public class GroupManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      if (groupInstances.removeSubtree(entry.getName(), null))
+      Set<Group<?>> groupSet = new HashSet<>();
+      if (groupInstances.removeSubtree(entry.getName(), groupSet))
       {
+        for (Group<?> group : groupSet)
+        {
+          membershipIndex.removeGroup(group);
+        }
         refreshToken++;
       }
     }
@@ -768,22 +1054,26 @@ public class GroupManager extends InternalDirectoryServerPlugin
 
   /**
    * In this case, if the entry is associated with a registered
-   * group instance, then that instance will be recreated from
-   * the contents of the provided entry and re-registered with
-   * the group manager.
+   * group instance, then the modifications are applied to that
+   * instance, or, if it cannot apply them, that instance will be
+   * recreated from the contents of the provided entry and
+   * re-registered with the group manager.
    */
   private void doPostModify(PluginOperation modifyOperation,
-          Entry oldEntry, Entry newEntry)
+          List<Modification> modifications, Entry oldEntry, Entry newEntry)
   {
+    computedGroupsCache.invalidate(oldEntry.getName(), false);
     if (hasGroupMembershipUpdateControl(modifyOperation))
     {
       return;
     }
 
+    Group<?> group;
     lock.readLock().lock();
     try
     {
-      if (!groupInstances.containsKey(oldEntry.getName()))
+      group = groupInstances.get(oldEntry.getName());
+      if (group == null)
       {
         // If the modified entry is not in any group instance, it's probably
         // not a group, exit fast
@@ -795,6 +1085,14 @@ public class GroupManager extends InternalDirectoryServerPlugin
       lock.readLock().unlock();
     }
 
+    // Not holding the lock, since groups notify the member updates while
+    // holding their own lock.
+    if (oldEntry.getName().equals(newEntry.getName())
+        && group.applyModifications(modifications))
+    {
+      return;
+    }
+
     lock.writeLock().lock();
     try
     {
@@ -803,7 +1101,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
         if (! oldEntry.getName().equals(newEntry.getName()))
         {
           // This should never happen, but check for it anyway.
-          groupInstances.remove(oldEntry.getName());
+          membershipIndex.removeGroup(groupInstances.remove(oldEntry.getName()));
         }
         createAndRegisterGroup(newEntry);
       }
@@ -826,6 +1124,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
   private void doPostModifyDN(PluginOperation modifyDNOperation,
           Entry oldEntry, Entry newEntry)
   {
+    computedGroupsCache.invalidate(oldEntry.getName(), true);
     if (hasGroupMembershipUpdateControl(modifyDNOperation))
     {
       return;
@@ -840,10 +1139,11 @@ public class GroupManager extends InternalDirectoryServerPlugin
       groupInstances.removeSubtree(oldDN, groupSet);
       for (Group<?> group : groupSet)
       {
+        membershipIndex.removeGroup(group);
         final DN groupDN = group.getGroupDN();
         final DN renamedGroupDN = groupDN.rename(oldDN, newDN);
         group.setGroupDN(renamedGroupDN);
-        groupInstances.put(renamedGroupDN, group);
+        putGroupInstance(renamedGroupDN, group);
       }
       if (!groupSet.isEmpty())
       {
@@ -900,6 +1200,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     if (modifyOperation.getResultCode() == ResultCode.SUCCESS)
     {
       doPostModify(modifyOperation,
+            modifyOperation.getModifications(),
             modifyOperation.getCurrentEntry(),
             modifyOperation.getModifiedEntry());
     }
@@ -959,7 +1260,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     Entry modEntry = modifyOperation.getModifiedEntry();
     if (entry != null && modEntry != null)
     {
-      doPostModify(modifyOperation, entry, modEntry);
+      doPostModify(modifyOperation, modifyOperation.getModifications(), entry, modEntry);
     }
   }
 
@@ -998,7 +1299,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           lock.writeLock().lock();
           try
           {
-            groupInstances.put(entry.getName(), groupInstance);
+            putGroupInstance(entry.getName(), groupInstance);
             refreshToken++;
           }
           finally
@@ -1027,6 +1328,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     try
     {
       groupInstances.clear();
+      membershipIndex.clear();
     }
     finally
     {
@@ -1035,6 +1337,78 @@ public class GroupManager extends InternalDirectoryServerPlugin
   }
 
 
+  /** Monitor reporting the memory used by the group instances to hold their members. */
+  private class GroupManagerMonitorProvider extends MonitorProvider<MonitorProviderCfg>
+  {
+    /** {@inheritDoc} */
+    @Override
+    public List<Attribute> getMonitorData()
+    {
+      // Compute the footprints on a copy of the groups, without holding the lock
+      final List<Pair<Long, DN>> footprints = new ArrayList<>();
+      long totalSizeInBytes = 0;
+      for (Group<?> group : getGroupInstances())
+      {
+        final long sizeInBytes = group.getMemberListSizeInBytes();
+        footprints.add(Pair.of(sizeInBytes, group.getGroupDN()));
+        totalSizeInBytes += sizeInBytes;
+      }
+      Collections.sort(footprints, new Comparator<Pair<Long, DN>>()
+      {
+        @Override
+        public int compare(Pair<Long, DN> p1, Pair<Long, DN> p2)
+        {
+          return p2.getFirst().compareTo(p1.getFirst());
+        }
+      });
+
+      final List<Attribute> attributes = new ArrayList<>();
+      attributes.add(Attributes.create("group-instances", String.valueOf(footprints.size())));
+      attributes.add(Attributes.create("group-member-lists-size", String.valueOf(totalSizeInBytes)));
+      attributes.add(Attributes.create("group-membership-index-size", String.valueOf(getMembershipIndexSizeInBytes())));
+      final AttributeBuilder builder = new AttributeBuilder("largest-group-member-list-size");
+      for (Pair<Long, DN> footprint : footprints.subList(0, Math.min(MAX_MONITORED_GROUPS, footprints.size())))
+      {
+        builder.add(footprint.getSecond() + ":" + footprint.getFirst());
+      }
+      if (!builder.isEmpty())
+      {
+        attributes.add(builder.toAttribute());
+      }
+      return attributes;
+    }
+
+    private long getMembershipIndexSizeInBytes()
+    {
+      lock.readLock().lock();
+      try
+      {
+        return membershipIndex.getSizeInBytes();
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getMonitorInstanceName()
+    {
+      return "Group Manager";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void initializeMonitorProvider(MonitorProviderCfg configuration)
+        throws ConfigException, InitializationException
+    {
+      // Nothing to do
+    }
+  }
+
+
+
   /**
    * Compare the specified token against the current group manager
    * token value. Can be used to reload cached group instances if there has
@@ -0,0 +1,339 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.core;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.forgerock.opendj.adapter.server3x.Converters;
+import org.forgerock.opendj.ldap.DN.CompactDn;
+import org.opends.server.api.Group;
+import org.opends.server.types.DN;
+
+/**
+ * Reverse index of the group memberships, mapping the DN of each member
+ * explicitly listed in a group to the DNs of the groups listing it.
+ * <p>
+ * Groups whose members are computed rather than listed, such as dynamic
+ * groups, cannot be indexed: they are kept aside so that their membership can
+ * be evaluated separately.
+ * <p>
+ * The transitive closure of nested groups is not stored: it is computed by
+ * following the index from a member to its groups, then from these groups to
+ * the groups listing them, and so on. The cost of a lookup is therefore
+ * proportional to the number of memberships of the member, and updating a
+ * group only updates the entries of its own members.
+ * <p>
+ * Any change to the groups invalidates the provided cache of the computed
+ * groups, as the membership of computed groups such as virtual static groups
+ * can depend on the membership of other groups.
+ * <p>
+ * This class is not thread safe: it is protected by the lock of the
+ * {@link GroupManager}.
+ */
+class GroupMembershipIndex
+{
+  /**
+   * Estimated overhead of each indexed member, in bytes: the map entry, the
+   * compact DN with its original and normalized values, and the set of group
+   * DNs.
+   */
+  private static final int MEMBER_OVERHEAD_IN_BYTES = 200;
+  /** Estimated overhead of each membership of an indexed member, in bytes. */
+  private static final int MEMBERSHIP_OVERHEAD_IN_BYTES = 40;
+
+  /**
+   * The DNs of the groups explicitly listing each member. Members are keyed by
+   * their compact DN, which is shared with the member list of their group for
+   * small groups only: the members of compressed large groups are decoded into
+   * new compact DNs, so the keys then take memory on their own.
+   */
+  private final Map<CompactDn, Set<DN>> groupDNsByMember = new HashMap<>();
+
+  /**
+   * The estimated memory footprint of this index, in bytes, counting the keys
+   * even when they are shared with the member lists.
+   */
+  private long sizeInBytes;
+
+  /** The groups whose members cannot be listed, keyed by group DN. */
+  private final Map<DN, Group<?>> computedGroups = new HashMap<>();
+
+  /** The cache of the computed groups matching each member. */
+  private final ComputedGroupMembershipCache computedGroupsCache;
+
+  /**
+   * Creates a new empty index.
+   *
+   * @param computedGroupsCache
+   *          The cache of the computed groups matching each member, to
+   *          invalidate whenever the groups change.
+   */
+  GroupMembershipIndex(ComputedGroupMembershipCache computedGroupsCache)
+  {
+    this.computedGroupsCache = computedGroupsCache;
+  }
+
+  /**
+   * Indexes the members of the provided group.
+   *
+   * @param group
+   *          The group to index.
+   */
+  void addGroup(Group<?> group)
+  {
+    computedGroupsCache.invalidateAll();
+    final DN groupDN = group.getGroupDN();
+    final Set<CompactDn> memberDNs = group.getExplicitMemberDNs();
+    if (memberDNs == null)
+    {
+      computedGroups.put(groupDN, group);
+      return;
+    }
+    for (CompactDn memberDN : memberDNs)
+    {
+      indexMember(groupDN, memberDN);
+    }
+  }
+
+  /**
+   * Removes the members of the provided group from this index.
+   *
+   * @param group
+   *          The group to remove, which must have been indexed with its
+   *          current DN and members.
+   */
+  void removeGroup(Group<?> group)
+  {
+    computedGroupsCache.invalidateAll();
+    final DN groupDN = group.getGroupDN();
+    final Set<CompactDn> memberDNs = group.getExplicitMemberDNs();
+    if (memberDNs == null)
+    {
+      computedGroups.remove(groupDN);
+      return;
+    }
+    for (CompactDn memberDN : memberDNs)
+    {
+      unindexMember(groupDN, memberDN);
+    }
+  }
+
+  /**
+   * Replaces an indexed group by a new instance of the same group, only
+   * updating the members listed by one of the instances but not by the other.
+   *
+   * @param oldGroup
+   *          The group to replace, which must have been indexed with its
+   *          current DN and members.
+   * @param newGroup
+   *          The new instance of the group.
+   */
+  void replaceGroup(Group<?> oldGroup, Group<?> newGroup)
+  {
+    final DN groupDN = newGroup.getGroupDN();
+    final Set<CompactDn> oldMemberDNs = oldGroup.getExplicitMemberDNs();
+    final Set<CompactDn> newMemberDNs = newGroup.getExplicitMemberDNs();
+    if (oldMemberDNs == null || newMemberDNs == null || !groupDN.equals(oldGroup.getGroupDN()))
+    {
+      removeGroup(oldGroup);
+      addGroup(newGroup);
+      return;
+    }
+
+    computedGroupsCache.invalidateAll();
+    // Large member lists are compressed: hash them once rather than
+    // decoding them on each lookup
+    final Set<CompactDn> addedMemberDNs = new HashSet<>(newMemberDNs);
+    for (CompactDn memberDN : oldMemberDNs)
+    {
+      if (!addedMemberDNs.remove(memberDN))
+      {
+        unindexMember(groupDN, memberDN);
+      }
+    }
+    for (CompactDn memberDN : addedMemberDNs)
+    {
+      indexMember(groupDN, memberDN);
+    }
+  }
+
+  /**
+   * Records that the provided member is explicitly listed in the provided
+   * group.
+   *
+   * @param groupDN
+   *          The DN of the group.
+   * @param memberDN
+   *          The DN of the member.
+   */
+  void addMember(DN groupDN, CompactDn memberDN)
+  {
+    computedGroupsCache.invalidateAll();
+    indexMember(groupDN, memberDN);
+  }
+
+  private void indexMember(DN groupDN, CompactDn memberDN)
+  {
+    Set<DN> groupDNs = groupDNsByMember.get(memberDN);
+    if (groupDNs == null)
+    {
+      groupDNs = new HashSet<>(2);
+      groupDNsByMember.put(memberDN, groupDNs);
+      sizeInBytes += getMemberSizeInBytes(memberDN);
+    }
+    if (groupDNs.add(groupDN))
+    {
+      sizeInBytes += MEMBERSHIP_OVERHEAD_IN_BYTES;
+    }
+  }
+
+  /**
+   * Records that the provided member is no longer listed in the provided
+   * group.
+   *
+   * @param groupDN
+   *          The DN of the group.
+   * @param memberDN
+   *          The DN of the member.
+   */
+  void removeMember(DN groupDN, CompactDn memberDN)
+  {
+    computedGroupsCache.invalidateAll();
+    unindexMember(groupDN, memberDN);
+  }
+
+  /**
+   * Records that the provided members have been added to and removed from
+   * the provided group.
+   *
+   * @param groupDN
+   *          The DN of the group.
+   * @param addedMemberDNs
+   *          The DNs of the added members.
+   * @param removedMemberDNs
+   *          The DNs of the removed members.
+   */
+  void updateMembers(DN groupDN, Collection<CompactDn> addedMemberDNs, Collection<CompactDn> removedMemberDNs)
+  {
+    computedGroupsCache.invalidateAll();
+    for (CompactDn memberDN : removedMemberDNs)
+    {
+      unindexMember(groupDN, memberDN);
+    }
+    for (CompactDn memberDN : addedMemberDNs)
+    {
+      indexMember(groupDN, memberDN);
+    }
+  }
+
+  private void unindexMember(DN groupDN, CompactDn memberDN)
+  {
+    final Set<DN> groupDNs = groupDNsByMember.get(memberDN);
+    if (groupDNs != null && groupDNs.remove(groupDN))
+    {
+      sizeInBytes -= MEMBERSHIP_OVERHEAD_IN_BYTES;
+      if (groupDNs.isEmpty())
+      {
+        groupDNsByMember.remove(memberDN);
+        sizeInBytes -= getMemberSizeInBytes(memberDN);
+      }
+    }
+  }
+
+  private static long getMemberSizeInBytes(CompactDn memberDN)
+  {
+    // Original and normalized values are about as long as the string
+    return MEMBER_OVERHEAD_IN_BYTES + 2 * memberDN.toString().length();
+  }
+
+  /**
+   * Returns the groups whose members cannot be listed, and must be evaluated
+   * separately.
+   *
+   * @return The groups whose members cannot be listed.
+   */
+  Collection<Group<?>> getComputedGroups()
+  {
+    return computedGroups.values();
+  }
+
+  /**
+   * Returns the DNs of all the groups listing, directly or through nested
+   * groups, one of the provided DNs.
+   *
+   * @param memberDNs
+   *          The DNs of the member and of the computed groups it belongs
+   *          to.
+   * @return The DNs of the groups listing one of the provided DNs, directly
+   *         or through nested groups.
+   */
+  Set<DN> getGroupDNs(Collection<DN> memberDNs)
+  {
+    final Set<DN> results = new LinkedHashSet<>();
+    final Deque<DN> toExamine = new ArrayDeque<>(memberDNs);
+    while (!toExamine.isEmpty())
+    {
+      final Set<DN> groupDNs = groupDNsByMember.get(Converters.from(toExamine.poll()).compact());
+      if (groupDNs != null)
+      {
+        for (DN groupDN : groupDNs)
+        {
+          if (results.add(groupDN))
+          {
+            toExamine.add(groupDN);
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns the estimated memory footprint of this index.
+   *
+   * @return The estimated memory footprint of this index, in bytes.
+   */
+  long getSizeInBytes()
+  {
+    return sizeInBytes;
+  }
+
+  /** Removes all the groups from this index. */
+  void clear()
+  {
+    computedGroupsCache.invalidateAll();
+    groupDNsByMember.clear();
+    computedGroups.clear();
+    sizeInBytes = 0;
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DN.CompactDn;
+
+/**
+ * A set of member DNs for large static groups, sorted by normalized DN and
+ * stored in compressed blocks.
+ * <p>
+ * Each block holds up to {@link #MAX_MEMBERS_PER_BLOCK} members in a single
+ * byte array. As members are sorted in the hierarchical order of their
+ * normalized DNs, consecutive members usually share their parent entry: each
+ * normalized DN only stores the bytes following the prefix it shares with the
+ * previous member, and each user provided DN only stores the bytes preceding
+ * the suffix it shares with the previous member.
+ * <p>
+ * Blocks are immutable: adding or removing a member only re-encodes the block
+ * holding it, and then publishes a new array of blocks. Readers therefore
+ * never need to lock, and iterators stream over the members of a consistent
+ * snapshot of the set, decoding one block at a time. Iterators do not support
+ * removal.
+ * <p>
+ * Updates are serialized by synchronizing on this set.
+ */
+final class CompressedMemberDNSet extends AbstractSet<CompactDn>
+{
+  /** The maximum number of members stored in a block, which is split when full. */
+  static final int MAX_MEMBERS_PER_BLOCK = 128;
+
+  /** Estimated size of the objects referencing the data of a block, in bytes. */
+  private static final int BLOCK_OVERHEAD_IN_BYTES = 64;
+
+  /** The blocks, sorted by the normalized DNs of their members. */
+  private volatile Block[] blocks;
+
+  /** The number of members in this set. */
+  private volatile int size;
+
+  /**
+   * Creates a new set holding the provided member DNs.
+   *
+   * @param memberDNs
+   *          The member DNs.
+   */
+  CompressedMemberDNSet(Set<CompactDn> memberDNs)
+  {
+    final List<Member> members = new ArrayList<>(memberDNs.size());
+    for (CompactDn memberDN : memberDNs)
+    {
+      members.add(new Member(memberDN));
+    }
+    Collections.sort(members);
+
+    final List<Block> newBlocks = new ArrayList<>(members.size() / MAX_MEMBERS_PER_BLOCK + 1);
+    for (int i = 0; i < members.size(); i += MAX_MEMBERS_PER_BLOCK)
+    {
+      newBlocks.add(new Block(members.subList(i, Math.min(i + MAX_MEMBERS_PER_BLOCK, members.size()))));
+    }
+    this.blocks = newBlocks.toArray(new Block[newBlocks.size()]);
+    this.size = members.size();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int size()
+  {
+    return size;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean contains(Object o)
+  {
+    if (!(o instanceof CompactDn))
+    {
+      return false;
+    }
+    final ByteString key = normalize((CompactDn) o);
+    final Block[] snapshot = blocks;
+    final int index = findBlock(snapshot, key);
+    return index >= 0 && snapshot[index].contains(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized boolean add(CompactDn memberDN)
+  {
+    final Member member = new Member(memberDN);
+    final Block[] snapshot = blocks;
+    if (snapshot.length == 0)
+    {
+      blocks = new Block[] { new Block(Collections.singletonList(member)) };
+      size++;
+      return true;
+    }
+
+    final int index = Math.max(findBlock(snapshot, member.normalizedValue), 0);
+    final List<Member> members = snapshot[index].decode();
+    final int position = Collections.binarySearch(members, member);
+    if (position >= 0)
+    {
+      return false;
+    }
+    members.add(-position - 1, member);
+
+    if (members.size() <= MAX_MEMBERS_PER_BLOCK)
+    {
+      final Block[] newBlocks = snapshot.clone();
+      newBlocks[index] = new Block(members);
+      blocks = newBlocks;
+    }
+    else
+    {
+      final int half = members.size() / 2;
+      final Block[] newBlocks = new Block[snapshot.length + 1];
+      System.arraycopy(snapshot, 0, newBlocks, 0, index);
+      newBlocks[index] = new Block(members.subList(0, half));
+      newBlocks[index + 1] = new Block(members.subList(half, members.size()));
+      System.arraycopy(snapshot, index + 1, newBlocks, index + 2, snapshot.length - index - 1);
+      blocks = newBlocks;
+    }
+    size++;
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized boolean remove(Object o)
+  {
+    if (!(o instanceof CompactDn))
+    {
+      return false;
+    }
+    final Member member = new Member((CompactDn) o);
+    final Block[] snapshot = blocks;
+    final int index = findBlock(snapshot, member.normalizedValue);
+    if (index < 0)
+    {
+      return false;
+    }
+    final List<Member> members = snapshot[index].decode();
+    final int position = Collections.binarySearch(members, member);
+    if (position < 0)
+    {
+      return false;
+    }
+    members.remove(position);
+
+    if (!members.isEmpty())
+    {
+      final Block[] newBlocks = snapshot.clone();
+      newBlocks[index] = new Block(members);
+      blocks = newBlocks;
+    }
+    else
+    {
+      final Block[] newBlocks = new Block[snapshot.length - 1];
+      System.arraycopy(snapshot, 0, newBlocks, 0, index);
+      System.arraycopy(snapshot, index + 1, newBlocks, index, snapshot.length - index - 1);
+      blocks = newBlocks;
+    }
+    size--;
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Iterator<CompactDn> iterator()
+  {
+    final Block[] snapshot = blocks;
+    return new Iterator<CompactDn>()
+    {
+      private int nextBlock;
+      private Iterator<Member> members = Collections.<Member> emptyIterator();
+
+      @Override
+      public boolean hasNext()
+      {
+        while (!members.hasNext() && nextBlock < snapshot.length)
+        {
+          members = snapshot[nextBlock++].decode().iterator();
+        }
+        return members.hasNext();
+      }
+
+      @Override
+      public CompactDn next()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        return DN.valueOf(members.next().originalValue.toString()).compact();
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Returns an estimate of the memory used by this set, in bytes.
+   *
+   * @return An estimate of the memory used by this set, in bytes.
+   */
+  long getSizeInBytes()
+  {
+    long sizeInBytes = 0;
+    for (Block block : blocks)
+    {
+      sizeInBytes += BLOCK_OVERHEAD_IN_BYTES + block.firstKey.length() + block.data.length;
+    }
+    return sizeInBytes;
+  }
+
+  /**
+   * Returns the index of the block which holds the provided normalized DN if
+   * it is a member, which is the last block starting with a lower or equal
+   * normalized DN.
+   *
+   * @param blocks
+   *          The blocks to search.
+   * @param key
+   *          The normalized DN to search for.
+   * @return The index of the block, or -1 if the normalized DN is lower than
+   *         the normalized DNs of all the members.
+   */
+  private static int findBlock(Block[] blocks, ByteString key)
+  {
+    int low = 0;
+    int high = blocks.length - 1;
+    while (low <= high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (blocks[mid].firstKey.compareTo(key) <= 0)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  private static ByteString normalize(CompactDn dn)
+  {
+    return dn.toDn().toNormalizedByteString();
+  }
+
+  /** A member, as stored in a block. */
+  private static final class Member implements Comparable<Member>
+  {
+    /** The normalized DN of the member, which defines the order of the members. */
+    private final ByteString normalizedValue;
+    /** The DN of the member as provided by the user, encoded in UTF-8. */
+    private final ByteString originalValue;
+
+    private Member(CompactDn dn)
+    {
+      this(normalize(dn), ByteString.valueOfUtf8(dn.toString()));
+    }
+
+    private Member(ByteString normalizedValue, ByteString originalValue)
+    {
+      this.normalizedValue = normalizedValue;
+      this.originalValue = originalValue;
+    }
+
+    @Override
+    public int compareTo(Member o)
+    {
+      return normalizedValue.compareTo(o.normalizedValue);
+    }
+  }
+
+  /**
+   * An immutable block of members. Each member is encoded as:
+   * <ul>
+   * <li>the length of the prefix shared with the normalized DN of the previous
+   * member, then the remaining bytes of the normalized DN, preceded by their
+   * length</li>
+   * <li>the length of the suffix shared with the user provided DN of the
+   * previous member, then the preceding bytes of the user provided DN,
+   * preceded by their length.</li>
+   * </ul>
+   */
+  private static final class Block
+  {
+    /** The normalized DN of the first member of this block. */
+    private final ByteString firstKey;
+    /** The encoded members. */
+    private final byte[] data;
+
+    private Block(List<Member> members)
+    {
+      this.firstKey = members.get(0).normalizedValue;
+
+      final ByteStringBuilder builder = new ByteStringBuilder();
+      ByteString previousKey = ByteString.empty();
+      ByteString previousOriginal = ByteString.empty();
+      for (Member member : members)
+      {
+        final ByteString key = member.normalizedValue;
+        final int prefixLength = commonPrefixLength(previousKey, key);
+        builder.appendCompactUnsigned(prefixLength);
+        builder.appendCompactUnsigned(key.length() - prefixLength);
+        builder.appendBytes(key.subSequence(prefixLength, key.length()));
+
+        final ByteString original = member.originalValue;
+        final int suffixLength = commonSuffixLength(previousOriginal, original);
+        builder.appendCompactUnsigned(suffixLength);
+        builder.appendCompactUnsigned(original.length() - suffixLength);
+        builder.appendBytes(original.subSequence(0, original.length() - suffixLength));
+
+        previousKey = key;
+        previousOriginal = original;
+      }
+      this.data = builder.toByteArray();
+    }
+
+    private List<Member> decode()
+    {
+      final List<Member> members = new ArrayList<>(MAX_MEMBERS_PER_BLOCK + 1);
+      final ByteSequenceReader reader = ByteString.wrap(data).asReader();
+      ByteString previousKey = ByteString.empty();
+      ByteString previousOriginal = ByteString.empty();
+      while (reader.remaining() > 0)
+      {
+        previousKey = readKey(reader, previousKey);
+
+        final int suffixLength = reader.readCompactUnsignedInt();
+        final int length = reader.readCompactUnsignedInt();
+        previousOriginal = new ByteStringBuilder(length + suffixLength)
+            .appendBytes(reader, length)
+            .appendBytes(previousOriginal.subSequence(previousOriginal.length() - suffixLength,
+                previousOriginal.length()))
+            .toByteString();
+
+        members.add(new Member(previousKey, previousOriginal));
+      }
+      return members;
+    }
+
+    private boolean contains(ByteString key)
+    {
+      final ByteSequenceReader reader = ByteString.wrap(data).asReader();
+      ByteString previousKey = ByteString.empty();
+      while (reader.remaining() > 0)
+      {
+        previousKey = readKey(reader, previousKey);
+        final int cmp = previousKey.compareTo(key);
+        if (cmp >= 0)
+        {
+          return cmp == 0;
+        }
+
+        // skip the user provided DN
+        reader.readCompactUnsignedInt();
+        reader.skip(reader.readCompactUnsignedInt());
+      }
+      return false;
+    }
+
+    private static ByteString readKey(ByteSequenceReader reader, ByteString previousKey)
+    {
+      final int prefixLength = reader.readCompactUnsignedInt();
+      final int length = reader.readCompactUnsignedInt();
+      return new ByteStringBuilder(prefixLength + length)
+          .appendBytes(previousKey.subSequence(0, prefixLength))
+          .appendBytes(reader, length)
+          .toByteString();
+    }
+
+    private static int commonPrefixLength(ByteString b1, ByteString b2)
+    {
+      final int maxLength = Math.min(b1.length(), b2.length());
+      int i = 0;
+      while (i < maxLength && b1.byteAt(i) == b2.byteAt(i))
+      {
+        i++;
+      }
+      return i;
+    }
+
+    private static int commonSuffixLength(ByteString b1, ByteString b2)
+    {
+      final int maxLength = Math.min(b1.length(), b2.length());
+      int i = 0;
+      while (i < maxLength && b1.byteAt(b1.length() - 1 - i) == b2.byteAt(b2.length() - 1 - i))
+      {
+        i++;
+      }
+      return i;
+    }
+  }
+}
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2014-2015 ForgeRock AS
+ *      Portions Copyright 2014-2016 ForgeRock AS
  */
 package org.opends.server.extensions;
 
@@ -38,6 +38,7 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.opends.server.admin.std.server.DynamicGroupImplementationCfg;
 import org.opends.server.api.Group;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.GroupManager;
 import org.opends.server.core.ServerContext;
 import org.forgerock.opendj.config.server.ConfigException;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -279,6 +280,24 @@ public class DynamicGroup
       return false;
     }
 
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    Entry evaluatedEntry = groupManager.getEvaluatedEntry();
+    if (evaluatedEntry != null)
+    {
+      // Nested in a group evaluated by the group manager against this entry:
+      // evaluate it here, asking the group manager would recurse endlessly
+      if (evaluatedEntry.getName().equals(userDN))
+      {
+        return isMember(evaluatedEntry);
+      }
+    }
+    else if (groupManager.getGroupInstance(groupEntryDN) == this)
+    {
+      // The user entry is evaluated once against all the dynamic groups,
+      // then the results are cached until the user entry or a group changes
+      return groupManager.getComputedGroupDNsOf(userDN).contains(groupEntryDN);
+    }
+
     Entry entry = DirectoryConfig.getEntry(userDN);
     return entry != null && isMember(entry);
   }
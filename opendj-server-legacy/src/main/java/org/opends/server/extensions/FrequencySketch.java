@@ -0,0 +1,147 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+/**
+ * A probabilistic estimator of how frequently keys are accessed, used by the
+ * {@link SegmentedEntryCache} to decide which entries to admit.
+ * <p>
+ * This is a count-min sketch of 4-bit counters: each key increments four counters
+ * chosen by independent hash functions, and its frequency is the minimum of
+ * these counters.
+ * Once a number of increments proportional to the table size has been
+ * recorded, all the counters are halved so that the sketch favours recent
+ * accesses.
+ * <p>
+ * Counters are read and updated without synchronization: concurrent increments
+ * may be lost, which only lowers the accuracy of the estimations. Each counter
+ * is checked and incremented on a single read of its word, so that a counter
+ * never overflows into its neighbour.
+ */
+final class FrequencySketch
+{
+  /** The maximum value of a counter. */
+  static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  /** Clears the upper bit of each 4-bit counter after a shift. */
+  private static final long RESET_MASK = 0x7777777777777777L;
+  /** The number of increments after which counters are halved, per counter. */
+  private static final int SAMPLE_FACTOR = 10;
+
+  /** The counters, 16 per long. */
+  private final long[] table;
+  /** The number of counters minus one, a power of two minus one. */
+  private final int counterMask;
+  /** The number of increments after which counters are halved. */
+  private final int sampleSize;
+  /**
+   * The number of increments since the last reset. Concurrent updates may be
+   * lost, which only delays the next reset.
+   */
+  private int additions;
+
+  /**
+   * Creates a new frequency sketch.
+   *
+   * @param expectedKeys
+   *          the expected number of distinct keys, which determines the size
+   *          of the sketch
+   */
+  FrequencySketch(long expectedKeys)
+  {
+    int counters = (int) Math.min(1 << 26, Math.max(64, expectedKeys));
+    counters = Integer.highestOneBit(counters - 1) << 1;
+    table = new long[counters / 16];
+    counterMask = counters - 1;
+    sampleSize = SAMPLE_FACTOR * counters;
+  }
+
+  /**
+   * Records an access to the key with the provided hash code.
+   *
+   * @param hashCode
+   *          the hash code of the accessed key
+   */
+  void increment(int hashCode)
+  {
+    boolean added = false;
+    for (int i = 0; i < SEEDS.length; i++)
+    {
+      int index = counterIndex(hashCode, i);
+      int word = index >>> 4;
+      int shift = (index & 15) << 2;
+      long counters = table[word];
+      if (((counters >>> shift) & 0xfL) < MAX_FREQUENCY)
+      {
+        table[word] = counters + (1L << shift);
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize)
+    {
+      reset();
+    }
+  }
+
+  /**
+   * Returns the estimated number of accesses to the key with the provided hash
+   * code, capped to {@link #MAX_FREQUENCY}.
+   *
+   * @param hashCode
+   *          the hash code of the key
+   * @return the estimated number of accesses to the key
+   */
+  int frequency(int hashCode)
+  {
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < SEEDS.length; i++)
+    {
+      int index = counterIndex(hashCode, i);
+      int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /** Halves all the counters. */
+  private void reset()
+  {
+    for (int i = 0; i < table.length; i++)
+    {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    additions = additions >>> 1;
+  }
+
+  private int counterIndex(int hashCode, int i)
+  {
+    long hash = (hashCode + SEEDS[i]) * SEEDS[i];
+    hash += hash >>> 32;
+    return (int) hash & counterMask;
+  }
+}
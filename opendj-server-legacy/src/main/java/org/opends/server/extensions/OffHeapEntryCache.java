@@ -0,0 +1,883 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.util.Utils;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.EntryCacheCfg;
+import org.opends.server.admin.std.server.OffHeapEntryCacheCfg;
+import org.opends.server.api.Backend;
+import org.opends.server.api.CompressedSchema;
+import org.opends.server.api.EntryCache;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.DN;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which stores the cached
+ * entries in direct memory, outside of the JVM heap.
+ * <p>
+ * Entries are encoded with compressed attribute descriptions and object class
+ * sets, as done by the backends, and appended to fixed size slabs of direct
+ * memory. Only a small index mapping DNs and entry IDs to slab locations is
+ * kept on the heap. Entries are decoded each time they are read from the cache.
+ * <p>
+ * The slabs are used as a ring: once the last slab is full, the oldest slab is
+ * cleared and reused, evicting all the entries it contains. Removed and
+ * replaced entries leave unused space in their slab until the slab is reused.
+ * <p>
+ * Adding and removing entries is serialized by a single lock. Reading an entry
+ * only takes the read lock of its slab, which prevents the slab from being
+ * reused while the entry is copied out of it.
+ */
+public class OffHeapEntryCache
+    extends EntryCache<OffHeapEntryCacheCfg>
+    implements ConfigurationChangeListener<OffHeapEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum size of the thread local encoding buffers kept between two calls. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  /** Buffers used for encoding the entries. */
+  private static final ThreadLocal<ByteStringBuilder> ENCODE_BUFFERS = new ThreadLocal<ByteStringBuilder>()
+  {
+    @Override
+    protected ByteStringBuilder initialValue()
+    {
+      return new ByteStringBuilder();
+    }
+  };
+
+  /** The location of an encoded entry in a slab. */
+  private static final class Location
+  {
+    private final DN dn;
+    private final String backendID;
+    private final long entryID;
+    private final Slab slab;
+    private final long generation;
+    private final int offset;
+    private final int length;
+
+    private Location(DN dn, String backendID, long entryID, Slab slab, int offset, int length)
+    {
+      this.dn = dn;
+      this.backendID = backendID;
+      this.entryID = entryID;
+      this.slab = slab;
+      this.generation = slab.generation;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** A fixed size region of direct memory where entries are appended. */
+  private static final class Slab
+  {
+    /** Prevents the slab from being reused while entries are read from it. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** The locations of the entries appended to this slab, guarded by the append lock. */
+    private final List<Location> locations = new ArrayList<>();
+
+    /** Allocated on first use, guarded by the append lock. */
+    private ByteBuffer buffer;
+    /** Incremented each time the slab is reused, guarded by the slab lock. */
+    private long generation;
+    /** The offset where the next entry is appended, written with the append lock held. */
+    private volatile int position;
+
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong liveEntries = new AtomicLong();
+    private final AtomicLong evictedEntries = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    private void appendTo(StringBuilder buffer, int index, int capacity)
+    {
+      buffer.append("slab=").append(index);
+      buffer.append(" allocated=").append(this.buffer != null);
+      buffer.append(" capacity=").append(capacity);
+      buffer.append(" used=").append(position);
+      buffer.append(" live=").append(liveBytes.get());
+      buffer.append(" entries=").append(liveEntries.get());
+      buffer.append(" evicted=").append(evictedEntries.get());
+      buffer.append(" reused=").append(reuseCount.get());
+    }
+  }
+
+  /** The mapping between DNs and cached entries. */
+  private final ConcurrentMap<DN, Location> dnMap = new ConcurrentHashMap<>();
+
+  /** The mapping between backend+ID and cached entries. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Location>> idMap = new ConcurrentHashMap<>();
+
+  /**
+   * Serializes the updates of the index, the allocation of space in the slabs
+   * and the reuse of the slabs.
+   */
+  private final ReentrantLock appendLock = new ReentrantLock();
+
+  /** The number of entries evicted from the cache when their slab was reused. */
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** The slabs, guarded by the append lock. */
+  private Slab[] slabs = new Slab[0];
+
+  /** The number of slabs which may be used, guarded by the append lock. */
+  private int usableSlabs;
+
+  /** The index of the slab where entries are currently appended, guarded by the append lock. */
+  private int currentSlab;
+
+  /** The size of the slabs. */
+  private volatile int slabSize;
+
+  /** The maximum amount of direct memory used by the slabs. */
+  private volatile long maxMemorySize;
+
+  /** The compressed schema used for encoding and decoding the cached entries. */
+  private CompressedSchema compressedSchema;
+
+  /** The configuration used for encoding the cached entries. */
+  private EntryEncodeConfig encodeConfig;
+
+  /** Currently registered configuration object. */
+  private OffHeapEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this off heap entry cache. */
+  public OffHeapEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeEntryCache(OffHeapEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addOffHeapChangeListener(this);
+
+    compressedSchema = DirectoryServer.getDefaultCompressedSchema();
+    encodeConfig = new EntryEncodeConfig(false, true, true, compressedSchema);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_OFFHEAPCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeOffHeapChangeListener(this);
+    appendLock.lock();
+    try
+    {
+      clear();
+      // Let the garbage collector release the direct memory.
+      slabs = new Slab[0];
+      usableSlabs = 0;
+    }
+    finally
+    {
+      appendLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && dnMap.containsKey(entryDN);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    Location location = dnMap.get(entryDN);
+    Entry entry = location != null ? read(location) : null;
+    if (entry == null)
+    {
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    // Indicate cache hit.
+    cacheHits.getAndIncrement();
+    return entry;
+  }
+
+  /**
+   * Reads and decodes the entry at the provided location.
+   *
+   * @return the decoded entry, or {@code null} if its slab has been reused
+   */
+  private Entry read(Location location)
+  {
+    final Slab slab = location.slab;
+    final byte[] bytes = new byte[location.length];
+    slab.lock.readLock().lock();
+    try
+    {
+      if (slab.generation != location.generation)
+      {
+        return null;
+      }
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(location.offset);
+      buffer.get(bytes);
+    }
+    finally
+    {
+      slab.lock.readLock().unlock();
+    }
+
+    try
+    {
+      return Entry.decode(ByteString.wrap(bytes).asReader(), compressedSchema);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    Location location = dnMap.get(entryDN);
+    return location != null ? location.entryID : -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    // Locate specific backend map and return the entry DN by ID.
+    ConcurrentMap<Long, Location> backendMap = idMap.get(backendID);
+    if (backendMap != null)
+    {
+      Location location = backendMap.get(entryID);
+      if (location != null)
+      {
+        return location.dn;
+      }
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    // See if the entry already exists.  If so, then return false.
+    if (dnMap.containsKey(entry.getName()))
+    {
+      return false;
+    }
+    return put(entry, backendID, entryID, true);
+  }
+
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    final ByteStringBuilder encodedEntry = ENCODE_BUFFERS.get();
+    try
+    {
+      encodedEntry.clear();
+      entry.encode(encodedEntry, encodeConfig);
+
+      appendLock.lock();
+      try
+      {
+        final DN dn = entry.getName();
+        if (onlyIfAbsent && dnMap.containsKey(dn))
+        {
+          return false;
+        }
+        final Slab slab = allocate(encodedEntry.length());
+        if (slab == null)
+        {
+          // The entry does not fit in a slab, or no memory could be allocated:
+          // do not keep an outdated version of the entry.
+          removeEntry(dn);
+          return false;
+        }
+
+        final Location location = new Location(dn, backendID, entryID, slab, slab.position, encodedEntry.length());
+        final ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position(location.offset);
+        encodedEntry.copyTo(buffer);
+        slab.position = location.offset + location.length;
+        slab.locations.add(location);
+        slab.liveBytes.addAndGet(location.length);
+        slab.liveEntries.incrementAndGet();
+
+        final Location oldLocation = dnMap.put(dn, location);
+        if (oldLocation != null)
+        {
+          removeFromBackendMap(oldLocation);
+          released(oldLocation);
+        }
+        getBackendMap(backendID).put(entryID, location);
+        return true;
+      }
+      finally
+      {
+        appendLock.unlock();
+      }
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // We can't be sure there wasn't a conflict, so return false.
+      return false;
+    }
+    finally
+    {
+      encodedEntry.clearAndTruncate(MAX_RETAINED_BUFFER_SIZE, MAX_RETAINED_BUFFER_SIZE);
+    }
+  }
+
+  /**
+   * Returns the slab where an entry of the provided length should be appended,
+   * reusing the oldest slab if needed. The append lock must be held.
+   *
+   * @return the slab, or {@code null} if the entry cannot be cached
+   */
+  private Slab allocate(int length)
+  {
+    if (length > slabSize || usableSlabs == 0)
+    {
+      return null;
+    }
+    Slab slab = slabs[currentSlab];
+    if (slab.buffer != null && slab.position + length <= slabSize)
+    {
+      return slab;
+    }
+    if (slab.buffer != null)
+    {
+      // Move to the next slab, which is the oldest one.
+      currentSlab = (currentSlab + 1) % usableSlabs;
+      slab = slabs[currentSlab];
+    }
+    if (slab.buffer == null && !allocateBuffer(slab))
+    {
+      // Direct memory is exhausted: only use the slabs allocated so far.
+      usableSlabs = currentSlab;
+      if (usableSlabs == 0)
+      {
+        return null;
+      }
+      currentSlab = 0;
+      slab = slabs[0];
+    }
+    reuse(slab, true);
+    return slab;
+  }
+
+  private boolean allocateBuffer(Slab slab)
+  {
+    try
+    {
+      slab.buffer = ByteBuffer.allocateDirect(slabSize);
+      return true;
+    }
+    catch (OutOfMemoryError e)
+    {
+      logger.warn(WARN_OFFHEAPCACHE_CANNOT_ALLOCATE_SLAB.get(slabSize, currentSlab, e.getMessage()));
+      return false;
+    }
+  }
+
+  /**
+   * Removes all the entries of the provided slab so that it can be reused. The
+   * append lock must be held.
+   */
+  private void reuse(Slab slab, boolean countEvictions)
+  {
+    if (slab.locations.isEmpty())
+    {
+      return;
+    }
+
+    // Wait for the readers to finish copying entries out of the slab.
+    slab.lock.writeLock().lock();
+    try
+    {
+      slab.generation++;
+    }
+    finally
+    {
+      slab.lock.writeLock().unlock();
+    }
+
+    for (Location location : slab.locations)
+    {
+      if (dnMap.remove(location.dn, location))
+      {
+        removeFromBackendMap(location);
+        if (countEvictions)
+        {
+          slab.evictedEntries.incrementAndGet();
+          evictions.incrementAndGet();
+        }
+      }
+    }
+    slab.locations.clear();
+    slab.position = 0;
+    slab.liveBytes.set(0);
+    slab.liveEntries.set(0);
+    slab.reuseCount.incrementAndGet();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    Location location = dnMap.get(entryDN);
+    if (location != null)
+    {
+      removeLocation(location);
+    }
+  }
+
+  private void removeLocation(Location location)
+  {
+    // Take the append lock so that the slab cannot be reused concurrently.
+    appendLock.lock();
+    try
+    {
+      if (dnMap.remove(location.dn, location))
+      {
+        removeFromBackendMap(location);
+        released(location);
+      }
+    }
+    finally
+    {
+      appendLock.unlock();
+    }
+  }
+
+  /**
+   * Accounts for an entry which is no longer referenced by the index. The
+   * append lock must be held.
+   */
+  private void released(Location location)
+  {
+    location.slab.liveBytes.addAndGet(-location.length);
+    location.slab.liveEntries.decrementAndGet();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear()
+  {
+    appendLock.lock();
+    try
+    {
+      for (int i = 0; i < usableSlabs; i++)
+      {
+        reuse(slabs[i], false);
+      }
+      currentSlab = 0;
+    }
+    finally
+    {
+      appendLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearBackend(String backendID)
+  {
+    ConcurrentMap<Long, Location> backendMap = idMap.get(backendID);
+    if (backendMap != null)
+    {
+      for (Location location : backendMap.values())
+      {
+        removeLocation(location);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearSubtree(DN baseDN)
+  {
+    // Determine which backend should be used for the provided base DN.  If
+    // there is none, then we don't need to do anything.
+    Backend<?> backend = DirectoryServer.getBackend(baseDN);
+    if (backend != null)
+    {
+      clearSubtree(baseDN, backend);
+    }
+  }
+
+  /**
+   * Clears all entries at or below the specified base DN that are associated
+   * with the given backend.
+   *
+   * @param  baseDN   The base DN below which all entries should be flushed.
+   * @param  backend  The backend for which to remove the appropriate entries.
+   */
+  private void clearSubtree(DN baseDN, Backend<?> backend)
+  {
+    ConcurrentMap<Long, Location> backendMap = idMap.get(backend.getBackendID());
+    if (backendMap != null)
+    {
+      for (Location location : backendMap.values())
+      {
+        if (location.dn.isDescendantOf(baseDN))
+        {
+          removeLocation(location);
+        }
+      }
+    }
+
+    // See if the backend has any subordinate backends.  If so, then process
+    // them recursively.
+    for (Backend<?> subBackend : backend.getSubordinateBackends())
+    {
+      for (DN subBase : subBackend.getBaseDNs())
+      {
+        if (subBase.isDescendantOf(baseDN))
+        {
+          clearSubtree(baseDN, subBackend);
+          break;
+        }
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void handleLowMemory()
+  {
+    // The entries are not stored on the heap, but their index is: evict the
+    // entries of the oldest slab.
+    appendLock.lock();
+    try
+    {
+      if (usableSlabs > 0)
+      {
+        reuse(slabs[(currentSlab + 1) % usableSlabs], true);
+      }
+    }
+    finally
+    {
+      appendLock.unlock();
+    }
+  }
+
+  private ConcurrentMap<Long, Location> getBackendMap(String backendID)
+  {
+    ConcurrentMap<Long, Location> backendMap = idMap.get(backendID);
+    if (backendMap == null)
+    {
+      ConcurrentMap<Long, Location> newMap = new ConcurrentHashMap<>();
+      backendMap = idMap.putIfAbsent(backendID, newMap);
+      if (backendMap == null)
+      {
+        backendMap = newMap;
+      }
+    }
+    return backendMap;
+  }
+
+  private void removeFromBackendMap(Location location)
+  {
+    ConcurrentMap<Long, Location> backendMap = idMap.get(location.backendID);
+    if (backendMap != null)
+    {
+      backendMap.remove(location.entryID, location);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    OffHeapEntryCacheCfg config = (OffHeapEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      OffHeapEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(OffHeapEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      OffHeapEntryCacheCfg                configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Local variables to read configuration.
+    Set<SearchFilter> newIncludeFilters = null;
+    Set<SearchFilter> newExcludeFilters = null;
+
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxMemorySize = configuration.getMaxMemorySize();
+    int newSlabSize = (int) configuration.getSlabSize();
+
+    // Get include and exclude filters.
+    switch (errorHandler.getConfigPhase())
+    {
+    case PHASE_INIT:
+    case PHASE_ACCEPTABLE:
+    case PHASE_APPLY:
+      newIncludeFilters = EntryCacheCommon.getFilters (
+          configuration.getIncludeFilter(),
+          ERR_CACHE_INVALID_INCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      newExcludeFilters = EntryCacheCommon.getFilters (
+          configuration.getExcludeFilter(),
+          ERR_CACHE_INVALID_EXCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      break;
+    }
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      if (newMaxMemorySize != maxMemorySize || newSlabSize != slabSize)
+      {
+        setSlabs(newMaxMemorySize, newSlabSize);
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** Replaces the slabs, the slabs are allocated as the cache fills up. */
+  private void setSlabs(long newMaxMemorySize, int newSlabSize)
+  {
+    appendLock.lock();
+    try
+    {
+      clear();
+
+      final int nbSlabs = (int) Math.max(Math.min(newMaxMemorySize / newSlabSize, Integer.MAX_VALUE), 1);
+      slabs = new Slab[nbSlabs];
+      for (int i = 0; i < nbSlabs; i++)
+      {
+        slabs[i] = new Slab();
+      }
+      usableSlabs = nbSlabs;
+      currentSlab = 0;
+      maxMemorySize = newMaxMemorySize;
+      slabSize = newSlabSize;
+    }
+    finally
+    {
+      appendLock.unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Attribute> getMonitorData()
+  {
+    try {
+      final Slab[] currentSlabs;
+      appendLock.lock();
+      try
+      {
+        currentSlabs = slabs;
+      }
+      finally
+      {
+        appendLock.unlock();
+      }
+
+      long liveBytes = 0;
+      final String[] slabStatistics = new String[currentSlabs.length];
+      for (int i = 0; i < currentSlabs.length; i++)
+      {
+        final StringBuilder buffer = new StringBuilder();
+        currentSlabs[i].appendTo(buffer, i, slabSize);
+        slabStatistics[i] = buffer.toString();
+        liveBytes += currentSlabs[i].liveBytes.get();
+      }
+
+      List<Attribute> attrs = EntryCacheCommon.getGenericMonitorData(
+        Long.valueOf(cacheHits.longValue()),
+        // If cache misses is maintained by default cache
+        // get it from there and if not point to itself.
+        DirectoryServer.getEntryCache().getCacheMisses(),
+        Long.valueOf(liveBytes),
+        Long.valueOf(maxMemorySize),
+        Long.valueOf(dnMap.size()),
+        null
+        );
+      attrs.add(Attributes.create("entryCacheEvictions", String.valueOf(evictions.get())));
+      if (slabStatistics.length > 0)
+      {
+        attrs.add(Attributes.create("entryCacheSlab", slabStatistics));
+      }
+      return attrs;
+    } catch (Exception e) {
+      logger.traceException(e);
+      return Collections.emptyList();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    // There are no global locks in this cache to keep dnMap and idMap in sync.
+    // Examine dnMap only since it is the reference for the cache contents.
+    for (Map.Entry<DN, Location> mapEntry : dnMap.entrySet())
+    {
+      final Location location = mapEntry.getValue();
+      sb.append(mapEntry.getKey());
+      sb.append(":");
+      sb.append(location.entryID);
+      sb.append(":");
+      sb.append(location.backendID);
+      sb.append(ServerConstants.EOL);
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+}
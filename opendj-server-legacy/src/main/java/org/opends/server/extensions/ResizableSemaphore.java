@@ -0,0 +1,94 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A non-fair semaphore whose number of permits can be changed after creation,
+ * used by the work queues for bounding the number of pending or running
+ * operations.
+ */
+final class ResizableSemaphore extends Semaphore
+{
+  private static final long serialVersionUID = 1L;
+
+  /** The current number of permits of this semaphore. */
+  private int permits;
+
+  /**
+   * Creates a new semaphore with the provided number of permits.
+   *
+   * @param permits
+   *          the initial number of permits
+   */
+  ResizableSemaphore(int permits)
+  {
+    super(permits, false);
+    this.permits = permits;
+  }
+
+  /**
+   * Changes the number of permits of this semaphore. If the number of permits
+   * is reduced below the number of acquired permits, then no permits can be
+   * acquired until enough of them have been released.
+   *
+   * @param newPermits
+   *          the new number of permits
+   */
+  synchronized void resize(int newPermits)
+  {
+    if (newPermits > permits)
+    {
+      release(newPermits - permits);
+    }
+    else if (newPermits < permits)
+    {
+      reducePermits(permits - newPermits);
+    }
+    permits = newPermits;
+  }
+
+  /**
+   * Returns the number of permits currently acquired.
+   *
+   * @return the number of permits currently acquired
+   */
+  int acquiredPermits()
+  {
+    return Math.max(getPermits() - availablePermits(), 0);
+  }
+
+  /**
+   * Returns the number of permits of this semaphore.
+   *
+   * @return the number of permits of this semaphore
+   */
+  synchronized int getPermits()
+  {
+    return permits;
+  }
+}
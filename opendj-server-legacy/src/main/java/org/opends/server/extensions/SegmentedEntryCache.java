@@ -0,0 +1,941 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.util.Utils;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.EntryCacheCfg;
+import org.opends.server.admin.std.server.SegmentedEntryCacheCfg;
+import org.opends.server.api.Backend;
+import org.opends.server.api.EntryCache;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.AttributeType;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.CacheEntry;
+import org.opends.server.types.DN;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which keeps the most
+ * frequently accessed entries, using the W-TinyLFU policy.
+ * <p>
+ * Entries are spread over independently locked segments according to the hash
+ * code of their DN. Lookups only read concurrent maps and never wait for a
+ * lock: recording the access in the segment is skipped if its lock is busy,
+ * which only makes the eviction order slightly less accurate.
+ * <p>
+ * Each segment holds a small LRU window of recently added entries, and a main
+ * area split in a probation and a protected LRU queue. Entries evicted from the
+ * window compete with the least recently used entry of the probation queue:
+ * the one which was accessed the least often according to the
+ * {@link FrequencySketch} is evicted. Entries accessed while in the probation
+ * queue are promoted to the protected queue.
+ * <p>
+ * The size of the cache is accounted for using an estimate of the length of
+ * the encoded form of the entries, as written by the backends, computed from
+ * the lengths of their attribute values.
+ */
+public class SegmentedEntryCache
+    extends EntryCache<SegmentedEntryCacheCfg>
+    implements ConfigurationChangeListener<SegmentedEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The percentage of the capacity of a segment used by the admission window. */
+  private static final int WINDOW_PERCENT = 1;
+  /** The percentage of the main area of a segment used by the protected queue. */
+  private static final int PROTECTED_PERCENT = 80;
+  /** The minimum number of entries a segment should be able to hold. */
+  private static final int MIN_ENTRIES_PER_SEGMENT = 64;
+  /** The assumed encoded size of an entry, used when sizing the cache structures. */
+  private static final int ESTIMATED_ENTRY_SIZE = 1024;
+
+  /** The queues of a segment. */
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  /**
+   * The estimated encoded size of an attribute description and of an attribute
+   * value, in addition to their own lengths.
+   */
+  private static final int ATTRIBUTE_OVERHEAD = 2;
+  private static final int VALUE_OVERHEAD = 2;
+  /** The estimated encoded size of an entry, in addition to its contents. */
+  private static final int ENTRY_OVERHEAD = 8;
+
+  /** A cached entry, linked in one of the queues of its segment. */
+  private static final class Node
+  {
+    private final DN dn;
+    private final CacheEntry cacheEntry;
+    private final int hash;
+    private final long weight;
+
+    /** The following fields are guarded by the segment lock. */
+    private int queue;
+    private boolean removed;
+    private Node prev;
+    private Node next;
+
+    private Node(DN dn, CacheEntry cacheEntry, int hash, long weight)
+    {
+      this.dn = dn;
+      this.cacheEntry = cacheEntry;
+      this.hash = hash;
+      this.weight = weight;
+    }
+  }
+
+  /** A doubly linked list of nodes, from the least to the most recently used. */
+  private static final class AccessQueue
+  {
+    private Node first;
+    private Node last;
+    private long weight;
+    private int count;
+
+    private void addLast(Node node)
+    {
+      node.prev = last;
+      node.next = null;
+      if (last == null)
+      {
+        first = node;
+      }
+      else
+      {
+        last.next = node;
+      }
+      last = node;
+      weight += node.weight;
+      count++;
+    }
+
+    private void remove(Node node)
+    {
+      if (node.prev == null)
+      {
+        first = node.next;
+      }
+      else
+      {
+        node.prev.next = node.next;
+      }
+      if (node.next == null)
+      {
+        last = node.prev;
+      }
+      else
+      {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      weight -= node.weight;
+      count--;
+    }
+
+    private void moveToLast(Node node)
+    {
+      if (node != last)
+      {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    private void clear()
+    {
+      first = null;
+      last = null;
+      weight = 0;
+      count = 0;
+    }
+  }
+
+  /** A part of the cache, with its own lock and eviction queues. */
+  private final class Segment
+  {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AccessQueue[] queues = { new AccessQueue(), new AccessQueue(), new AccessQueue() };
+
+    /** The following fields are guarded by the lock. */
+    private long maxWeight;
+    private long windowMaxWeight;
+    private long windowMaxCount;
+    private long mainMaxWeight;
+    private long mainMaxCount;
+    private long protectedMaxWeight;
+    private long protectedMaxCount;
+
+    private void setCapacity(long maxWeight, long maxCount)
+    {
+      lock.lock();
+      try
+      {
+        this.maxWeight = maxWeight;
+        windowMaxWeight = maxWeight * WINDOW_PERCENT / 100;
+        windowMaxCount = Math.max(maxCount * WINDOW_PERCENT / 100, 1);
+        mainMaxWeight = maxWeight - windowMaxWeight;
+        mainMaxCount = Math.max(maxCount - windowMaxCount, 1);
+        protectedMaxWeight = mainMaxWeight * PROTECTED_PERCENT / 100;
+        protectedMaxCount = mainMaxCount * PROTECTED_PERCENT / 100;
+        evict();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    private boolean put(Node node, boolean onlyIfAbsent)
+    {
+      lock.lock();
+      try
+      {
+        Node oldNode = dnMap.get(node.dn);
+        if (oldNode != null)
+        {
+          if (onlyIfAbsent)
+          {
+            return false;
+          }
+          unlink(oldNode);
+        }
+        if (node.weight > maxWeight)
+        {
+          // This entry would not fit in the segment.
+          return true;
+        }
+
+        dnMap.put(node.dn, node);
+        getBackendMap(node.cacheEntry.getBackendID()).put(node.cacheEntry.getEntryID(), node);
+        node.queue = WINDOW;
+        queues[WINDOW].addLast(node);
+        evict();
+        return true;
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    private void remove(Node node)
+    {
+      lock.lock();
+      try
+      {
+        unlink(node);
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    private void recordAccess(Node node)
+    {
+      if (!lock.tryLock())
+      {
+        // Do not wait: losing an access only makes the eviction less accurate.
+        return;
+      }
+      try
+      {
+        if (node.removed)
+        {
+          return;
+        }
+        if (node.queue == PROBATION)
+        {
+          queues[PROBATION].remove(node);
+          node.queue = PROTECTED;
+          queues[PROTECTED].addLast(node);
+          demoteProtectedOverflow();
+        }
+        else
+        {
+          queues[node.queue].moveToLast(node);
+        }
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    private void demoteProtectedOverflow()
+    {
+      final AccessQueue protectedQueue = queues[PROTECTED];
+      while (protectedQueue.count > 1
+          && (protectedQueue.weight > protectedMaxWeight || protectedQueue.count > protectedMaxCount))
+      {
+        Node node = protectedQueue.first;
+        protectedQueue.remove(node);
+        node.queue = PROBATION;
+        queues[PROBATION].addLast(node);
+      }
+    }
+
+    /** Moves the window overflow to the main area, then evicts the main area overflow. */
+    private void evict()
+    {
+      final AccessQueue window = queues[WINDOW];
+      while (window.count > 1 && (window.weight > windowMaxWeight || window.count > windowMaxCount))
+      {
+        Node node = window.first;
+        window.remove(node);
+        node.queue = PROBATION;
+        queues[PROBATION].addLast(node);
+      }
+      demoteProtectedOverflow();
+
+      final AccessQueue probation = queues[PROBATION];
+      final AccessQueue protectedQueue = queues[PROTECTED];
+      while (probation.weight + protectedQueue.weight > mainMaxWeight
+          || probation.count + protectedQueue.count > mainMaxCount)
+      {
+        // The most recently added probation entry is usually an entry coming
+        // from the window: it is only admitted if it has been accessed more
+        // often than the entry it would replace.
+        Node victim = probation.first != null ? probation.first : protectedQueue.first;
+        Node candidate = probation.last;
+        if (victim == null)
+        {
+          break;
+        }
+        if (candidate != null && candidate != victim
+            && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash))
+        {
+          admissionRejects.incrementAndGet();
+          victim = candidate;
+        }
+        unlink(victim);
+        evictions.incrementAndGet();
+      }
+    }
+
+    /**
+     * Evicts the provided percentage of the entries of this segment, least
+     * valuable entries first.
+     */
+    private void evictPercent(int percent)
+    {
+      lock.lock();
+      try
+      {
+        int toEvict = (queues[WINDOW].count + queues[PROBATION].count + queues[PROTECTED].count) * percent / 100;
+        for (int queue : new int[] { PROBATION, PROTECTED, WINDOW })
+        {
+          while (toEvict > 0 && queues[queue].first != null)
+          {
+            unlink(queues[queue].first);
+            evictions.incrementAndGet();
+            toEvict--;
+          }
+        }
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    private void clear()
+    {
+      lock.lock();
+      try
+      {
+        for (AccessQueue queue : queues)
+        {
+          for (Node node = queue.first; node != null; node = node.next)
+          {
+            node.removed = true;
+            dnMap.remove(node.dn, node);
+            removeFromBackendMap(node);
+          }
+          queue.clear();
+        }
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    /** Removes the node from the cache, the lock must be held. */
+    private void unlink(Node node)
+    {
+      if (!node.removed)
+      {
+        node.removed = true;
+        queues[node.queue].remove(node);
+        dnMap.remove(node.dn, node);
+        removeFromBackendMap(node);
+      }
+    }
+
+    private long getWeight()
+    {
+      lock.lock();
+      try
+      {
+        return queues[WINDOW].weight + queues[PROBATION].weight + queues[PROTECTED].weight;
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** The mapping between DNs and cached entries. */
+  private final ConcurrentMap<DN, Node> dnMap = new ConcurrentHashMap<>();
+
+  /** The mapping between backend+ID and cached entries. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Node>> idMap = new ConcurrentHashMap<>();
+
+  /** The number of entries evicted from the cache for making room for other entries. */
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** The number of entries which were not admitted in the main area of the cache. */
+  private final AtomicLong admissionRejects = new AtomicLong();
+
+  /** The segments of the cache. */
+  private Segment[] segments;
+
+  /** The access frequency estimator. */
+  private FrequencySketch sketch;
+
+  /** The maximum total encoded size of the cached entries. */
+  private long maxMemorySize;
+
+  /** The maximum number of entries that may be held in the cache. */
+  private long maxEntries;
+
+  /** Currently registered configuration object. */
+  private SegmentedEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this segmented entry cache. */
+  public SegmentedEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeEntryCache(SegmentedEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addSegmentedChangeListener(this);
+
+    // The number of segments and the size of the sketch are computed once for
+    // all from the initial configuration.
+    long expectedEntries =
+        Math.min(configuration.getMaxEntries(), configuration.getMaxMemorySize() / ESTIMATED_ENTRY_SIZE);
+    int nbSegments = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    nbSegments = (int) Math.min(nbSegments, Math.max(Long.highestOneBit(expectedEntries / MIN_ENTRIES_PER_SEGMENT), 1));
+    segments = new Segment[nbSegments];
+    for (int i = 0; i < segments.length; i++)
+    {
+      segments[i] = new Segment();
+    }
+    sketch = new FrequencySketch(expectedEntries);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_SEGMENTEDCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeSegmentedChangeListener(this);
+    clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && dnMap.containsKey(entryDN);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final int hash = entryDN.hashCode();
+    sketch.increment(hash);
+
+    Node node = dnMap.get(entryDN);
+    if (node == null)
+    {
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+    // Indicate cache hit.
+    cacheHits.getAndIncrement();
+    segmentFor(hash).recordAccess(node);
+    return node.cacheEntry.getEntry();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    Node node = dnMap.get(entryDN);
+    return node != null ? node.cacheEntry.getEntryID() : -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    // Locate specific backend map and return the entry DN by ID.
+    ConcurrentMap<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap != null)
+    {
+      Node node = backendMap.get(entryID);
+      if (node != null)
+      {
+        return node.dn;
+      }
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    // See if the entry already exists.  If so, then return false.
+    if (dnMap.containsKey(entry.getName()))
+    {
+      return false;
+    }
+    return put(entry, backendID, entryID, true);
+  }
+
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    try
+    {
+      final DN dn = entry.getName();
+      final int hash = dn.hashCode();
+      sketch.increment(hash);
+
+      final Node node = new Node(dn, new CacheEntry(entry, backendID, entryID), hash, getEstimatedEncodedSize(entry));
+      return segmentFor(hash).put(node, onlyIfAbsent);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // We can't be sure there wasn't a conflict, so return false.
+      return false;
+    }
+  }
+
+  /**
+   * Returns an estimate of the encoded size of the provided entry, computed
+   * from the lengths of its contents. This avoids encoding each entry put in
+   * the cache only for charging its size against the cache memory.
+   */
+  private static long getEstimatedEncodedSize(Entry entry)
+  {
+    long size = ENTRY_OVERHEAD + entry.getName().toString().length();
+    for (String objectClassName : entry.getObjectClasses().values())
+    {
+      size += VALUE_OVERHEAD + objectClassName.length();
+    }
+    size += getEstimatedEncodedSize(entry.getUserAttributes());
+    size += getEstimatedEncodedSize(entry.getOperationalAttributes());
+    return size;
+  }
+
+  private static long getEstimatedEncodedSize(Map<AttributeType, List<Attribute>> attributes)
+  {
+    long size = 0;
+    for (List<Attribute> attributeList : attributes.values())
+    {
+      for (Attribute attribute : attributeList)
+      {
+        size += ATTRIBUTE_OVERHEAD + attribute.getNameWithOptions().length();
+        for (ByteString value : attribute)
+        {
+          size += VALUE_OVERHEAD + value.length();
+        }
+      }
+    }
+    return size;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    Node node = dnMap.get(entryDN);
+    if (node != null)
+    {
+      segmentFor(node.hash).remove(node);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear()
+  {
+    for (Segment segment : segments)
+    {
+      segment.clear();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearBackend(String backendID)
+  {
+    ConcurrentMap<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap != null)
+    {
+      for (Node node : backendMap.values())
+      {
+        segmentFor(node.hash).remove(node);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearSubtree(DN baseDN)
+  {
+    // Determine which backend should be used for the provided base DN.  If
+    // there is none, then we don't need to do anything.
+    Backend<?> backend = DirectoryServer.getBackend(baseDN);
+    if (backend != null)
+    {
+      clearSubtree(baseDN, backend);
+    }
+  }
+
+  /**
+   * Clears all entries at or below the specified base DN that are associated
+   * with the given backend.
+   *
+   * @param  baseDN   The base DN below which all entries should be flushed.
+   * @param  backend  The backend for which to remove the appropriate entries.
+   */
+  private void clearSubtree(DN baseDN, Backend<?> backend)
+  {
+    ConcurrentMap<Long, Node> backendMap = idMap.get(backend.getBackendID());
+    if (backendMap != null)
+    {
+      for (Node node : backendMap.values())
+      {
+        if (node.dn.isDescendantOf(baseDN))
+        {
+          segmentFor(node.hash).remove(node);
+        }
+      }
+    }
+
+    // See if the backend has any subordinate backends.  If so, then process
+    // them recursively.
+    for (Backend<?> subBackend : backend.getSubordinateBackends())
+    {
+      for (DN subBase : subBackend.getBaseDNs())
+      {
+        if (subBase.isDescendantOf(baseDN))
+        {
+          clearSubtree(baseDN, subBackend);
+          break;
+        }
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void handleLowMemory()
+  {
+    // Dump 10% of the entries, starting with the least valuable ones.
+    for (Segment segment : segments)
+    {
+      segment.evictPercent(10);
+    }
+  }
+
+  private Segment segmentFor(int hash)
+  {
+    // Spread the hash bits so that the segment does not only depend on the
+    // lowest bits of the hash code.
+    int h = hash ^ (hash >>> 16);
+    return segments[(h * 0x9e3779b9 >>> 16) & (segments.length - 1)];
+  }
+
+  private ConcurrentMap<Long, Node> getBackendMap(String backendID)
+  {
+    ConcurrentMap<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap == null)
+    {
+      ConcurrentMap<Long, Node> newMap = new ConcurrentHashMap<>();
+      backendMap = idMap.putIfAbsent(backendID, newMap);
+      if (backendMap == null)
+      {
+        backendMap = newMap;
+      }
+    }
+    return backendMap;
+  }
+
+  private void removeFromBackendMap(Node node)
+  {
+    ConcurrentMap<Long, Node> backendMap = idMap.get(node.cacheEntry.getBackendID());
+    if (backendMap != null)
+    {
+      backendMap.remove(node.cacheEntry.getEntryID(), node);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    SegmentedEntryCacheCfg config = (SegmentedEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      SegmentedEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(SegmentedEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      SegmentedEntryCacheCfg              configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Local variables to read configuration.
+    Set<SearchFilter> newIncludeFilters = null;
+    Set<SearchFilter> newExcludeFilters = null;
+
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxEntries = configuration.getMaxEntries();
+    long newMaxMemorySize = configuration.getMaxMemorySize();
+
+    // Get include and exclude filters.
+    switch (errorHandler.getConfigPhase())
+    {
+    case PHASE_INIT:
+    case PHASE_ACCEPTABLE:
+    case PHASE_APPLY:
+      newIncludeFilters = EntryCacheCommon.getFilters (
+          configuration.getIncludeFilter(),
+          ERR_CACHE_INVALID_INCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      newExcludeFilters = EntryCacheCommon.getFilters (
+          configuration.getExcludeFilter(),
+          ERR_CACHE_INVALID_EXCLUDE_FILTER,
+          errorHandler,
+          newConfigEntryDN
+          );
+      break;
+    }
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      maxEntries = newMaxEntries;
+      maxMemorySize = newMaxMemorySize;
+      for (Segment segment : segments)
+      {
+        segment.setCapacity(Math.max(newMaxMemorySize / segments.length, 1),
+                            Math.max(newMaxEntries / segments.length, 1));
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Attribute> getMonitorData()
+  {
+    try {
+      long memorySize = 0;
+      for (Segment segment : segments)
+      {
+        memorySize += segment.getWeight();
+      }
+
+      List<Attribute> attrs = EntryCacheCommon.getGenericMonitorData(
+        Long.valueOf(cacheHits.longValue()),
+        // If cache misses is maintained by default cache
+        // get it from there and if not point to itself.
+        DirectoryServer.getEntryCache().getCacheMisses(),
+        Long.valueOf(memorySize),
+        Long.valueOf(maxMemorySize),
+        Long.valueOf(dnMap.size()),
+        Long.valueOf(
+            (maxEntries != Integer.MAX_VALUE && maxEntries != Long.MAX_VALUE) ? maxEntries : 0)
+        );
+      attrs.add(Attributes.create("entryCacheEvictions", String.valueOf(evictions.get())));
+      attrs.add(Attributes.create("entryCacheAdmissionRejects", String.valueOf(admissionRejects.get())));
+      return attrs;
+    } catch (Exception e) {
+      logger.traceException(e);
+      return Collections.emptyList();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    // There are no global locks in this cache to keep dnMap and idMap in sync.
+    // Examine dnMap only since it is the reference for the cache contents.
+    for (Map.Entry<DN, Node> mapEntry : dnMap.entrySet())
+    {
+      final CacheEntry cacheEntry = mapEntry.getValue().cacheEntry;
+      sb.append(mapEntry.getKey());
+      sb.append(":");
+      sb.append(cacheEntry.getEntryID());
+      sb.append(":");
+      sb.append(cacheEntry.getBackendID());
+      sb.append(ServerConstants.EOL);
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+}
@@ -0,0 +1,778 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.ShardedWorkQueueCfg;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.ShardedWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+
+/**
+ * This class defines a work queue which spreads the pending operations over
+ * several lock-free queues, called shards.
+ * <p>
+ * Operations are dispatched to a shard according to their connection ID, so
+ * operations submitted by different request handlers rarely contend on the
+ * same queue. Each worker thread has a home shard from which it takes its
+ * operations first, and steals operations from the other shards when its home
+ * shard is empty. Idle worker threads are parked and woken up individually by
+ * submitters, hence neither submitting nor retrieving an operation requires a
+ * global lock. The maximum capacity of the work queue is enforced the same way
+ * as for the {@link TraditionalWorkQueue}.
+ */
+public class ShardedWorkQueue extends WorkQueue<ShardedWorkQueueCfg>
+    implements ConfigurationChangeListener<ShardedWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /**
+   * The maximum number of times to retry getting the next operation from the
+   * queue if an unexpected failure occurs.
+   */
+  private static final int MAX_RETRY_COUNT = 5;
+
+  /**
+   * The maximum length of time an idle worker thread is parked before checking
+   * whether it should exit.
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /** The set of worker threads that will be used to process this work queue. */
+  private final List<ShardedWorkerThread> workerThreads = new CopyOnWriteArrayList<>();
+
+  /** The worker threads currently parked waiting for work. */
+  private final ConcurrentLinkedQueue<ShardedWorkerThread> idleWorkerThreads = new ConcurrentLinkedQueue<>();
+
+  /** The lock used for serializing configuration changes and thread removal. */
+  private final Object configLock = new Object();
+
+  /** The shards holding the pending operations. */
+  private ConcurrentLinkedQueue<Operation>[] shards;
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private AtomicLong opsSubmitted;
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the work queue is already at its maximum capacity.
+   */
+  private AtomicLong queueFullRejects;
+
+  /**
+   * The number of operations that have been processed by a worker thread whose
+   * home shard is not the one where the operation was submitted.
+   */
+  private AtomicLong opsStolen;
+
+  /** The remaining capacity of the work queue. */
+  private ResizableSemaphore capacity;
+
+  /**
+   * Indicates whether one or more of the worker threads needs to be killed at
+   * the next convenient opportunity.
+   */
+  private volatile boolean killThreads;
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /** The thread number used for the last worker thread that was created. */
+  private int lastThreadNumber;
+
+  /**
+   * The maximum number of pending requests that this work queue will allow
+   * before it will start rejecting them.
+   */
+  private volatile int maxCapacity;
+
+  /**
+   * The number of worker threads that should be active (or will be shortly if a
+   * configuration change has not been completely applied).
+   */
+  private volatile int numWorkerThreads;
+
+  /**
+   * The queue overflow policy: true indicates that operations will be blocked
+   * until the queue has available capacity, otherwise operations will be
+   * rejected.
+   * <p>
+   * This is hard-coded to true, as for the traditional work queue.
+   * </p>
+   */
+  private final boolean isBlocking = true;
+
+
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public ShardedWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void initializeWorkQueue(ShardedWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    synchronized (configLock)
+    {
+      shutdownRequested = false;
+      killThreads = false;
+      opsSubmitted = new AtomicLong(0);
+      queueFullRejects = new AtomicLong(0);
+      opsStolen = new AtomicLong(0);
+
+      // Register to be notified of any configuration changes.
+      configuration.addShardedChangeListener(this);
+
+      // Get the necessary configuration from the provided entry.
+      numWorkerThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+      maxCapacity = configuration.getMaxWorkQueueCapacity();
+      capacity = new ResizableSemaphore(maxCapacity);
+
+      // Create one shard per worker thread. The number of shards does not
+      // change afterwards: worker threads added later share the existing
+      // shards, and shards left without a home worker thread are drained by
+      // work stealing.
+      shards = new ConcurrentLinkedQueue[numWorkerThreads];
+      for (int i = 0; i < shards.length; i++)
+      {
+        shards[i] = new ConcurrentLinkedQueue<>();
+      }
+
+      // Create the set of worker threads that should be used to service the
+      // work queue.
+      for (lastThreadNumber = 0; lastThreadNumber < numWorkerThreads; lastThreadNumber++)
+      {
+        ShardedWorkerThread t = new ShardedWorkerThread(this, lastThreadNumber);
+        t.start();
+        workerThreads.add(t);
+      }
+
+      // Create and register a monitor provider for the work queue.
+      try
+      {
+        ShardedWorkQueueMonitor monitor = new ShardedWorkQueueMonitor(this);
+        monitor.initializeMonitorProvider(null);
+        DirectoryServer.registerMonitorProvider(monitor);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, ShardedWorkQueueMonitor.class, e);
+      }
+    }
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    // From now on no more operations can be enqueued or dequeued.
+
+    // Send responses to any operations in the pending queue to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    for (ConcurrentLinkedQueue<Operation> shard : shards)
+    {
+      Operation o;
+      while ((o = shard.poll()) != null)
+      {
+        try
+        {
+          // The operation has no chance of responding to the cancel
+          // request so avoid waiting for a cancel response.
+          if (o.getCancelResult() == null)
+          {
+            o.abort(cancelRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+        }
+      }
+    }
+
+    // Notify all the worker threads of the shutdown.
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      try
+      {
+        t.shutDown();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_NOTIFY_THREAD, t.getName(), e);
+      }
+    }
+  }
+
+
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return <CODE>true</CODE> if the work queue has recieved a request to shut
+   *         down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+
+
+  /**
+   * Submits an operation to be processed by one of the worker threads
+   * associated with this work queue.
+   *
+   * @param operation
+   *          The operation to be processed.
+   * @throws DirectoryException
+   *           If the provided operation is not accepted for some reason (e.g.,
+   *           if the server is shutting down or the pending operation queue is
+   *           already at its maximum capacity).
+   */
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, isBlocking);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean trySubmitOperation(Operation operation)
+      throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation,
+      boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShutdown();
+    acquireCapacity(blockEnqueuingWhenFull);
+
+    ConcurrentLinkedQueue<Operation> shard = shards[shardIndex(operation.getConnectionID())];
+    shard.offer(operation);
+
+    // The shutdown may have drained the shards before the operation was added:
+    // the work queue and the shutdown both check the state written by the
+    // other one after their own write, so either the operation is aborted by
+    // the shutdown or it is removed here.
+    if (shutdownRequested && shard.remove(operation))
+    {
+      capacity.release();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+
+    opsSubmitted.incrementAndGet();
+    wakeUpIdleWorkerThread();
+  }
+
+  private void checkNotShutdown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      LocalizableMessage message = WARN_OP_REJECTED_BY_SHUTDOWN.get();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, message);
+    }
+  }
+
+  private void acquireCapacity(boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    if (capacity.tryAcquire())
+    {
+      return;
+    }
+
+    if (!blockEnqueuingWhenFull)
+    {
+      queueFullRejects.incrementAndGet();
+
+      LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity);
+      throw new DirectoryException(ResultCode.BUSY, message);
+    }
+
+    try
+    {
+      // Periodically wake up in order to not block the submitter forever if the
+      // server is shutting down.
+      while (!capacity.tryAcquire(1, TimeUnit.SECONDS))
+      {
+        checkNotShutdown();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // We cannot handle the interruption here. Reject the request and
+      // re-interrupt this thread.
+      Thread.currentThread().interrupt();
+
+      queueFullRejects.incrementAndGet();
+
+      LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get();
+      throw new DirectoryException(ResultCode.BUSY, message);
+    }
+  }
+
+  private int shardIndex(long value)
+  {
+    return (int) ((value & Long.MAX_VALUE) % shards.length);
+  }
+
+  private void wakeUpIdleWorkerThread()
+  {
+    // Threads found in the idle queue may already have stopped waiting: only
+    // wake up one which is claimed, otherwise the wake up would be lost.
+    ShardedWorkerThread idleWorkerThread;
+    while ((idleWorkerThread = idleWorkerThreads.poll()) != null)
+    {
+      if (idleWorkerThread.tryClaim())
+      {
+        LockSupport.unpark(idleWorkerThread);
+        return;
+      }
+    }
+  }
+
+
+
+  /**
+   * Retrieves the next operation that should be processed by one of the worker
+   * threads, blocking if necessary until a new request arrives. This method
+   * should only be called by a worker thread associated with this work queue.
+   *
+   * @param workerThread
+   *          The worker thread that is requesting the operation.
+   * @return The next operation that should be processed, or <CODE>null</CODE>
+   *         if the server is shutting down and no more operations will be
+   *         processed.
+   */
+  public Operation nextOperation(ShardedWorkerThread workerThread)
+  {
+    return retryNextOperation(workerThread, 0);
+  }
+
+
+
+  /**
+   * Retrieves the next operation that should be processed by one of the worker
+   * threads following a previous failure attempt. A maximum of five consecutive
+   * failures will be allowed before returning <CODE>null</CODE>, which will
+   * cause the associated thread to exit.
+   *
+   * @param workerThread
+   *          The worker thread that is requesting the operation.
+   * @param numFailures
+   *          The number of consecutive failures that the worker thread has
+   *          experienced so far. If this gets too high, then this method will
+   *          return <CODE>null</CODE> rather than retrying.
+   * @return The next operation that should be processed, or <CODE>null</CODE>
+   *         if the server is shutting down and no more operations will be
+   *         processed, or if there have been too many consecutive failures.
+   */
+  private Operation retryNextOperation(ShardedWorkerThread workerThread,
+      int numFailures)
+  {
+    if (numFailures > MAX_RETRY_COUNT)
+    {
+      logger.error(ERR_CONFIG_WORK_QUEUE_TOO_MANY_FAILURES, Thread
+          .currentThread().getName(), numFailures, MAX_RETRY_COUNT);
+
+      return null;
+    }
+
+    try
+    {
+      while (true)
+      {
+        // See if we should kill off this thread. This could be necessary if the
+        // number of worker threads has been decreased with the server online.
+        // If so, then return null and the thread will exit.
+        if (shutdownRequested
+            || (killThreads && tryKillThisWorkerThread(workerThread)))
+        {
+          return null;
+        }
+
+        Operation nextOperation = pollOperation(workerThread);
+        if (nextOperation != null)
+        {
+          return nextOperation;
+        }
+
+        // Publish the idle state before checking the shards a last time: a
+        // submitter either claims this thread and unparks it, or has already
+        // added its operation to a shard.
+        workerThread.setParked();
+        idleWorkerThreads.offer(workerThread);
+        nextOperation = pollOperation(workerThread);
+        if (nextOperation != null)
+        {
+          stopWaiting(workerThread);
+          return nextOperation;
+        }
+
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        if (workerThread.tryClaim())
+        {
+          // Not woken up by a submitter: timed out, interrupted or spurious
+          // wake up. Loop in order to check whether this thread must exit.
+          idleWorkerThreads.remove(workerThread);
+        }
+
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+      }
+    }
+    catch (InterruptedException ie)
+    {
+      // If this occurs, then the worker thread must have been interrupted for
+      // some reason. This could be because the Directory Server is shutting
+      // down, in which case we should return null.
+      if (shutdownRequested)
+      {
+        return null;
+      }
+
+      // If we've gotten here, then the worker thread was interrupted for some
+      // other reason. This should not happen, and we need to log a message.
+      logger.warn(WARN_WORKER_INTERRUPTED_WITHOUT_SHUTDOWN, Thread.currentThread().getName(), ie);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // This should not happen. The only recourse we have is to log a message
+      // and try again.
+      logger.warn(WARN_WORKER_WAITING_UNCAUGHT_EXCEPTION, Thread.currentThread().getName(), e);
+    }
+
+    // An exception has occurred - retry.
+    return retryNextOperation(workerThread, numFailures + 1);
+  }
+
+
+
+  /**
+   * Stops waiting for work after finding an operation in the shards without
+   * parking. If a submitter has already claimed the provided worker thread,
+   * then its operation may be left in the shards while this thread processes
+   * another one: hand the wake up over to another idle worker thread.
+   *
+   * @param workerThread
+   *          The worker thread which stops waiting.
+   */
+  private void stopWaiting(ShardedWorkerThread workerThread)
+  {
+    if (workerThread.tryClaim())
+    {
+      idleWorkerThreads.remove(workerThread);
+    }
+    else
+    {
+      wakeUpIdleWorkerThread();
+    }
+  }
+
+
+
+  /**
+   * Retrieves the next pending operation from the home shard of the provided
+   * worker thread, or steals one from another shard if the home shard is
+   * empty.
+   *
+   * @param workerThread
+   *          The worker thread that is requesting the operation.
+   * @return The next pending operation, or <CODE>null</CODE> if all the shards
+   *         are empty.
+   */
+  private Operation pollOperation(ShardedWorkerThread workerThread)
+  {
+    final int homeShard = shardIndex(workerThread.getThreadID());
+    for (int i = 0; i < shards.length; i++)
+    {
+      Operation operation = shards[(homeShard + i) % shards.length].poll();
+      if (operation != null)
+      {
+        capacity.release();
+        if (i != 0)
+        {
+          opsStolen.incrementAndGet();
+        }
+        return operation;
+      }
+    }
+    return null;
+  }
+
+
+
+  /**
+   * Kills this worker thread if needed.
+   *
+   * @param workerThread
+   *          The worker thread associated with this thread.
+   * @return {@code true} if this thread was killed or is about to be killed as
+   *         a result of shutdown.
+   */
+  private boolean tryKillThisWorkerThread(ShardedWorkerThread workerThread)
+  {
+    synchronized (configLock)
+    {
+      if (shutdownRequested)
+      {
+        return true;
+      }
+
+      int currentThreads = workerThreads.size();
+      if (currentThreads > numWorkerThreads)
+      {
+        if (workerThreads.remove(workerThread))
+        {
+          currentThreads--;
+        }
+
+        if (currentThreads <= numWorkerThreads)
+        {
+          killThreads = false;
+        }
+
+        workerThread.setStoppedByReducedThreadNumber();
+        // This thread may have been woken up for processing a new operation:
+        // hand it over to another idle worker thread.
+        wakeUpIdleWorkerThread();
+        return true;
+      }
+      return false;
+    }
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This does
+   * not include operations that have been rejected for some reason like the
+   * queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.longValue();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.longValue();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been stolen by a worker
+   * thread from a shard other than its home shard.
+   *
+   * @return The total number of operations that have been stolen by a worker
+   *         thread from a shard other than its home shard.
+   */
+  public long getOpsStolen()
+  {
+    return opsStolen.longValue();
+  }
+
+
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing. Unlike the traditional work queue, this is a
+   * constant-time operation.
+   *
+   * @return The number of pending operations in the queue that have not yet
+   *         been picked up for processing.
+   */
+  public int size()
+  {
+    return capacity.acquiredPermits();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      ShardedWorkQueueCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public ConfigChangeResult applyConfigurationChange(
+      ShardedWorkQueueCfg configuration)
+  {
+    int newNumThreads =
+        computeNumWorkerThreads(configuration.getNumWorkerThreads());
+    int newMaxCapacity = configuration.getMaxWorkQueueCapacity();
+
+    synchronized (configLock)
+    {
+      // Apply a change to the number of worker threads if appropriate.
+      int currentThreads = workerThreads.size();
+      if (newNumThreads != currentThreads)
+      {
+        try
+        {
+          List<ShardedWorkerThread> newThreads = new ArrayList<>();
+          for (int i = currentThreads; i < newNumThreads; i++)
+          {
+            newThreads.add(new ShardedWorkerThread(this, lastThreadNumber++));
+          }
+          workerThreads.addAll(newThreads);
+          for (ShardedWorkerThread t : newThreads)
+          {
+            t.start();
+          }
+
+          killThreads = newNumThreads < currentThreads;
+          numWorkerThreads = newNumThreads;
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+        }
+      }
+
+      // Apply a change to the maximum capacity if appropriate. Unlike the
+      // traditional work queue, pending operations do not need to be
+      // transferred: only the number of available permits is adjusted, and
+      // submitters wait until enough operations have been processed if the
+      // capacity has been reduced below the current backlog.
+      if (newMaxCapacity != maxCapacity)
+      {
+        capacity.resize(newMaxCapacity);
+        maxCapacity = newMaxCapacity;
+      }
+    }
+
+    return new ConfigChangeResult();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isIdle()
+  {
+    if (size() > 0)
+    {
+      return false;
+    }
+
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      if (t.isActive())
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Return the number of worker threads used by this WorkQueue.
+   *
+   * @return the number of worker threads used by this WorkQueue
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return this.numWorkerThreads;
+  }
+}
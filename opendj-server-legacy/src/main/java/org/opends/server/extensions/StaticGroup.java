@@ -22,10 +22,11 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.extensions;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -84,19 +85,37 @@ import static org.forgerock.util.Reject.*;
  *   <li>one based on the {@code groupOfUniqueNames} object class, which stores
  * the member list in the {@code uniqueMember} attribute.</li>
  * </ul>
+ * <p>
+ * The member DNs of small groups are held in a set which is copied on each
+ * update. Large groups, with at least {@code LARGE_GROUP_MIN_MEMBERS} members,
+ * hold them in a {@code CompressedMemberDNSet}, which is updated in place and
+ * uses much less memory.
  */
 public class StaticGroup extends Group<StaticGroupImplementationCfg>
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** The number of members from which the member DNs are held in a compressed set. */
+  static final int LARGE_GROUP_MIN_MEMBERS = 10000;
+
+  /**
+   * Estimated memory used by each member DN held in a {@code LinkedHashSet},
+   * in addition to its string and normalized values, in bytes.
+   */
+  private static final int MEMBER_OVERHEAD_IN_BYTES = 112;
+
   /** The attribute type used to hold the membership list for this group. */
   private AttributeType memberAttributeType;
 
   /** The DN of the entry that holds the definition for this group. */
   private DN groupEntryDN;
 
-  /** The set of the DNs of the members for this group. */
-  private LinkedHashSet<CompactDn> memberDNs;
+  /**
+   * The set of the DNs of the members for this group, either a
+   * {@code LinkedHashSet} replaced on each update, or a
+   * {@code CompressedMemberDNSet} updated in place.
+   */
+  private volatile Set<CompactDn> memberDNs;
 
   /** The list of nested group DNs for this group. */
   private LinkedList<DN> nestedGroups = new LinkedList<>();
@@ -126,7 +145,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
    *                              group.
    */
   private StaticGroup(ServerContext serverContext, DN groupEntryDN, AttributeType memberAttributeType,
-      LinkedHashSet<CompactDn> memberDNs)
+      Set<CompactDn> memberDNs)
   {
     super();
     ifNull(groupEntryDN, memberAttributeType, memberDNs);
@@ -225,7 +244,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
         }
       }
     }
-    return new StaticGroup(serverContext, groupEntry.getName(), someMemberAttributeType, someMemberDNs);
+    return new StaticGroup(serverContext, groupEntry.getName(), someMemberAttributeType, toMemberDNSet(someMemberDNs));
   }
 
   /** {@inheritDoc} */
@@ -337,9 +356,8 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       newNestedGroups.add(nestedGroupDN);
       nestedGroups = newNestedGroups;
       //Add it to the member DN list.
-      LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
-      newMemberDNs.add(toCompactDn(nestedGroupDN));
-      memberDNs = newMemberDNs;
+      addMemberDN(toCompactDn(nestedGroupDN));
+      getGroupManager().memberAdded(this, toCompactDn(nestedGroupDN));
     }
   }
 
@@ -371,9 +389,8 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
       newNestedGroups.remove(nestedGroupDN);
       nestedGroups = newNestedGroups;
       //Remove it from the member DN list.
-      LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
-      newMemberDNs.remove(toCompactDn(nestedGroupDN));
-      memberDNs = newMemberDNs;
+      removeMemberDN(toCompactDn(nestedGroupDN));
+      getGroupManager().memberRemoved(this, toCompactDn(nestedGroupDN));
     }
   }
 
@@ -444,7 +461,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
               // TODO: should we throw an exception there instead of silently fail ?
             }
           }
-          memberDNs = newMemberDNs;
+          memberDNs = toMemberDNSet(newMemberDNs);
         }
         LinkedList<DN> newNestedGroups = new LinkedList<>();
         for (CompactDn compactDn : memberDNs)
@@ -482,6 +499,32 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     return new FilteredStaticGroupMemberList(groupEntryDN, memberDNs, baseDN, scope, filter);
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public Set<CompactDn> getExplicitMemberDNs()
+  {
+    // Do not reload: the group manager calls this method while holding its lock
+    return Collections.unmodifiableSet(memberDNs);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getMemberListSizeInBytes()
+  {
+    final Set<CompactDn> compactDns = memberDNs;
+    if (compactDns instanceof CompressedMemberDNSet)
+    {
+      return ((CompressedMemberDNSet) compactDns).getSizeInBytes();
+    }
+    // Both the string and the normalized values of each DN are kept
+    long sizeInBytes = 0;
+    for (CompactDn compactDn : compactDns)
+    {
+      sizeInBytes += MEMBER_OVERHEAD_IN_BYTES + 2 * compactDn.toString().length();
+    }
+    return sizeInBytes;
+  }
+
   /** {@inheritDoc} */
   @Override
   public boolean mayAlterMemberList()
@@ -514,9 +557,8 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
             ERR_STATICGROUP_ADD_MEMBER_UPDATE_FAILED.get(userDN, groupEntryDN, modifyOperation.getErrorMessage()));
       }
 
-      LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<CompactDn>(memberDNs);
-      newMemberDNs.add(compactUserDN);
-      memberDNs = newMemberDNs;
+      addMemberDN(compactUserDN);
+      getGroupManager().memberAdded(this, compactUserDN);
     }
   }
 
@@ -543,9 +585,8 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
             ERR_STATICGROUP_REMOVE_MEMBER_UPDATE_FAILED.get(userDN, groupEntryDN, modifyOperation.getErrorMessage()));
       }
 
-      LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
-      newMemberDNs.remove(compactUserDN);
-      memberDNs = newMemberDNs;
+      removeMemberDN(compactUserDN);
+      getGroupManager().memberRemoved(this, compactUserDN);
       //If it is in the nested group list remove it.
       if(nestedGroups.contains(userDN)) {
         LinkedList<DN> newNestedGroups = new LinkedList<>(nestedGroups);
@@ -555,6 +596,223 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Only the modifications adding or deleting values of the member attribute
+   * are applied to this group instance, any other modification of the member
+   * attribute or of the object classes requires a new group instance.
+   */
+  @Override
+  public boolean applyModifications(List<Modification> modifications)
+  {
+    for (Modification mod : modifications)
+    {
+      Attribute attribute = mod.getAttribute();
+      AttributeType attributeType = attribute.getAttributeType();
+      if (attributeType.isObjectClass())
+      {
+        return false;
+      }
+      if (attributeType.equals(memberAttributeType)
+          && (attribute.hasOptions()
+              || attribute.isEmpty()
+              || (mod.getModificationType() != ModificationType.ADD
+                  && mod.getModificationType() != ModificationType.DELETE)))
+      {
+        return false;
+      }
+    }
+
+    synchronized (this)
+    {
+      // Net changes, reported at once to the group manager
+      Set<CompactDn> addedMemberDNs = new LinkedHashSet<>();
+      Set<CompactDn> removedMemberDNs = new LinkedHashSet<>();
+      for (Modification mod : modifications)
+      {
+        Attribute attribute = mod.getAttribute();
+        if (!attribute.getAttributeType().equals(memberAttributeType))
+        {
+          continue;
+        }
+
+        List<CompactDn> changedMemberDNs = new ArrayList<>(attribute.size());
+        boolean isAdd = mod.getModificationType() == ModificationType.ADD;
+        for (ByteString v : attribute)
+        {
+          try
+          {
+            CompactDn memberDN = org.forgerock.opendj.ldap.DN.valueOf(v.toString()).compact();
+            if (memberDNs.contains(memberDN) != isAdd)
+            {
+              changedMemberDNs.add(memberDN);
+            }
+          }
+          catch (LocalizedIllegalArgumentException e)
+          {
+            logger.traceException(e);
+            logger.error(ERR_STATICGROUP_CANNOT_DECODE_MEMBER_VALUE_AS_DN, v,
+                memberAttributeType.getNameOrOID(), groupEntryDN, e.getMessageObject());
+          }
+        }
+
+        if (isAdd)
+        {
+          addMemberDNs(changedMemberDNs);
+          updateNetChanges(changedMemberDNs, addedMemberDNs, removedMemberDNs);
+        }
+        else
+        {
+          removeMemberDNs(changedMemberDNs);
+          updateNetChanges(changedMemberDNs, removedMemberDNs, addedMemberDNs);
+        }
+      }
+
+      if (!addedMemberDNs.isEmpty() || !removedMemberDNs.isEmpty())
+      {
+        updateNestedGroups(addedMemberDNs, removedMemberDNs);
+        getGroupManager().membersChanged(this, addedMemberDNs, removedMemberDNs);
+      }
+    }
+    return true;
+  }
+
+  /** Records the provided changes, unless they cancel changes made by a previous modification. */
+  private static void updateNetChanges(List<CompactDn> memberDNs, Set<CompactDn> changes,
+      Set<CompactDn> oppositeChanges)
+  {
+    for (CompactDn memberDN : memberDNs)
+    {
+      if (!oppositeChanges.remove(memberDN))
+      {
+        changes.add(memberDN);
+      }
+    }
+  }
+
+  /**
+   * Updates the nested groups with the provided changes of the member DNs.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private void updateNestedGroups(Set<CompactDn> addedMemberDNs, Set<CompactDn> removedMemberDNs)
+  {
+    LinkedList<DN> newNestedGroups = new LinkedList<>(nestedGroups);
+    for (CompactDn memberDN : removedMemberDNs)
+    {
+      newNestedGroups.remove(fromCompactDn(memberDN));
+    }
+    for (CompactDn memberDN : addedMemberDNs)
+    {
+      Group<?> group = getGroupManager().getGroupInstance(fromCompactDn(memberDN));
+      if (group != null && !newNestedGroups.contains(group.getGroupDN()))
+      {
+        newNestedGroups.add(group.getGroupDN());
+      }
+    }
+    nestedGroups = newNestedGroups;
+  }
+
+  /**
+   * Adds the provided DNs to the member DNs of this group, copying them once
+   * unless this is a large group.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private void addMemberDNs(List<CompactDn> newMembers)
+  {
+    if (newMembers.isEmpty())
+    {
+      return;
+    }
+    if (memberDNs instanceof CompressedMemberDNSet)
+    {
+      memberDNs.addAll(newMembers);
+      return;
+    }
+    LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
+    newMemberDNs.addAll(newMembers);
+    memberDNs = toMemberDNSet(newMemberDNs);
+  }
+
+  /**
+   * Removes the provided DNs from the member DNs of this group, copying them
+   * once unless this is a large group.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private void removeMemberDNs(List<CompactDn> oldMembers)
+  {
+    if (oldMembers.isEmpty())
+    {
+      return;
+    }
+    if (memberDNs instanceof CompressedMemberDNSet)
+    {
+      for (CompactDn memberDN : oldMembers)
+      {
+        memberDNs.remove(memberDN);
+      }
+      return;
+    }
+    LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
+    for (CompactDn memberDN : oldMembers)
+    {
+      newMemberDNs.remove(memberDN);
+    }
+    memberDNs = newMemberDNs;
+  }
+
+  /**
+   * Adds the provided DN to the member DNs of this group, copying them
+   * unless this is a large group.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private void addMemberDN(CompactDn memberDN)
+  {
+    if (memberDNs instanceof CompressedMemberDNSet)
+    {
+      memberDNs.add(memberDN);
+      return;
+    }
+    LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
+    newMemberDNs.add(memberDN);
+    memberDNs = toMemberDNSet(newMemberDNs);
+  }
+
+  /**
+   * Removes the provided DN from the member DNs of this group, copying them
+   * unless this is a large group.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private void removeMemberDN(CompactDn memberDN)
+  {
+    if (memberDNs instanceof CompressedMemberDNSet)
+    {
+      memberDNs.remove(memberDN);
+      return;
+    }
+    LinkedHashSet<CompactDn> newMemberDNs = new LinkedHashSet<>(memberDNs);
+    newMemberDNs.remove(memberDN);
+    memberDNs = newMemberDNs;
+  }
+
+  /**
+   * Returns the set to use for holding the provided member DNs, which is a
+   * compressed set for large groups.
+   */
+  private static Set<CompactDn> toMemberDNSet(LinkedHashSet<CompactDn> memberDNs)
+  {
+    if (memberDNs.size() >= LARGE_GROUP_MIN_MEMBERS)
+    {
+      return new CompressedMemberDNSet(memberDNs);
+    }
+    return memberDNs;
+  }
+
   private ModifyOperation newModifyOperation(ModificationType modType, DN userDN)
   {
     Attribute attr = Attributes.create(memberAttributeType, userDN.toString());
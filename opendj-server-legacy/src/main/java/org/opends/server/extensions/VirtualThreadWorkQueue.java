@@ -0,0 +1,707 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.admin.server.ConfigurationChangeListener;
+import org.opends.server.admin.std.server.VirtualThreadWorkQueueCfg;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.VirtualThreadWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+
+/**
+ * This class defines a work queue which processes each operation in its own
+ * virtual thread.
+ * <p>
+ * Virtual threads are cheap to create and do not hold a platform thread while
+ * they are blocked, so operations waiting on I/O do not prevent other
+ * operations from being processed. A semaphore limits the number of operations
+ * processed concurrently, and another one limits the number of operations
+ * waiting to be processed, with the same semantics as the maximum capacity of
+ * the {@link TraditionalWorkQueue}.
+ * <p>
+ * Virtual threads are looked up by reflection since they are not available on
+ * all supported Java versions. When they are not available, operations are
+ * processed by a pool of platform threads whose size is the maximum number of
+ * concurrent operations.
+ */
+public class VirtualThreadWorkQueue extends WorkQueue<VirtualThreadWorkQueueCfg>
+    implements ConfigurationChangeListener<VirtualThreadWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The name prefix of the threads processing the operations. */
+  private static final String THREAD_NAME_PREFIX = "Worker Thread";
+
+  /**
+   * The maximum length of time in milliseconds the shutdown waits for the
+   * canceled operations to complete before interrupting them.
+   */
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+  /** The operation has not started running yet. */
+  private static final int PARKED = 0;
+  /** The operation is running. */
+  private static final int RUNNING = 1;
+  /** The operation has been aborted before it started running. */
+  private static final int ABORTED = 2;
+
+  /** Processes one operation, once a concurrent operation slot is available. */
+  private final class OperationTask implements Runnable
+  {
+    private final Operation operation;
+    private final AtomicInteger state = new AtomicInteger(PARKED);
+
+    private OperationTask(Operation operation)
+    {
+      this.operation = operation;
+    }
+
+    @Override
+    public void run()
+    {
+      if (state.get() == ABORTED)
+      {
+        // Aborted by the shutdown: do not wait for a concurrent operation slot.
+        parkedOperations.decrementAndGet();
+        queueCapacity.release();
+        tasks.remove(this);
+        return;
+      }
+
+      try
+      {
+        concurrentOperations.acquire();
+      }
+      catch (InterruptedException e)
+      {
+        // Only happens when the shutdown of the work queue has timed out.
+        parkedOperations.decrementAndGet();
+        queueCapacity.release();
+        abort(new CancelRequest(true, WARN_OP_REJECTED_BY_SHUTDOWN.get()));
+        tasks.remove(this);
+        return;
+      }
+
+      parkedOperations.decrementAndGet();
+      queueCapacity.release();
+      try
+      {
+        if (state.compareAndSet(PARKED, RUNNING))
+        {
+          runningOperations.incrementAndGet();
+          try
+          {
+            processOperation(operation);
+          }
+          finally
+          {
+            runningOperations.decrementAndGet();
+          }
+        }
+      }
+      finally
+      {
+        concurrentOperations.release();
+        tasks.remove(this);
+      }
+    }
+
+    /**
+     * Aborts the operation if it has not started running, cancels it
+     * otherwise.
+     */
+    private void shutDown(CancelRequest cancelRequest)
+    {
+      if (state.get() == RUNNING)
+      {
+        operation.cancel(new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get()));
+      }
+      else
+      {
+        abort(cancelRequest);
+      }
+    }
+
+    private void abort(CancelRequest cancelRequest)
+    {
+      if (state.compareAndSet(PARKED, ABORTED))
+      {
+        try
+        {
+          // The operation has no chance of responding to the cancel
+          // request so avoid waiting for a cancel response.
+          if (operation.getCancelResult() == null)
+          {
+            operation.abort(cancelRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, operation, e);
+        }
+      }
+    }
+  }
+
+  /** The operations submitted and not yet completed. */
+  private final Set<OperationTask> tasks =
+      Collections.newSetFromMap(new ConcurrentHashMap<OperationTask, Boolean>());
+
+  /** The number of operations waiting for a concurrent operation slot. */
+  private final AtomicInteger parkedOperations = new AtomicInteger();
+
+  /** The number of operations currently running. */
+  private final AtomicInteger runningOperations = new AtomicInteger();
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private AtomicLong opsSubmitted;
+
+  /**
+   * The number of times that an attempt to submit a new request has been
+   * rejected because the work queue is already at its maximum capacity.
+   */
+  private AtomicLong queueFullRejects;
+
+  /** Limits the number of operations waiting for a concurrent operation slot. */
+  private ResizableSemaphore queueCapacity;
+
+  /** Limits the number of operations processed concurrently. */
+  private ResizableSemaphore concurrentOperations;
+
+  /** The executor running the operations. */
+  private ExecutorService executor;
+
+  /** Indicates whether operations are run in virtual threads. */
+  private boolean usesVirtualThreads;
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /**
+   * The maximum number of pending requests that this work queue will allow
+   * before it will start rejecting them.
+   */
+  private volatile int maxCapacity;
+
+  /** The maximum number of operations processed concurrently. */
+  private volatile int maxConcurrentOperations;
+
+  /**
+   * The queue overflow policy: true indicates that operations will be blocked
+   * until the queue has available capacity, otherwise operations will be
+   * rejected.
+   * <p>
+   * This is hard-coded to true, as for the traditional work queue.
+   * </p>
+   */
+  private final boolean isBlocking = true;
+
+
+
+  /**
+   * Creates a new instance of this work queue. All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public VirtualThreadWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void initializeWorkQueue(VirtualThreadWorkQueueCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+    opsSubmitted = new AtomicLong(0);
+    queueFullRejects = new AtomicLong(0);
+
+    // Register to be notified of any configuration changes.
+    configuration.addVirtualThreadChangeListener(this);
+
+    // Get the necessary configuration from the provided entry.
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    maxConcurrentOperations = configuration.getMaxConcurrentOperations();
+    queueCapacity = new ResizableSemaphore(maxCapacity);
+    concurrentOperations = new ResizableSemaphore(maxConcurrentOperations);
+
+    executor = newVirtualThreadExecutor();
+    usesVirtualThreads = executor != null;
+    if (!usesVirtualThreads)
+    {
+      logger.warn(WARN_VIRTUAL_THREADS_NOT_SUPPORTED, maxConcurrentOperations);
+      executor = new ThreadPoolExecutor(maxConcurrentOperations, maxConcurrentOperations,
+          0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+          new DirectoryThread.Factory(THREAD_NAME_PREFIX));
+    }
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      VirtualThreadWorkQueueMonitor monitor = new VirtualThreadWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, VirtualThreadWorkQueueMonitor.class, e);
+    }
+  }
+
+
+
+  /**
+   * Returns an executor starting a new virtual thread for each task, or
+   * {@code null} if the Java virtual machine does not support virtual threads.
+   */
+  private static ExecutorService newVirtualThreadExecutor()
+  {
+    try
+    {
+      // Thread.ofVirtual().name(THREAD_NAME_PREFIX + " ", 0).factory()
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, THREAD_NAME_PREFIX + " ", 0L);
+      ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+      // Executors.newThreadPerTaskExecutor(factory)
+      Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) newExecutor.invoke(null, factory);
+    }
+    catch (Exception e)
+    {
+      // Virtual threads are not supported (or are a disabled preview feature).
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    // From now on no more operations can be enqueued. Abort the operations
+    // which have not started running and cancel the running ones.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    for (OperationTask task : tasks)
+    {
+      try
+      {
+        task.shutDown(cancelRequest);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, task.operation, e);
+      }
+    }
+
+    // Let the aborted operations and the canceled running ones complete, so
+    // that the running operations are not interrupted in the middle of a
+    // backend write. Only interrupt them if they do not complete in time.
+    executor.shutdown();
+    try
+    {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+      {
+        executor.shutdownNow();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return <CODE>true</CODE> if the work queue has recieved a request to shut
+   *         down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+
+
+  /**
+   * Submits an operation to be processed in its own thread.
+   *
+   * @param operation
+   *          The operation to be processed.
+   * @throws DirectoryException
+   *           If the provided operation is not accepted for some reason (e.g.,
+   *           if the server is shutting down or the pending operation queue is
+   *           already at its maximum capacity).
+   */
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, isBlocking);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean trySubmitOperation(Operation operation)
+      throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation,
+      boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShutdown();
+    acquireCapacity(blockEnqueuingWhenFull);
+
+    OperationTask task = new OperationTask(operation);
+    parkedOperations.incrementAndGet();
+    tasks.add(task);
+    try
+    {
+      executor.execute(task);
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The executor has been shut down.
+      tasks.remove(task);
+      parkedOperations.decrementAndGet();
+      queueCapacity.release();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+
+    // The shutdown may have processed the tasks before this one was added.
+    if (shutdownRequested)
+    {
+      task.abort(new CancelRequest(true, WARN_OP_REJECTED_BY_SHUTDOWN.get()));
+    }
+
+    opsSubmitted.incrementAndGet();
+  }
+
+  private void checkNotShutdown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      LocalizableMessage message = WARN_OP_REJECTED_BY_SHUTDOWN.get();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, message);
+    }
+  }
+
+  private void acquireCapacity(boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    if (queueCapacity.tryAcquire())
+    {
+      return;
+    }
+
+    if (!blockEnqueuingWhenFull)
+    {
+      queueFullRejects.incrementAndGet();
+
+      LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity);
+      throw new DirectoryException(ResultCode.BUSY, message);
+    }
+
+    try
+    {
+      // Periodically wake up in order to not block the submitter forever if the
+      // server is shutting down.
+      while (!queueCapacity.tryAcquire(1, TimeUnit.SECONDS))
+      {
+        checkNotShutdown();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // We cannot handle the interruption here. Reject the request and
+      // re-interrupt this thread.
+      Thread.currentThread().interrupt();
+
+      queueFullRejects.incrementAndGet();
+
+      LocalizableMessage message = WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get();
+      throw new DirectoryException(ResultCode.BUSY, message);
+    }
+  }
+
+
+
+  /**
+   * Processes the provided operation, making sure the client receives a result
+   * if an unexpected error occurs.
+   *
+   * @param operation
+   *          The operation to be processed.
+   */
+  private void processOperation(Operation operation)
+  {
+    try
+    {
+      operation.run();
+      operation.operationCompleted();
+    }
+    catch (Throwable t)
+    {
+      logger.traceException(t);
+
+      String threadName = Thread.currentThread().getName();
+      LocalizableMessage message =
+          ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(threadName, operation, stackTraceToSingleLineString(t));
+      try
+      {
+        logger.error(message);
+
+        // Ensure that the client receives some kind of result so that it does
+        // not hang.
+        operation.setResultCode(DirectoryServer.getServerErrorResultCode());
+        operation.appendErrorMessage(message);
+        operation.getClientConnection().sendResponse(operation);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+
+      try
+      {
+        operation.disconnectClient(DisconnectReason.SERVER_ERROR, true, message);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+    }
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup. This does
+   * not include operations that have been rejected for some reason like the
+   * queue already at its maximum capacity.
+   *
+   * @return The total number of operations that have been successfully
+   *         submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.longValue();
+  }
+
+
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return The total number of operations that have been rejected because the
+   *         work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.longValue();
+  }
+
+
+
+  /**
+   * Retrieves the number of operations waiting for a concurrent operation slot.
+   *
+   * @return The number of operations waiting for a concurrent operation slot.
+   */
+  public int getParkedOperations()
+  {
+    return parkedOperations.get();
+  }
+
+
+
+  /**
+   * Retrieves the number of operations currently running.
+   *
+   * @return The number of operations currently running.
+   */
+  public int getRunningOperations()
+  {
+    return runningOperations.get();
+  }
+
+
+
+  /**
+   * Indicates whether operations are processed by virtual threads.
+   *
+   * @return {@code true} if operations are processed by virtual threads, or
+   *         {@code false} if they are processed by a pool of platform threads.
+   */
+  public boolean usesVirtualThreads()
+  {
+    return usesVirtualThreads;
+  }
+
+
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing.
+   *
+   * @return The number of pending operations in the queue that have not yet
+   *         been picked up for processing.
+   */
+  public int size()
+  {
+    return getParkedOperations();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      VirtualThreadWorkQueueCfg configuration, List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized ConfigChangeResult applyConfigurationChange(
+      VirtualThreadWorkQueueCfg configuration)
+  {
+    int newMaxCapacity = configuration.getMaxWorkQueueCapacity();
+    if (newMaxCapacity != maxCapacity)
+    {
+      queueCapacity.resize(newMaxCapacity);
+      maxCapacity = newMaxCapacity;
+    }
+
+    int newMaxConcurrentOperations = configuration.getMaxConcurrentOperations();
+    if (newMaxConcurrentOperations != maxConcurrentOperations)
+    {
+      if (executor instanceof ThreadPoolExecutor)
+      {
+        // The pool size must stay consistent with the concurrency limit.
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        if (newMaxConcurrentOperations > maxConcurrentOperations)
+        {
+          pool.setMaximumPoolSize(newMaxConcurrentOperations);
+          pool.setCorePoolSize(newMaxConcurrentOperations);
+        }
+        else
+        {
+          pool.setCorePoolSize(newMaxConcurrentOperations);
+          pool.setMaximumPoolSize(newMaxConcurrentOperations);
+        }
+      }
+      concurrentOperations.resize(newMaxConcurrentOperations);
+      maxConcurrentOperations = newMaxConcurrentOperations;
+    }
+
+    return new ConfigChangeResult();
+  }
+
+
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isIdle()
+  {
+    return parkedOperations.get() == 0 && runningOperations.get() == 0;
+  }
+
+  /**
+   * Return the maximum number of operations processed concurrently by this
+   * WorkQueue.
+   *
+   * @return the maximum number of operations processed concurrently by this
+   *         WorkQueue
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return maxConcurrentOperations;
+  }
+}
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2010-2015 ForgeRock AS.
+ *      Portions Copyright 2010-2016 ForgeRock AS.
  */
 package org.opends.server.protocols.ldap;
 
@@ -37,6 +37,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
@@ -448,6 +449,62 @@ public final class LDAPClientConnection extends ClientConnection implements
   private volatile ConnectionSecurityProvider saslPendingProvider;
   private volatile ConnectionSecurityProvider tlsPendingProvider;
 
+  /**
+   * The search result entries and references waiting to be written to the
+   * client. The lock is held while writing to the client, so that the
+   * responses are written in the order they were sent.
+   */
+  private final ByteStringBuilder writeBatch = new ByteStringBuilder();
+  private final Object writeBatchLock = new Object();
+  /**
+   * Incremented each time the batch is written, only while holding the write
+   * batch lock.
+   */
+  private volatile long writeBatchNumber;
+  /**
+   * The time in nanoseconds when the first message of the batch was added,
+   * guarded by the write batch lock.
+   */
+  private long writeBatchStartTime;
+
+  /**
+   * Writes the batched responses once they have been waiting for the maximum
+   * delay, unless the batch has been written in the meantime.
+   */
+  private final class WriteBatchFlushJob implements Runnable
+  {
+    private final long batchNumber;
+
+    private WriteBatchFlushJob(long batchNumber)
+    {
+      this.batchNumber = batchNumber;
+    }
+
+    @Override
+    public void run()
+    {
+      if (batchNumber != writeBatchNumber)
+      {
+        // Already written by the connection.
+        return;
+      }
+      try
+      {
+        synchronized (writeBatchLock)
+        {
+          if (batchNumber == writeBatchNumber)
+          {
+            flushWriteBatch();
+          }
+        }
+      }
+      catch (Exception e)
+      {
+        disconnectOnWriteFailure(e);
+      }
+    }
+  }
+
 
   /**
    * Creates a new LDAP client connection with the provided information.
@@ -972,8 +1029,18 @@ public final class LDAPClientConnection extends ClientConnection implements
     final ASN1WriterHolder holder = getASN1Writer();
     try
     {
-      message.write(holder.writer);
-      holder.buffer.copyTo(saslChannel);
+      final SearchResultEntry entry = SearchResultEntryEncoder.getEncodableEntry(message);
+      if (entry != null)
+      {
+        SearchResultEntryEncoder.encode(message.getMessageID(), entry, holder.buffer);
+      }
+      else
+      {
+        message.write(holder.writer);
+      }
+      final byte type = message.getProtocolOp().getType();
+      writeMessage(holder.buffer,
+          type == OP_TYPE_SEARCH_RESULT_ENTRY || type == OP_TYPE_SEARCH_RESULT_REFERENCE);
 
       if (logger.isTraceEnabled())
       {
@@ -985,19 +1052,9 @@ public final class LDAPClientConnection extends ClientConnection implements
         statTracker.updateMessageWritten(message);
       }
     }
-    catch (ClosedChannelException e)
-    {
-      logger.traceException(e);
-      disconnect(DisconnectReason.IO_ERROR, false,
-          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
-      return;
-    }
     catch (Exception e)
     {
-      logger.traceException(e);
-      disconnect(DisconnectReason.SERVER_ERROR, false,
-          ERR_UNEXPECTED_EXCEPTION_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
-      return;
+      disconnectOnWriteFailure(e);
     }
     finally
     {
@@ -1010,6 +1067,105 @@ public final class LDAPClientConnection extends ClientConnection implements
 
 
 
+  /**
+   * Writes an encoded message to the client, or adds it to the batch of
+   * messages waiting to be written. Batching search result entries and
+   * references allows a search returning many entries to be written with a
+   * few large writes, rather than one write (and one TLS record) per entry.
+   * The batch is written before any other message, or once it has been
+   * waiting for the maximum delay.
+   *
+   * @param message
+   *          The encoded message.
+   * @param batchable
+   *          Indicates whether the message may be batched.
+   * @throws IOException
+   *           If a problem occurs while writing to the client.
+   */
+  private void writeMessage(ByteStringBuilder message, boolean batchable)
+      throws IOException
+  {
+    synchronized (writeBatchLock)
+    {
+      final int maxBatchSize = connectionHandler.getMaxWriteBatchSize();
+      final long maxBatchDelay = connectionHandler.getMaxWriteBatchDelay();
+      if (!batchable || maxBatchSize <= 0 || maxBatchDelay <= 0)
+      {
+        flushWriteBatch();
+        message.copyTo(saslChannel);
+        return;
+      }
+
+      if (writeBatch.length() + message.length() > maxBatchSize)
+      {
+        flushWriteBatch();
+        if (message.length() >= maxBatchSize)
+        {
+          message.copyTo(saslChannel);
+          return;
+        }
+      }
+      writeBatch.appendBytes(message);
+      if (writeBatch.length() == message.length())
+      {
+        // First message of the batch. The connection handler only writes the
+        // batch if this connection does not send another message in time.
+        writeBatchStartTime = System.nanoTime();
+        connectionHandler.scheduleWriteBatchFlush(
+            new WriteBatchFlushJob(writeBatchNumber), maxBatchDelay);
+      }
+      else if (System.nanoTime() - writeBatchStartTime >= TimeUnit.MILLISECONDS.toNanos(maxBatchDelay))
+      {
+        flushWriteBatch();
+      }
+    }
+  }
+
+
+
+  /**
+   * Writes the batched messages to the client. The write batch lock must be
+   * held.
+   */
+  private void flushWriteBatch() throws IOException
+  {
+    if (writeBatch.length() == 0)
+    {
+      return;
+    }
+    writeBatchNumber++;
+    try
+    {
+      writeBatch.copyTo(saslChannel);
+    }
+    finally
+    {
+      // Keep the buffer for the next batch, unless the maximum batch size has
+      // been reduced.
+      final int maxBatchSize = Math.max(connectionHandler.getMaxWriteBatchSize(), bufferSize);
+      writeBatch.clearAndTruncate((int) Math.min(2L * maxBatchSize, Integer.MAX_VALUE), maxBatchSize);
+    }
+  }
+
+
+
+  private void disconnectOnWriteFailure(Exception e)
+  {
+    logger.traceException(e);
+    if (e instanceof ClosedChannelException)
+    {
+      disconnect(DisconnectReason.IO_ERROR, false,
+          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+    else
+    {
+      disconnect(DisconnectReason.SERVER_ERROR, false,
+          ERR_UNEXPECTED_EXCEPTION_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+  }
+
+
+
   /**
    * Closes the connection to the client, optionally sending it a
    * message indicating the reason for the closure. Note that the
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.protocols.ldap;
 
@@ -36,7 +36,9 @@ import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -236,6 +238,18 @@ public final class LDAPConnectionHandler extends
   private List<Runnable> connectionFinalizerActiveJobQueue;
   private List<Runnable> connectionFinalizerPendingJobQueue;
 
+  /**
+   * Detects the responses which have been batched for too long by the client
+   * connections. It never writes to the clients itself.
+   */
+  private ScheduledExecutorService writeBatchFlusher;
+  /**
+   * Writes the responses which have been batched for too long, in one thread
+   * per connection being flushed, so that a slow client cannot delay the
+   * responses to the other clients.
+   */
+  private ExecutorService writeBatchWriters;
+
 
 
   /**
@@ -418,6 +432,9 @@ public final class LDAPConnectionHandler extends
       r.run(); // Flush active queue.
       r.run(); // Flush pending queue.
     }
+
+    writeBatchFlusher.shutdown();
+    writeBatchWriters.shutdown();
   }
 
 
@@ -572,6 +589,77 @@ public final class LDAPConnectionHandler extends
 
 
 
+  /**
+   * Retrieves the maximum number of bytes of search results that client
+   * connections may batch before writing them.
+   *
+   * @return The maximum number of bytes of search results that client
+   *         connections may batch, or zero if batching is disabled.
+   */
+  int getMaxWriteBatchSize()
+  {
+    return (int) currentConfig.getMaxWriteBatchSize();
+  }
+
+
+
+  /**
+   * Retrieves the maximum length of time in milliseconds that client
+   * connections may delay batched search results.
+   *
+   * @return The maximum length of time in milliseconds that client
+   *         connections may delay batched search results, or zero if batching
+   *         is disabled.
+   */
+  long getMaxWriteBatchDelay()
+  {
+    return currentConfig.getMaxWriteBatchDelay();
+  }
+
+
+
+  /**
+   * Schedules the writing of the responses batched by a client connection.
+   * Once the delay has elapsed, the task runs in a thread of its own, since
+   * writing to the client may block.
+   *
+   * @param flushTask
+   *          The task writing the batched responses.
+   * @param delay
+   *          The delay in milliseconds after which the task must run.
+   */
+  void scheduleWriteBatchFlush(final Runnable flushTask, long delay)
+  {
+    try
+    {
+      writeBatchFlusher.schedule(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            writeBatchWriters.execute(flushTask);
+          }
+          catch (RejectedExecutionException e)
+          {
+            // The connection handler is being shut down: the responses are
+            // written by the next response, or discarded with the connection.
+            logger.traceException(e);
+          }
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The connection handler is being shut down: the responses are written
+      // by the next response, or discarded with the connection.
+      logger.traceException(e);
+    }
+  }
+
+
+
   /**
    * Retrieves the maximum ASN.1 element value length that will be allowed by
    * this connection handler.
@@ -734,6 +822,11 @@ public final class LDAPConnectionHandler extends
     connectionFinalizer.scheduleWithFixedDelay(
         new ConnectionFinalizerRunnable(), 100, 100, TimeUnit.MILLISECONDS);
 
+    writeBatchFlusher = Executors.newSingleThreadScheduledExecutor(
+        new DirectoryThread.Factory("LDAP Write Batch Flusher for connection handler " + toString()));
+    writeBatchWriters = Executors.newCachedThreadPool(
+        new DirectoryThread.Factory("LDAP Write Batch Writer for connection handler " + toString()));
+
     // Create and start the request handlers.
     requestHandlers = new LDAPRequestHandler[numRequestHandlers];
     for (int i = 0; i < numRequestHandlers; i++)
@@ -80,6 +80,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
   private AtomicLong bindResponses = new AtomicLong(0);
   private AtomicLong bytesRead = new AtomicLong(0);
   private AtomicLong bytesWritten = new AtomicLong(0);
+  private AtomicLong writes = new AtomicLong(0);
   private AtomicLong compareRequests = new AtomicLong(0);
   private AtomicLong compareResponses = new AtomicLong(0);
   private AtomicLong connectionsClosed = new AtomicLong(0);
@@ -204,6 +205,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
       long tmpBindResponses = bindResponses.get();
       long tmpBytesRead = bytesRead.get();
       long tmpBytesWritten = bytesWritten.get();
+      long tmpWrites = writes.get();
       long tmpCompareRequests = compareRequests.get();
       long tmpCompareResponses = compareResponses.get();
       long tmpConnectionsClosed = connectionsClosed.get();
@@ -259,6 +261,8 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
     attrs.add(createAttribute("connectionsClosed", tmpConnectionsClosed));
     attrs.add(createAttribute("bytesRead", tmpBytesRead));
     attrs.add(createAttribute("bytesWritten", tmpBytesWritten));
+    attrs.add(createAttribute("writesPerformed", tmpWrites));
+    attrs.add(createAttribute("averageBytesPerWrite", tmpWrites > 0 ? tmpBytesWritten / tmpWrites : 0));
     attrs.add(createAttribute("ldapMessagesRead", tmpMessagesRead));
     attrs.add(createAttribute("ldapMessagesWritten", tmpMessagesWritten));
     attrs.add(createAttribute("operationsAbandoned", tmpOperationsAbandoned));
@@ -343,6 +347,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
       bindResponses.set(0);
       bytesRead.set(0);
       bytesWritten.set(0);
+      writes.set(0);
       compareRequests.set(0);
       compareResponses.set(0);
       connectionsClosed.set(0);
@@ -431,7 +436,8 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
 
   /**
    * Updates the appropriate set of counters to indicate that the
-   * specified number of bytes have been written to the client.
+   * specified number of bytes have been written to the client in a
+   * single write.
    *
    * @param bytesWritten
    *          The number of bytes written to the client.
@@ -439,6 +445,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
   public void updateBytesWritten(int bytesWritten)
   {
      this.bytesWritten.getAndAdd(bytesWritten);
+     this.writes.getAndIncrement();
   }
 
 
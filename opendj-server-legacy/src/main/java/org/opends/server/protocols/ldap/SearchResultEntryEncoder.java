@@ -0,0 +1,192 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.forgerock.opendj.io.ASN1.*;
+import static org.opends.server.protocols.ldap.LDAPConstants.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.SearchResultEntry;
+
+/**
+ * Encodes LDAPv3 search result entry messages without controls directly into
+ * the buffer sent to the client.
+ * <p>
+ * The {@link org.forgerock.opendj.io.ASN1Writer} buffers every sequence until
+ * it ends since its length is not known beforehand, then copies it into the
+ * enclosing sequence: attribute values end up being copied once per nesting
+ * level. This encoder computes the length of all the sequences of the message
+ * first, so that each value is copied only once, straight from the entry into
+ * the output buffer. Other messages are written with the ASN.1 writer.
+ */
+final class SearchResultEntryEncoder
+{
+  private SearchResultEntryEncoder()
+  {
+    // Utility class.
+  }
+
+  /**
+   * Returns the entry to encode if the provided message can be encoded by this
+   * class.
+   *
+   * @param message
+   *          the message to send to the client
+   * @return the entry of the search result entry message, or {@code null} if
+   *         the message must be written with the ASN.1 writer
+   */
+  static SearchResultEntry getEncodableEntry(LDAPMessage message)
+  {
+    if (!(message.getProtocolOp() instanceof SearchResultEntryProtocolOp)
+        || !message.getControls().isEmpty())
+    {
+      return null;
+    }
+    return ((SearchResultEntryProtocolOp) message.getProtocolOp()).getLDAPv3Entry();
+  }
+
+  /**
+   * Appends the BER encoding of a search result entry message to the provided
+   * buffer. The encoding is identical to the one written by
+   * {@link LDAPMessage#write(org.forgerock.opendj.io.ASN1Writer)}.
+   *
+   * @param messageID
+   *          the message ID of the search operation
+   * @param entry
+   *          the entry returned by {@link #getEncodableEntry(LDAPMessage)}
+   * @param buffer
+   *          the buffer where to append the encoded message
+   */
+  static void encode(int messageID, SearchResultEntry entry, ByteStringBuilder buffer)
+  {
+    final List<Attribute> attributes = new ArrayList<>();
+    addAll(attributes, entry.getUserAttributes().values());
+    addAll(attributes, entry.getOperationalAttributes().values());
+
+    // First pass: compute the length of every sequence.
+    final byte[] dnBytes = getBytes(entry.getName().toString());
+    final byte[][] names = new byte[attributes.size()][];
+    final int[] valuesLengths = new int[attributes.size()];
+    int attributesLength = 0;
+    for (int i = 0; i < names.length; i++)
+    {
+      final Attribute attribute = attributes.get(i);
+      names[i] = getBytes(attribute.getNameWithOptions());
+      int valuesLength = 0;
+      for (ByteString value : attribute)
+      {
+        valuesLength += elementLength(value.length());
+      }
+      valuesLengths[i] = valuesLength;
+      attributesLength += elementLength(elementLength(names[i].length) + elementLength(valuesLength));
+    }
+    final int protocolOpLength = elementLength(dnBytes.length) + elementLength(attributesLength);
+    final int messageIDLength = integerLength(messageID);
+    final int messageLength = elementLength(messageIDLength) + elementLength(protocolOpLength);
+
+    // Second pass: write the elements with their lengths.
+    buffer.ensureAdditionalCapacity(elementLength(messageLength));
+    buffer.appendByte(UNIVERSAL_SEQUENCE_TYPE).appendBERLength(messageLength);
+    buffer.appendByte(UNIVERSAL_INTEGER_TYPE).appendBERLength(messageIDLength);
+    for (int shift = (messageIDLength - 1) * 8; shift >= 0; shift -= 8)
+    {
+      buffer.appendByte(messageID >> shift);
+    }
+    buffer.appendByte(OP_TYPE_SEARCH_RESULT_ENTRY).appendBERLength(protocolOpLength);
+    buffer.appendByte(UNIVERSAL_OCTET_STRING_TYPE).appendBERLength(dnBytes.length).appendBytes(dnBytes);
+    buffer.appendByte(UNIVERSAL_SEQUENCE_TYPE).appendBERLength(attributesLength);
+    for (int i = 0; i < names.length; i++)
+    {
+      buffer.appendByte(UNIVERSAL_SEQUENCE_TYPE)
+            .appendBERLength(elementLength(names[i].length) + elementLength(valuesLengths[i]));
+      buffer.appendByte(UNIVERSAL_OCTET_STRING_TYPE).appendBERLength(names[i].length).appendBytes(names[i]);
+      buffer.appendByte(UNIVERSAL_SET_TYPE).appendBERLength(valuesLengths[i]);
+      for (ByteString value : attributes.get(i))
+      {
+        buffer.appendByte(UNIVERSAL_OCTET_STRING_TYPE).appendBERLength(value.length()).appendBytes(value);
+      }
+    }
+  }
+
+  private static void addAll(List<Attribute> attributes, Iterable<List<Attribute>> attributeLists)
+  {
+    for (List<Attribute> attributeList : attributeLists)
+    {
+      attributes.addAll(attributeList);
+    }
+  }
+
+  /** Returns the length of an element made of a type, a length and a value of the provided length. */
+  private static int elementLength(int valueLength)
+  {
+    return 1 + berLengthLength(valueLength) + valueLength;
+  }
+
+  private static int berLengthLength(int length)
+  {
+    if ((length & 0x0000007F) == length)
+    {
+      return 1;
+    }
+    else if ((length & 0x000000FF) == length)
+    {
+      return 2;
+    }
+    else if ((length & 0x0000FFFF) == length)
+    {
+      return 3;
+    }
+    else if ((length & 0x00FFFFFF) == length)
+    {
+      return 4;
+    }
+    return 5;
+  }
+
+  /** Returns the number of bytes of the two's complement encoding of a message ID. */
+  private static int integerLength(int value)
+  {
+    if ((value < 0 && (value & 0xFFFFFF80) == 0xFFFFFF80) || (value & 0x0000007F) == value)
+    {
+      return 1;
+    }
+    else if ((value < 0 && (value & 0xFFFF8000) == 0xFFFF8000) || (value & 0x00007FFF) == value)
+    {
+      return 2;
+    }
+    else if ((value < 0 && (value & 0xFF800000) == 0xFF800000) || (value & 0x007FFFFF) == value)
+    {
+      return 3;
+    }
+    return 4;
+  }
+}
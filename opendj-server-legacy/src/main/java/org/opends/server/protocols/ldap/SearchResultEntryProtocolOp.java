@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2009 Sun Microsystems, Inc.
- *      Portions Copyright 2014-2015 ForgeRock AS
+ *      Portions Copyright 2014-2016 ForgeRock AS
  */
 package org.opends.server.protocols.ldap;
 
@@ -265,6 +265,21 @@ public class SearchResultEntryProtocolOp
 
 
 
+  /**
+   * Retrieves the entry whose attributes are written as is by this protocol
+   * op.
+   *
+   * @return  The entry whose attributes are written as is, or {@code null} if
+   *          the attributes are converted for LDAPv2 or have been retrieved as
+   *          LDAP attributes.
+   */
+  SearchResultEntry getLDAPv3Entry()
+  {
+    return ldapVersion == 3 ? entry : null;
+  }
+
+
+
   /**
    * Retrieves the BER type for this protocol op.
    *
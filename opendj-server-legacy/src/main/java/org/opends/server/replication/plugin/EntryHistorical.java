@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.plugin;
 
@@ -33,6 +33,7 @@ import java.util.*;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.ModificationType;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.replication.common.CSN;
@@ -73,6 +74,12 @@ public class EntryHistorical
   public static final String HISTORICAL = "ds-synch-historical";
   /** Name of the entryuuid attribute. */
   public static final String ENTRYUUID_ATTRIBUTE_NAME = "entryuuid";
+  /**
+   * Minimum number of values of an attribute added or deleted by the same
+   * change for these values to be encoded together in a single value of the
+   * historical attribute.
+   */
+  static final int COMPACT_FORM_MIN_VALUES = 16;
 
   /**
    * The delay to purge the historical information.
@@ -86,6 +93,13 @@ public class EntryHistorical
    */
   private long purgeDelayInMillisec = -1;
 
+  /**
+   * Whether many values of an attribute added or deleted by the same change
+   * are encoded together in compact form. Disabled by default, since the
+   * servers which do not know this form cannot read it.
+   */
+  private boolean compactEncoding;
+
   /**
    * The oldest CSN stored in this entry historical attribute.
    * null when this historical object has been created from
@@ -99,6 +113,19 @@ public class EntryHistorical
    * purged the last time a purge has been applied on this entry historical.
    */
   private int lastPurgedValuesCount;
+  /**
+   * For stats/monitoring purpose, the number of values of the historical
+   * attribute the last time it was encoded.
+   */
+  private int lastEncodedValuesCount;
+  /**
+   * For stats/monitoring purpose, the size in bytes of the historical attribute
+   * the last time it was encoded.
+   */
+  private long lastEncodedSize;
+
+  /** The DN of the entry, used to report badly encoded historical information. */
+  private DN entryDN;
 
   /** The date when the entry was added. */
   private CSN entryADDDate;
@@ -107,6 +134,13 @@ public class EntryHistorical
 
   /** Contains Historical information for each attribute description. */
   private final Map<AttributeDescription, AttrHistorical> attributesHistorical = new HashMap<>();
+  /**
+   * Contains the historical values read from the entry and not decoded yet, for
+   * each attribute description. The values of an attribute are only decoded
+   * when a modification targets the attribute or when some of them must be
+   * purged, otherwise they are written back unchanged.
+   */
+  private final Map<AttributeDescription, List<ByteString>> encodedAttributesHistorical = new HashMap<>();
 
   @Override
   public String toString()
@@ -302,13 +336,50 @@ public class EntryHistorical
     }
 
     // Read from this entryHistorical,
-    // Create one empty if none was existing in this entryHistorical.
+    // Decode it or create one empty if none was existing in this entryHistorical.
     AttributeDescription attrDesc = AttributeDescription.create(modAttr);
     AttrHistorical attrHist = attributesHistorical.get(attrDesc);
     if (attrHist == null)
     {
-      attrHist = AttrHistorical.createAttributeHistorical(modAttr.getAttributeType());
-      attributesHistorical.put(attrDesc, attrHist);
+      attrHist = decodeAttrHistorical(attrDesc);
+    }
+    return attrHist;
+  }
+
+  /**
+   * Creates the attribute historical for the provided attribute description
+   * from the values read from the entry, if any.
+   *
+   * @param attrDesc the attribute description
+   * @return the attribute historical, empty if the entry had no historical
+   *         information for this attribute description.
+   */
+  private AttrHistorical decodeAttrHistorical(AttributeDescription attrDesc)
+  {
+    final AttrHistorical attrHist = AttrHistorical.createAttributeHistorical(attrDesc.getAttributeType());
+    attributesHistorical.put(attrDesc, attrHist);
+
+    final List<ByteString> encodedValues = encodedAttributesHistorical.remove(attrDesc);
+    if (encodedValues != null)
+    {
+      try
+      {
+        for (ByteString encodedValue : encodedValues)
+        {
+          for (HistoricalAttributeValue histVal : HistoricalAttributeValue.decode(encodedValue))
+          {
+            updateOldestCSN(histVal.getCSN());
+            attrHist.assign(histVal.getHistKey(), histVal.getAttributeValue(), histVal.getCSN());
+          }
+        }
+      }
+      catch (Exception e)
+      {
+        // Any exception happening here means that the coding of the historical
+        // information was wrong.
+        // Log an error and continue with the values decoded so far.
+        logger.error(ERR_BAD_HISTORICAL, entryDN);
+      }
     }
     return attrHist;
   }
@@ -324,9 +395,37 @@ public class EntryHistorical
     return this.lastPurgedValuesCount;
   }
 
+  /**
+   * For stats/monitoring purpose, returns the number of values of the
+   * historical attribute the last time it was encoded.
+   *
+   * @return the encoded values count.
+   */
+  public int getLastEncodedValuesCount()
+  {
+    return this.lastEncodedValuesCount;
+  }
+
+  /**
+   * For stats/monitoring purpose, returns the size in bytes of the historical
+   * attribute the last time it was encoded.
+   *
+   * @return the encoded size in bytes.
+   */
+  public long getLastEncodedSize()
+  {
+    return this.lastEncodedSize;
+  }
+
   /**
    * Encode this historical information object in an operational attribute and
    * purge it from the values older than the purge delay.
+   * <p>
+   * The historical values of an attribute which were not decoded are written
+   * back unchanged, unless some of them must be purged. When compact encoding
+   * is enabled, values of an attribute added or deleted by the same change are
+   * encoded together in compact form when there are at least
+   * {@link #COMPACT_FORM_MIN_VALUES} of them.
    *
    * @return The historical information encoded in an operational attribute.
    * @see HistoricalAttributeValue#HistoricalAttributeValue(String) the decode
@@ -347,6 +446,27 @@ public class EntryHistorical
     AttributeType historicalAttrType = DirectoryServer.getAttributeTypeOrNull(HISTORICAL_ATTRIBUTE_NAME);
     AttributeBuilder builder = new AttributeBuilder(historicalAttrType);
 
+    // Only decode the attributes having values to purge
+    final List<AttributeDescription> attrDescsToPurge = new ArrayList<>();
+    for (Map.Entry<AttributeDescription, List<ByteString>> mapEntry : encodedAttributesHistorical.entrySet())
+    {
+      if (hasValuesToPurge(mapEntry.getValue(), purgeDate))
+      {
+        attrDescsToPurge.add(mapEntry.getKey());
+      }
+      else
+      {
+        for (ByteString encodedValue : mapEntry.getValue())
+        {
+          builder.add(encodedValue);
+        }
+      }
+    }
+    for (AttributeDescription attrDesc : attrDescsToPurge)
+    {
+      decodeAttrHistorical(attrDesc);
+    }
+
     for (Map.Entry<AttributeDescription, AttrHistorical> mapEntry : attributesHistorical.entrySet())
     {
       AttributeDescription attrDesc = mapEntry.getKey();
@@ -356,6 +476,9 @@ public class EntryHistorical
       CSN deleteTime = attrHist.getDeleteTime();
       /* generate the historical information for deleted attributes */
       boolean attrDel = deleteTime != null;
+      // the values added or deleted by each change
+      final Map<CSN, List<ByteString>> addedValues = new LinkedHashMap<>();
+      final Map<CSN, List<ByteString>> deletedValues = new LinkedHashMap<>();
 
       for (AttrValueHistorical attrValHist : attrHist.getValuesHistorical())
       {
@@ -369,8 +492,7 @@ public class EntryHistorical
             // this hist must be purged now, so skip its encoding
             continue;
           }
-          String strValue = encode(DEL, options, attrValHist.getValueDeleteTime(), value);
-          builder.add(strValue);
+          getValues(deletedValues, attrValHist.getValueDeleteTime()).add(value);
         }
         else if (attrValHist.getValueUpdateTime() != null)
         {
@@ -380,29 +502,28 @@ public class EntryHistorical
             continue;
           }
 
-          String strValue;
           final CSN updateTime = attrValHist.getValueUpdateTime();
           // FIXME very suspicious use of == in the next if statement,
           // unit tests do not like changing it
           if (attrDel && updateTime == deleteTime && value != null)
           {
-            strValue = encode(REPL, options, updateTime, value);
+            builder.add(encode(REPL, options, updateTime, value));
             attrDel = false;
           }
           else if (value != null)
           {
-            strValue = encode(ADD, options, updateTime, value);
+            getValues(addedValues, updateTime).add(value);
           }
           else
           {
             // "add" without any value is suspicious. Tests never go there.
             // Is this used to encode "add" with an empty string?
-            strValue = encode(ADD, options, updateTime);
+            builder.add(encode(ADD, options, updateTime));
           }
-
-          builder.add(strValue);
         }
       }
+      addEncodedValues(builder, ADD, options, addedValues);
+      addEncodedValues(builder, DEL, options, deletedValues);
 
       if (attrDel)
       {
@@ -429,7 +550,77 @@ public class EntryHistorical
       builder.add(encodeHistorical(entryMODDNDate, "moddn"));
     }
 
-    return builder.toAttribute();
+    final Attribute attr = builder.toAttribute();
+    this.lastEncodedValuesCount = attr.size();
+    this.lastEncodedSize = 0;
+    for (ByteString value : attr)
+    {
+      this.lastEncodedSize += value.length();
+    }
+    return attr;
+  }
+
+  private boolean hasValuesToPurge(List<ByteString> encodedValues, long purgeDate)
+  {
+    if (purgeDelayInMillisec <= 0)
+    {
+      return false;
+    }
+    for (ByteString encodedValue : encodedValues)
+    {
+      final CSN csn = getCSNOrNull(encodedValue);
+      // decode badly encoded values to report them
+      if (csn == null || csn.getTime() <= purgeDate)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static CSN getCSNOrNull(ByteString encodedValue)
+  {
+    try
+    {
+      return HistoricalAttributeValue.getCSN(encodedValue);
+    }
+    catch (RuntimeException e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  private static List<ByteString> getValues(Map<CSN, List<ByteString>> valuesByCSN, CSN csn)
+  {
+    List<ByteString> values = valuesByCSN.get(csn);
+    if (values == null)
+    {
+      values = new ArrayList<>();
+      valuesByCSN.put(csn, values);
+    }
+    return values;
+  }
+
+  private void addEncodedValues(AttributeBuilder builder, HistAttrModificationKey modKey, String options,
+      Map<CSN, List<ByteString>> valuesByCSN)
+  {
+    for (Map.Entry<CSN, List<ByteString>> mapEntry : valuesByCSN.entrySet())
+    {
+      final CSN changeTime = mapEntry.getKey();
+      final List<ByteString> values = mapEntry.getValue();
+      if (compactEncoding && values.size() >= COMPACT_FORM_MIN_VALUES)
+      {
+        builder.add(encodeCompact(modKey, options, changeTime, values));
+      }
+      else
+      {
+        for (ByteString value : values)
+        {
+          builder.add(encode(modKey, options, changeTime, value));
+        }
+      }
+    }
   }
 
   private boolean needsPurge(CSN csn, long purgeDate)
@@ -453,6 +644,26 @@ public class EntryHistorical
     return options + ":" + changeTime + ":" + modKey + ":" + value;
   }
 
+  /**
+   * Encodes several values in compact form.
+   *
+   * @see HistoricalAttributeValue#decode(ByteString) the decode operation in
+   *      HistoricalAttributeValue
+   */
+  private ByteString encodeCompact(HistAttrModificationKey modKey, String options, CSN changeTime,
+      List<ByteString> values)
+  {
+    final ByteStringBuilder builder = new ByteStringBuilder();
+    builder.appendUtf8(options + ":" + changeTime + ":" + modKey);
+    builder.appendByte(HistoricalAttributeValue.COMPACT_FORM_MARKER);
+    for (ByteString value : values)
+    {
+      builder.appendBERLength(value.length());
+      builder.appendBytes(value);
+    }
+    return builder.toByteString();
+  }
+
   /**
    * Set the delay to purge the historical information. The purge is applied
    * only when historical attribute is updated (write operations).
@@ -464,6 +675,18 @@ public class EntryHistorical
     this.purgeDelayInMillisec = purgeDelay;
   }
 
+  /**
+   * Set whether many values of an attribute added or deleted by the same
+   * change are encoded together in compact form. Values already encoded in
+   * compact form are read whatever this setting.
+   *
+   * @param compactEncoding whether to encode values in compact form
+   */
+  public void setCompactEncoding(boolean compactEncoding)
+  {
+    this.compactEncoding = compactEncoding;
+  }
+
   /**
    * Indicates if the Entry was renamed or added after the CSN that is given as
    * a parameter.
@@ -518,6 +741,7 @@ public class EntryHistorical
 
     // Now we'll build the Historical object we want to construct
     final EntryHistorical newHistorical = new EntryHistorical();
+    newHistorical.entryDN = entry.getName();
     if (histAttrWithOptionsFromEntry == null)
     {
       // No historical attribute in the entry, return empty object
@@ -526,8 +750,10 @@ public class EntryHistorical
 
     try
     {
-      // For each value of the historical attr read (mod. on a user attribute)
-      //   build an AttrInfo sub-object
+      // Only decode the attribute description of each value of the historical
+      // attribute: the rest of the value is decoded when needed,
+      // see decodeAttrHistorical()
+      final Map<String, AttributeDescription> attrDescs = new HashMap<>();
 
       // Traverse the Attributes (when several options for the hist attr)
       // of the historical attribute read from the entry
@@ -536,7 +762,21 @@ public class EntryHistorical
         // For each Attribute (option), traverse the values
         for (ByteString histAttrValueFromEntry : histAttrFromEntry)
         {
-          // From each value of the hist attr, create an object
+          final String attrDescString = HistoricalAttributeValue.getAttributeDescriptionString(histAttrValueFromEntry);
+          final AttributeDescription attrDesc = getAttributeDescription(attrDescs, attrDescString);
+          if (attrDesc != null)
+          {
+            List<ByteString> encodedValues = newHistorical.encodedAttributesHistorical.get(attrDesc);
+            if (encodedValues == null)
+            {
+              encodedValues = new ArrayList<>();
+              newHistorical.encodedAttributesHistorical.put(attrDesc, encodedValues);
+            }
+            encodedValues.add(histAttrValueFromEntry);
+            continue;
+          }
+
+          // This value stores the date when the entry was added or renamed
           final HistoricalAttributeValue histVal = new HistoricalAttributeValue(histAttrValueFromEntry.toString());
           final CSN csn = histVal.getCSN();
 
@@ -551,36 +791,6 @@ public class EntryHistorical
           {
             newHistorical.entryMODDNDate = csn;
           }
-          else
-          {
-            AttributeDescription attrDesc = histVal.getAttributeDescription();
-            if (attrDesc == null)
-            {
-              /*
-               * This attribute is unknown from the schema
-               * Just skip it, the modification will be processed but no
-               * historical information is going to be kept.
-               * Log information for the repair tool.
-               */
-              logger.error(ERR_UNKNOWN_ATTRIBUTE_IN_HISTORICAL, entry.getName(), histVal.getAttrString());
-              continue;
-            }
-
-            /* if attribute type does not match we create new
-             *   AttrInfoWithOptions and AttrInfo
-             *   we also add old AttrInfoWithOptions into histObj.attributesInfo
-             * if attribute type match but options does not match we create new
-             *   AttrInfo that we add to AttrInfoWithOptions
-             * if both match we keep everything
-             */
-            AttrHistorical attrInfo = newHistorical.attributesHistorical.get(attrDesc);
-            if (attrInfo == null)
-            {
-              attrInfo = AttrHistorical.createAttributeHistorical(attrDesc.getAttributeType());
-              newHistorical.attributesHistorical.put(attrDesc, attrInfo);
-            }
-            attrInfo.assign(histVal.getHistKey(), histVal.getAttributeValue(), csn);
-          }
         }
       }
     } catch (Exception e)
@@ -595,6 +805,30 @@ public class EntryHistorical
     return newHistorical;
   }
 
+  /**
+   * Returns the attribute description of the provided String form, decoding it
+   * only once per entry.
+   *
+   * @return the attribute description, or {@code null} for the values storing
+   *         the date when the entry was added or renamed, or badly encoded
+   *         values.
+   */
+  private static AttributeDescription getAttributeDescription(Map<String, AttributeDescription> attrDescs,
+      String attrDescString)
+  {
+    if (attrDescString == null)
+    {
+      return null;
+    }
+    AttributeDescription attrDesc = attrDescs.get(attrDescString);
+    if (attrDesc == null && !attrDescs.containsKey(attrDescString))
+    {
+      attrDesc = HistoricalAttributeValue.decodeAttributeDescription(attrDescString);
+      attrDescs.put(attrDescString, attrDesc);
+    }
+    return attrDesc;
+  }
+
   /**
    * Use this historical information to generate fake operations that would
    * result in this historical information.
@@ -614,40 +848,42 @@ public class EntryHistorical
       {
         for (ByteString val : attr)
         {
-          HistoricalAttributeValue histVal = new HistoricalAttributeValue(val.toString());
-          if (histVal.isADDOperation())
+          for (HistoricalAttributeValue histVal : HistoricalAttributeValue.decode(val))
           {
-            // Found some historical information indicating that this entry was just added.
-            // Create the corresponding ADD operation.
-            operations.put(histVal.getCSN(), new FakeAddOperation(histVal.getCSN(), entry));
-          }
-          else if (histVal.isMODDNOperation())
-          {
-            // Found some historical information indicating that this entry was just renamed.
-            // Create the corresponding ADD operation.
-            operations.put(histVal.getCSN(), new FakeModdnOperation(histVal.getCSN(), entry));
-          }
-          else
-          {
-            // Found some historical information for modify operation.
-            // Generate the corresponding ModifyOperation or update
-            // the already generated Operation if it can be found.
-            CSN csn = histVal.getCSN();
-            Modification mod = histVal.generateMod();
-            FakeOperation fakeOperation = operations.get(csn);
-
-            if (fakeOperation instanceof FakeModifyOperation)
+            if (histVal.isADDOperation())
+            {
+              // Found some historical information indicating that this entry was just added.
+              // Create the corresponding ADD operation.
+              operations.put(histVal.getCSN(), new FakeAddOperation(histVal.getCSN(), entry));
+            }
+            else if (histVal.isMODDNOperation())
             {
-              FakeModifyOperation modifyFakeOperation = (FakeModifyOperation) fakeOperation;
-              modifyFakeOperation.addModification(mod);
+              // Found some historical information indicating that this entry was just renamed.
+              // Create the corresponding ADD operation.
+              operations.put(histVal.getCSN(), new FakeModdnOperation(histVal.getCSN(), entry));
             }
             else
             {
-              String uuidString = getEntryUUID(entry);
-              FakeModifyOperation modifyFakeOperation =
-                  new FakeModifyOperation(entry.getName(), csn, uuidString);
-              modifyFakeOperation.addModification(mod);
-              operations.put(histVal.getCSN(), modifyFakeOperation);
+              // Found some historical information for modify operation.
+              // Generate the corresponding ModifyOperation or update
+              // the already generated Operation if it can be found.
+              CSN csn = histVal.getCSN();
+              Modification mod = histVal.generateMod();
+              FakeOperation fakeOperation = operations.get(csn);
+
+              if (fakeOperation instanceof FakeModifyOperation)
+              {
+                FakeModifyOperation modifyFakeOperation = (FakeModifyOperation) fakeOperation;
+                modifyFakeOperation.addModification(mod);
+              }
+              else
+              {
+                String uuidString = getEntryUUID(entry);
+                FakeModifyOperation modifyFakeOperation =
+                    new FakeModifyOperation(entry.getName(), csn, uuidString);
+                modifyFakeOperation.addModification(mod);
+                operations.put(histVal.getCSN(), modifyFakeOperation);
+              }
             }
           }
         }
@@ -737,6 +973,14 @@ public class EntryHistorical
    */
   public CSN getOldestCSN()
   {
+    // the CSNs of the values not decoded yet have not been read
+    for (List<ByteString> encodedValues : encodedAttributesHistorical.values())
+    {
+      for (ByteString encodedValue : encodedValues)
+      {
+        updateOldestCSN(getCSNOrNull(encodedValue));
+      }
+    }
     return this.oldestCSN;
   }
 
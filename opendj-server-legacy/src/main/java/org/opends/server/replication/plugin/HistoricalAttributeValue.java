@@ -22,17 +22,21 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2013-2015 ForgeRock AS.
+ *      Portions Copyright 2013-2016 ForgeRock AS.
  */
 package org.opends.server.replication.plugin;
 
 import static org.opends.server.replication.plugin.HistAttrModificationKey.*;
 import static org.opends.server.util.StaticUtils.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ModificationType;
 import org.opends.server.core.DirectoryServer;
@@ -74,9 +78,18 @@ import org.opends.server.types.Modification;
  *  options are stored with the attribute names using; as a separator
  *  example :
  *  description;FR;France:00000108b3a65541000000000001:add:added_value
+ *
+ *  Many values of an attribute added or deleted by the same change can be
+ *  encoded in a single compact value, where the modification key is followed
+ *  by {@link #COMPACT_FORM_MARKER} then, for each value, its BER encoded length
+ *  and its bytes:
+ *  member:00000108b3a65541000000000001:add*&lt;length&gt;&lt;value&gt;&lt;length&gt;&lt;value&gt;...
  */
 class HistoricalAttributeValue
 {
+  /** Follows the modification key of a value encoded in compact form. */
+  static final byte COMPACT_FORM_MARKER = '*';
+
   private final AttributeDescription attrDesc;
   /** The lowercase attribute string representation. */
   private final String attrString;
@@ -101,43 +114,14 @@ class HistoricalAttributeValue
   {
     String[] token = strVal.split(":", 4);
 
-    Set<String> options;
-    if (token[0].contains(";"))
-    {
-      options = new LinkedHashSet<>();
-      String[] optionsToken = token[0].split(";");
-      int index = 1;
-      while (index < optionsToken.length)
-      {
-        options.add(optionsToken[index]);
-        index ++;
-      }
-      attrString = toLowerCase(optionsToken[0]);
-    }
-    else
-    {
-      options = Collections.emptySet();
-      attrString = toLowerCase(token[0]);
-    }
-
-    AttributeType attrType;
-    if (attrString.compareTo("dn") != 0)
-    {
-      // This HistVal was used to store the date when some
-      // modifications were done to the entries.
-      attrType = DirectoryServer.getAttributeTypeOrDefault(attrString);
-    }
-    else
+    attrString = toLowerCase(getAttributeName(token[0]));
+    // "dn" values are used to store the date when the entry was added to the
+    // directory or when it was last renamed.
+    this.attrDesc = decodeAttributeDescription(token[0]);
+    if (attrDesc == null && token.length >= 3 && token[2].compareTo("moddn") == 0)
     {
-      // This HistVal is used to store the date when the entry
-      // was added to the directory or when it was last renamed.
-      attrType = null;
-      if (token.length >= 3 && token[2].compareTo("moddn") == 0)
-      {
-        isModDN = true;
-      }
+      isModDN = true;
     }
-    this.attrDesc = attrType != null ? AttributeDescription.create(attrType, options) : null;
 
     csn = new CSN(token[1]);
     histKey = HistAttrModificationKey.decodeKey(token[2]);
@@ -161,6 +145,161 @@ class HistoricalAttributeValue
     }
   }
 
+  /** Creates one of the values held by a value encoded in compact form. */
+  private HistoricalAttributeValue(HistoricalAttributeValue header, ByteString value)
+  {
+    this.attrDesc = header.attrDesc;
+    this.attrString = header.attrString;
+    this.csn = header.csn;
+    this.histKey = header.histKey;
+    this.attributeValue = value;
+    this.stringValue = value.toString();
+  }
+
+  /**
+   * Decodes a value of the historical attribute, either in String form or in
+   * compact form.
+   *
+   * @param encodedValue
+   *          the value of the historical attribute
+   * @return the historical values held by the provided value, a single one
+   *         unless it is encoded in compact form
+   */
+  static List<HistoricalAttributeValue> decode(ByteString encodedValue)
+  {
+    final int headerLength = getCompactFormHeaderLength(encodedValue);
+    if (headerLength < 0)
+    {
+      return Collections.singletonList(new HistoricalAttributeValue(encodedValue.toString()));
+    }
+
+    final HistoricalAttributeValue header =
+        new HistoricalAttributeValue(encodedValue.subSequence(0, headerLength - 1).toString());
+    final List<HistoricalAttributeValue> values = new ArrayList<>();
+    final ByteSequenceReader reader = encodedValue.asReader();
+    reader.skip(headerLength);
+    while (reader.remaining() > 0)
+    {
+      values.add(new HistoricalAttributeValue(header, reader.readByteString(reader.readBERLength())));
+    }
+    return values;
+  }
+
+  /**
+   * Returns the length of the header of a value encoded in compact form, up to
+   * and including the {@link #COMPACT_FORM_MARKER}.
+   *
+   * @return the length of the header, or -1 if the value is not encoded in
+   *         compact form
+   */
+  private static int getCompactFormHeaderLength(ByteSequence encodedValue)
+  {
+    // skip the attribute description and the CSN
+    final int csnStart = indexOf(encodedValue, ':', 0);
+    final int keyStart = csnStart >= 0 ? indexOf(encodedValue, ':', csnStart + 1) : -1;
+    if (keyStart < 0)
+    {
+      return -1;
+    }
+    for (int i = keyStart + 1; i < encodedValue.length(); i++)
+    {
+      final byte b = encodedValue.byteAt(i);
+      if (b == COMPACT_FORM_MARKER)
+      {
+        return i + 1;
+      }
+      else if (b == ':')
+      {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(ByteSequence bytes, char c, int fromIndex)
+  {
+    for (int i = fromIndex; i < bytes.length(); i++)
+    {
+      if (bytes.byteAt(i) == c)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the String form of the attribute description of a value of the
+   * historical attribute, without decoding the rest of the value.
+   *
+   * @param encodedValue
+   *          the value of the historical attribute
+   * @return the String form of the attribute description, including the
+   *         options, or {@code null} if the value is malformed
+   */
+  static String getAttributeDescriptionString(ByteString encodedValue)
+  {
+    final int end = indexOf(encodedValue, ':', 0);
+    return end >= 0 ? encodedValue.subSequence(0, end).toString() : null;
+  }
+
+  /**
+   * Returns the CSN of a value of the historical attribute, without decoding
+   * the rest of the value.
+   *
+   * @param encodedValue
+   *          the value of the historical attribute
+   * @return the CSN of the value
+   */
+  static CSN getCSN(ByteString encodedValue)
+  {
+    final int start = indexOf(encodedValue, ':', 0) + 1;
+    int end = indexOf(encodedValue, ':', start);
+    if (end < 0)
+    {
+      end = encodedValue.length();
+    }
+    return new CSN(encodedValue.subSequence(start, end).toString());
+  }
+
+  /**
+   * Decodes the attribute description stored in a value of the historical
+   * attribute.
+   *
+   * @param attrDescString
+   *          the String form of the attribute description, including the
+   *          options separated by ';'
+   * @return the attribute description, or {@code null} if the value stores the
+   *         date when the entry was added or renamed
+   */
+  static AttributeDescription decodeAttributeDescription(String attrDescString)
+  {
+    final String attrName = toLowerCase(getAttributeName(attrDescString));
+    if (attrName.compareTo("dn") == 0)
+    {
+      return null;
+    }
+
+    Set<String> options = Collections.emptySet();
+    if (attrDescString.contains(";"))
+    {
+      options = new LinkedHashSet<>();
+      String[] optionsToken = attrDescString.split(";");
+      for (int index = 1; index < optionsToken.length; index++)
+      {
+        options.add(optionsToken[index]);
+      }
+    }
+    final AttributeType attrType = DirectoryServer.getAttributeTypeOrDefault(attrName);
+    return AttributeDescription.create(attrType, options);
+  }
+
+  private static String getAttributeName(String attrDescString)
+  {
+    final int optionsStart = attrDescString.indexOf(';');
+    return optionsStart >= 0 ? attrDescString.substring(0, optionsStart) : attrDescString;
+  }
+
   private AttributeType getAttributeType()
   {
     return attrDesc != null ? attrDesc.getAttributeType() : null;
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.plugin;
 
@@ -48,6 +48,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.DataFormatException;
 
@@ -245,6 +246,20 @@ public final class LDAPReplicationDomain extends ReplicationDomain
       new AtomicInteger();
   /** The number of updates replayed successfully by the replication. */
   private final AtomicInteger numReplayedPostOpCalled = new AtomicInteger();
+  /** The number of updates currently replayed by the replay threads. */
+  private final AtomicInteger numReplaysInProgress = new AtomicInteger();
+  /** The highest number of updates concurrently replayed by the replay threads. */
+  private final AtomicInteger maxReplaysInProgress = new AtomicInteger();
+  /** The time in milliseconds between the creation of the last replayed update and the end of its replay. */
+  private volatile long replayLag;
+  /** The number of times the historical information of an entry was written. */
+  private final AtomicLong numHistoricalUpdates = new AtomicLong();
+  /** The total size in bytes of the historical information written. */
+  private final AtomicLong historicalUpdatesSize = new AtomicLong();
+  /** The size in bytes of the largest historical information written. */
+  private final AtomicLong maxHistoricalSize = new AtomicLong();
+  /** The number of historical values purged while writing the historical information. */
+  private final AtomicLong numPurgedHistoricalValues = new AtomicLong();
 
   private final PersistentServerState state;
   private volatile boolean generationIdSavedStatus;
@@ -2276,6 +2291,25 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    *          whether the server initiated shutdown
    */
   void replay(LDAPUpdateMsg msg, AtomicBoolean shutdown)
+  {
+    final int replaysInProgress = numReplaysInProgress.incrementAndGet();
+    int max;
+    while ((max = maxReplaysInProgress.get()) < replaysInProgress
+        && !maxReplaysInProgress.compareAndSet(max, replaysInProgress))
+    {
+      // Retry.
+    }
+    try
+    {
+      doReplay(msg, shutdown);
+    }
+    finally
+    {
+      numReplaysInProgress.decrementAndGet();
+    }
+  }
+
+  private void doReplay(LDAPUpdateMsg msg, AtomicBoolean shutdown)
   {
     // Try replay the operation, then flush (replaying) any pending operation
     // whose dependency has been replayed until no more left.
@@ -2376,6 +2410,8 @@ public final class LDAPReplicationDomain extends ReplicationDomain
             {
               replayDone = true; // unknown type of operation ?!
             }
+            // Conflict resolution may have changed the DNs of the update.
+            remotePendingChanges.updateIndexes(csn);
 
             if (replayDone)
             {
@@ -2441,6 +2477,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
         if (!dependency)
         {
           processUpdateDone(msg, replayErrorMsg);
+          replayLag = Math.max(System.currentTimeMillis() - msg.getCSN().getTime(), 0);
         }
       }
 
@@ -4305,10 +4342,40 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
         numUnresolvedNamingConflicts.get());
     addMonitorData(attributes, "remote-pending-changes-size",
         remotePendingChanges.getQueueSize());
+    addMonitorData(attributes, "replay-lag", replayLag);
+    addMonitorData(attributes, "replays-in-progress", numReplaysInProgress.get());
+    addMonitorData(attributes, "max-replays-in-progress", maxReplaysInProgress.get());
+    final long historicalUpdates = numHistoricalUpdates.get();
+    addMonitorData(attributes, "historical-updates", historicalUpdates);
+    addMonitorData(attributes, "historical-average-size",
+        historicalUpdates > 0 ? historicalUpdatesSize.get() / historicalUpdates : 0);
+    addMonitorData(attributes, "historical-max-size", maxHistoricalSize.get());
+    addMonitorData(attributes, "purged-historical-values", numPurgedHistoricalValues.get());
 
     return attributes;
   }
 
+  /**
+   * Updates the statistics about the historical information written to the
+   * entries of this domain.
+   *
+   * @param entryHistorical
+   *          the historical information which has just been encoded
+   */
+  void updateHistoricalStats(EntryHistorical entryHistorical)
+  {
+    final long size = entryHistorical.getLastEncodedSize();
+    numHistoricalUpdates.incrementAndGet();
+    historicalUpdatesSize.addAndGet(size);
+    numPurgedHistoricalValues.addAndGet(entryHistorical.getLastPurgedValuesCount());
+    long max;
+    while ((max = maxHistoricalSize.get()) < size
+        && !maxHistoricalSize.compareAndSet(max, size))
+    {
+      // Retry.
+    }
+  }
+
   /**
    * Verifies that the given string represents a valid source
    * from which this server can be initialized.
@@ -4902,6 +4969,17 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
     return config.getConflictsHistoricalPurgeDelay() * 60 * 1000;
   }
 
+  /**
+   * Returns whether the historical information of many values changed at once
+   * is encoded in compact form.
+   *
+   * @return whether the historical information is encoded in compact form
+   */
+  boolean isCompactHistorical()
+  {
+    return config.isCompactConflictsHistorical();
+  }
+
   /**
    * Check if the operation that just happened has cleared a conflict : Clearing
    * a conflict happens if the operation has freed a DN for which another entry
@@ -4956,8 +5034,10 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
        EntryHistorical entryHist = EntryHistorical.newInstanceFromEntry(entry);
        lastCSNPurgedFromHist = entryHist.getOldestCSN();
        entryHist.setPurgeDelay(getHistoricalPurgeDelay());
+       entryHist.setCompactEncoding(isCompactHistorical());
        Attribute attr = entryHist.encodeAndPurge();
        count += entryHist.getLastPurgedValuesCount();
+       updateHistoricalStats(entryHist);
        List<Modification> mods = newArrayList(new Modification(ModificationType.REPLACE, attr));
 
        ModifyOperation newOp = new ModifyOperationBasis(
@@ -492,7 +492,9 @@ public class MultimasterReplication
           historicalInformation);
     }
     historicalInformation.setPurgeDelay(domain.getHistoricalPurgeDelay());
+    historicalInformation.setCompactEncoding(domain.isCompactHistorical());
     historicalInformation.setHistoricalAttrToOperation(modifyOperation);
+    domain.updateHistoricalStats(historicalInformation);
 
     if (modifyOperation.getModifications().isEmpty())
     {
@@ -543,9 +545,11 @@ public class MultimasterReplication
           historicalInformation);
     }
     historicalInformation.setPurgeDelay(domain.getHistoricalPurgeDelay());
+    historicalInformation.setCompactEncoding(domain.isCompactHistorical());
 
     // Add to the operation the historical attribute : "dn:changeNumber:moddn"
     historicalInformation.setHistoricalAttrToOperation(modifyDNOperation);
+    domain.updateHistoricalStats(historicalInformation);
 
     return new SynchronizationProviderResult.ContinueProcessing();
   }
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2007-2009 Sun Microsystems, Inc.
- *      Portions Copyright 2013-2015 ForgeRock AS.
+ *      Portions Copyright 2013-2016 ForgeRock AS.
  */
 package org.opends.server.replication.plugin;
 
@@ -36,6 +36,7 @@ import org.opends.server.replication.common.CSN;
 import org.opends.server.replication.common.ServerState;
 import org.opends.server.replication.protocol.*;
 import org.opends.server.types.DN;
+import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Operation;
 
 /**
@@ -44,7 +45,9 @@ import org.opends.server.types.Operation;
  * or that are waiting for being replayed.
  *
  * It is used to know when the ServerState must be updated and to compute
- * the dependencies between operations.
+ * the dependencies between operations. The pending changes are indexed by DN
+ * so that computing the dependencies of an operation does not require going
+ * through all the pending changes.
  *
  * One of this object is instantiated for each ReplicationDomain.
  */
@@ -59,6 +62,22 @@ final class RemotePendingChanges
    * another change to be completed.
    */
   private final SortedSet<PendingChange> dependentChanges = new TreeSet<>();
+  /**
+   * Whether the ServerState may cover the dependencies of some dependent
+   * changes, i.e. whether it was updated or new dependent changes were added
+   * since the last time none of them could be replayed.
+   */
+  private boolean dependenciesMayBeCovered;
+
+  /** The pending changes indexed by the DN of their target entry. */
+  private final Map<DN, List<PendingChange>> changesByDN = new HashMap<>();
+  /** The pending modify DN changes indexed by the new DN of their target entry. */
+  private final Map<DN, List<PendingChange>> changesByNewDN = new HashMap<>();
+  /** The number of pending changes targeting entries below each DN. */
+  private final Map<DN, Integer> changesBelowDN = new HashMap<>();
+  /** The DNs under which each pending change is indexed. */
+  private final Map<CSN, DN> indexedDNs = new HashMap<>();
+  private final Map<CSN, DN> indexedNewDNs = new HashMap<>();
 
   /** The ServerState that will be updated when LDAPUpdateMsg are fully replayed. */
   private final ServerState state;
@@ -96,8 +115,119 @@ final class RemotePendingChanges
   public synchronized boolean putRemoteUpdate(LDAPUpdateMsg update)
   {
     CSN csn = update.getCSN();
-    return pendingChanges.put(csn,
-        new PendingChange(csn, null, update)) == null;
+    final PendingChange change = new PendingChange(csn, null, update);
+    final PendingChange previous = pendingChanges.put(csn, change);
+    if (previous != null)
+    {
+      unindex(previous);
+    }
+    index(change);
+    return previous == null;
+  }
+
+  /**
+   * Updates the indexes of a pending change after the DNs of its message have
+   * been changed, e.g. by the naming conflicts resolution.
+   *
+   * @param csn
+   *          The CSN of the pending change.
+   */
+  public synchronized void updateIndexes(CSN csn)
+  {
+    final PendingChange change = pendingChanges.get(csn);
+    if (change != null)
+    {
+      unindex(change);
+      index(change);
+    }
+  }
+
+  private void index(PendingChange change)
+  {
+    final LDAPUpdateMsg msg = change.getLDAPUpdateMsg();
+    final DN dn = msg.getDN();
+    indexedDNs.put(change.getCSN(), dn);
+    addToIndex(changesByDN, dn, change);
+    for (DN parentDN = dn.parent(); parentDN != null; parentDN = parentDN.parent())
+    {
+      final Integer count = changesBelowDN.get(parentDN);
+      changesBelowDN.put(parentDN, count != null ? count + 1 : 1);
+    }
+
+    if (msg instanceof ModifyDNMsg)
+    {
+      final DN newDN = ((ModifyDNMsg) msg).getNewDN();
+      if (newDN != null)
+      {
+        indexedNewDNs.put(change.getCSN(), newDN);
+        addToIndex(changesByNewDN, newDN, change);
+      }
+    }
+  }
+
+  private void unindex(PendingChange change)
+  {
+    final DN dn = indexedDNs.remove(change.getCSN());
+    removeFromIndex(changesByDN, dn, change);
+    for (DN parentDN = dn.parent(); parentDN != null; parentDN = parentDN.parent())
+    {
+      final int count = changesBelowDN.get(parentDN);
+      if (count > 1)
+      {
+        changesBelowDN.put(parentDN, count - 1);
+      }
+      else
+      {
+        changesBelowDN.remove(parentDN);
+      }
+    }
+
+    final DN newDN = indexedNewDNs.remove(change.getCSN());
+    if (newDN != null)
+    {
+      removeFromIndex(changesByNewDN, newDN, change);
+    }
+  }
+
+  private static void addToIndex(Map<DN, List<PendingChange>> index, DN dn, PendingChange change)
+  {
+    List<PendingChange> changes = index.get(dn);
+    if (changes == null)
+    {
+      changes = new ArrayList<>(1);
+      index.put(dn, changes);
+    }
+    changes.add(change);
+  }
+
+  private static void removeFromIndex(Map<DN, List<PendingChange>> index, DN dn, PendingChange change)
+  {
+    final List<PendingChange> changes = index.get(dn);
+    changes.remove(change);
+    if (changes.isEmpty())
+    {
+      index.remove(dn);
+    }
+  }
+
+  /**
+   * Adds to the candidates the indexed pending changes older than the provided
+   * CSN.
+   */
+  private static void addOlderChanges(Collection<PendingChange> candidates, Map<DN, List<PendingChange>> index, DN dn,
+      CSN csn)
+  {
+    final List<PendingChange> changes = dn != null ? index.get(dn) : null;
+    if (changes != null)
+    {
+      for (PendingChange change : changes)
+      {
+        if (change.getCSN().isOlderThan(csn))
+        {
+          candidates.add(change);
+        }
+      }
+    }
   }
 
   /**
@@ -123,8 +253,10 @@ final class RemotePendingChanges
       if (firstChange.getMsg().contributesToDomainState())
       {
         state.update(firstCSN);
+        dependenciesMayBeCovered = true;
       }
       pendingChanges.remove(firstCSN);
+      unindex(firstChange);
 
       if (pendingChanges.isEmpty())
       {
@@ -145,6 +277,10 @@ final class RemotePendingChanges
    */
   public synchronized LDAPUpdateMsg getNextUpdate()
   {
+    if (!dependenciesMayBeCovered)
+    {
+      return null;
+    }
     /*
      * Parse the list of Update with dependencies and check if the dependencies
      * are now cleared until an Update without dependencies is found.
@@ -157,6 +293,7 @@ final class RemotePendingChanges
         return change.getLDAPUpdateMsg();
       }
     }
+    dependenciesMayBeCovered = false;
     return null;
   }
 
@@ -172,6 +309,7 @@ final class RemotePendingChanges
   {
     dependentChange.addDependency(pendingChange.getCSN());
     dependentChanges.add(dependentChange);
+    dependenciesMayBeCovered = true;
   }
 
   /**
@@ -201,70 +339,64 @@ final class RemotePendingChanges
       return false;
     }
 
-    for (PendingChange pendingChange : pendingChanges.values())
+    final List<PendingChange> candidates = new ArrayList<>();
+    for (DN dn = targetDN; dn != null; dn = dn.parent())
     {
-      if (pendingChange.getCSN().isOlderThan(csn))
+      addOlderChanges(candidates, changesByDN, dn, csn);
+      addOlderChanges(candidates, changesByNewDN, dn, csn);
+    }
+    for (PendingChange pendingChange : candidates)
+    {
+      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
+      if (pendingMsg != null)
       {
-        final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-        if (pendingMsg != null)
+        if (pendingMsg instanceof DeleteMsg)
         {
-          if (pendingMsg instanceof DeleteMsg)
+          /*
+           * Check is the operation to be run is a deleteOperation on the
+           * same DN.
+           */
+          if (pendingMsg.getDN().equals(targetDN))
           {
-            /*
-             * Check is the operation to be run is a deleteOperation on the
-             * same DN.
-             */
-            if (pendingMsg.getDN().equals(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
-          else if (pendingMsg instanceof AddMsg)
+        }
+        else if (pendingMsg instanceof AddMsg)
+        {
+          /*
+           * Check if the operation to be run is an addOperation on a
+           * parent of the current AddOperation.
+           */
+          if (pendingMsg.getDN().isAncestorOf(targetDN))
           {
-            /*
-             * Check if the operation to be run is an addOperation on a
-             * parent of the current AddOperation.
-             */
-            if (pendingMsg.getDN().isAncestorOf(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
+          }
+        }
+        else if (pendingMsg instanceof ModifyDNMsg)
+        {
+          /*
+           * Check if the operation to be run is ModifyDnOperation with
+           * the same target DN as the ADD DN
+           * or a ModifyDnOperation with new DN equals to the ADD DN parent
+           */
+          if (pendingMsg.getDN().equals(targetDN))
+          {
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
-          else if (pendingMsg instanceof ModifyDNMsg)
+          else
           {
-            /*
-             * Check if the operation to be run is ModifyDnOperation with
-             * the same target DN as the ADD DN
-             * or a ModifyDnOperation with new DN equals to the ADD DN parent
-             */
-            if (pendingMsg.getDN().equals(targetDN))
+            final ModifyDNMsg pendingModDn = (ModifyDNMsg) pendingMsg;
+            if (pendingModDn.newDNIsParent(targetDN))
             {
               hasDependencies = true;
               addDependency(change, pendingChange);
             }
-            else
-            {
-              final ModifyDNMsg pendingModDn = (ModifyDNMsg) pendingMsg;
-              if (pendingModDn.newDNIsParent(targetDN))
-              {
-                hasDependencies = true;
-                addDependency(change, pendingChange);
-              }
-            }
           }
         }
       }
-      else
-      {
-        // We reached an operation that is newer than the operation
-        // for which we are doing the dependency check so it is
-        // not possible to find another operation with some dependency.
-        // break the loop to avoid going through the potentially large
-        // list of pending changes.
-        break;
-      }
     }
     return hasDependencies;
   }
@@ -293,30 +425,20 @@ final class RemotePendingChanges
       return false;
     }
 
-    for (PendingChange pendingChange : pendingChanges.values())
+    final List<PendingChange> candidates = new ArrayList<>();
+    addOlderChanges(candidates, changesByDN, targetDN, csn);
+    for (PendingChange pendingChange : candidates)
     {
-      if (pendingChange.getCSN().isOlderThan(csn))
+      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
+      if (pendingMsg instanceof AddMsg)
       {
-        final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-        if (pendingMsg instanceof AddMsg)
+        // Check if the operation to be run is an addOperation on a same DN.
+        if (pendingMsg.getDN().equals(targetDN))
         {
-          // Check if the operation to be run is an addOperation on a same DN.
-          if (pendingMsg.getDN().equals(targetDN))
-          {
-            hasDependencies = true;
-            addDependency(change, pendingChange);
-          }
+          hasDependencies = true;
+          addDependency(change, pendingChange);
         }
       }
-      else
-      {
-        // We reached an operation that is newer than the operation
-        // for which we are doing the dependency check so it is
-        // not possible to find another operation with some dependency.
-        // break the loop to avoid going through the potentially large
-        // list of pending changes.
-        break;
-      }
     }
     return hasDependencies;
   }
@@ -349,60 +471,54 @@ final class RemotePendingChanges
 
     final DN targetDN = change.getLDAPUpdateMsg().getDN();
 
-    for (PendingChange pendingChange : pendingChanges.values())
+    final DN newDN = msg.getNewDN();
+    final DN newSuperiorDN = toDN(msg.getNewSuperior());
+    final List<PendingChange> candidates = new ArrayList<>();
+    addOlderChanges(candidates, changesByDN, targetDN, csn);
+    addOlderChanges(candidates, changesByDN, newDN, csn);
+    addOlderChanges(candidates, changesByDN, newSuperiorDN, csn);
+    for (PendingChange pendingChange : candidates)
     {
-      if (pendingChange.getCSN().isOlderThan(csn))
+      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
+      if (pendingMsg != null)
       {
-        final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-        if (pendingMsg != null)
+        if (pendingMsg instanceof DeleteMsg)
         {
-          if (pendingMsg instanceof DeleteMsg)
+          // Check if the target of the Delete is the same
+          // as the new DN of this ModifyDN
+          if (msg.newDNIsEqual(pendingMsg.getDN()))
           {
-            // Check if the target of the Delete is the same
-            // as the new DN of this ModifyDN
-            if (msg.newDNIsEqual(pendingMsg.getDN()))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
-          else if (pendingMsg instanceof AddMsg)
+        }
+        else if (pendingMsg instanceof AddMsg)
+        {
+          // Check if the Add Operation was done on the new parent of
+          // the MODDN  operation
+          if (msg.newParentIsEqual(pendingMsg.getDN()))
           {
-            // Check if the Add Operation was done on the new parent of
-            // the MODDN  operation
-            if (msg.newParentIsEqual(pendingMsg.getDN()))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
-            // Check if the AddOperation was done on the same DN as the
-            // target DN of the MODDN operation
-            if (pendingMsg.getDN().equals(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
-          else if (pendingMsg instanceof ModifyDNMsg)
+          // Check if the AddOperation was done on the same DN as the
+          // target DN of the MODDN operation
+          if (pendingMsg.getDN().equals(targetDN))
           {
-            // Check if the ModifyDNOperation was done from the new DN of
-            // the MODDN operation
-            if (msg.newDNIsEqual(pendingMsg.getDN()))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
+          }
+        }
+        else if (pendingMsg instanceof ModifyDNMsg)
+        {
+          // Check if the ModifyDNOperation was done from the new DN of
+          // the MODDN operation
+          if (msg.newDNIsEqual(pendingMsg.getDN()))
+          {
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
         }
-      }
-      else
-      {
-        // We reached an operation that is newer than the operation
-        // for which we are doing the dependency check so it is
-        // not possible to find another operation with some dependency.
-        // break the loop to avoid going through the potentially large
-        // list of pending changes.
-        break;
       }
     }
     return hasDependencies;
@@ -435,66 +551,81 @@ final class RemotePendingChanges
       return false;
     }
 
-    for (PendingChange pendingChange : pendingChanges.values())
+    final Collection<PendingChange> candidates;
+    if (changesBelowDN.containsKey(targetDN))
     {
-      if (pendingChange.getCSN().isOlderThan(csn))
+      // Changes on the subordinate entries must be searched for.
+      candidates = pendingChanges.headMap(csn).values();
+    }
+    else
+    {
+      candidates = new ArrayList<>();
+      addOlderChanges(candidates, changesByDN, targetDN, csn);
+      for (DN dn = targetDN; dn != null; dn = dn.parent())
       {
-        final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
-        if (pendingMsg != null)
+        addOlderChanges(candidates, changesByNewDN, dn, csn);
+      }
+    }
+    for (PendingChange pendingChange : candidates)
+    {
+      final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
+      if (pendingMsg != null)
+      {
+        if (pendingMsg instanceof DeleteMsg)
         {
-          if (pendingMsg instanceof DeleteMsg)
+          /*
+           * Check if the operation to be run is a deleteOperation on a
+           * children of the current DeleteOperation.
+           */
+          if (pendingMsg.getDN().isDescendantOf(targetDN))
           {
-            /*
-             * Check if the operation to be run is a deleteOperation on a
-             * children of the current DeleteOperation.
-             */
-            if (pendingMsg.getDN().isDescendantOf(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
-          else if (pendingMsg instanceof AddMsg)
+        }
+        else if (pendingMsg instanceof AddMsg)
+        {
+          /*
+           * Check if the operation to be run is an addOperation on a
+           * parent of the current DeleteOperation.
+           */
+          if (pendingMsg.getDN().equals(targetDN))
           {
-            /*
-             * Check if the operation to be run is an addOperation on a
-             * parent of the current DeleteOperation.
-             */
-            if (pendingMsg.getDN().equals(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
-          else if (pendingMsg instanceof ModifyDNMsg)
+        }
+        else if (pendingMsg instanceof ModifyDNMsg)
+        {
+          final ModifyDNMsg pendingModDn = (ModifyDNMsg) pendingMsg;
+          /*
+           * Check if the operation to be run is an ModifyDNOperation
+           * on a children of the current DeleteOperation
+           */
+          if (pendingMsg.getDN().isDescendantOf(targetDN)
+              || pendingModDn.newDNIsParent(targetDN))
           {
-            final ModifyDNMsg pendingModDn = (ModifyDNMsg) pendingMsg;
-            /*
-             * Check if the operation to be run is an ModifyDNOperation
-             * on a children of the current DeleteOperation
-             */
-            if (pendingMsg.getDN().isDescendantOf(targetDN)
-                || pendingModDn.newDNIsParent(targetDN))
-            {
-              hasDependencies = true;
-              addDependency(change, pendingChange);
-            }
+            hasDependencies = true;
+            addDependency(change, pendingChange);
           }
         }
       }
-      else
-      {
-        // We reached an operation that is newer than the operation
-        // for which we are doing the dependency check so it is
-        // not possible to find another operation with some dependency.
-        // break the loop to avoid going through the potentially large
-        // list of pending changes.
-        break;
-      }
     }
     return hasDependencies;
   }
 
+  private static DN toDN(String dn)
+  {
+    try
+    {
+      return dn != null ? DN.valueOf(dn) : null;
+    }
+    catch (DirectoryException e)
+    {
+      return null;
+    }
+  }
+
   /**
    * Check the dependencies of a given Operation/UpdateMsg.
    *
@@ -0,0 +1,128 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import org.opends.server.replication.common.CSN;
+
+import static org.opends.server.replication.protocol.ByteArrayBuilder.*;
+
+/**
+ * CumulativeAckMsg messages acknowledge several assured updates at once,
+ * without any error.
+ * <p>
+ * The message holds a watermark CSN per replica: it acknowledges all the
+ * assured updates of this replica with a CSN older than or equal to the
+ * watermark for which the sender of the message had to send an ack and has not
+ * sent an {@link AckMsg} yet. Acks with errors are always sent as
+ * {@link AckMsg}s, before any CumulativeAckMsg covering more recent updates.
+ *
+ * @since {@link ProtocolVersion#REPLICATION_PROTOCOL_V10}
+ */
+public class CumulativeAckMsg extends ReplicationMsg
+{
+  /** The watermark CSN of each acknowledged replica. */
+  private final List<CSN> csns;
+
+  /**
+   * Creates a new CumulativeAckMsg.
+   *
+   * @param csns
+   *          The watermark CSN of each acknowledged replica.
+   */
+  public CumulativeAckMsg(List<CSN> csns)
+  {
+    this.csns = csns;
+  }
+
+  /**
+   * Creates a new CumulativeAckMsg by decoding the provided byte array.
+   *
+   * @param in
+   *          The byte array containing the encoded form of the
+   *          CumulativeAckMsg.
+   * @throws DataFormatException
+   *           If in does not contain a properly encoded CumulativeAckMsg.
+   */
+  CumulativeAckMsg(byte[] in) throws DataFormatException
+  {
+    /*
+     * The message is stored in the form:
+     * <operation type><CSN>*
+     */
+    final ByteArrayScanner scanner = new ByteArrayScanner(in);
+    final byte msgType = scanner.nextByte();
+    if (msgType != MSG_TYPE_CUMULATIVE_ACK)
+    {
+      throw new DataFormatException("input is not a valid "
+          + getClass().getSimpleName() + " message: " + msgType);
+    }
+    final List<CSN> decodedCSNs = new ArrayList<>();
+    while (!scanner.isEmpty())
+    {
+      decodedCSNs.add(scanner.nextCSN());
+    }
+    csns = decodedCSNs;
+  }
+
+  /**
+   * Returns the watermark CSN of each acknowledged replica.
+   *
+   * @return the watermark CSN of each acknowledged replica
+   */
+  public List<CSN> getCSNs()
+  {
+    return Collections.unmodifiableList(csns);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] getBytes(short protocolVersion)
+  {
+    if (protocolVersion < ProtocolVersion.REPLICATION_PROTOCOL_V10)
+    {
+      return null;
+    }
+    final ByteArrayBuilder builder = new ByteArrayBuilder(bytes(1) + csns(csns.size()));
+    builder.appendByte(MSG_TYPE_CUMULATIVE_ACK);
+    for (CSN csn : csns)
+    {
+      builder.appendCSN(csn);
+    }
+    return builder.toByteArray();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + " csns=" + csns;
+  }
+}
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.protocol;
 
@@ -365,6 +365,23 @@ public class ModifyDNMsg extends ModifyCommonMsg
     this.newRDN = newRDN;
   }
 
+  /**
+   * Get the new DN of the target entry.
+   *
+   * @return The new DN of the target entry, or null if it is not a valid DN.
+   */
+  public DN getNewDN()
+  {
+    try
+    {
+      return computeNewDN();
+    }
+    catch (DirectoryException e)
+    {
+      return null;
+    }
+  }
+
   /**
    * Computes and return the new DN that the entry should
    * have after this operation.
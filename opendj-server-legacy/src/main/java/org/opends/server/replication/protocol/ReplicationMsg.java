@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions copyright 2013-2014 ForgeRock AS.
+ *      Portions copyright 2013-2016 ForgeRock AS.
  */
 package org.opends.server.replication.protocol;
 
@@ -91,6 +91,9 @@ public abstract class ReplicationMsg
   /** @since {@link ProtocolVersion#REPLICATION_PROTOCOL_V8} */
   static final byte MSG_TYPE_REPLICA_OFFLINE = 37;
 
+  /** @since {@link ProtocolVersion#REPLICATION_PROTOCOL_V10} */
+  static final byte MSG_TYPE_CUMULATIVE_ACK = 38;
+
   // Adding a new type of message here probably requires to
   // change accordingly generateMsg method below
 
@@ -209,6 +212,8 @@ public abstract class ReplicationMsg
       return new InitializeRcvAckMsg(buffer);
     case MSG_TYPE_REPLICA_OFFLINE:
       return new ReplicaOfflineMsg(buffer);
+    case MSG_TYPE_CUMULATIVE_ACK:
+      return new CumulativeAckMsg(buffer);
     default:
       throw new DataFormatException("received message with unknown type");
     }
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2009 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.protocol;
 
@@ -31,6 +31,9 @@ import static org.opends.server.util.StaticUtils.*;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -38,20 +41,50 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.net.ssl.SSLSocket;
 
 import org.opends.server.api.DirectoryThread;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.opends.server.util.StaticUtils;
 
 /**
  * This class defines a replication session using TLS.
+ * <p>
+ * Before protocol V9, each message is sent with an 8 characters hexadecimal
+ * length header. Starting with protocol V9, the messages waiting in the send
+ * queue are sent together in a single frame, which is compressed when this
+ * makes it smaller, unless compression has been disabled:
+ *
+ * <pre>
+ * frame type          1 byte: {@link #FRAME_BATCH} or {@link #FRAME_COMPRESSED_BATCH}
+ * frame length        4 bytes: length of the frame content
+ * uncompressed length 4 bytes: only present in compressed frames
+ * frame content       the messages, each one preceded by its length on 4 bytes
+ * </pre>
+ *
+ * The frame type is never an hexadecimal digit, so that received frames are
+ * recognized whatever the protocol version, and the new frames can be used as
+ * soon as the protocol version has been negotiated during the handshake.
  */
 public final class Session extends DirectoryThread implements Closeable
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** Type of the frames holding a batch of messages. */
+  private static final int FRAME_BATCH = 0x80;
+  /** Type of the frames holding a compressed batch of messages. */
+  private static final int FRAME_COMPRESSED_BATCH = 0x81;
+  /** Stop adding messages to a batch when its size reaches this limit. */
+  private static final int MAX_BATCH_SIZE = 256 * 1024;
+  /** Batches smaller than this are not worth compressing. */
+  private static final int MIN_COMPRESSED_BATCH_SIZE = 512;
+
   private final Socket plainSocket;
   private final SSLSocket secureSocket;
   private final InputStream plainInput;
@@ -93,6 +126,17 @@ public final class Session extends DirectoryThread implements Closeable
   private short protocolVersion = ProtocolVersion.getCurrentVersion();
   /** Initially encrypted. */
   private boolean isEncrypted = true;
+  /**
+   * Whether messages are sent in batches, which requires the peer to support
+   * protocol V9. Initially false, since the handshake starts before the
+   * protocol version is known.
+   */
+  private volatile boolean sendBatches;
+  /**
+   * Whether the batches of messages are compressed when this makes them
+   * smaller.
+   */
+  private volatile boolean compressBatches = true;
 
   /**
    * Use a buffered input stream to avoid too many system calls.
@@ -105,6 +149,26 @@ public final class Session extends DirectoryThread implements Closeable
    */
   private BufferedOutputStream output;
 
+  /** The following fields are guarded by the publish lock. */
+  private final ByteStringBuilder batchBuilder = new ByteStringBuilder();
+  private byte[] compressedBatch = new byte[0];
+  private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+  /** Statistics of the sent batches, written with the publish lock held. */
+  private volatile long sentBatches;
+  private volatile long sentBatchedMessages;
+  private volatile long sentBatchBytes;
+  private volatile long sentBatchCompressedBytes;
+
+  /**
+   * Only used by the single thread receiving messages, and released on close:
+   * guarded by the inflater lock.
+   */
+  private final Object inflaterLock = new Object();
+  private Inflater inflater = new Inflater();
+  /** Only used by the single thread receiving messages. */
+  private ByteSequenceReader receivedBatch;
+
   private final LinkedBlockingQueue<byte[]> sendQueue = new LinkedBlockingQueue<>(4000);
   private AtomicBoolean isRunning = new AtomicBoolean(false);
   private final CountDownLatch latch = new CountDownLatch(1);
@@ -212,6 +276,23 @@ public final class Session extends DirectoryThread implements Closeable
     }
 
     StaticUtils.close(plainSocket, secureSocket);
+
+    publishLock.lock();
+    try
+    {
+      deflater.end();
+      deflater = null;
+    }
+    finally
+    {
+      publishLock.unlock();
+    }
+
+    synchronized (inflaterLock)
+    {
+      inflater.end();
+      inflater = null;
+    }
   }
 
 
@@ -357,18 +438,38 @@ public final class Session extends DirectoryThread implements Closeable
    */
   private void send(final byte[] buffer) throws IOException
   {
-    final String str = String.format("%08x", buffer.length);
-    final byte[] sendLengthBuf = str.getBytes();
+    send(Collections.singletonList(buffer));
+  }
 
+  /**
+   * Sends replication messages already encoded to the socket, flushing the
+   * socket once all of them have been written.
+   *
+   * @param buffers
+   *          the encoded buffers
+   * @throws IOException if the messages could not be sent
+   */
+  private void send(final List<byte[]> buffers) throws IOException
+  {
     publishLock.lock();
     try
     {
       /*
-       * The buffered output stream ensures that the message is usually sent as
-       * a single TCP packet.
+       * The buffered output stream ensures that the messages are usually sent
+       * in as few TCP packets as possible.
        */
-      output.write(sendLengthBuf);
-      output.write(buffer);
+      if (sendBatches)
+      {
+        writeBatch(buffers);
+      }
+      else
+      {
+        for (byte[] buffer : buffers)
+        {
+          output.write(String.format("%08x", buffer.length).getBytes());
+          output.write(buffer);
+        }
+      }
       output.flush();
     } catch (final IOException e) {
       setSessionError(e);
@@ -382,6 +483,72 @@ public final class Session extends DirectoryThread implements Closeable
     lastPublishTime = System.currentTimeMillis();
   }
 
+  private void writeBatch(final List<byte[]> buffers) throws IOException
+  {
+    batchBuilder.clear();
+    for (byte[] buffer : buffers)
+    {
+      batchBuilder.appendInt(buffer.length);
+      batchBuilder.appendBytes(buffer);
+    }
+    final int length = batchBuilder.length();
+    final int compressedLength = compressBatch();
+    if (compressedLength > 0)
+    {
+      output.write(FRAME_COMPRESSED_BATCH);
+      writeInt(compressedLength + 4);
+      writeInt(length);
+      output.write(compressedBatch, 0, compressedLength);
+    }
+    else
+    {
+      output.write(FRAME_BATCH);
+      writeInt(length);
+      output.write(batchBuilder.getBackingArray(), 0, length);
+    }
+    sentBatches++;
+    sentBatchedMessages += buffers.size();
+    sentBatchBytes += length;
+    sentBatchCompressedBytes += compressedLength > 0 ? compressedLength : length;
+  }
+
+  /**
+   * Compresses the batch builder content to the compressed batch buffer.
+   *
+   * @return the compressed length, or 0 if the batch is not worth compressing
+   */
+  private int compressBatch()
+  {
+    final int length = batchBuilder.length();
+    if (!compressBatches || length < MIN_COMPRESSED_BATCH_SIZE || deflater == null)
+    {
+      return 0;
+    }
+    if (compressedBatch.length < length)
+    {
+      compressedBatch = new byte[length];
+    }
+    deflater.reset();
+    deflater.setInput(batchBuilder.getBackingArray(), 0, length);
+    deflater.finish();
+    // Give up as soon as the compressed batch would not be smaller.
+    final int maxLength = length - 1;
+    int compressedLength = 0;
+    while (!deflater.finished() && compressedLength < maxLength)
+    {
+      compressedLength += deflater.deflate(compressedBatch, compressedLength, maxLength - compressedLength);
+    }
+    return deflater.finished() ? compressedLength : 0;
+  }
+
+  private void writeInt(final int value) throws IOException
+  {
+    output.write(value >>> 24);
+    output.write(value >>> 16);
+    output.write(value >>> 8);
+    output.write(value);
+  }
+
 
 
   /**
@@ -410,27 +577,35 @@ public final class Session extends DirectoryThread implements Closeable
        */
       lastReceiveTime = System.currentTimeMillis();
 
-      // Read the first 8 bytes containing the packet length.
-      read(rcvLengthBuf);
-      final int totalLength = Integer.parseInt(new String(rcvLengthBuf), 16);
-
-      try
-      {
-        final byte[] buffer = new byte[totalLength];
-        read(buffer);
-
-        /*
-         * We do not want the heartbeat to close the session when we are
-         * processing a message even a time consuming one.
-         */
-        lastReceiveTime = 0;
-        return ReplicationMsg.generateMsg(buffer, protocolVersion);
-      }
-      catch (final OutOfMemoryError e)
+      byte[] buffer = nextBatchedMessage();
+      if (buffer == null)
       {
-        throw new IOException("Packet too large, can't allocate "
-            + totalLength + " bytes.");
+        // Read the first byte to find out how the next packet is framed.
+        read(rcvLengthBuf, 0, 1);
+        final int frameType = rcvLengthBuf[0] & 0xFF;
+        if (frameType == FRAME_BATCH || frameType == FRAME_COMPRESSED_BATCH)
+        {
+          receivedBatch = readBatch(frameType);
+          buffer = nextBatchedMessage();
+          if (buffer == null)
+          {
+            throw new DataFormatException("Empty batch of replication messages");
+          }
+        }
+        else
+        {
+          // The first 8 bytes contain the packet length.
+          read(rcvLengthBuf, 1, rcvLengthBuf.length - 1);
+          buffer = readPacket(Integer.parseInt(new String(rcvLengthBuf), 16));
+        }
       }
+
+      /*
+       * We do not want the heartbeat to close the session when we are
+       * processing a message even a time consuming one.
+       */
+      lastReceiveTime = 0;
+      return ReplicationMsg.generateMsg(buffer, protocolVersion);
     }
     catch (final IOException | DataFormatException | NotSupportedOldVersionPDUException | RuntimeException e)
     {
@@ -439,13 +614,110 @@ public final class Session extends DirectoryThread implements Closeable
     }
   }
 
-  private void read(byte[] buffer) throws IOException
+  private byte[] readPacket(final int totalLength) throws IOException
+  {
+    final byte[] buffer = allocatePacket(totalLength);
+    read(buffer, 0, totalLength);
+    return buffer;
+  }
+
+  private byte[] allocatePacket(final int totalLength) throws IOException
+  {
+    try
+    {
+      return new byte[totalLength];
+    }
+    catch (final OutOfMemoryError | NegativeArraySizeException e)
+    {
+      throw new IOException("Packet too large, can't allocate "
+          + totalLength + " bytes.");
+    }
+  }
+
+  private ByteSequenceReader readBatch(final int frameType) throws IOException, DataFormatException
+  {
+    read(rcvLengthBuf, 0, 4);
+    final byte[] frame = readPacket(ByteString.wrap(rcvLengthBuf, 0, 4).toInt());
+    if (frameType == FRAME_BATCH)
+    {
+      return ByteString.wrap(frame).asReader();
+    }
+
+    if (frame.length < 4)
+    {
+      throw new DataFormatException("Truncated compressed batch of replication messages");
+    }
+    final byte[] batch = allocatePacket(ByteString.wrap(frame, 0, 4).toInt());
+    synchronized (inflaterLock)
+    {
+      if (inflater == null)
+      {
+        throw new IOException("Session closed");
+      }
+      inflater.reset();
+      inflater.setInput(frame, 4, frame.length - 4);
+      int length = 0;
+      while (length < batch.length && !inflater.finished())
+      {
+        final int inflated = inflater.inflate(batch, length, batch.length - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+        {
+          break;
+        }
+        length += inflated;
+      }
+      if (length != batch.length || !inflater.finished())
+      {
+        throw new DataFormatException("Invalid compressed batch of replication messages");
+      }
+    }
+    return ByteString.wrap(batch).asReader();
+  }
+
+  /**
+   * Returns whether messages already received are waiting to be returned by
+   * {@link #receive()}, so that the next call to this method will not block.
+   * <p>
+   * This method can only be called by the thread receiving the messages.
+   *
+   * @return true if messages already received are waiting to be returned
+   */
+  public boolean hasBufferedMessages()
+  {
+    return receivedBatch != null && receivedBatch.remaining() > 0;
+  }
+
+  /**
+   * Returns the next message of the last received batch.
+   *
+   * @return the next message of the last received batch, or null if there is
+   *         none
+   */
+  private byte[] nextBatchedMessage() throws DataFormatException
+  {
+    if (receivedBatch == null || receivedBatch.remaining() == 0)
+    {
+      receivedBatch = null;
+      return null;
+    }
+    if (receivedBatch.remaining() < 4)
+    {
+      throw new DataFormatException("Truncated batch of replication messages");
+    }
+    final int length = receivedBatch.readInt();
+    if (length < 0 || length > receivedBatch.remaining())
+    {
+      throw new DataFormatException("Truncated batch of replication messages");
+    }
+    return receivedBatch.readByteString(length).toByteArray();
+  }
+
+  private void read(byte[] buffer, int offset, int totalLength) throws IOException
   {
-    final int totalLength = buffer.length;
     int length = 0;
     while (length < totalLength)
     {
-      final int read = input.read(buffer, length, totalLength - length);
+      final int read = input.read(buffer, offset + length, totalLength - length);
       if (read == -1)
       {
         lastReceiveTime = 0;
@@ -464,9 +736,27 @@ public final class Session extends DirectoryThread implements Closeable
   public void setProtocolVersion(final short version)
   {
     protocolVersion = version;
+    sendBatches = version >= ProtocolVersion.REPLICATION_PROTOCOL_V9;
+  }
+
+
+  /**
+   * Sets whether the batches of messages sent on this session are compressed
+   * when this makes them smaller. Batches are only sent once the protocol
+   * version negotiated with the peer supports them, and received compressed
+   * batches are always accepted.
+   *
+   * @param compressBatches
+   *          Whether the batches of messages sent on this session are
+   *          compressed.
+   */
+  public void setBatchCompression(final boolean compressBatches)
+  {
+    this.compressBatches = compressBatches;
   }
 
 
+
   /**
    * Returns the version of the protocol that is currently used.
    *
@@ -479,6 +769,46 @@ public final class Session extends DirectoryThread implements Closeable
 
 
 
+  /**
+   * Returns the number of batches of messages sent on this session.
+   *
+   * @return The number of batches of messages sent on this session.
+   */
+  public long getSentBatches()
+  {
+    return sentBatches;
+  }
+
+
+
+  /**
+   * Returns the average number of messages per batch sent on this session.
+   *
+   * @return The average number of messages per batch sent on this session.
+   */
+  public double getAverageBatchSize()
+  {
+    final long batches = sentBatches;
+    return batches != 0 ? (double) sentBatchedMessages / batches : 0;
+  }
+
+
+
+  /**
+   * Returns the ratio between the size of the batches sent on this session and
+   * their size once compressed.
+   *
+   * @return The compression ratio of the batches sent on this session, 1 when
+   *         none has been compressed.
+   */
+  public double getCompressionRatio()
+  {
+    final long compressedBytes = sentBatchCompressedBytes;
+    return compressedBytes != 0 ? (double) sentBatchBytes / compressedBytes : 1;
+  }
+
+
+
   /**
    * Set a timeout value.
    * With this option set to a non-zero value, calls to the receive() method
@@ -532,7 +862,8 @@ public final class Session extends DirectoryThread implements Closeable
 
   /**
    * Run method for the Session.
-   * Loops waiting for buffers from the queue and sends them when available.
+   * Loops waiting for buffers from the queue and sends them when available,
+   * together with all the buffers queued in the meantime.
    */
   @Override
   public void run()
@@ -544,20 +875,28 @@ public final class Session extends DirectoryThread implements Closeable
       logger.trace(getName() + " starting.");
     }
     boolean needClosing = false;
+    final List<byte[]> buffers = new ArrayList<>();
     while (!closeInitiated)
     {
-      byte[] buffer;
+      buffers.clear();
       try
       {
-        buffer = sendQueue.take();
+        buffers.add(sendQueue.take());
       }
       catch (InterruptedException ie)
       {
         break;
       }
+      int batchSize = buffers.get(0).length;
+      byte[] buffer;
+      while (batchSize < MAX_BATCH_SIZE && (buffer = sendQueue.poll()) != null)
+      {
+        buffers.add(buffer);
+        batchSize += buffer.length;
+      }
       try
       {
-        send(buffer);
+        send(buffers);
       }
       catch (IOException e)
       {
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
@@ -335,6 +335,7 @@ public class DataServerHandler extends ServerHandler
   {
     session
         .setProtocolVersion(getCompatibleVersion(serverStartMsg.getVersion()));
+    session.setBatchCompression(replicationServer.isCompressMessageBatches());
     tmpGenerationId = serverStartMsg.getGenerationId();
     serverId = serverStartMsg.getServerId();
     serverURL = serverStartMsg.getServerURL();
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2009 Sun Microsystems, Inc.
- *      Portions Copyright 2013-2015 ForgeRock AS.
+ *      Portions Copyright 2013-2016 ForgeRock AS.
  */
 
 package org.opends.server.replication.server;
@@ -89,6 +89,9 @@ public abstract class ExpectedAcksInfo
    */
   protected List<Integer> serversInTimeout;
 
+  /** The time at which the assured update message was received. */
+  private final long creationTime = System.currentTimeMillis();
+
   /**
    * Creates a new ExpectedAcksInfo.
    * @param csn The CSN of the assured update message
@@ -121,6 +124,30 @@ public abstract class ExpectedAcksInfo
     return requesterServerHandler;
   }
 
+  /**
+   * Returns whether an ack is expected from the provided server and has not
+   * been received yet.
+   *
+   * @param serverId
+   *          The id of the server
+   * @return True if an ack is still expected from the provided server
+   */
+  public synchronized boolean isWaitingAckFrom(int serverId)
+  {
+    return Boolean.FALSE.equals(expectedServersAckStatus.get(serverId));
+  }
+
+  /**
+   * Gets the time at which the assured update message was received.
+   *
+   * @return The time in milliseconds at which the assured update message was
+   *         received
+   */
+  public long getCreationTime()
+  {
+    return creationTime;
+  }
+
   /**
    * Gets the list of expected servers that did not respond in time.
    * @return The list of expected servers that did not respond in time.
@@ -0,0 +1,108 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.opends.server.types.Attribute;
+import org.opends.server.types.AttributeBuilder;
+
+/**
+ * Histogram of latencies, counting the latencies in buckets of increasing
+ * sizes. It can be updated concurrently without locking.
+ */
+class LatencyHistogram
+{
+  /** Upper bounds (inclusive) of the buckets in milliseconds, the last bucket has no upper bound. */
+  private static final long[] BUCKET_BOUNDS_IN_MS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS_IN_MS.length + 1);
+
+  /**
+   * Records a latency.
+   *
+   * @param latencyInMs
+   *          the latency in milliseconds
+   */
+  void record(long latencyInMs)
+  {
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_IN_MS.length && latencyInMs > BUCKET_BOUNDS_IN_MS[bucket])
+    {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+  }
+
+  /**
+   * Returns the number of latencies recorded in each bucket.
+   *
+   * @return the number of latencies recorded in each bucket
+   */
+  long[] getCounts()
+  {
+    final long[] result = new long[counts.length()];
+    for (int i = 0; i < result.length; i++)
+    {
+      result[i] = counts.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns this histogram as a monitor attribute, with a value per non empty
+   * bucket such as "&lt;=10ms:42" or "&gt;5000ms:1".
+   *
+   * @param attributeName
+   *          the name of the monitor attribute
+   * @return the monitor attribute, or {@code null} if no latency has been
+   *         recorded
+   */
+  Attribute toAttribute(String attributeName)
+  {
+    final long[] bucketCounts = getCounts();
+    final List<String> values = new ArrayList<>();
+    for (int i = 0; i < bucketCounts.length; i++)
+    {
+      if (bucketCounts[i] != 0)
+      {
+        final String bucket = i < BUCKET_BOUNDS_IN_MS.length
+            ? "<=" + BUCKET_BOUNDS_IN_MS[i]
+            : ">" + BUCKET_BOUNDS_IN_MS[BUCKET_BOUNDS_IN_MS.length - 1];
+        values.add(bucket + "ms:" + bucketCounts[i]);
+      }
+    }
+    if (values.isEmpty())
+    {
+      return null;
+    }
+    final AttributeBuilder builder = new AttributeBuilder(attributeName);
+    builder.addAllStrings(values);
+    return builder.toAttribute();
+  }
+}
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2009-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
@@ -372,6 +372,20 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
    */
   private void fillLateQueue() throws ChangelogException
   {
+    final List<UpdateMsg> recentUpdates = replicationServerDomain.getRecentUpdatesAfter(serverState);
+    if (recentUpdates != null)
+    {
+      for (UpdateMsg update : recentUpdates)
+      {
+        if (!isLateQueueBelowThreshold())
+        {
+          break;
+        }
+        lateQueue.add(update);
+      }
+      return;
+    }
+
     try (DBCursor<UpdateMsg> cursor = replicationServerDomain.getCursorFrom(serverState);)
     {
       while (cursor.next() && isLateQueueBelowThreshold())
@@ -426,6 +440,19 @@ class MessageHandler extends MonitorProvider<MonitorProviderCfg>
 
   private CSN findOldestCSNFromReplicaDBs()
   {
+    final List<UpdateMsg> recentUpdates = replicationServerDomain.getRecentUpdatesAfter(serverState);
+    if (recentUpdates != null)
+    {
+      for (UpdateMsg update : recentUpdates)
+      {
+        if (update.contributesToDomainState())
+        {
+          return update.getCSN();
+        }
+      }
+      return null;
+    }
+
     try (DBCursor<UpdateMsg> cursor = replicationServerDomain.getCursorFrom(serverState))
     {
       while (cursor.next())
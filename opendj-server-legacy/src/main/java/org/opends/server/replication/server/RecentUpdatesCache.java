@@ -0,0 +1,235 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.opends.server.replication.common.ServerState;
+import org.opends.server.replication.protocol.UpdateMsg;
+
+/**
+ * Bounded ring buffer of the updates most recently published to the changelog
+ * of a replication server domain.
+ * <p>
+ * It is shared by all the handlers of the domain which are late: they read
+ * their next updates from this cache instead of opening a cursor on the
+ * changelogDB, as long as the updates they miss are still cached. Updates are
+ * appended by the threads publishing them, and read without any lock.
+ * <p>
+ * The cache keeps track of the newest CSN of each replica whose updates are
+ * not all cached, either because they have been evicted or because they were
+ * published before the cache was created. A reader can only be served if it
+ * has already seen all of them.
+ */
+class RecentUpdatesCache
+{
+  /** Default maximum number of cached updates. */
+  static final int DEFAULT_MAX_UPDATES = 10000;
+  /** Default maximum number of bytes of the cached updates. */
+  static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+  private static final Comparator<UpdateMsg> CSN_ORDER = new Comparator<UpdateMsg>()
+  {
+    @Override
+    public int compare(UpdateMsg msg1, UpdateMsg msg2)
+    {
+      return msg1.getCSN().compareTo(msg2.getCSN());
+    }
+  };
+
+  /** A cached update along with its sequence number. */
+  private static final class Slot
+  {
+    private final long sequence;
+    private final UpdateMsg update;
+
+    private Slot(long sequence, UpdateMsg update)
+    {
+      this.sequence = sequence;
+      this.update = update;
+    }
+  }
+
+  private final AtomicReferenceArray<Slot> slots;
+  private final long maxBytes;
+  /** Sequence number of the oldest cached update. */
+  private volatile long head;
+  /** Sequence number of the next update to append. */
+  private volatile long tail;
+  /** Number of bytes of the cached updates. @GuardedBy("this") */
+  private long bytesCount;
+  /** Newest CSN of each replica whose older updates are not all cached. */
+  private final ServerState notCachedState = new ServerState();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxUpdates
+   *          the maximum number of cached updates
+   * @param maxBytes
+   *          the maximum number of bytes of the cached updates
+   * @param notCachedState
+   *          the newest CSN of each replica already stored in the changelogDB,
+   *          which cannot be read from this cache
+   */
+  RecentUpdatesCache(int maxUpdates, long maxBytes, ServerState notCachedState)
+  {
+    this.slots = new AtomicReferenceArray<>(maxUpdates);
+    this.maxBytes = maxBytes;
+    this.notCachedState.update(notCachedState);
+  }
+
+  /**
+   * Appends an update which has just been published to the changelogDB,
+   * evicting the oldest updates if needed.
+   *
+   * @param update
+   *          the update to append
+   */
+  synchronized void add(UpdateMsg update)
+  {
+    final int size = update.size();
+    while (head < tail && (tail - head >= slots.length() || bytesCount + size > maxBytes))
+    {
+      evictOldest();
+    }
+    slots.set(indexOf(tail), new Slot(tail, update));
+    bytesCount += size;
+    tail++;
+  }
+
+  /** @GuardedBy("this") */
+  private void evictOldest()
+  {
+    final int index = indexOf(head);
+    final UpdateMsg evicted = slots.get(index).update;
+    // readers must know the update is not cached anymore before it disappears
+    notCachedState.update(evicted.getCSN());
+    slots.set(index, null);
+    bytesCount -= evicted.size();
+    head++;
+  }
+
+  /**
+   * Removes all the cached updates, for example after the changelogDB of the
+   * domain has been cleared.
+   */
+  synchronized void clear()
+  {
+    while (head < tail)
+    {
+      slots.set(indexOf(head), null);
+      head++;
+    }
+    bytesCount = 0;
+    notCachedState.clear();
+  }
+
+  /**
+   * Returns the cached updates which are not covered by the provided state,
+   * ordered by CSN like a cursor on the changelogDB would return them.
+   *
+   * @param startAfterState
+   *          the state of the reader
+   * @return the updates following the provided state, or {@code null} if some
+   *         of them are no longer cached and must be read from the changelogDB
+   */
+  List<UpdateMsg> getUpdatesAfter(ServerState startAfterState)
+  {
+    final long start = head;
+    final long end = tail;
+    if (!startAfterState.cover(notCachedState))
+    {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    final List<UpdateMsg> updates = new ArrayList<>();
+    for (long sequence = Math.max(start, end - slots.length()); sequence < end; sequence++)
+    {
+      final Slot slot = slots.get(indexOf(sequence));
+      if (slot != null && slot.sequence == sequence && !startAfterState.cover(slot.update.getCSN()))
+      {
+        updates.add(slot.update);
+      }
+    }
+
+    // Some updates may have been evicted while they were read:
+    // the reader must have seen them already.
+    if (!startAfterState.cover(notCachedState))
+    {
+      misses.incrementAndGet();
+      return null;
+    }
+    Collections.sort(updates, CSN_ORDER);
+    hits.incrementAndGet();
+    return updates;
+  }
+
+  private int indexOf(long sequence)
+  {
+    return (int) (sequence % slots.length());
+  }
+
+  /**
+   * Returns the number of cached updates.
+   *
+   * @return the number of cached updates
+   */
+  int size()
+  {
+    final long start = head;
+    return (int) (tail - start);
+  }
+
+  /**
+   * Returns the number of reads served by this cache.
+   *
+   * @return the number of reads served by this cache
+   */
+  long getHits()
+  {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of reads which had to fall back to the changelogDB.
+   *
+   * @return the number of reads which had to fall back to the changelogDB
+   */
+  long getMisses()
+  {
+    return misses.get();
+  }
+}
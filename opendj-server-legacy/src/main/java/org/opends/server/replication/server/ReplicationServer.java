@@ -813,6 +813,52 @@ public class ReplicationServer
     return this.config.getReplicationPurgeDelay() * 1000;
   }
 
+  /**
+   * Retrieves the maximum time during which the changes written to the
+   * changelog are not synchronized to disk (in milliseconds).
+   *
+   * @return The maximum synchronization delay (in milliseconds), or -1 if the
+   *         changes are not synchronized before being acknowledged.
+   */
+  public long getChangelogSyncMaxDelay()
+  {
+    return this.config.getChangelogSyncMaxDelay();
+  }
+
+  /**
+   * Indicates whether the batches of messages sent to the other servers are
+   * compressed.
+   *
+   * @return {@code true} if the batches of messages sent to the other servers
+   *         are compressed.
+   */
+  public boolean isCompressMessageBatches()
+  {
+    return this.config.isCompressMessageBatches();
+  }
+
+  /**
+   * Returns the pause between two batches of changelog files deleted while
+   * purging the changelog.
+   *
+   * @return the pause in milliseconds, or zero to purge without pausing.
+   */
+  public long getChangelogPurgeBatchPause()
+  {
+    return this.config.getChangelogPurgeBatchPause();
+  }
+
+  /**
+   * Indicates whether the read-only changelog files are read mapped in memory.
+   *
+   * @return {@code true} if the read-only changelog files are read mapped in
+   *         memory.
+   */
+  public boolean isChangelogMemoryMappedReads()
+  {
+    return this.config.isChangelogMemoryMappedReads();
+  }
+
   /**
    * Check if the provided configuration is acceptable for add.
    *
@@ -864,6 +910,16 @@ public class ReplicationServer
     {
       this.changelogDB.setPurgeDelay(getPurgeDelay());
     }
+    final long newSyncMaxDelay = config.getChangelogSyncMaxDelay();
+    if (newSyncMaxDelay != oldConfig.getChangelogSyncMaxDelay())
+    {
+      this.changelogDB.setSyncMaxDelay(newSyncMaxDelay);
+    }
+    final long newPurgeBatchPause = config.getChangelogPurgeBatchPause();
+    if (newPurgeBatchPause != oldConfig.getChangelogPurgeBatchPause())
+    {
+      this.changelogDB.setPurgeBatchPause(newPurgeBatchPause);
+    }
     final boolean computeCN = config.isComputeChangeNumber();
     if (computeCN != oldConfig.isComputeChangeNumber())
     {
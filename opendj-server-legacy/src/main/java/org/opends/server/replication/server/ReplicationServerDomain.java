@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
@@ -31,12 +31,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
@@ -57,6 +61,7 @@ import org.opends.server.replication.common.StatusMachineEvent;
 import org.opends.server.replication.protocol.AckMsg;
 import org.opends.server.replication.protocol.ChangeStatusMsg;
 import org.opends.server.replication.protocol.ChangeTimeHeartbeatMsg;
+import org.opends.server.replication.protocol.CumulativeAckMsg;
 import org.opends.server.replication.protocol.ErrorMsg;
 import org.opends.server.replication.protocol.MonitorMsg;
 import org.opends.server.replication.protocol.MonitorRequestMsg;
@@ -134,6 +139,11 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
   private final Map<Integer, ReplicationServerHandler> connectedRSs = new ConcurrentHashMap<>();
 
   private final ReplicationDomainDB domainDB;
+  /**
+   * The updates most recently published to the changelogDB, read by the
+   * handlers which are late before they fall back to the changelogDB.
+   */
+  private final RecentUpdatesCache recentUpdates;
   /** The ReplicationServer that created the current instance. */
   private final ReplicationServer localReplicationServer;
 
@@ -167,10 +177,15 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
    * Value: The object holding every info needed about the already received acks
    * as well as the acks to be received.
    *
+   * Entries are ordered by CSN, so that a cumulative ack can resolve all the
+   * entries of a replica up to a watermark in one pass.
+   *
    * @see ExpectedAcksInfo For more details, see ExpectedAcksInfo and its sub
    *      classes javadoc.
    */
-  private final Map<CSN, ExpectedAcksInfo> waitingAcks = new ConcurrentHashMap<>();
+  private final ConcurrentNavigableMap<CSN, ExpectedAcksInfo> waitingAcks = new ConcurrentSkipListMap<>();
+  /** Latencies between the reception of assured updates and the sending of their final ack. */
+  private final LatencyHistogram assuredAckLatencies = new LatencyHistogram();
 
   /**
    * The timer used to run the timeout code (timer tasks) for the assured update
@@ -293,6 +308,8 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
         + ") assured timer for domain \"" + baseDN + "\"", true);
     this.domainDB =
         localReplicationServer.getChangelogDB().getReplicationDomainDB();
+    this.recentUpdates = new RecentUpdatesCache(RecentUpdatesCache.DEFAULT_MAX_UPDATES,
+        RecentUpdatesCache.DEFAULT_MAX_BYTES, getLatestServerState());
     this.statusAnalyzer = new StatusAnalyzer(this);
     this.statusAnalyzer.start();
     DirectoryServer.registerMonitorProvider(this);
@@ -338,6 +355,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     {
       return;
     }
+    recentUpdates.add(updateMsg);
 
     final List<Integer> assuredServers = getAssuredServers(updateMsg, preparedAssuredInfo);
 
@@ -482,23 +500,47 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
       // The following timer will time out and send an timeout ack to the
       // requester if the acks are not received in time. The timer will also
       // remove the object from this map.
-      final CSN csn = updateMsg.getCSN();
-      waitingAcks.put(csn, preparedAssuredInfo.expectedAcksInfo);
-
-      // Arm timer for this assured update message (wait for acks until it times out)
-      final AssuredTimeoutTask assuredTimeoutTask = new AssuredTimeoutTask(csn);
-      assuredTimeoutTimer.schedule(assuredTimeoutTask, localReplicationServer.getAssuredTimeout());
-      // Purge timer every 100 treated messages
-      assuredTimeoutTimerPurgeCounter++;
-      if ((assuredTimeoutTimerPurgeCounter % 100) == 0)
-      {
-        assuredTimeoutTimer.purge();
-      }
+      addWaitingAcks(updateMsg.getCSN(), preparedAssuredInfo.expectedAcksInfo);
     }
 
     return expectedServers != null ? expectedServers : Collections.<Integer> emptyList();
   }
 
+  /**
+   * Stores the acks expected for an assured update and arms its timeout.
+   *
+   * @param csn
+   *          The CSN of the assured update
+   * @param expectedAcksInfo
+   *          The acks expected for the assured update
+   */
+  void addWaitingAcks(CSN csn, ExpectedAcksInfo expectedAcksInfo)
+  {
+    expectedAcksInfo.getRequesterServer().addWaitingAck(csn);
+    waitingAcks.put(csn, expectedAcksInfo);
+
+    // Arm timer for this assured update message (wait for acks until it times out)
+    final AssuredTimeoutTask assuredTimeoutTask = new AssuredTimeoutTask(csn);
+    assuredTimeoutTimer.schedule(assuredTimeoutTask, localReplicationServer.getAssuredTimeout());
+    // Purge timer every 100 treated messages
+    assuredTimeoutTimerPurgeCounter++;
+    if ((assuredTimeoutTimerPurgeCounter % 100) == 0)
+    {
+      assuredTimeoutTimer.purge();
+    }
+  }
+
+  /**
+   * Removes the acks expected for an assured update, once its final ack has
+   * been handed to the requester server.
+   */
+  private void removeWaitingAcks(CSN csn, ExpectedAcksInfo expectedAcksInfo)
+  {
+    waitingAcks.remove(csn);
+    expectedAcksInfo.getRequesterServer().removeWaitingAck(csn);
+    assuredAckLatencies.record(System.currentTimeMillis() - expectedAcksInfo.getCreationTime());
+  }
+
   private boolean publishUpdateMsg(UpdateMsg updateMsg)
   {
     try
@@ -662,7 +704,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     if (preparedAssuredInfo.expectedServers == null)
     {
       // No eligible servers found, send the ack immediately
-      sourceHandler.send(new AckMsg(csn));
+      sourceHandler.sendAck(new AckMsg(csn));
     }
 
     return preparedAssuredInfo;
@@ -710,7 +752,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
              * mode with safe data level 1, coming from a DS. No need to wait
              * for more acks
              */
-            sourceHandler.send(new AckMsg(csn));
+            sourceHandler.sendAck(new AckMsg(csn));
           } else
           {
             /**
@@ -730,7 +772,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
            */
           if (safeDataLevel > (byte) 1)
           {
-            sourceHandler.send(new AckMsg(csn));
+            sourceHandler.sendAck(new AckMsg(csn));
           }
         }
     }
@@ -765,7 +807,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
       {
         // level > 1 and source is a DS but no eligible servers found, send the
         // ack immediately
-        sourceHandler.send(new AckMsg(csn));
+        sourceHandler.sendAck(new AckMsg(csn));
       }
     }
 
@@ -805,10 +847,59 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
    * @param ackingServer The server handler of the server that sent the ack.
    */
   void processAck(AckMsg ack, ServerHandler ackingServer)
+  {
+    final ServerHandler requester = processReceivedAck(ack.getCSN(), ack, ackingServer);
+    if (requester != null)
+    {
+      flushAcks(requester);
+    }
+  }
+
+  /**
+   * Process a cumulative ack received from a given server: all the updates we
+   * are waiting an ack from this server for, up to the watermark of their
+   * replica, are acknowledged in one pass. The final acks of the updates
+   * completed by this ack are then sent together to each requester server.
+   *
+   * @param ack The cumulative ack message received.
+   * @param ackingServer The server handler of the server that sent the ack.
+   */
+  void processCumulativeAck(CumulativeAckMsg ack, ServerHandler ackingServer)
+  {
+    final Set<ServerHandler> requesters = new HashSet<>();
+    for (CSN watermark : ack.getCSNs())
+    {
+      for (Entry<CSN, ExpectedAcksInfo> entry : waitingAcks.headMap(watermark, true).entrySet())
+      {
+        final CSN csn = entry.getKey();
+        if (csn.getServerId() == watermark.getServerId()
+            && entry.getValue().isWaitingAckFrom(ackingServer.getServerId()))
+        {
+          final ServerHandler requester = processReceivedAck(csn, new AckMsg(csn), ackingServer);
+          if (requester != null)
+          {
+            requesters.add(requester);
+          }
+        }
+      }
+    }
+    for (ServerHandler requester : requesters)
+    {
+      flushAcks(requester);
+    }
+  }
+
+  /**
+   * Processes an ack for the update matching the provided CSN, and sends the
+   * final ack to the requester server if this was the last expected ack.
+   *
+   * @return the requester server if the final ack has been sent to it, null
+   *         otherwise
+   */
+  private ServerHandler processReceivedAck(CSN csn, AckMsg ack, ServerHandler ackingServer)
   {
     // Retrieve the expected acks info for the update matching the original
     // sent update.
-    CSN csn = ack.getCSN();
     ExpectedAcksInfo expectedAcksInfo = waitingAcks.get(csn);
 
     if (expectedAcksInfo != null)
@@ -820,7 +911,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
         {
           // Timeout code is sending a timeout ack, do nothing and let him
           // remove object from the map
-          return;
+          return null;
         }
         /**
          *
@@ -829,36 +920,60 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
          */
         if (expectedAcksInfo.processReceivedAck(ackingServer, ack))
         {
-          // Remove the object from the map as no more needed
-          waitingAcks.remove(csn);
           AckMsg finalAck = expectedAcksInfo.createAck(false);
           ServerHandler origServer = expectedAcksInfo.getRequesterServer();
-          try
-          {
-            origServer.send(finalAck);
-          } catch (IOException e)
-          {
-            /**
-             * An error happened trying the send back an ack to the server.
-             * Log an error and close the connection to this server.
-             */
-            LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
-            mb.append(ERR_RS_ERROR_SENDING_ACK.get(
-                localReplicationServer.getServerId(), origServer.getServerId(), csn, baseDN));
-            mb.append(" ");
-            mb.append(stackTraceToSingleLineString(e));
-            logger.error(mb.toMessage());
-            stopServer(origServer, false);
-          }
+          boolean sent = sendFinalAck(origServer, finalAck);
           // Mark the ack info object as completed to prevent potential timeout
           // code parallel run
           expectedAcksInfo.completed();
+          // Remove the object from the map as no more needed. This is done
+          // after the ack has been handed to the requester server, so that it
+          // does not cover this update with a cumulative ack beforehand.
+          removeWaitingAcks(csn, expectedAcksInfo);
+          return sent ? origServer : null;
         }
       }
     }
     /* Else the timeout occurred for the update matching this CSN
      * and the ack with timeout error has probably already been sent.
      */
+    return null;
+  }
+
+  private boolean sendFinalAck(ServerHandler origServer, AckMsg finalAck)
+  {
+    try
+    {
+      origServer.sendAck(finalAck);
+      return true;
+    } catch (IOException e)
+    {
+      /**
+       * An error happened trying the send back an ack to the server.
+       * Log an error and close the connection to this server.
+       */
+      LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
+      mb.append(ERR_RS_ERROR_SENDING_ACK.get(
+          localReplicationServer.getServerId(), origServer.getServerId(), finalAck.getCSN(), baseDN));
+      mb.append(" ");
+      mb.append(stackTraceToSingleLineString(e));
+      logger.error(mb.toMessage());
+      stopServer(origServer, false);
+      return false;
+    }
+  }
+
+  private void flushAcks(ServerHandler origServer)
+  {
+    try
+    {
+      origServer.flushAcks();
+    }
+    catch (IOException e)
+    {
+      logger.traceException(e);
+      stopServer(origServer, false);
+    }
   }
 
   /**
@@ -898,8 +1013,6 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
             // remove object from the map
             return;
           }
-          // Remove the object from the map as no more needed
-          waitingAcks.remove(csn);
           // Create the timeout ack and send him to the server the assured
           // update message came from
           AckMsg finalAck = expectedAcksInfo.createAck(true);
@@ -909,23 +1022,9 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
             debug("sending timeout for assured update with CSN " + csn
                 + " to serverId=" + origServer.getServerId());
           }
-          try
-          {
-            origServer.send(finalAck);
-          } catch (IOException e)
-          {
-            /**
-             * An error happened trying the send back an ack to the server.
-             * Log an error and close the connection to this server.
-             */
-            LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
-            mb.append(ERR_RS_ERROR_SENDING_ACK.get(
-                localReplicationServer.getServerId(), origServer.getServerId(), csn, baseDN));
-            mb.append(" ");
-            mb.append(stackTraceToSingleLineString(e));
-            logger.error(mb.toMessage());
-            stopServer(origServer, false);
-          }
+          sendFinalAck(origServer, finalAck);
+          // Remove the object from the map as no more needed
+          removeWaitingAcks(csn, expectedAcksInfo);
           // Increment assured counters
           boolean safeRead =
               expectedAcksInfo instanceof SafeReadExpectedAcksInfo;
@@ -1280,6 +1379,22 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     return domainDB.getCursorFrom(baseDN, startAfterServerState, options);
   }
 
+  /**
+   * Returns the updates following the provided server state if they can all
+   * be read from the in-memory cache of the most recent updates, saving a read
+   * of the changelogDB.
+   *
+   * @param startAfterServerState
+   *          Starting point for the returned updates
+   * @return the updates going from oldest to newest CSN, or {@code null} if
+   *         some of them are not cached and a cursor must be used instead
+   * @see #getCursorFrom(ServerState)
+   */
+  public List<UpdateMsg> getRecentUpdatesAfter(ServerState startAfterServerState)
+  {
+    return recentUpdates.getUpdatesAfter(startAfterServerState);
+  }
+
   /**
    * Get the baseDN.
    *
@@ -2009,6 +2124,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     try
     {
       domainDB.removeDomain(baseDN);
+      recentUpdates.clear();
     }
     catch (ChangelogException e)
     {
@@ -2302,6 +2418,19 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     attributes.add(Attributes.create("missing-changes",
         String.valueOf(missingChanges)));
 
+    attributes.add(Attributes.create("recent-updates-cache-size",
+        String.valueOf(recentUpdates.size())));
+    attributes.add(Attributes.create("recent-updates-cache-hits",
+        String.valueOf(recentUpdates.getHits())));
+    attributes.add(Attributes.create("recent-updates-cache-misses",
+        String.valueOf(recentUpdates.getMisses())));
+
+    final Attribute ackLatencies = assuredAckLatencies.toAttribute("assured-ack-latency-histogram");
+    if (ackLatencies != null)
+    {
+      attributes.add(ackLatencies);
+    }
+
     return attributes;
   }
 
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
@@ -76,6 +76,7 @@ public class ReplicationServerHandler extends ServerHandler
       short protocolVersion = getCompatibleVersion(inReplServerStartMsg
           .getVersion());
       session.setProtocolVersion(protocolVersion);
+      session.setBatchCompression(replicationServer.isCompressMessageBatches());
       generationId = inReplServerStartMsg.getGenerationId();
       serverId = inReplServerStartMsg.getServerId();
       serverURL = inReplServerStartMsg.getServerURL();
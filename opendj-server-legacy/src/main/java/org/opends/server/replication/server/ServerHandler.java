@@ -22,15 +22,21 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
 import static org.opends.messages.ReplicationMessages.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -68,6 +74,9 @@ public abstract class ServerHandler extends MessageHandler
    */
   private static final int SHUTDOWN_JOIN_TIMEOUT = 30000;
 
+  /** Maximum number of acks waiting to be coalesced into a cumulative ack. */
+  private static final int MAX_PENDING_ACKS = 100;
+
   /**
    * The serverId of the remote server.
    */
@@ -118,6 +127,21 @@ public abstract class ServerHandler extends MessageHandler
    */
   private final AtomicInteger assuredSdSentUpdatesTimeout = new AtomicInteger();
 
+  /**
+   * CSNs of the acks without error waiting to be sent to the remote server,
+   * coalesced into a cumulative ack when possible. Also used to keep the acks
+   * sent to the remote server in order.
+   */
+  private final List<CSN> pendingAcks = new ArrayList<>();
+
+  /**
+   * CSNs of the assured updates received from the remote server which still
+   * wait for acks, per replica. The oldest one tells whether the acks for a
+   * replica can be coalesced, without scanning all the updates of the domain
+   * waiting for acks.
+   */
+  private final ConcurrentMap<Integer, ConcurrentSkipListSet<CSN>> waitingAckCSNs = new ConcurrentHashMap<>();
+
   /**
    * The associated ServerWriter that sends messages to the remote server.
    */
@@ -342,6 +366,161 @@ public abstract class ServerHandler extends MessageHandler
     session.publish(msg);
   }
 
+  /**
+   * Sends an ack to the remote server.
+   * <p>
+   * If the remote server supports cumulative acks, an ack without error is
+   * only sent on the next call to {@link #flushAcks()}, coalesced with the
+   * other acks sent in between. Otherwise, or if the ack carries errors, the
+   * pending acks and this ack are sent immediately.
+   *
+   * @param ack
+   *          The ack to be sent.
+   * @throws IOException
+   *           When it occurs while sending the ack.
+   */
+  void sendAck(AckMsg ack) throws IOException
+  {
+    synchronized (pendingAcks)
+    {
+      if (getProtocolVersion() >= ProtocolVersion.REPLICATION_PROTOCOL_V10
+          && !ack.hasTimeout() && !ack.hasWrongStatus() && !ack.hasReplayError())
+      {
+        pendingAcks.add(ack.getCSN());
+        if (pendingAcks.size() >= MAX_PENDING_ACKS)
+        {
+          sendPendingAcks();
+        }
+        return;
+      }
+      sendPendingAcks();
+      send(ack);
+    }
+  }
+
+  /**
+   * Sends the acks coalesced by {@link #sendAck(AckMsg)}.
+   *
+   * @throws IOException
+   *           When it occurs while sending the acks.
+   */
+  void flushAcks() throws IOException
+  {
+    synchronized (pendingAcks)
+    {
+      sendPendingAcks();
+    }
+  }
+
+  /** @GuardedBy("pendingAcks") */
+  private void sendPendingAcks() throws IOException
+  {
+    if (pendingAcks.isEmpty())
+    {
+      return;
+    }
+    if (pendingAcks.size() == 1)
+    {
+      final CSN csn = pendingAcks.remove(0);
+      send(new AckMsg(csn));
+      return;
+    }
+
+    final Map<Integer, CSN> watermarks = new HashMap<>();
+    for (CSN csn : pendingAcks)
+    {
+      final CSN watermark = watermarks.get(csn.getServerId());
+      if (watermark == null || csn.isNewerThan(watermark))
+      {
+        watermarks.put(csn.getServerId(), csn);
+      }
+    }
+    final List<CSN> cumulativeAcks = new ArrayList<>();
+    final List<CSN> acks = new ArrayList<>();
+    for (CSN watermark : watermarks.values())
+    {
+      if (!hasWaitingAcksBefore(watermark))
+      {
+        cumulativeAcks.add(watermark);
+      }
+      else
+      {
+        // some older updates are still waiting for acks: do not cover them
+        for (CSN csn : pendingAcks)
+        {
+          if (csn.getServerId() == watermark.getServerId())
+          {
+            acks.add(csn);
+          }
+        }
+      }
+    }
+    pendingAcks.clear();
+
+    for (CSN csn : acks)
+    {
+      send(new AckMsg(csn));
+    }
+    if (!cumulativeAcks.isEmpty())
+    {
+      send(new CumulativeAckMsg(cumulativeAcks));
+    }
+  }
+
+  /**
+   * Notifies that an assured update received from the remote server waits for
+   * acks.
+   *
+   * @param csn
+   *          The CSN of the assured update
+   */
+  void addWaitingAck(CSN csn)
+  {
+    ConcurrentSkipListSet<CSN> csns = waitingAckCSNs.get(csn.getServerId());
+    if (csns == null)
+    {
+      csns = new ConcurrentSkipListSet<>();
+      final ConcurrentSkipListSet<CSN> existingCSNs = waitingAckCSNs.putIfAbsent(csn.getServerId(), csns);
+      if (existingCSNs != null)
+      {
+        csns = existingCSNs;
+      }
+    }
+    csns.add(csn);
+  }
+
+  /**
+   * Notifies that an assured update received from the remote server no longer
+   * waits for acks, once its final ack has been sent.
+   *
+   * @param csn
+   *          The CSN of the assured update
+   */
+  void removeWaitingAck(CSN csn)
+  {
+    final ConcurrentSkipListSet<CSN> csns = waitingAckCSNs.get(csn.getServerId());
+    if (csns != null)
+    {
+      csns.remove(csn);
+    }
+  }
+
+  /**
+   * Returns whether an update received from the remote server, older than the
+   * provided CSN and from the same replica, still waits for acks. If not, all
+   * the acks sent to this server for this replica up to the provided CSN can be
+   * coalesced into a cumulative ack.
+   *
+   * @param csn
+   *          The CSN of the most recent acknowledged update
+   * @return true if an update older than the provided CSN still waits for acks
+   */
+  boolean hasWaitingAcksBefore(CSN csn)
+  {
+    final ConcurrentSkipListSet<CSN> csns = waitingAckCSNs.get(csn.getServerId());
+    return csns != null && csns.lower(csn) != null;
+  }
+
   /**
    * Get the age of the older change that has not yet been replicated
    * to the server handled by this ServerHandler.
@@ -532,6 +711,11 @@ public abstract class ServerHandler extends MessageHandler
     // Encryption
     attributes.add(Attributes.create("ssl-encryption", String.valueOf(session.isEncrypted())));
 
+    // Batches of messages sent on the session
+    attributes.add(Attributes.create("sent-batches", String.valueOf(session.getSentBatches())));
+    attributes.add(Attributes.create("average-batch-size", String.valueOf(session.getAverageBatchSize())));
+    attributes.add(Attributes.create("compression-ratio", String.valueOf(session.getCompressionRatio())));
+
     // Data generation
     attributes.add(Attributes.create("generation-id", String.valueOf(generationId)));
 
@@ -1111,6 +1295,15 @@ public abstract class ServerHandler extends MessageHandler
     replicationServerDomain.processAck(ack, this);
   }
 
+  /**
+   * Process a cumulative ack message received.
+   * @param ack the message received.
+   */
+  void processCumulativeAck(CumulativeAckMsg ack)
+  {
+    replicationServerDomain.processCumulativeAck(ack, this);
+  }
+
   /**
    * Get the reference generation id (associated with the changes in the db).
    * @return the reference generation id.
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
@@ -105,6 +105,11 @@ public class ServerReader extends DirectoryThread
             handler.checkWindow();
             handler.processAck((AckMsg) msg);
           }
+          else if (msg instanceof CumulativeAckMsg)
+          {
+            handler.checkWindow();
+            handler.processCumulativeAck((CumulativeAckMsg) msg);
+          }
           else if (msg instanceof UpdateMsg)
           {
             final UpdateMsg updateMsg = (UpdateMsg) msg;
@@ -191,6 +196,12 @@ public class ServerReader extends DirectoryThread
             logger.info(errMessage);
             return;
           }
+
+          if (!session.hasBufferedMessages())
+          {
+            // send the coalesced acks before waiting for the next messages
+            handler.flushAcks();
+          }
         }
         catch (NotSupportedOldVersionPDUException e)
         {
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2013 ForgeRock AS
+ *      Copyright 2013-2016 ForgeRock AS
  */
 package org.opends.server.replication.server.changelog.api;
 
@@ -55,6 +55,33 @@ public interface ChangelogDB
    */
   void setPurgeDelay(long delayInMillis);
 
+  /**
+   * Sets the maximum delay during which the changes published to the
+   * replication database are not synchronized to disk. Can be called while the
+   * database is running.
+   * <p>
+   * When the delay is positive or zero, the changes published for all the
+   * replicas are synchronized to disk together, at the latest once the delay
+   * has elapsed. Publishing an assured change only returns once the change is
+   * synchronized to disk, which starts synchronizing immediately unless a
+   * synchronization is already in progress. When the delay is negative,
+   * changes are not explicitly synchronized.
+   *
+   * @param delayInMillis
+   *          the maximum synchronization delay in milliseconds, or a negative
+   *          value to not wait for synchronizations
+   */
+  void setSyncMaxDelay(long delayInMillis);
+
+  /**
+   * Sets the pause between two batches of files deleted while purging the
+   * replication database. Can be called while the database is running.
+   *
+   * @param pauseInMillis
+   *          the pause in milliseconds, or zero to purge without pausing
+   */
+  void setPurgeBatchPause(long pauseInMillis);
+
   /**
    * Sets whether the replication database must compute change numbers for
    * replicated changes. Change numbers are computed using a separate new
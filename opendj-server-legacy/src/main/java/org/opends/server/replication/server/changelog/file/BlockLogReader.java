@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -34,6 +34,7 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ByteStringBuilder;
@@ -53,6 +54,12 @@ import org.opends.server.util.StaticUtils;
  * <p>
  * The reader provides both sequential access, using the {@code readRecord()} method,
  * and reasonably fast random access, using the {@code seekToRecord(K, boolean)} method.
+ * <p>
+ * The reader either reads the log file through a {@link RandomAccessFile}, or
+ * reads the content of an immutable log file mapped in memory. The readers of
+ * an immutable log file can share a {@link SparseKeyIndex}: seeking to a record
+ * then starts reading from the closest indexed record, without any binary
+ * search.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
@@ -78,10 +85,13 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
 
   private final RecordParser<K, V> parser;
 
-  private final RandomAccessFile reader;
+  private final FileInput reader;
 
   private final File file;
 
+  /** The sparse index of the keys of the log file, may be {@code null}. */
+  private final SparseKeyIndex<K> keyIndex;
+
   /**
    * Creates a reader for the provided file, file reader and parser.
    *
@@ -100,7 +110,64 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> BlockLogReader<K, V> newReader(
       final File file, final RandomAccessFile reader, final RecordParser<K, V> parser)
   {
-    return new BlockLogReader<>(file, reader, parser, BLOCK_SIZE);
+    return newReader(file, reader, parser, null);
+  }
+
+  /**
+   * Creates a reader for the provided file, file reader, parser and sparse key
+   * index.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param reader
+   *          The random access reader on the log file.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param keyIndex
+   *          The sparse index of the keys of the log file, shared by all the
+   *          readers of the log file. May be {@code null}.
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newReader(final File file, final RandomAccessFile reader,
+      final RecordParser<K, V> parser, final SparseKeyIndex<K> keyIndex)
+  {
+    return new BlockLogReader<>(file, new RandomAccessFileInput(reader), parser, BLOCK_SIZE, keyIndex);
+  }
+
+  /**
+   * Creates a reader for the provided file, file content mapped in memory,
+   * parser and sparse key index.
+   * <p>
+   * The log file must not be modified while it is read by this reader.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param content
+   *          The content of the log file, for example mapped in memory. It is
+   *          not modified by the reader.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param keyIndex
+   *          The sparse index of the keys of the log file, shared by all the
+   *          readers of the log file.
+   * @param contentOwner
+   *          Closed once the reader is closed, so that the content can be
+   *          released once no reader uses it any more.
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newMappedReader(final File file,
+      final ByteBuffer content, final RecordParser<K, V> parser, final SparseKeyIndex<K> keyIndex,
+      final Closeable contentOwner)
+  {
+    return new BlockLogReader<>(file, new ByteBufferInput(content, contentOwner), parser, BLOCK_SIZE, keyIndex);
   }
 
   /**
@@ -126,16 +193,46 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> BlockLogReader<K, V> newReaderForTests(
       final File file, final RandomAccessFile reader, final RecordParser<K, V> parser, int blockSize)
   {
-    return new BlockLogReader<>(file, reader, parser, blockSize);
+    return new BlockLogReader<>(file, new RandomAccessFileInput(reader), parser, blockSize, null);
   }
 
-  private BlockLogReader(
-      final File file, final RandomAccessFile reader, final RecordParser<K, V> parser, final int blockSize)
+  /**
+   * Creates a reader for the provided file, file content, parser, block size
+   * and sparse key index.
+   * <p>
+   * This method is intended for tests only, to allow tuning of the block size.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   * @param <V>
+   *          Type of the value of a record.
+   * @param file
+   *          The log file to read.
+   * @param content
+   *          The content of the log file.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param blockSize
+   *          The size of each block, or frequency at which the record offset is
+   *          present in the log file.
+   * @param keyIndex
+   *          The sparse index of the keys of the log file.
+   * @return a new log reader
+   */
+  static <K extends Comparable<K>, V> BlockLogReader<K, V> newMappedReaderForTests(final File file,
+      final ByteBuffer content, final RecordParser<K, V> parser, int blockSize, final SparseKeyIndex<K> keyIndex)
+  {
+    return new BlockLogReader<>(file, new ByteBufferInput(content, null), parser, blockSize, keyIndex);
+  }
+
+  private BlockLogReader(final File file, final FileInput reader, final RecordParser<K, V> parser,
+      final int blockSize, final SparseKeyIndex<K> keyIndex)
   {
     this.file = file;
     this.reader = reader;
     this.parser = parser;
     this.blockSize = blockSize;
+    this.keyIndex = keyIndex;
   }
 
   /**
@@ -164,6 +261,16 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
           throws ChangelogException
   {
     Reject.ifNull(key);
+    if (keyIndex != null)
+    {
+      final long recordPosition = keyIndex.getRecordPositionBefore(key, this);
+      if (recordPosition >= 0)
+      {
+        // read from the closest indexed record instead of searching through the blocks
+        seekToPosition(recordPosition);
+        return positionToKey(readRecord(), recordPosition, key, matchStrategy, positionStrategy);
+      }
+    }
     final long markerPosition = searchClosestBlockStartToKey(key);
     if (markerPosition >= 0)
     {
@@ -314,7 +421,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       {
         if (distanceToBlockStart != 0)
         {
-          recordBytes.appendBytes(reader, distanceToBlockStart);
+          reader.readFully(recordBytes, distanceToBlockStart);
         }
         // skip the offset
         reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
@@ -327,7 +434,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
       if (remainingBytesToRead > 0)
       {
         // last bytes of the record
-        recordBytes.appendBytes(reader, remainingBytesToRead);
+        reader.readFully(recordBytes, remainingBytesToRead);
       }
       return recordBytes.toByteString();
     }
@@ -366,10 +473,10 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
     final ByteStringBuilder lengthBytes = new ByteStringBuilder(SIZE_OF_RECORD_SIZE);
     if (distanceToBlockStart > 0 && distanceToBlockStart < SIZE_OF_RECORD_SIZE)
     {
-      lengthBytes.appendBytes(reader, distanceToBlockStart);
+      reader.readFully(lengthBytes, distanceToBlockStart);
       // skip the offset
       reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
-      lengthBytes.appendBytes(reader, SIZE_OF_RECORD_SIZE - distanceToBlockStart);
+      reader.readFully(lengthBytes, SIZE_OF_RECORD_SIZE - distanceToBlockStart);
     }
     else
     {
@@ -378,7 +485,7 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
         // skip the offset
         reader.skipBytes(SIZE_OF_BLOCK_OFFSET);
       }
-      lengthBytes.appendBytes(reader, SIZE_OF_RECORD_SIZE);
+      reader.readFully(lengthBytes, SIZE_OF_RECORD_SIZE);
     }
     return lengthBytes.toByteString().toInt();
   }
@@ -471,9 +578,17 @@ class BlockLogReader<K extends Comparable<K>, V> implements Closeable
    Pair<Boolean, Record<K,V>> positionToKey(final long blockStartPosition, final K key,
        final KeyMatchingStrategy matchStrategy, final PositionStrategy positionStrategy) throws ChangelogException
    {
-    Record<K,V> record = readRecord(blockStartPosition);
+    return positionToKey(readRecord(blockStartPosition), blockStartPosition, key, matchStrategy, positionStrategy);
+   }
+
+  /** Position before, at or after provided key, reading from the provided first record. */
+  private Pair<Boolean, Record<K, V>> positionToKey(final Record<K, V> firstRecord, final long firstPosition,
+      final K key, final KeyMatchingStrategy matchStrategy, final PositionStrategy positionStrategy)
+      throws ChangelogException
+  {
+    Record<K,V> record = firstRecord;
     Record<K,V> previousRecord = null;
-    long previousPosition = blockStartPosition;
+    long previousPosition = firstPosition;
     while (record != null)
     {
       final int keysComparison = record.getKey().compareTo(key);
@@ -639,4 +754,202 @@ Record<K, V> getNewestRecord() throws ChangelogException
      throw new ChangelogException(ERR_CHANGELOG_CANNOT_READ_NEWEST_RECORD.get(file.getPath()), e);
    }
  }
+  /**
+   * Returns the key of the record read from the provided block start, and the
+   * position of this record in the file.
+   *
+   * @param blockStartPosition
+   *          Position of a block start in the file
+   * @return the pair (key, position of the record), or {@code null} if there is
+   *         no record to read from this block start
+   * @throws ChangelogException
+   *           If an error occurs during read.
+   */
+  Pair<K, Long> readKeyAndPositionFromBlockStart(final long blockStartPosition) throws ChangelogException
+  {
+    try
+    {
+      positionToRecordFromBlockStart(blockStartPosition);
+    }
+    catch (IOException e)
+    {
+      throw new ChangelogException(ERR_CHANGELOG_UNABLE_TO_SEEK.get(blockStartPosition, file.getPath()), e);
+    }
+    final long recordPosition = getFilePosition();
+    final Record<K, V> record = readRecord();
+    return record != null ? Pair.of(record.getKey(), recordPosition) : null;
+  }
+
+  /**
+   * Returns the size of the blocks of the log file.
+   *
+   * @return the size of a block in bytes
+   */
+  int getBlockSize()
+  {
+    return blockSize;
+  }
+
+  /** Random access to the content of a log file. */
+  private interface FileInput extends Closeable
+  {
+    long length() throws IOException;
+
+    long getFilePointer() throws IOException;
+
+    void seek(long position) throws IOException;
+
+    void readFully(byte[] bytes) throws IOException;
+
+    void readFully(ByteStringBuilder builder, int length) throws IOException;
+
+    void skipBytes(int length) throws IOException;
+  }
+
+  /** Reads a log file through a {@link RandomAccessFile}. */
+  private static final class RandomAccessFileInput implements FileInput
+  {
+    private final RandomAccessFile file;
+
+    private RandomAccessFileInput(final RandomAccessFile file)
+    {
+      this.file = file;
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+      return file.length();
+    }
+
+    @Override
+    public long getFilePointer() throws IOException
+    {
+      return file.getFilePointer();
+    }
+
+    @Override
+    public void seek(final long position) throws IOException
+    {
+      file.seek(position);
+    }
+
+    @Override
+    public void readFully(final byte[] bytes) throws IOException
+    {
+      file.readFully(bytes);
+    }
+
+    @Override
+    public void readFully(final ByteStringBuilder builder, final int length) throws IOException
+    {
+      builder.appendBytes(file, length);
+    }
+
+    @Override
+    public void skipBytes(final int length) throws IOException
+    {
+      file.skipBytes(length);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      file.close();
+    }
+
+    @Override
+    public String toString()
+    {
+      return file.toString();
+    }
+  }
+
+  /**
+   * Reads the content of a log file held in a byte buffer, without any system
+   * call once the content is mapped in memory.
+   */
+  private static final class ByteBufferInput implements FileInput
+  {
+    private final ByteBuffer content;
+    /** Closed once this input is closed, {@code null} once closed or if there is none. */
+    private Closeable contentOwner;
+    /** The position in the file, which can be after its end as for a {@link RandomAccessFile}. */
+    private long position;
+
+    private ByteBufferInput(final ByteBuffer content, final Closeable contentOwner)
+    {
+      this.content = content.duplicate();
+      this.contentOwner = contentOwner;
+    }
+
+    @Override
+    public long length()
+    {
+      return content.limit();
+    }
+
+    @Override
+    public long getFilePointer()
+    {
+      return position;
+    }
+
+    @Override
+    public void seek(final long position) throws IOException
+    {
+      if (position < 0)
+      {
+        throw new IOException("Negative seek offset " + position);
+      }
+      this.position = position;
+    }
+
+    @Override
+    public void readFully(final byte[] bytes) throws IOException
+    {
+      positionContent(bytes.length).get(bytes);
+    }
+
+    @Override
+    public void readFully(final ByteStringBuilder builder, final int length) throws IOException
+    {
+      builder.appendBytes(positionContent(length), length);
+    }
+
+    /** Positions the content for reading the provided number of bytes from the current position. */
+    private ByteBuffer positionContent(final int length) throws EOFException
+    {
+      if (position + length > content.limit())
+      {
+        position = content.limit();
+        throw new EOFException();
+      }
+      content.position((int) position);
+      position += length;
+      return content;
+    }
+
+    @Override
+    public void skipBytes(final int length)
+    {
+      position = Math.max(position, Math.min(position + length, content.limit()));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (contentOwner != null)
+      {
+        contentOwner.close();
+        contentOwner = null;
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "(position=" + position + ", length=" + content.limit() + ")";
+    }
+  }
 }
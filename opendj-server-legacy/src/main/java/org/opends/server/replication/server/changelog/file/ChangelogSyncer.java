@@ -0,0 +1,350 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import static org.opends.messages.ReplicationMessages.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.replication.server.changelog.api.ChangelogException;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.InitializationException;
+
+/**
+ * Thread synchronizing to the file system the records appended to the replica
+ * DBs, so that one synchronization acknowledges many appends.
+ * <p>
+ * After appending a record to a replica DB, a thread calls
+ * {@link #requestSync(FileReplicaDB, boolean)}, which only waits until this
+ * thread has synchronized the replica DB when the record must be durable before
+ * being acknowledged. The appends received for all the replica DBs are grouped,
+ * and this thread synchronizes each replica DB of a group once:
+ * <ul>
+ * <li>as soon as an append of the group is waiting, if no synchronization is in
+ * progress. The appends received during a synchronization join the next group,
+ * which is synchronized right after it,</li>
+ * <li>otherwise at the latest when the maximum delay has elapsed since the
+ * first append of the group, or as soon as the group reaches
+ * {@link #MAX_APPENDS_PER_GROUP} appends.</li>
+ * </ul>
+ */
+final class ChangelogSyncer extends DirectoryThread
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Number of appends after which a group is synchronized without waiting for the maximum delay. */
+  static final int MAX_APPENDS_PER_GROUP = 1000;
+
+  /** Appends waiting for the same synchronization. */
+  private static final class SyncGroup
+  {
+    /** @GuardedBy("ChangelogSyncer.this") */
+    private final Set<FileReplicaDB> replicaDBs = new HashSet<>();
+    /** @GuardedBy("ChangelogSyncer.this") */
+    private int nbAppends;
+    /** @GuardedBy("ChangelogSyncer.this") */
+    private int nbWaitingAppends;
+    /** @GuardedBy("ChangelogSyncer.this") */
+    private long firstAppendTime;
+    /** @GuardedBy("this") */
+    private boolean isSynced;
+    /** @GuardedBy("this") */
+    private final Map<FileReplicaDB, ChangelogException> failures = new HashMap<>();
+  }
+
+  /** The maximum time in milliseconds during which an append can remain unsynchronized. */
+  private volatile long maxDelayInMillis;
+  /** @GuardedBy("this") */
+  private SyncGroup currentGroup = new SyncGroup();
+
+  private final AtomicLong nbSyncs = new AtomicLong();
+  private final AtomicLong nbSyncedAppends = new AtomicLong();
+  private final SyncMonitorProvider monitor = new SyncMonitorProvider();
+
+  /**
+   * Creates the changelog syncer.
+   *
+   * @param maxDelayInMillis
+   *          the maximum time in milliseconds during which an append can
+   *          remain unsynchronized
+   */
+  ChangelogSyncer(final long maxDelayInMillis)
+  {
+    super("Changelog syncer");
+    this.maxDelayInMillis = maxDelayInMillis;
+  }
+
+  /**
+   * Sets the maximum time during which an append can remain unsynchronized.
+   *
+   * @param maxDelayInMillis
+   *          the maximum delay in milliseconds
+   */
+  void setMaxDelay(final long maxDelayInMillis)
+  {
+    this.maxDelayInMillis = maxDelayInMillis;
+    synchronized (this)
+    {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Requests the synchronization to the file system of the records appended to
+   * the provided replica DB, and optionally waits until it is done.
+   * <p>
+   * Returns immediately if this syncer is shutting down: the replica DB logs
+   * are synchronized when they are closed.
+   *
+   * @param replicaDB
+   *          the replica DB to which a record was just appended
+   * @param awaitSync
+   *          whether to wait until the record is synchronized, which also
+   *          requests the synchronization to start without waiting for more
+   *          appends
+   * @throws ChangelogException
+   *           If the synchronization failed or the wait was interrupted
+   */
+  void requestSync(final FileReplicaDB replicaDB, final boolean awaitSync) throws ChangelogException
+  {
+    final SyncGroup group;
+    synchronized (this)
+    {
+      if (isShutdownInitiated())
+      {
+        return;
+      }
+      group = currentGroup;
+      if (group.nbAppends == 0)
+      {
+        group.firstAppendTime = System.currentTimeMillis();
+        notifyAll();
+      }
+      group.replicaDBs.add(replicaDB);
+      group.nbAppends++;
+      if (awaitSync && group.nbWaitingAppends++ == 0)
+      {
+        notifyAll();
+      }
+      if (group.nbAppends == MAX_APPENDS_PER_GROUP)
+      {
+        notifyAll();
+      }
+    }
+
+    if (!awaitSync)
+    {
+      // failures are traced and reported to the appends waiting on the group
+      return;
+    }
+
+    synchronized (group)
+    {
+      try
+      {
+        while (!group.isSynced)
+        {
+          group.wait();
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new ChangelogException(ERR_CHANGELOG_SYNC_INTERRUPTED.get(replicaDB), e);
+      }
+      final ChangelogException failure = group.failures.get(replicaDB);
+      if (failure != null)
+      {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of appends waiting for the next synchronization to
+   * start.
+   *
+   * @return the number of appends waiting for the next synchronization to
+   *         start
+   */
+  synchronized int getNbPendingAppends()
+  {
+    return currentGroup.nbAppends;
+  }
+
+  @Override
+  public void run()
+  {
+    DirectoryServer.deregisterMonitorProvider(monitor);
+    DirectoryServer.registerMonitorProvider(monitor);
+    try
+    {
+      SyncGroup group;
+      while ((group = waitForNextGroup()) != null)
+      {
+        sync(group);
+      }
+    }
+    finally
+    {
+      DirectoryServer.deregisterMonitorProvider(monitor);
+    }
+  }
+
+  /**
+   * Waits for the next group of appends to synchronize.
+   *
+   * @return the next group of appends, or {@code null} once shutdown has been
+   *         initiated and all the appends have been synchronized
+   */
+  private synchronized SyncGroup waitForNextGroup()
+  {
+    while (currentGroup.nbAppends == 0)
+    {
+      if (isShutdownInitiated())
+      {
+        return null;
+      }
+      waitQuietly(0);
+    }
+
+    // Nobody waits for this group yet: leave time to other appends to join it.
+    // Once an append waits, the group is synchronized right away, and the
+    // appends received in the meantime join the next group.
+    long remaining;
+    while (!isShutdownInitiated()
+        && currentGroup.nbWaitingAppends == 0
+        && currentGroup.nbAppends < MAX_APPENDS_PER_GROUP
+        && (remaining = currentGroup.firstAppendTime + maxDelayInMillis - System.currentTimeMillis()) > 0)
+    {
+      waitQuietly(remaining);
+    }
+
+    final SyncGroup group = currentGroup;
+    currentGroup = new SyncGroup();
+    return group;
+  }
+
+  /** @GuardedBy("this") */
+  private void waitQuietly(final long timeoutInMillis)
+  {
+    try
+    {
+      wait(timeoutInMillis);
+    }
+    catch (InterruptedException e)
+    {
+      // check again the shutdown status and the current group
+    }
+  }
+
+  private void sync(final SyncGroup group)
+  {
+    final List<FileReplicaDB> replicaDBs;
+    final int nbAppends;
+    synchronized (this)
+    {
+      replicaDBs = new ArrayList<>(group.replicaDBs);
+      nbAppends = group.nbAppends;
+    }
+
+    final Map<FileReplicaDB, ChangelogException> failures = new HashMap<>();
+    for (FileReplicaDB replicaDB : replicaDBs)
+    {
+      try
+      {
+        replicaDB.syncToFileSystem();
+      }
+      catch (ChangelogException e)
+      {
+        logger.traceException(e);
+        failures.put(replicaDB, e);
+      }
+    }
+    nbSyncs.addAndGet(replicaDBs.size());
+    nbSyncedAppends.addAndGet(nbAppends);
+
+    synchronized (group)
+    {
+      group.failures.putAll(failures);
+      group.isSynced = true;
+      group.notifyAll();
+    }
+  }
+
+  @Override
+  public void initiateShutdown()
+  {
+    synchronized (this)
+    {
+      super.initiateShutdown();
+      notifyAll();
+    }
+  }
+
+  /** Implements monitoring capabilities of the changelog syncer. */
+  private class SyncMonitorProvider extends MonitorProvider<MonitorProviderCfg>
+  {
+    @Override
+    public List<Attribute> getMonitorData()
+    {
+      final long syncs = nbSyncs.get();
+      final long syncedAppends = nbSyncedAppends.get();
+      final List<Attribute> attributes = new ArrayList<>();
+      attributes.add(Attributes.create("max-sync-delay", String.valueOf(maxDelayInMillis)));
+      attributes.add(Attributes.create("sync-count", String.valueOf(syncs)));
+      attributes.add(Attributes.create("synced-change-count", String.valueOf(syncedAppends)));
+      attributes.add(Attributes.create("saved-sync-count", String.valueOf(syncedAppends - syncs)));
+      return attributes;
+    }
+
+    @Override
+    public String getMonitorInstanceName()
+    {
+      return "Changelog Sync";
+    }
+
+    @Override
+    public void initializeMonitorProvider(MonitorProviderCfg configuration)
+        throws ConfigException, InitializationException
+    {
+      // Nothing to do for now
+    }
+  }
+}
@@ -117,6 +117,12 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
   private volatile long purgeDelayInMillis;
   private final AtomicReference<ChangelogDBPurger> cnPurger = new AtomicReference<>();
 
+  /**
+   * Synchronizes the appended changes to the file system, or {@code null} if
+   * changes are not synchronized before being acknowledged.
+   */
+  private final AtomicReference<ChangelogSyncer> syncer = new AtomicReference<>();
+
   /** The local replication server. */
   private final ReplicationServer replicationServer;
   private final AtomicBoolean shutdown = new AtomicBoolean();
@@ -287,6 +293,7 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     try
     {
       replicationEnv = new ReplicationEnvironment(dbDirectory.getAbsolutePath(), replicationServer, TimeService.SYSTEM);
+      replicationEnv.setMemoryMappedReads(replicationServer.isChangelogMemoryMappedReads());
       final ChangelogState changelogState = replicationEnv.getChangelogState();
       initializeToChangelogState(changelogState);
       if (replicationServer.isChangeNumberEnabled())
@@ -294,6 +301,8 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
         startIndexer();
       }
       setPurgeDelay(replicationServer.getPurgeDelay());
+      setSyncMaxDelay(replicationServer.getChangelogSyncMaxDelay());
+      setPurgeBatchPause(replicationServer.getChangelogPurgeBatchPause());
     }
     catch (ChangelogException e)
     {
@@ -390,6 +399,11 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     {
       purger.initiateShutdown();
     }
+    final ChangelogSyncer currentSyncer = syncer.getAndSet(null);
+    if (currentSyncer != null)
+    {
+      currentSyncer.initiateShutdown();
+    }
 
     // wait for shutdown of the threads holding cursors
     try
@@ -601,6 +615,37 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
   }
 
+  @Override
+  public void setPurgeBatchPause(final long pauseInMillis)
+  {
+    replicationEnv.setPurgeBatchPause(pauseInMillis);
+  }
+
+  @Override
+  public void setSyncMaxDelay(final long delayInMillis)
+  {
+    if (delayInMillis >= 0)
+    {
+      final ChangelogSyncer newSyncer = new ChangelogSyncer(delayInMillis);
+      if (syncer.compareAndSet(null, newSyncer))
+      {
+        newSyncer.start();
+      }
+      else
+      {
+        syncer.get().setMaxDelay(delayInMillis);
+      }
+    }
+    else
+    {
+      final ChangelogSyncer syncerToStop = syncer.getAndSet(null);
+      if (syncerToStop != null)
+      { // pending changes are synchronized before the syncer stops
+        syncerToStop.initiateShutdown();
+      }
+    }
+  }
+
   @Override
   public void setComputeChangeNumber(final boolean computeChangeNumber)
       throws ChangelogException
@@ -822,6 +867,14 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
       notifyReplicaOnline(indexer, baseDN, csn.getServerId());
       indexer.publishUpdateMsg(baseDN, updateMsg);
     }
+
+    final ChangelogSyncer currentSyncer = syncer.get();
+    if (currentSyncer != null)
+    {
+      // only acknowledged changes need to be persisted before returning,
+      // the other ones are persisted with the next changes that do
+      currentSyncer.requestSync(replicaDB, updateMsg.isAssured());
+    }
     return pair.getSecond(); // replica DB was created
   }
 
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS
+ *      Copyright 2014-2016 ForgeRock AS
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -181,6 +181,18 @@ class FileReplicaDB
     }
   }
 
+  /**
+   * Synchronizes the added messages with the file system, ensuring that they
+   * are effectively persisted.
+   *
+   * @throws ChangelogException
+   *           If the synchronization fails.
+   */
+  void syncToFileSystem() throws ChangelogException
+  {
+    log.syncToFileSystem();
+  }
+
   /**
    * Get the oldest CSN that has not been purged yet.
    *
@@ -278,6 +290,9 @@ class FileReplicaDB
       {
         create(attributes, "last-change", encode(limits.newestCSN));
       }
+      create(attributes, "purged-bytes", String.valueOf(log.getPurgedBytes()));
+      create(attributes, "purged-log-files", String.valueOf(log.getPurgedLogFilesCount()));
+      create(attributes, "purge-time-outside-lock", String.valueOf(log.getPurgeTimeOutsideLockInMillis()));
       return attributes;
     }
 
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -42,6 +42,8 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -113,6 +115,12 @@ final class Log<K extends Comparable<K>, V> implements Closeable
 
   private static final String LOG_FILE_NAME_SEPARATOR = "_";
 
+  /**
+   * The maximum number of log files detached from the log at once while
+   * purging, to bound the time the exclusive lock is held.
+   */
+  static final int MAX_LOG_FILES_PURGED_PER_BATCH = 10;
+
   private static final FileFilter READ_ONLY_LOG_FILES_FILTER = new FileFilter()
   {
     @Override
@@ -201,6 +209,13 @@ final class Log<K extends Comparable<K>, V> implements Closeable
    */
   private final ReplicationEnvironment replicationEnv;
 
+  /** The number of bytes reclaimed by purging this log. */
+  private final AtomicLong purgedBytes = new AtomicLong();
+  /** The number of log files deleted by purging this log. */
+  private final AtomicLong purgedLogFilesCount = new AtomicLong();
+  /** The time spent deleting purged log files outside of the exclusive lock. */
+  private final AtomicLong purgeTimeOutsideLockInNanos = new AtomicLong();
+
   /**
    * Open a log with the provided log path, record parser and maximum size per
    * log file.
@@ -535,14 +550,20 @@ final class Log<K extends Comparable<K>, V> implements Closeable
    */
   public void syncToFileSystem() throws ChangelogException
   {
-    exclusiveLock.lock();
+    // Shared lock is enough: the head log file can not be rotated meanwhile
+    sharedLock.lock();
     try
     {
+      if (isClosed)
+      {
+        // the log files were synchronized when closed
+        return;
+      }
       getHeadLogFile().syncToFileSystem();
     }
     finally
     {
-      exclusiveLock.unlock();
+      sharedLock.unlock();
     }
   }
 
@@ -721,6 +742,15 @@ final class Log<K extends Comparable<K>, V> implements Closeable
 
   /**
    * Purge the log up to and excluding the provided key.
+   * <p>
+   * The log files to purge are detached from the log by batches of
+   * {@link #MAX_LOG_FILES_PURGED_PER_BATCH} files while holding the exclusive
+   * lock, which only aborts the cursors opened on them. They are then closed
+   * and deleted from the file system without holding any lock, so that the
+   * appends and rotations of the log are not blocked by the file system
+   * operations of a large purge. The purge pauses between two batches for the
+   * delay configured in the replication environment, which throttles the disk
+   * activity of a large purge.
    *
    * @param purgeKey
    *            the key up to which purging must happen
@@ -731,45 +761,137 @@ final class Log<K extends Comparable<K>, V> implements Closeable
    */
   public Record<K,V> purgeUpTo(final K purgeKey) throws ChangelogException
   {
-    exclusiveLock.lock();
-    try
-    {
-      if (isClosed)
+    boolean hasPurged = false;
+    final List<String> undeletableFiles = new ArrayList<>();
+    SortedMap<K, LogFile<K, V>> logFilesToDelete;
+    while (!(logFilesToDelete = detachLogFilesToPurge(purgeKey)).isEmpty())
+    {
+      hasPurged = true;
+      final long startTime = System.nanoTime();
+      final SortedMap<K, LogFile<K, V>> undeletedLogFiles = new TreeMap<>();
+      for (final Map.Entry<K, LogFile<K, V>> entry : logFilesToDelete.entrySet())
       {
-        return null;
-      }
-      final SortedMap<K, LogFile<K, V>> logFilesToPurge = logFiles.headMap(purgeKey);
-      if (logFilesToPurge.isEmpty())
-      {
-        return null;
-      }
-
-      logger.trace("About to purge log files older than purgeKey %s: %s", purgeKey, logFilesToPurge);
-      final List<String> undeletableFiles = new ArrayList<>();
-      final Iterator<LogFile<K, V>> entriesToPurge = logFilesToPurge.values().iterator();
-      while (entriesToPurge.hasNext())
-      {
-        final LogFile<K, V> logFile = entriesToPurge.next();
+        final LogFile<K, V> logFile = entry.getValue();
+        final long sizeInBytes = logFile.getFile().length();
         try
         {
-          abortCursorsOpenOnLogFile(logFile);
           logFile.close();
           logFile.delete();
-          entriesToPurge.remove();
+          purgedBytes.addAndGet(sizeInBytes);
+          purgedLogFilesCount.incrementAndGet();
         }
         catch (ChangelogException e)
         {
           // The deletion of log file on file system has failed
           undeletableFiles.add(logFile.getFile().getPath());
+          undeletedLogFiles.put(entry.getKey(), logFile);
         }
       }
-      if (!undeletableFiles.isEmpty())
+      purgeTimeOutsideLockInNanos.addAndGet(System.nanoTime() - startTime);
+      if (!undeletedLogFiles.isEmpty())
       {
-        throw new ChangelogException(
-            ERR_CHANGELOG_UNABLE_TO_DELETE_LOG_FILE_WHILE_PURGING.get(
-                Utils.joinAsString(", ", undeletableFiles)));
+        reattachLogFiles(undeletedLogFiles);
+        break;
+      }
+      if (logFilesToDelete.size() == MAX_LOG_FILES_PURGED_PER_BATCH && !pauseBetweenPurgeBatches())
+      {
+        break;
+      }
+    }
+    if (!undeletableFiles.isEmpty())
+    {
+      throw new ChangelogException(
+          ERR_CHANGELOG_UNABLE_TO_DELETE_LOG_FILE_WHILE_PURGING.get(
+              Utils.joinAsString(", ", undeletableFiles)));
+    }
+    if (!hasPurged)
+    {
+      return null;
+    }
+    sharedLock.lock();
+    try
+    {
+      // the log may have been closed while deleting the purged log files
+      return isClosed ? null : getOldestLogFile().getOldestRecord();
+    }
+    finally
+    {
+      sharedLock.unlock();
+    }
+  }
+
+  /**
+   * Removes from the log the next batch of log files containing only records
+   * older than the provided key, and aborts the cursors opened on them.
+   *
+   * @param purgeKey
+   *          the key up to which purging must happen
+   * @return the detached log files, which may be empty
+   */
+  private SortedMap<K, LogFile<K, V>> detachLogFilesToPurge(final K purgeKey)
+  {
+    final SortedMap<K, LogFile<K, V>> detachedLogFiles = new TreeMap<>();
+    exclusiveLock.lock();
+    try
+    {
+      if (isClosed)
+      {
+        return detachedLogFiles;
+      }
+      final Iterator<Map.Entry<K, LogFile<K, V>>> entriesToPurge = logFiles.headMap(purgeKey).entrySet().iterator();
+      while (entriesToPurge.hasNext() && detachedLogFiles.size() < MAX_LOG_FILES_PURGED_PER_BATCH)
+      {
+        final Map.Entry<K, LogFile<K, V>> entry = entriesToPurge.next();
+        abortCursorsOpenOnLogFile(entry.getValue());
+        detachedLogFiles.put(entry.getKey(), entry.getValue());
+        entriesToPurge.remove();
+      }
+      if (!detachedLogFiles.isEmpty())
+      {
+        logger.trace("About to purge log files older than purgeKey %s: %s", purgeKey, detachedLogFiles);
+      }
+      return detachedLogFiles;
+    }
+    finally
+    {
+      exclusiveLock.unlock();
+    }
+  }
+
+  /**
+   * Pauses before detaching the next batch of log files to purge.
+   *
+   * @return {@code false} if the purging thread was interrupted while pausing,
+   *         in which case the purge must stop
+   */
+  private boolean pauseBetweenPurgeBatches()
+  {
+    final long pauseInMillis = replicationEnv.getPurgeBatchPauseInMillis();
+    if (pauseInMillis > 0)
+    {
+      try
+      {
+        Thread.sleep(pauseInMillis);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Puts back in the log the log files which could not be deleted while purging. */
+  private void reattachLogFiles(final SortedMap<K, LogFile<K, V>> undeletedLogFiles)
+  {
+    exclusiveLock.lock();
+    try
+    {
+      if (!isClosed)
+      {
+        logFiles.putAll(undeletedLogFiles);
       }
-      return getOldestRecord();
     }
     finally
     {
@@ -777,6 +899,40 @@ final class Log<K extends Comparable<K>, V> implements Closeable
     }
   }
 
+  /**
+   * Returns the number of bytes reclaimed on the file system by purging this
+   * log since it was opened.
+   *
+   * @return the number of purged bytes
+   */
+  long getPurgedBytes()
+  {
+    return purgedBytes.get();
+  }
+
+  /**
+   * Returns the number of log files deleted by purging this log since it was
+   * opened.
+   *
+   * @return the number of purged log files
+   */
+  long getPurgedLogFilesCount()
+  {
+    return purgedLogFilesCount.get();
+  }
+
+  /**
+   * Returns the time spent closing and deleting purged log files since this
+   * log was opened. This time is spent without holding the exclusive lock, so
+   * appends to the log were not stalled during it.
+   *
+   * @return the time spent deleting purged log files, in milliseconds
+   */
+  long getPurgeTimeOutsideLockInMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(purgeTimeOutsideLockInNanos.get());
+  }
+
   /**
    * Abort all cursors opened on the provided log file.
    * <p>
@@ -996,6 +1152,7 @@ final class Log<K extends Comparable<K>, V> implements Closeable
     final File readOnlyLogFile = new File(logPath, generateReadOnlyFileName(headLogFile));
     headLogFile.close();
     renameHeadLogFileTo(readOnlyLogFile);
+    headLogFile.writeKeyIndexOf(readOnlyLogFile);
 
     openHeadLogFile();
     openReadOnlyLogFile(readOnlyLogFile);
@@ -1130,7 +1287,8 @@ final class Log<K extends Comparable<K>, V> implements Closeable
 
   private void openReadOnlyLogFile(final File logFilePath) throws ChangelogException
   {
-    final LogFile<K, V> logFile = LogFile.newReadOnlyLogFile(logFilePath, recordParser);
+    final LogFile<K, V> logFile =
+        LogFile.newReadOnlyLogFile(logFilePath, recordParser, replicationEnv.isMemoryMappedReadsEnabled());
     final Pair<K, K> bounds = getKeyBounds(logFile);
     logFiles.put(bounds.getSecond(), logFile);
   }
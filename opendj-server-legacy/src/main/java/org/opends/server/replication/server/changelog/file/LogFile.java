@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -78,6 +78,12 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
    */
   private final BlockLogWriter<K, V> writer;
 
+  /**
+   * Collects the sparse index of the keys of a write-enabled log file, which
+   * is {@code null} if log file is not write-enabled.
+   */
+  private final SparseKeyIndex.Writer<K> keyIndexWriter;
+
   /** Indicates if log is enabled for write. */
   private final boolean isWriteEnabled;
 
@@ -99,11 +105,14 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
    * @param isWriteEnabled
    *          {@code true} if this changelog is write-enabled, {@code false}
    *          otherwise.
+   * @param isMemoryMapped
+   *          {@code true} if a read-only log file must be read mapped in
+   *          memory, {@code false} otherwise.
    * @throws ChangelogException
    *            If a problem occurs during initialization.
    */
-  private LogFile(final File logFilePath, final RecordParser<K, V> parser, boolean isWriteEnabled)
-      throws ChangelogException
+  private LogFile(final File logFilePath, final RecordParser<K, V> parser, boolean isWriteEnabled,
+      boolean isMemoryMapped) throws ChangelogException
   {
     Reject.ifNull(logFilePath, parser);
     this.logfile = logFilePath;
@@ -119,7 +128,16 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
     {
       writer = null;
     }
-    readerPool = new LogReaderPool<>(logfile, parser);
+    if (isWriteEnabled)
+    {
+      readerPool = new LogReaderPool<>(logfile, parser);
+      keyIndexWriter = new SparseKeyIndex.Writer<>(parser, logfile.length() == 0);
+    }
+    else
+    {
+      readerPool = new LogReaderPool<>(logfile, parser, isMemoryMapped);
+      keyIndexWriter = null;
+    }
 
     final ReadWriteLock rwLock = new ReentrantReadWriteLock();
     exclusiveLock = rwLock.writeLock();
@@ -127,7 +145,8 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
   }
 
   /**
-   * Creates a read-only log file with the provided root path and record parser.
+   * Creates a read-only log file with the provided root path and record parser,
+   * possibly read mapped in memory.
    *
    * @param <K>
    *            Type of the key of a record, which must be comparable.
@@ -137,14 +156,16 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
    *          Path of the log file.
    * @param parser
    *          Parser of records.
+   * @param isMemoryMapped
+   *          {@code true} if the log file must be read mapped in memory
    * @return a read-only log file
    * @throws ChangelogException
    *            If a problem occurs during initialization.
    */
   static <K extends Comparable<K>, V> LogFile<K, V> newReadOnlyLogFile(final File logFilePath,
-      final RecordParser<K, V> parser) throws ChangelogException
+      final RecordParser<K, V> parser, final boolean isMemoryMapped) throws ChangelogException
   {
-    return new LogFile<>(logFilePath, parser, false);
+    return new LogFile<>(logFilePath, parser, false, isMemoryMapped);
   }
 
   /**
@@ -166,7 +187,7 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
   static <K extends Comparable<K>, V> LogFile<K, V> newAppendableLogFile(final File logFilePath,
       final RecordParser<K, V> parser) throws ChangelogException
   {
-    return new LogFile<>(logFilePath, parser, true);
+    return new LogFile<>(logFilePath, parser, true, false);
   }
 
   /**
@@ -252,7 +273,9 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
     exclusiveLock.lock();
     try
     {
+      final long position = writer.getBytesWritten();
       writer.write(record);
+      keyIndexWriter.recordAppended(record.getKey(), position);
       newestRecord = record;
     }
     finally
@@ -437,6 +460,21 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
     readerPool.shutdown();
   }
 
+  /**
+   * Writes the sparse index of the keys of this log file, once it has been
+   * closed and renamed to the provided read-only log file.
+   *
+   * @param readOnlyLogFile
+   *          The read-only log file holding the records of this log file.
+   */
+  void writeKeyIndexOf(final File readOnlyLogFile)
+  {
+    if (isWriteEnabled)
+    {
+      keyIndexWriter.writeIndexFileOf(readOnlyLogFile);
+    }
+  }
+
   /**
    * Delete this log file (file is physically removed). Should be called only
    * when log file is closed.
@@ -454,6 +492,7 @@ final class LogFile<K extends Comparable<K>, V> implements Closeable
       {
         throw new ChangelogException(ERR_CHANGELOG_UNABLE_TO_DELETE_LOG_FILE.get(getPath()));
       }
+      SparseKeyIndex.getIndexFile(logfile).delete();
     }
     finally
     {
@@ -21,13 +21,20 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
+import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.replication.server.changelog.api.ChangelogException;
 import org.opends.server.util.StaticUtils;
 
@@ -35,7 +42,11 @@ import static org.opends.messages.ReplicationMessages.*;
 
 /**
  * A Pool of readers to a log file.
-
+ * <p>
+ * The readers of an immutable log file share a sparse index of the keys of the
+ * log file. They can also read it mapped in memory, the file is then mapped
+ * once for all the readers, and unmapped once the pool is shut down and all
+ * the readers of the mapped file are closed.
  *
  * @param <K>
  *          Type of the key of a record, which must be comparable.
@@ -45,11 +56,35 @@ import static org.opends.messages.ReplicationMessages.*;
 // TODO : implement a real pool - reusing readers instead of opening-closing them each time
 class LogReaderPool<K extends Comparable<K>, V>
 {
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
   /** The file to read. */
   private final File file;
 
   private final RecordParser<K, V> parser;
 
+  /** Whether the file must be read mapped in memory. */
+  private final boolean isMemoryMapped;
+
+  /**
+   * The content of the file mapped in memory, {@code null} until the first
+   * reader is acquired.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private ByteBuffer mappedContent;
+  /**
+   * The number of readers of the mapped content which are not closed yet.
+   * <p>
+   * @GuardedBy("this")
+   */
+  private int nbMappedReaders;
+  /** @GuardedBy("this") */
+  private boolean isShutdown;
+
+  /** The sparse index of the keys of an immutable file, {@code null} for a file which is written to. */
+  private final SparseKeyIndex<K> keyIndex;
+
   /**
    * Creates a pool of readers for provided file.
    *
@@ -62,6 +97,28 @@ class LogReaderPool<K extends Comparable<K>, V>
   {
     this.file = file;
     this.parser = parser;
+    this.isMemoryMapped = false;
+    this.keyIndex = null;
+  }
+
+  /**
+   * Creates a pool of readers for provided immutable file, possibly reading it
+   * mapped in memory.
+   *
+   * @param file
+   *          The file to read, which must not be modified any more.
+   * @param parser
+   *          The parser to decode the records read.
+   * @param isMemoryMapped
+   *          Whether the file must be read mapped in memory.
+   */
+  LogReaderPool(File file, RecordParser<K, V> parser, boolean isMemoryMapped)
+  {
+    this.file = file;
+    this.parser = parser;
+    this.isMemoryMapped = isMemoryMapped && file.length() <= Integer.MAX_VALUE;
+    // the index can be built cheaply from a file mapped in memory
+    this.keyIndex = new SparseKeyIndex<>(file, parser, this.isMemoryMapped);
   }
 
   /**
@@ -76,9 +133,108 @@ class LogReaderPool<K extends Comparable<K>, V>
    */
   BlockLogReader<K, V> get() throws ChangelogException
   {
+    if (isMemoryMapped)
+    {
+      final ByteBuffer content = acquireMappedContent();
+      if (content != null)
+      {
+        return BlockLogReader.newMappedReader(file, content, parser, keyIndex, new Closeable()
+        {
+          @Override
+          public void close()
+          {
+            releaseMappedContent();
+          }
+        });
+      }
+    }
     return getReader(file);
   }
 
+  /**
+   * Returns the content of the file mapped in memory for a new reader, mapping
+   * it if needed.
+   *
+   * @return the content of the file mapped in memory, or {@code null} once
+   *         this pool is shut down
+   */
+  private synchronized ByteBuffer acquireMappedContent() throws ChangelogException
+  {
+    if (isShutdown)
+    {
+      return null;
+    }
+    if (mappedContent == null)
+    {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+          FileChannel channel = raf.getChannel())
+      {
+        // the mapping remains valid after the channel is closed
+        mappedContent = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      }
+      catch (Exception e)
+      {
+        throw new ChangelogException(ERR_CHANGELOG_UNABLE_TO_OPEN_READER_ON_LOG_FILE.get(file.getPath()), e);
+      }
+    }
+    nbMappedReaders++;
+    return mappedContent;
+  }
+
+  /** Notifies that a reader of the mapped content has been closed. */
+  private synchronized void releaseMappedContent()
+  {
+    nbMappedReaders--;
+    if (isShutdown && nbMappedReaders == 0)
+    {
+      unmapContent();
+    }
+  }
+
+  /** @GuardedBy("this") */
+  private void unmapContent()
+  {
+    if (mappedContent != null)
+    {
+      unmap(mappedContent);
+      mappedContent = null;
+    }
+  }
+
+  /**
+   * Unmaps the provided buffer right away, rather than once it is garbage
+   * collected, which can take long and keeps the disk space of a deleted file
+   * allocated until then. The buffer must not be accessed any more.
+   */
+  private static void unmap(final ByteBuffer buffer)
+  {
+    try
+    {
+      try
+      {
+        // Java 9 and later
+        final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      }
+      catch (NoSuchMethodException e)
+      {
+        // Java 8 and earlier
+        final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        final Object cleaner = cleanerMethod.invoke(buffer);
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    }
+    catch (Exception e)
+    {
+      // the buffer will be unmapped once garbage collected
+      logger.traceException(e);
+    }
+  }
+
   /**
    * Release the provided reader.
    * <p>
@@ -98,7 +254,7 @@ class LogReaderPool<K extends Comparable<K>, V>
   {
     try
     {
-      return BlockLogReader.newReader(file, new RandomAccessFile(file, "r"), parser) ;
+      return BlockLogReader.newReader(file, new RandomAccessFile(file, "r"), parser, keyIndex);
     }
     catch (Exception e)
     {
@@ -109,10 +265,18 @@ class LogReaderPool<K extends Comparable<K>, V>
   /**
    * Shutdown this pool, releasing all files handles opened
    * on the file.
+   * <p>
+   * The file content mapped in memory is unmapped once all its readers are
+   * closed. Readers acquired afterwards read the file without mapping it.
    */
-  void shutdown()
+  synchronized void shutdown()
   {
-    // Nothing to do yet as no file handle is kept opened.
+    // No file handle is kept opened.
+    isShutdown = true;
+    if (nbMappedReaders == 0)
+    {
+      unmapContent();
+    }
   }
 
 }
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS
+ *      Copyright 2014-2016 ForgeRock AS
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -259,6 +259,12 @@ class ReplicationEnvironment implements ChangelogStateProvider
    * It is persisted to file each time it changes and read at server start. */
   private long cnIndexDBLastRotationTime;
 
+  /** Whether the read-only log files are read mapped in memory. */
+  private volatile boolean memoryMappedReads;
+
+  /** The pause between two batches of log files deleted while purging, in milliseconds. */
+  private volatile long purgeBatchPauseInMillis;
+
   /**
    * Creates the replication environment.
    *
@@ -296,6 +302,51 @@ class ReplicationEnvironment implements ChangelogStateProvider
     }
   }
 
+  /**
+   * Sets whether the read-only log files opened from now on are read mapped in
+   * memory.
+   *
+   * @param memoryMappedReads
+   *          {@code true} to read the read-only log files mapped in memory
+   */
+  void setMemoryMappedReads(boolean memoryMappedReads)
+  {
+    this.memoryMappedReads = memoryMappedReads;
+  }
+
+  /**
+   * Indicates whether the read-only log files are read mapped in memory.
+   *
+   * @return {@code true} if the read-only log files are read mapped in memory
+   */
+  boolean isMemoryMappedReadsEnabled()
+  {
+    return memoryMappedReads;
+  }
+
+  /**
+   * Sets the pause between two batches of log files deleted while purging the
+   * logs. Can be called while purging.
+   *
+   * @param pauseInMillis
+   *          the pause in milliseconds, or zero to not pause
+   */
+  void setPurgeBatchPause(long pauseInMillis)
+  {
+    this.purgeBatchPauseInMillis = pauseInMillis;
+  }
+
+  /**
+   * Returns the pause between two batches of log files deleted while purging
+   * the logs.
+   *
+   * @return the pause in milliseconds, or zero to not pause
+   */
+  long getPurgeBatchPauseInMillis()
+  {
+    return purgeBatchPauseInMillis;
+  }
+
   /**
    * Returns the state of the replication changelog.
    *
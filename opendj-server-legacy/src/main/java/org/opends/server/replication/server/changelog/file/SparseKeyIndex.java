@@ -0,0 +1,337 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.util.Pair;
+import org.opends.server.replication.server.changelog.api.ChangelogException;
+
+/**
+ * Sparse index of the keys of an immutable log file.
+ * <p>
+ * It maps the key of some records of the log file to the position of the
+ * record in the file, so that a reader can start reading from the closest
+ * indexed record lower than a key instead of searching for it. The index is
+ * shared by all the readers of a log file.
+ * <p>
+ * The index of a log file is written to a sidecar file when the head log file
+ * is rotated, with an entry every {@link #INTERVAL_IN_RECORDS} records. It is
+ * loaded on first use. When there is no usable sidecar file, the index is
+ * either built on first use by reading a record every
+ * {@link #INTERVAL_IN_BLOCKS} blocks, or is unavailable and readers fall back to
+ * a binary search through the blocks of the file.
+ *
+ * @param <K>
+ *          Type of the key of a record, which must be comparable.
+ */
+class SparseKeyIndex<K extends Comparable<K>>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Suffix of the sidecar file holding the index of a log file. */
+  static final String INDEX_FILE_SUFFIX = ".idx";
+
+  /** Number of records between two entries of a sidecar index. */
+  static final int INTERVAL_IN_RECORDS = 16;
+
+  /** Number of blocks between two entries of an index built by reading the log file. */
+  static final int INTERVAL_IN_BLOCKS = 16;
+
+  private static final int INDEX_FILE_VERSION = 1;
+
+  /** The indexed log file, {@code null} if the index has no sidecar file. */
+  private final File logFile;
+  private final RecordParser<K, ?> parser;
+  /** Number of blocks between two entries when building the index, or 0 to never build it. */
+  private final int intervalInBlocks;
+
+  /** Whether loading or building the index has been attempted. @GuardedBy("this") */
+  private boolean isInitialized;
+  /** The indexed keys in increasing order, {@code null} if the index is unavailable. @GuardedBy("this") */
+  private List<K> keys;
+  /** The positions of the indexed records. @GuardedBy("this") */
+  private long[] positions;
+
+  /**
+   * Creates the index of the provided log file, loaded from its sidecar file.
+   *
+   * @param logFile
+   *          The indexed log file, which must not be modified any more.
+   * @param parser
+   *          The parser of the records of the log file.
+   * @param buildIfMissing
+   *          Whether to build the index by reading the log file when there is
+   *          no usable sidecar file.
+   */
+  SparseKeyIndex(final File logFile, final RecordParser<K, ?> parser, final boolean buildIfMissing)
+  {
+    this.logFile = logFile;
+    this.parser = parser;
+    this.intervalInBlocks = buildIfMissing ? INTERVAL_IN_BLOCKS : 0;
+  }
+
+  /**
+   * Creates an index without sidecar file, built on first use.
+   * <p>
+   * This constructor is intended for tests only, to allow tuning of the
+   * interval.
+   *
+   * @param intervalInBlocks
+   *          the number of blocks between two entries of the index
+   */
+  SparseKeyIndex(final int intervalInBlocks)
+  {
+    this.logFile = null;
+    this.parser = null;
+    this.intervalInBlocks = intervalInBlocks;
+  }
+
+  /**
+   * Returns the sidecar file holding the index of the provided log file.
+   *
+   * @param logFile
+   *          the log file
+   * @return the sidecar index file
+   */
+  static File getIndexFile(final File logFile)
+  {
+    return new File(logFile.getPath() + INDEX_FILE_SUFFIX);
+  }
+
+  /**
+   * Returns the position of the last indexed record whose key is strictly lower
+   * than the provided key.
+   *
+   * @param key
+   *          the key to search
+   * @param reader
+   *          a reader on the log file, used to build the index if needed
+   * @return the position of the indexed record, the start of the file if all
+   *         the indexed keys are higher than or equal to the key, or -1 if the
+   *         index is not available
+   * @throws ChangelogException
+   *           If an error occurs while building the index.
+   */
+  synchronized long getRecordPositionBefore(final K key, final BlockLogReader<K, ?> reader)
+      throws ChangelogException
+  {
+    if (!isInitialized)
+    {
+      if (!load() && intervalInBlocks > 0)
+      {
+        build(reader);
+      }
+      isInitialized = true;
+    }
+    if (keys == null || keys.isEmpty())
+    {
+      return -1;
+    }
+
+    int low = 0;
+    int high = keys.size() - 1;
+    int found = -1;
+    while (low <= high)
+    {
+      final int middle = (low + high) >>> 1;
+      if (keys.get(middle).compareTo(key) < 0)
+      {
+        found = middle;
+        low = middle + 1;
+      }
+      else
+      {
+        high = middle - 1;
+      }
+    }
+    return found >= 0 ? positions[found] : 0L;
+  }
+
+  /** Loads the index from the sidecar file, returns whether it succeeded. */
+  private boolean load()
+  {
+    if (logFile == null)
+    {
+      return false;
+    }
+    final File indexFile = getIndexFile(logFile);
+    if (!indexFile.exists())
+    {
+      return false;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile))))
+    {
+      if (input.readInt() != INDEX_FILE_VERSION || input.readLong() != logFile.length())
+      {
+        // the index was not written for this version of the log file
+        return false;
+      }
+      final int nbEntries = input.readInt();
+      final List<K> indexedKeys = new ArrayList<>(nbEntries);
+      final long[] indexedPositions = new long[nbEntries];
+      for (int i = 0; i < nbEntries; i++)
+      {
+        indexedPositions[i] = input.readLong();
+        indexedKeys.add(parser.decodeKeyFromString(input.readUTF()));
+      }
+      keys = indexedKeys;
+      positions = indexedPositions;
+      return true;
+    }
+    catch (IOException | ChangelogException e)
+    {
+      logger.traceException(e);
+      return false;
+    }
+  }
+
+  /** Builds the index by reading a record every {@code intervalInBlocks} blocks. */
+  private void build(final BlockLogReader<K, ?> reader) throws ChangelogException
+  {
+    final long interval = (long) intervalInBlocks * reader.getBlockSize();
+    final List<K> indexedKeys = new ArrayList<>();
+    final List<Long> indexedPositions = new ArrayList<>();
+    for (long blockStart = 0;; blockStart += interval)
+    {
+      final Pair<K, Long> keyAndPosition = reader.readKeyAndPositionFromBlockStart(blockStart);
+      if (keyAndPosition == null)
+      {
+        break;
+      }
+      final K key = keyAndPosition.getFirst();
+      if (indexedKeys.isEmpty() || key.compareTo(indexedKeys.get(indexedKeys.size() - 1)) > 0)
+      {
+        indexedKeys.add(key);
+        indexedPositions.add(keyAndPosition.getSecond());
+      }
+    }
+    positions = new long[indexedPositions.size()];
+    for (int i = 0; i < positions.length; i++)
+    {
+      positions[i] = indexedPositions.get(i);
+    }
+    keys = indexedKeys;
+  }
+
+  /**
+   * Collects the index entries of the head log file while records are appended
+   * to it, and writes them to the sidecar file when the head log file is
+   * rotated.
+   *
+   * @param <K>
+   *          Type of the key of a record, which must be comparable.
+   */
+  static final class Writer<K extends Comparable<K>>
+  {
+    private final RecordParser<K, ?> parser;
+    private final List<Pair<K, Long>> entries = new ArrayList<>();
+    private long nbRecords;
+    /** Whether all the records of the log file were appended through this writer. */
+    private final boolean isComplete;
+
+    /**
+     * Creates a writer for a head log file.
+     *
+     * @param parser
+     *          the parser of the records of the log file
+     * @param isComplete
+     *          {@code true} if the log file is empty, so that all its records
+     *          will be appended through this writer
+     */
+    Writer(final RecordParser<K, ?> parser, final boolean isComplete)
+    {
+      this.parser = parser;
+      this.isComplete = isComplete;
+    }
+
+    /**
+     * Notifies that a record has been appended to the log file.
+     *
+     * @param key
+     *          the key of the record
+     * @param position
+     *          the position in the log file where the record was written
+     */
+    void recordAppended(final K key, final long position)
+    {
+      if (isComplete && nbRecords++ % INTERVAL_IN_RECORDS == 0)
+      {
+        entries.add(Pair.of(key, position));
+      }
+    }
+
+    /**
+     * Writes the sidecar index file of the provided log file, which holds the
+     * records appended through this writer.
+     * <p>
+     * Nothing is written if some records of the log file were appended before
+     * this writer was created, for example before a server restart. A failure
+     * is not reported as readers can search the log file without its index.
+     *
+     * @param logFile
+     *          the log file, which must not be modified any more
+     */
+    void writeIndexFileOf(final File logFile)
+    {
+      if (!isComplete || entries.isEmpty())
+      {
+        return;
+      }
+      final File indexFile = getIndexFile(logFile);
+      try (FileOutputStream fileOutput = new FileOutputStream(indexFile);
+          DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput)))
+      {
+        output.writeInt(INDEX_FILE_VERSION);
+        output.writeLong(logFile.length());
+        output.writeInt(entries.size());
+        for (Pair<K, Long> entry : entries)
+        {
+          output.writeLong(entry.getSecond());
+          output.writeUTF(parser.encodeKeyToString(entry.getFirst()));
+        }
+        output.flush();
+        // do not leave a truncated index file after a crash
+        fileOutput.getFD().sync();
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+        indexFile.delete();
+      }
+    }
+  }
+}
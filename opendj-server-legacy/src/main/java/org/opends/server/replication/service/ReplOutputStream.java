@@ -22,25 +22,50 @@
  *
  *
  *      Copyright 2006-2008 Sun Microsystems, Inc.
- *      Portions Copyright 2014-2015 ForgeRock AS.
+ *      Portions Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.opends.server.api.DirectoryThread;
 
 /**
  * This class creates an output stream that can be used to export entries
  * to a synchronization domain.
+ * <p>
+ * Each write is sent as one entry message by a dedicated thread, so that the
+ * backend can keep reading and encoding the next entries while the previous
+ * ones are sent and the flow control waits for the slowest importer. At most
+ * {@link #MAX_PENDING_BATCHES} writes can wait for being sent.
  */
 class ReplOutputStream extends OutputStream
 {
+  /** Maximum number of writes waiting to be sent. */
+  private static final int MAX_PENDING_BATCHES = 4;
+
   /** The synchronization domain on which the export is done. */
   private final ReplicationDomain domain;
 
   /** The current number of entries exported. */
   private final long numExportedEntries = 0;
 
+  /** The writes waiting to be sent. @GuardedBy("this") */
+  private final Deque<byte[]> pendingBatches = new ArrayDeque<>();
+  /** Whether a write is being sent. @GuardedBy("this") */
+  private boolean isSending;
+  /** Whether this stream has been closed. @GuardedBy("this") */
+  private boolean closed;
+  /** The error which stopped the sending of the writes. @GuardedBy("this") */
+  private IOException sendException;
+  /** The thread sending the writes, started on first write. @GuardedBy("this") */
+  private Thread sender;
+
   /**
    * Creates a new ReplLDIFOutputStream related to a replication
    * domain.
@@ -61,9 +86,153 @@ class ReplOutputStream extends OutputStream
 
   /** {@inheritDoc} */
   @Override
-  public void write(byte b[], int off, int len) throws IOException
+  public synchronized void write(byte b[], int off, int len) throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("Stream closed");
+    }
+    if (sender == null)
+    {
+      sender = new DirectoryThread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          sendBatches();
+        }
+      }, "Export sender thread from serverId=" + domain.getServerId());
+      sender.start();
+    }
+
+    while (pendingBatches.size() >= MAX_PENDING_BATCHES && sendException == null)
+    {
+      waitForSender();
+    }
+    throwIfSendFailed();
+    pendingBatches.add(Arrays.copyOfRange(b, off, off + len));
+    notifyAll();
+  }
+
+  /**
+   * Waits until all the writes have been sent.
+   * <p>
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void flush() throws IOException
+  {
+    while ((!pendingBatches.isEmpty() || isSending) && sendException == null)
+    {
+      waitForSender();
+    }
+    throwIfSendFailed();
+  }
+
+  /**
+   * Sends the remaining writes, then stops the thread sending them.
+   * <p>
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException
   {
-    domain.exportLDIFEntry(b, off, len);
+    final Thread senderToJoin;
+    synchronized (this)
+    {
+      closed = true;
+      notifyAll();
+      senderToJoin = sender;
+    }
+    if (senderToJoin != null)
+    {
+      try
+      {
+        senderToJoin.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    synchronized (this)
+    {
+      throwIfSendFailed();
+    }
+  }
+
+  /** @GuardedBy("this") */
+  private void waitForSender() throws InterruptedIOException
+  {
+    try
+    {
+      wait();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /** @GuardedBy("this") */
+  private void throwIfSendFailed() throws IOException
+  {
+    if (sendException != null)
+    {
+      throw sendException;
+    }
+  }
+
+  /** Sends the writes until this stream is closed or an error occurs. */
+  private void sendBatches()
+  {
+    while (true)
+    {
+      final byte[] batch;
+      synchronized (this)
+      {
+        isSending = false;
+        notifyAll();
+        while (pendingBatches.isEmpty() && !closed)
+        {
+          try
+          {
+            wait();
+          }
+          catch (InterruptedException e)
+          {
+            sendException = new InterruptedIOException();
+            notifyAll();
+            return;
+          }
+        }
+        if (pendingBatches.isEmpty())
+        {
+          // closed and everything has been sent
+          return;
+        }
+        batch = pendingBatches.poll();
+        isSending = true;
+      }
+
+      try
+      {
+        domain.exportLDIFEntry(batch, 0, batch.length);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        synchronized (this)
+        {
+          sendException = e instanceof IOException ? (IOException) e : new IOException(e);
+          pendingBatches.clear();
+          isSending = false;
+          notifyAll();
+        }
+        return;
+      }
+    }
   }
 
   /**
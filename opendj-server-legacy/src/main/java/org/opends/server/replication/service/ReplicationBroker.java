@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.service;
 
@@ -1117,6 +1117,7 @@ public class ReplicationBroker
        */
       newSession.setProtocolVersion(
           getCompatibleVersion(replServerInfo.getProtocolVersion()));
+      newSession.setBatchCompression(config.isCompressMessageBatches());
 
       if (!isSslEncryption)
       {
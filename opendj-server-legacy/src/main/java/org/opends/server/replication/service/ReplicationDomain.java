@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.service;
 
@@ -210,6 +210,13 @@ public abstract class ReplicationDomain
   private ServerStatus status = ServerStatus.NOT_CONNECTED_STATUS;
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /**
+   * Size in bytes of the batches of entries sent in each entry message during
+   * a total update. Large batches reduce the number of messages and flow
+   * control acknowledgements, and are compressed by the sessions.
+   */
+  private static final int TOTAL_UPDATE_BATCH_SIZE = 64 * 1024;
+
   /** The configuration of the replication domain. */
   protected volatile ReplicationDomainCfg config;
   /**
@@ -758,6 +765,10 @@ public abstract class ReplicationDomain
           AckMsg ack = (AckMsg) msg;
           receiveAck(ack);
         }
+        else if (msg instanceof CumulativeAckMsg)
+        {
+          receiveCumulativeAck((CumulativeAckMsg) msg);
+        }
         else if (msg instanceof InitializeRequestMsg)
         {
           // Another server requests us to provide entries
@@ -909,6 +920,26 @@ public abstract class ReplicationDomain
     }
   }
 
+  /**
+   * Do the necessary processing when a CumulativeAckMsg is received: all the
+   * updates waiting for an ack up to the watermark are acknowledged.
+   *
+   * @param ack The CumulativeAckMsg that was received.
+   */
+  private void receiveCumulativeAck(CumulativeAckMsg ack)
+  {
+    for (CSN watermark : ack.getCSNs())
+    {
+      for (CSN csn : waitingAckMsgs.keySet())
+      {
+        if (csn.getServerId() == watermark.getServerId() && !csn.isNewerThan(watermark))
+        {
+          receiveAck(new AckMsg(csn));
+        }
+      }
+    }
+  }
+
   /**
    * Do the necessary processing when an AckMsg is received.
    *
@@ -1198,6 +1229,19 @@ public abstract class ReplicationDomain
       return entryLeftCount;
     }
 
+    /**
+     * Returns the number of entries processed per second since the total
+     * update started.
+     *
+     * @return The number of entries processed per second since the total
+     *         update started.
+     */
+    long getEntriesPerSecond()
+    {
+      final long elapsedTime = System.currentTimeMillis() - startTime;
+      return elapsedTime > 0 ? (entryCount - entryLeftCount) * 1000 / elapsedTime : 0;
+    }
+
     /**
      * Initializes the import/export counters with the provider value.
      * @param total Total number of entries to be processed.
@@ -1512,7 +1556,34 @@ public abstract class ReplicationDomain
               ERR_INIT_NO_SUCCESS_START_FROM_SERVERS.get(getBaseDN(), ieCtx.failureList));
         }
 
-        exportBackend(new BufferedOutputStream(new ReplOutputStream(this)));
+        final ReplOutputStream output = new ReplOutputStream(this);
+        Exception exportFailure = null;
+        try
+        {
+          exportBackend(new BufferedOutputStream(output, TOTAL_UPDATE_BATCH_SIZE));
+        }
+        catch (DirectoryException | RuntimeException e)
+        {
+          exportFailure = e;
+          throw e;
+        }
+        finally
+        {
+          // The entries are sent by another thread: wait until all are sent
+          try
+          {
+            closeExportStream(output, ieCtx);
+          }
+          catch (DirectoryException closeFailure)
+          {
+            if (exportFailure == null)
+            {
+              throw closeFailure;
+            }
+            // do not hide the export failure
+            exportFailure.addSuppressed(closeFailure);
+          }
+        }
 
         // Notify the peer of the success
         broker.publish(
@@ -2136,6 +2207,25 @@ public abstract class ReplicationDomain
     }
   }
 
+  /**
+   * Waits until all the entries written to the provided stream have been sent,
+   * then closes it.
+   */
+  private void closeExportStream(ReplOutputStream output, ImportExportContext ieCtx) throws DirectoryException
+  {
+    try
+    {
+      output.close();
+    }
+    catch (IOException e)
+    {
+      // exportLDIFEntry() stores its errors in the context
+      ieCtx.setExceptionIfNoneSet(new DirectoryException(ResultCode.OTHER,
+          ERR_INIT_EXPORT_FAILURE.get(e.getLocalizedMessage()), e));
+      throw ieCtx.getException();
+    }
+  }
+
   /**
    * Initializes asynchronously this domain from a remote source server.
    * Before returning from this call, for the provided task :
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions copyright 2013-2015 ForgeRock AS.
+ *      Portions copyright 2013-2016 ForgeRock AS.
  */
 package org.opends.server.replication.service;
 
@@ -122,6 +122,7 @@ public class ReplicationMonitor extends MonitorProvider<MonitorProviderCfg>
       addMonitorData(attributes, "total-update", ieContext.importInProgress() ? "import" : "export");
       addMonitorData(attributes, "total-update-entry-count", ieContext.getTotalEntryCount());
       addMonitorData(attributes, "total-update-entry-left", ieContext.getLeftEntryCount());
+      addMonitorData(attributes, "total-update-entries-per-second", ieContext.getEntriesPerSecond());
     }
 
 
@@ -0,0 +1,104 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.authorization.dseecompat;
+
+import java.util.TreeSet;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.DN;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SuppressWarnings("javadoc")
+public class AciListTest extends DirectoryServerTestCase
+{
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startFakeServer();
+  }
+
+  @AfterClass
+  public void tearDown()
+  {
+    TestCaseUtils.shutdownFakeServer();
+  }
+
+  @Test
+  public void candidateAcisAreInheritedFromParents() throws Exception
+  {
+    final DN suffixDN = DN.valueOf("dc=example,dc=com");
+    final DN peopleDN = DN.valueOf("ou=people,dc=example,dc=com");
+    final AciList aciList = new AciList(DN.valueOf("cn=config"));
+    final Aci suffixAci = addAci(aciList, suffixDN, "suffix read");
+    final Aci peopleAci = addAci(aciList, peopleDN, "people read");
+
+    assertThat(aciList.getCandidateAcis(DN.valueOf("uid=user.0,ou=people,dc=example,dc=com")))
+        .containsOnly(peopleAci, suffixAci);
+    assertThat(aciList.getCandidateAcis(DN.valueOf("uid=user.1,ou=people,dc=example,dc=com")))
+        .containsOnly(peopleAci, suffixAci);
+    assertThat(aciList.getCandidateAcis(peopleDN)).containsOnly(peopleAci, suffixAci);
+    assertThat(aciList.getCandidateAcis(DN.valueOf("ou=groups,dc=example,dc=com"))).containsOnly(suffixAci);
+    assertThat(aciList.getCandidateAcis(DN.valueOf("dc=other"))).isEmpty();
+
+    assertThat(aciList.getCacheHits()).isGreaterThan(0);
+    assertThat(aciList.getCacheMisses()).isGreaterThan(0);
+  }
+
+  @Test
+  public void cacheIsInvalidatedWhenAcisChange() throws Exception
+  {
+    final DN suffixDN = DN.valueOf("dc=example,dc=com");
+    final DN peopleDN = DN.valueOf("ou=people,dc=example,dc=com");
+    final DN userDN = DN.valueOf("uid=user.0,ou=people,dc=example,dc=com");
+    final AciList aciList = new AciList(DN.valueOf("cn=config"));
+    final Aci suffixAci = addAci(aciList, suffixDN, "suffix read");
+    assertThat(aciList.getCandidateAcis(userDN)).containsOnly(suffixAci);
+    assertThat(aciList.getCacheSize()).isGreaterThan(0);
+
+    final Aci peopleAci = addAci(aciList, peopleDN, "people read");
+    assertThat(aciList.getCandidateAcis(userDN)).containsOnly(peopleAci, suffixAci);
+
+    aciList.renameAci(peopleDN, DN.valueOf("ou=staff,dc=example,dc=com"));
+    assertThat(aciList.getCandidateAcis(userDN)).containsOnly(suffixAci);
+  }
+
+  private Aci addAci(AciList aciList, DN dn, String name) throws Exception
+  {
+    final String aciString = "(targetattr=\"*\")(version 3.0; acl \"" + name + "\"; "
+        + "allow(read,search,compare) userdn=\"ldap:///anyone\";)";
+    final Aci aci = Aci.decode(ByteString.valueOfUtf8(aciString), dn);
+    final TreeSet<Aci> acis = new TreeSet<>();
+    acis.add(aci);
+    aciList.addAci(dn, acis);
+    return aci;
+  }
+}
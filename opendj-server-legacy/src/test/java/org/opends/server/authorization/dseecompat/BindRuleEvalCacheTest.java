@@ -0,0 +1,144 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.authorization.dseecompat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.core.ModifyOperation;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.protocols.ldap.LDAPControl;
+import org.opends.server.types.Control;
+import org.opends.server.types.DN;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+import static org.opends.server.util.ServerConstants.*;
+
+@SuppressWarnings("javadoc")
+public class BindRuleEvalCacheTest extends DirectoryServerTestCase
+{
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startFakeServer();
+  }
+
+  @AfterClass
+  public void tearDown()
+  {
+    TestCaseUtils.shutdownFakeServer();
+  }
+
+  @Test
+  public void resultsAreCachedPerAuthorizationDN() throws Exception
+  {
+    final BindRuleEvalCache cache = BindRuleEvalCache.getInstance(newSearchOperation());
+    final SSF ssfRule = mock(SSF.class);
+    when(ssfRule.evaluate(any(AciEvalContext.class))).thenReturn(EnumEvalResult.TRUE);
+    final AciEvalContext user0Ctx = newEvalContext("uid=user.0,dc=example,dc=com");
+    final AciEvalContext user1Ctx = newEvalContext("uid=user.1,dc=example,dc=com");
+    final long skipped = BindRuleEvalCache.getSkippedEvaluations();
+
+    assertThat(cache.evaluate(ssfRule, user0Ctx)).isEqualTo(EnumEvalResult.TRUE);
+    assertThat(cache.evaluate(ssfRule, user0Ctx)).isEqualTo(EnumEvalResult.TRUE);
+    assertThat(cache.evaluate(ssfRule, user1Ctx)).isEqualTo(EnumEvalResult.TRUE);
+
+    verify(ssfRule).evaluate(user0Ctx);
+    verify(ssfRule).evaluate(user1Ctx);
+    assertThat(BindRuleEvalCache.getSkippedEvaluations() - skipped).isEqualTo(1);
+  }
+
+  @Test
+  public void entryDependentRulesAreAlwaysEvaluated() throws Exception
+  {
+    final BindRuleEvalCache cache = BindRuleEvalCache.getInstance(newSearchOperation());
+    final UserDN userDNRule = mock(UserDN.class);
+    when(userDNRule.evaluate(any(AciEvalContext.class))).thenReturn(EnumEvalResult.FALSE);
+    final AciEvalContext evalCtx = newEvalContext("uid=user.0,dc=example,dc=com");
+
+    cache.evaluate(userDNRule, evalCtx);
+    cache.evaluate(userDNRule, evalCtx);
+
+    verify(userDNRule, times(2)).evaluate(evalCtx);
+  }
+
+  @Test
+  public void onlyNonPersistentSearchesAreCached() throws Exception
+  {
+    final SearchOperation search = newSearchOperation();
+    assertThat(BindRuleEvalCache.getInstance(search)).isSameAs(BindRuleEvalCache.getInstance(search));
+
+    final SearchOperation persistentSearch = newSearchOperation(new LDAPControl(OID_PERSISTENT_SEARCH));
+    assertThat(BindRuleEvalCache.getInstance(persistentSearch)).isNull();
+    assertThat(BindRuleEvalCache.getInstance(persistentSearch)).isNull();
+    // the request controls are only checked once per operation
+    verify(persistentSearch).getRequestControls();
+
+    assertThat(BindRuleEvalCache.getInstance(mock(ModifyOperation.class))).isNull();
+  }
+
+  private SearchOperation newSearchOperation(Control... controls)
+  {
+    final SearchOperation operation = mock(SearchOperation.class);
+    when(operation.getRequestControls()).thenReturn(Arrays.asList(controls));
+    // keep the attachments of the mocked operation
+    final Map<String, Object> attachments = new HashMap<>();
+    when(operation.getAttachment(anyString())).thenAnswer(new Answer<Object>()
+    {
+      @Override
+      public Object answer(InvocationOnMock invocation)
+      {
+        return attachments.get(invocation.getArguments()[0]);
+      }
+    });
+    when(operation.setAttachment(anyString(), any())).thenAnswer(new Answer<Object>()
+    {
+      @Override
+      public Object answer(InvocationOnMock invocation)
+      {
+        return attachments.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+      }
+    });
+    return operation;
+  }
+
+  private AciEvalContext newEvalContext(String clientDN) throws Exception
+  {
+    final AciEvalContext evalCtx = mock(AciEvalContext.class);
+    when(evalCtx.getClientDN()).thenReturn(DN.valueOf(clientDN));
+    return evalCtx;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class CompressionCodecTest extends DirectoryServerTestCase
+{
+  @DataProvider
+  public Object[][] codecs()
+  {
+    return new Object[][] { { ID2Entry.DEFLATE_CODEC }, { ID2Entry.BLOCK_CODEC } };
+  }
+
+  @Test(dataProvider = "codecs")
+  public void testRoundTripWithoutDictionary(CompressionCodec codec) throws Exception
+  {
+    for (byte[] sample : samples())
+    {
+      assertThat(roundTrip(codec, sample, null)).isEqualTo(sample);
+    }
+    final byte[] repeated = new byte[70000];
+    assertThat(roundTrip(codec, repeated, null)).isEqualTo(repeated);
+    assertThat(roundTrip(codec, new byte[0], null)).isEmpty();
+  }
+
+  @Test(dataProvider = "codecs")
+  public void testDictionaryImprovesCompression(CompressionCodec codec) throws Exception
+  {
+    final List<byte[]> samples = samples();
+    final CompressionDictionary dictionary = new CompressionDictionary(1, CompressionDictionary.train(samples, 4096));
+    assertThat(dictionary.getBytes().length).isGreaterThan(0).isLessThanOrEqualTo(4096);
+
+    final byte[] entry = entry(1000);
+    assertThat(roundTrip(codec, entry, dictionary)).isEqualTo(entry);
+    assertThat(compress(codec, entry, dictionary).length()).isLessThan(compress(codec, entry, null).length());
+  }
+
+  @Test
+  public void testBlockCodecReusesDictionaryHashTable() throws Exception
+  {
+    final CompressionDictionary dictionary = new CompressionDictionary(1, CompressionDictionary.train(samples(), 4096));
+    final int[] hashTable = dictionary.getBlockHashTable().clone();
+
+    final byte[] entry = entry(1000);
+    final ByteString compressed = compress(ID2Entry.BLOCK_CODEC, entry, dictionary);
+    assertThat(compress(ID2Entry.BLOCK_CODEC, entry(2000), dictionary)).isNotEqualTo(compressed);
+    assertThat(compress(ID2Entry.BLOCK_CODEC, entry, dictionary)).isEqualTo(compressed);
+    assertThat(dictionary.getBlockHashTable()).isEqualTo(hashTable);
+  }
+
+  @Test(expectedExceptions = DataFormatException.class)
+  public void testBlockCodecRejectsTruncatedData() throws Exception
+  {
+    final byte[] entry = entry(1);
+    final ByteString compressed = compress(ID2Entry.BLOCK_CODEC, entry, null);
+    ID2Entry.BLOCK_CODEC.decompress(compressed.subSequence(0, compressed.length() - 1), null, entry.length,
+        new ByteStringBuilder());
+  }
+
+  @Test(expectedExceptions = DataFormatException.class)
+  public void testBlockCodecRejectsMissingDictionary() throws Exception
+  {
+    final byte[] entry = entry(1000);
+    final CompressionDictionary dictionary = new CompressionDictionary(1, CompressionDictionary.train(samples(), 4096));
+    ID2Entry.BLOCK_CODEC.decompress(compress(ID2Entry.BLOCK_CODEC, entry, dictionary), null, entry.length,
+        new ByteStringBuilder());
+  }
+
+  private static ByteString compress(CompressionCodec codec, byte[] data, CompressionDictionary dictionary)
+  {
+    final ByteStringBuilder output = new ByteStringBuilder();
+    codec.compress(ByteString.wrap(data), dictionary, output);
+    return output.toByteString();
+  }
+
+  private static byte[] roundTrip(CompressionCodec codec, byte[] data, CompressionDictionary dictionary)
+      throws DataFormatException
+  {
+    final ByteStringBuilder output = new ByteStringBuilder();
+    codec.decompress(compress(codec, data, dictionary), dictionary, data.length, output);
+    return output.toByteArray();
+  }
+
+  private static List<byte[]> samples()
+  {
+    final List<byte[]> samples = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+    {
+      samples.add(entry(i));
+    }
+    return samples;
+  }
+
+  private static byte[] entry(int i)
+  {
+    return ("dn: uid=user." + i + ",ou=People,dc=example,dc=com\n"
+        + "objectClass: top\nobjectClass: person\nobjectClass: organizationalPerson\nobjectClass: inetOrgPerson\n"
+        + "uid: user." + i + "\ncn: User " + i + "\nsn: " + i + "\nmail: user." + i + "@example.com\n"
+        + "description: This is the description for User " + i + ".\n").getBytes();
+  }
+}
@@ -316,9 +316,83 @@ public class EntryIDSetTest extends DirectoryServerTestCase
     assertIdsEquals(retained, 1, 3, 5, 7, 9);
   }
 
+  @Test
+  public void testBitmapAddRemove()
+  {
+    final EntryIDSet set = newBitmapSet(6, 8, 10, 12);
+
+    assertThat(set.add(id(4))).isTrue();
+    assertThat(set.add(id(4))).isFalse();
+    assertThat(set.add(id(70000))).isTrue();
+    assertIdsEquals(set, 4, 6, 8, 10, 12, 70000);
+
+    assertThat(set.remove(id(8))).isTrue();
+    assertThat(set.remove(id(9))).isFalse();
+    assertThat(set.contains(id(8))).isFalse();
+    assertThat(set.contains(id(70000))).isTrue();
+    assertThat(set.size()).isEqualTo(5);
+  }
+
+  @Test
+  public void testBitmapRetainAll()
+  {
+    EntryIDSet retained = newBitmapSet(2, 4, 6, 8);
+    retained.retainAll(newDefinedSet(1, 2, 3, 5, 6, 7, 8));
+    assertIdsEquals(retained, 2, 6, 8);
+
+    retained = newDefinedSet(2, 4, 6, 8);
+    retained.retainAll(newBitmapSet(1, 3, 5, 7, 9));
+    assertThat(retained.isDefined()).isTrue();
+    assertThat(retained.size()).isEqualTo(0);
+
+    retained = newUndefinedSet();
+    retained.retainAll(newBitmapSet(1, 3, 5, 7, 9));
+    assertThat(retained.isDefined()).isTrue();
+    assertIdsEquals(retained, 1, 3, 5, 7, 9);
+  }
+
+  @Test
+  public void testBitmapDenseOperations()
+  {
+    final long[] evens = new long[10000];
+    final long[] multiplesOfThree = new long[10000];
+    for (int i = 0; i < evens.length; i++)
+    {
+      evens[i] = 2L * i;
+      multiplesOfThree[i] = 3L * i;
+    }
+
+    final EntryIDSet intersection = newBitmapSet(evens);
+    intersection.retainAll(newBitmapSet(multiplesOfThree));
+    assertThat(intersection.size()).isEqualTo(3334);
+    assertThat(intersection.contains(id(6))).isTrue();
+    assertThat(intersection.contains(id(4))).isFalse();
+
+    final EntryIDSet union = newSetFromUnion(Arrays.asList(newBitmapSet(evens), newDefinedSet(multiplesOfThree)));
+    assertThat(union.size()).isEqualTo(10000 + 10000 - 3334);
+
+    union.removeAll(newBitmapSet(evens));
+    assertThat(union.size()).isEqualTo(10000 - 3334);
+    assertThat(union.contains(id(3))).isTrue();
+    assertThat(union.contains(id(6))).isFalse();
+  }
+
+  @Test
+  public void testCodecV3DecodesDenseSet()
+  {
+    final long[] ids = new long[20000];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = 100000L + i;
+    }
+    final ByteString encoded = CODEC_V3.encode(newDefinedSet(ids));
+    assertThat(encoded.length()).isLessThan(CODEC_V2.encode(newDefinedSet(ids)).length());
+    assertThat(CODEC_V3.decode(KEY, encoded).toLongArray()).isEqualTo(ids);
+  }
+
   @DataProvider(name = "codecs")
   public static Object[][] codecs() {
-     return new Object[][] { { CODEC_V1 }, { CODEC_V2 } };
+     return new Object[][] { { CODEC_V1 }, { CODEC_V2 }, { CODEC_V3 } };
   }
 
 }
@@ -0,0 +1,86 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.Test;
+
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class IndexStatisticsTest extends DirectoryServerTestCase
+{
+  @Test
+  public void testNoEstimationUntilEnoughKeysObserved()
+  {
+    final IndexStatistics statistics = new IndexStatistics();
+    statistics.keyRead(newDefinedSet(1, 2, 3));
+    assertThat(statistics.getEstimatedEntryIDsPerKey(4000)).isEqualTo(IndexStatistics.UNKNOWN);
+  }
+
+  @Test
+  public void testEstimationFromReadKeys()
+  {
+    final IndexStatistics statistics = new IndexStatistics();
+    for (int i = 0; i < 20; i++)
+    {
+      statistics.keyRead(newDefinedSet(1, 2, 3, 4));
+    }
+    assertThat(statistics.getEstimatedEntryIDsPerKey(4000)).isEqualTo(4);
+  }
+
+  @Test
+  public void testKeysExceedingLimitCountAsIndexEntryLimit()
+  {
+    final IndexStatistics statistics = new IndexStatistics();
+    for (int i = 0; i < 10; i++)
+    {
+      statistics.keyRead(newDefinedSet());
+      statistics.keyRead(newUndefinedSet());
+    }
+    assertThat(statistics.getEstimatedEntryIDsPerKey(4000)).isEqualTo(2000);
+  }
+
+  @Test
+  public void testKeyUpdates()
+  {
+    final IndexStatistics statistics = new IndexStatistics();
+    statistics.keyUpdated(IndexStatistics.NO_KEY, newDefinedSet(1, 2));
+    statistics.keyUpdated(2, newDefinedSet(1));
+    statistics.keyUpdated(1, null);
+    statistics.keyUpdated(IndexStatistics.NO_KEY, newUndefinedSet());
+
+    final StringBuilder buffer = new StringBuilder();
+    statistics.toString(buffer, 4000);
+    assertThat(buffer.toString())
+        .contains("keysAdded:2")
+        .contains("keysRemoved:1")
+        .contains("keysExceedingLimit:1")
+        .contains("entryIDsAdded:2")
+        .contains("entryIDsRemoved:2");
+  }
+}
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2015 ForgeRock AS
+ *      Copyright 2015-2016 ForgeRock AS
  */
 package org.opends.server.backends.pluggable;
 
@@ -29,6 +29,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.opendj.ldap.ModificationType.ADD;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.opends.server.backends.pluggable.EntryIDSet.newDefinedSet;
+import static org.opends.server.backends.pluggable.EntryIDSet.newUndefinedSet;
 import static org.opends.server.protocols.internal.InternalClientConnection.getRootConnection;
 import static org.opends.server.protocols.internal.Requests.newSearchRequest;
 import static org.opends.server.types.Attributes.create;
@@ -63,6 +65,7 @@ import org.opends.server.api.ClientConnection;
 import org.opends.server.backends.RebuildConfig;
 import org.opends.server.backends.VerifyConfig;
 import org.opends.server.backends.RebuildConfig.RebuildMode;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
@@ -75,6 +78,7 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.protocols.internal.InternalClientConnection;
 import org.opends.server.protocols.internal.InternalSearchOperation;
 import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Attribute;
 import org.opends.server.types.AttributeType;
 import org.opends.server.types.BackupConfig;
 import org.opends.server.types.BackupDirectory;
@@ -660,6 +664,124 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testOrFilterComponentsEvaluatedInParallel() throws Exception
+  {
+    final SearchRequest request = newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE,
+        "(|(uid=user.0)(uid=user.1)(uid=user.2)(sn=unknown))");
+    final List<SearchResultEntry> expected = runSearch(request, false);
+
+    final RootContainer rootContainer = backend.getRootContainer();
+    final C parallelCfg = createBackendCfg();
+    when(parallelCfg.getIndexFilterThreads()).thenReturn(2);
+    when(parallelCfg.getIndexFilterParallelism()).thenReturn(3);
+    rootContainer.applyConfigurationChange(parallelCfg);
+    try
+    {
+      assertThat(rootContainer.getIndexFilterPool()).isNotNull();
+      final long parallelEvaluations = getMonitorValue("filter-parallel-evaluations");
+      final List<SearchResultEntry> actual = runSearch(request, false);
+      assertThat(getMonitorValue("filter-parallel-evaluations")).isEqualTo(parallelEvaluations + 1);
+      assertThat(actual.size()).isEqualTo(expected.size());
+      for (int i = 0; i < expected.size(); i++)
+      {
+        assertThat(actual.get(i).getName()).isEqualTo(expected.get(i).getName());
+      }
+    }
+    finally
+    {
+      rootContainer.applyConfigurationChange(createBackendCfg());
+    }
+    assertThat(rootContainer.getIndexFilterPool()).isNull();
+  }
+
+  private long getMonitorValue(String attributeName)
+  {
+    for (Attribute attribute : backend.getRootContainer().getMonitorProvider().getMonitorData())
+    {
+      if (attribute.getName().equals(attributeName))
+      {
+        return Long.parseLong(attribute.iterator().next().toString());
+      }
+    }
+    fail("No monitor attribute " + attributeName);
+    return 0;
+  }
+
+  /** The cheapest component is evaluated first, and the others are not evaluated once few candidates remain. */
+  @Test
+  public void testAndFilterComponentsOrderedByEstimatedCost() throws Exception
+  {
+    observeKeys("uid", newDefinedSet(1), 100);
+
+    final String debug = debugSearchIndex("(&(sn=*)(uid=user.1))");
+    assertThat(debug).startsWith("filter=(&(uid=user.1)");
+    assertThat(debug).doesNotContain("(sn=*)");
+
+    final List<SearchResultEntry> result =
+        runSearch(newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE, "(&(sn=*)(uid=user.1))"), false);
+    assertThat(result).hasSize(1);
+    assertThat(result.get(0).getName()).isEqualTo(entries.get(1).getName());
+  }
+
+  /** A component estimated to read more entry IDs than filtering the remaining candidates is skipped. */
+  @Test
+  public void testAndFilterComponentSkippedWhenCheaperToScanEntries() throws Exception
+  {
+    observeKeys("telephoneNumber", newUndefinedSet(), 100);
+
+    final String filter = "(&(telephoneNumber=380-535-2354)(sn=*))";
+    final String debug = debugSearchIndex(filter);
+    assertThat(debug).startsWith("filter=(&(sn=*)");
+    assertThat(debug).contains("(telephoneNumber=380-535-2354)[SKIPPED:estimated-cost=");
+
+    final List<SearchResultEntry> result = runSearch(newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE, filter),
+        false);
+    assertThat(result).hasSize(1);
+    assertThat(result.get(0).getName()).isEqualTo(entries.get(0).getName());
+  }
+
+  /** Range components are skipped when filtering the remaining candidates is cheaper than cursoring an index. */
+  @Test
+  public void testAndFilterRangeComponentsSkippedWhenCheaperToScanEntries() throws Exception
+  {
+    final String filter = "(&(sn=*)(employeeNumber>=5))";
+    final String debug = debugSearchIndex(filter);
+    assertThat(debug).contains("(employeeNumber>=5)[SKIPPED:estimated-cost=" + IndexFilter.CURSOR_ENTRY_LIMIT + "]");
+
+    final List<SearchResultEntry> expected =
+        runSearch(newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE, "(employeeNumber>=5)"), false);
+    final List<SearchResultEntry> actual =
+        runSearch(newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE, filter), false);
+    assertThat(actual).isNotEmpty();
+    assertThat(actual.size()).isEqualTo(expected.size());
+  }
+
+  /** Accounts for key reads in the statistics of all the indexes of the provided attribute. */
+  private void observeKeys(String attributeName, EntryIDSet value, int count)
+  {
+    final AttributeType attributeType = DirectoryServer.getAttributeTypeOrNull(attributeName.toLowerCase());
+    final AttributeIndex attributeIndex =
+        backend.getRootContainer().getEntryContainer(testBaseDN).getAttributeIndex(attributeType);
+    for (MatchingRuleIndex index : attributeIndex.getNameToIndexes().values())
+    {
+      for (int i = 0; i < count; i++)
+      {
+        index.getStatistics().keyRead(value);
+      }
+    }
+  }
+
+  /** Returns how the indexes contributed to the provided search filter. */
+  private String debugSearchIndex(String filter) throws Exception
+  {
+    final SearchRequest request = newSearchRequest(testBaseDN, SearchScope.WHOLE_SUBTREE, filter)
+        .addAttribute(SuffixContainer.ATTR_DEBUG_SEARCH_INDEX);
+    final List<SearchResultEntry> result = runSearch(request, false);
+    assertThat(result).hasSize(1);
+    return result.get(0).getAttribute(SuffixContainer.ATTR_DEBUG_SEARCH_INDEX).get(0).iterator().next().toString();
+  }
+
   @Test
   public void testModifyEntry() throws Exception
   {
@@ -369,7 +369,7 @@ public class TestDnKeyFormat extends DirectoryServerTestCase {
             new DataConfig(false, false, null));
 
         entryAfter = ID2Entry.entryFromDatabase(bytes,
-                          DirectoryServer.getDefaultCompressedSchema());
+                          DirectoryServer.getDefaultCompressedSchema(), null);
 
         // check DN and number of attributes
         assertEquals(entryBefore.getAttributes().size(), entryAfter
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.core;
 
@@ -61,6 +61,7 @@ import org.testng.annotations.Test;
 
 import static org.opends.server.protocols.internal.InternalClientConnection.*;
 import static org.opends.server.protocols.internal.Requests.*;
+import static org.opends.server.util.CollectionUtils.*;
 import static org.opends.server.util.ServerConstants.*;
 import static org.testng.Assert.*;
 
@@ -211,6 +212,269 @@ public class GroupManagerTestCase
     assertTrue(group1Instance.isMember(user5DN));
   }
 
+  /**
+   * Tests that the groups of a member are retrieved from the membership index
+   * of the group manager, including nested and dynamic groups, and that the
+   * index follows the changes made through the group API.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testGetGroupDNsOf() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    DN group1DN = DN.valueOf("cn=group 1,ou=Groups,o=test");
+    DN group2DN = DN.valueOf("cn=group 2,ou=Groups,o=test");
+    DN group3DN = DN.valueOf("cn=group 3,ou=Groups,o=test");
+    DN group4DN = DN.valueOf("cn=group 4,ou=Groups,o=test");
+    Entry user1Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.1,ou=People,o=test"));
+    Entry user3Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.3,ou=People,o=test"));
+    Entry user5Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.5,ou=People,o=test"));
+    Group group1Instance = groupManager.getGroupInstance(group1DN);
+    Group group2Instance = groupManager.getGroupInstance(group2DN);
+    Group group3Instance = groupManager.getGroupInstance(group3DN);
+    group1Instance.addNestedGroup(group2DN);
+    group2Instance.addNestedGroup(group3DN);
+    //Dynamic group 4 is added to nested list of group 3.
+    group3Instance.addNestedGroup(group4DN);
+    group1Instance.addMember(user1Entry);
+    group3Instance.addMember(user3Entry);
+
+    assertEquals(groupManager.getGroupDNsOf(user1Entry), newHashSet(group1DN));
+    assertEquals(groupManager.getGroupDNsOf(user3Entry), newHashSet(group1DN, group2DN, group3DN));
+    //User 5 is only a member of the dynamic group "group 4".
+    assertEquals(groupManager.getGroupDNsOf(user5Entry), newHashSet(group1DN, group2DN, group3DN, group4DN));
+
+    group2Instance.removeNestedGroup(group3DN);
+    group1Instance.removeMember(user1Entry.getName());
+
+    assertEquals(groupManager.getGroupDNsOf(user1Entry), newHashSet());
+    assertEquals(groupManager.getGroupDNsOf(user3Entry), newHashSet(group3DN));
+    assertEquals(groupManager.getGroupDNsOf(user5Entry), newHashSet(group3DN, group4DN));
+  }
+
+  /**
+   * Tests that the cached memberships of dynamic groups are invalidated when
+   * the user entries or the groups are modified.
+   *
+   * @throws Exception If an unexpected problem occurs.
+   */
+  @Test
+  public void testDynamicGroupMembershipCache() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    TestCaseUtils.addEntries(
+      "dn: ou=People,o=test",
+      "objectClass: top",
+      "objectClass: organizationalUnit",
+      "ou: People",
+      "",
+      "dn: ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: organizationalUnit",
+      "ou: Groups",
+      "",
+      "dn: uid=user.1,ou=People,o=test",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: user.1",
+      "givenName: User",
+      "sn: 1",
+      "cn: User 1",
+      "description: dynamic",
+      "",
+      "dn: uid=user.2,ou=People,o=test",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: user.2",
+      "givenName: User",
+      "sn: 2",
+      "cn: User 2",
+      "",
+      "dn: cn=Dynamic 1,ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: groupOfURLs",
+      "cn: Dynamic 1",
+      "memberURL: ldap:///ou=People,o=test??sub?(description=dynamic)",
+      "",
+      "dn: cn=Dynamic 2,ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: groupOfURLs",
+      "cn: Dynamic 2",
+      "memberURL: ldap:///ou=People,o=test??sub?(sn=1)");
+    DN dynamic1DN = DN.valueOf("cn=Dynamic 1,ou=Groups,o=test");
+    DN dynamic2DN = DN.valueOf("cn=Dynamic 2,ou=Groups,o=test");
+    DN user1DN = DN.valueOf("uid=user.1,ou=People,o=test");
+    DN user2DN = DN.valueOf("uid=user.2,ou=People,o=test");
+    Group<?> dynamic1Instance = groupManager.getGroupInstance(dynamic1DN);
+    Group<?> dynamic2Instance = groupManager.getGroupInstance(dynamic2DN);
+
+    assertEquals(groupManager.getComputedGroupDNsOf(user1DN), newHashSet(dynamic1DN, dynamic2DN));
+    assertEquals(groupManager.getComputedGroupDNsOf(user2DN), newHashSet());
+    assertTrue(dynamic1Instance.isMember(user1DN));
+    assertFalse(dynamic1Instance.isMember(user2DN));
+
+    // Modifying a user entry invalidates its memberships
+    InternalClientConnection conn = getRootConnection();
+    List<Modification> mods = newArrayList(
+        new Modification(ModificationType.ADD, Attributes.create("description", "dynamic")));
+    assertEquals(conn.processModify(user2DN, mods).getResultCode(), ResultCode.SUCCESS);
+    assertTrue(dynamic1Instance.isMember(user2DN));
+    assertFalse(dynamic2Instance.isMember(user2DN));
+
+    // Modifying a group invalidates all the memberships
+    Attribute memberURL = Attributes.create("memberURL", "ldap:///ou=People,o=test??sub?(sn=2)");
+    mods = newArrayList(new Modification(ModificationType.REPLACE, memberURL));
+    assertEquals(conn.processModify(dynamic2DN, mods).getResultCode(), ResultCode.SUCCESS);
+    dynamic2Instance = groupManager.getGroupInstance(dynamic2DN);
+    assertFalse(dynamic2Instance.isMember(user1DN));
+    assertTrue(dynamic2Instance.isMember(user2DN));
+
+    // Deleting a user entry invalidates its memberships
+    assertEquals(conn.processDelete(user1DN).getResultCode(), ResultCode.SUCCESS);
+    assertEquals(groupManager.getComputedGroupDNsOf(user1DN), newHashSet());
+    assertFalse(dynamic1Instance.isMember(user1DN));
+  }
+
+  /**
+   * Tests the membership of a virtual static group targeting a static group
+   * in which a dynamic group is nested: evaluating the computed groups must
+   * not evaluate them again through the nested dynamic group.
+   *
+   * @throws Exception If an unexpected problem occurs.
+   */
+  @Test(timeOut = 60000)
+  public void testVirtualStaticGroupTargetingStaticGroupWithNestedDynamicGroup() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    TestCaseUtils.addEntries(
+      "dn: ou=People,o=test",
+      "objectClass: top",
+      "objectClass: organizationalUnit",
+      "ou: People",
+      "",
+      "dn: ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: organizationalUnit",
+      "ou: Groups",
+      "",
+      "dn: uid=user.1,ou=People,o=test",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: user.1",
+      "givenName: User",
+      "sn: 1",
+      "cn: User 1",
+      "description: dynamic",
+      "",
+      "dn: uid=user.2,ou=People,o=test",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: user.2",
+      "givenName: User",
+      "sn: 2",
+      "cn: User 2",
+      "",
+      "dn: cn=Dynamic,ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: groupOfURLs",
+      "cn: Dynamic",
+      "memberURL: ldap:///ou=People,o=test??sub?(description=dynamic)",
+      "",
+      "dn: cn=Static,ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: groupOfNames",
+      "cn: Static",
+      "",
+      "dn: cn=Virtual,ou=Groups,o=test",
+      "objectClass: top",
+      "objectClass: groupOfNames",
+      "objectClass: ds-virtual-static-group",
+      "cn: Virtual",
+      "ds-target-group-dn: cn=Static,ou=Groups,o=test");
+    DN dynamicDN = DN.valueOf("cn=Dynamic,ou=Groups,o=test");
+    DN staticDN = DN.valueOf("cn=Static,ou=Groups,o=test");
+    DN virtualDN = DN.valueOf("cn=Virtual,ou=Groups,o=test");
+    DN user1DN = DN.valueOf("uid=user.1,ou=People,o=test");
+    DN user2DN = DN.valueOf("uid=user.2,ou=People,o=test");
+    groupManager.getGroupInstance(staticDN).addNestedGroup(dynamicDN);
+    Group<?> virtualInstance = groupManager.getGroupInstance(virtualDN);
+
+    assertEquals(groupManager.getComputedGroupDNsOf(user1DN), newHashSet(dynamicDN, virtualDN));
+    assertEquals(groupManager.getComputedGroupDNsOf(user2DN), newHashSet());
+    assertTrue(virtualInstance.isMember(user1DN));
+    assertFalse(virtualInstance.isMember(user2DN));
+    assertEquals(groupManager.getGroupDNsOf(DirectoryServer.getEntry(user1DN)),
+        newHashSet(dynamicDN, staticDN, virtualDN));
+    assertEquals(groupManager.getGroupDNsOf(DirectoryServer.getEntry(user2DN)), newHashSet());
+  }
+
+  /**
+   * Tests that the membership index of the group manager follows the members
+   * added, replaced and removed by modifying a static group entry.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testGetGroupDNsOfAfterGroupModify() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    DN group1DN = DN.valueOf("cn=group 1,ou=Groups,o=test");
+    Entry user1Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.1,ou=People,o=test"));
+    Entry user2Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.2,ou=People,o=test"));
+    Entry user3Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.3,ou=People,o=test"));
+    InternalClientConnection conn = getRootConnection();
+    Group<?> group1Instance = groupManager.getGroupInstance(group1DN);
+
+    // Added member values are applied to the registered group instance
+    List<Modification> mods = newArrayList(new Modification(ModificationType.ADD,
+        Attributes.create("member", "uid=user.1,ou=People,o=test", "uid=user.2,ou=People,o=test")));
+    assertEquals(conn.processModify(group1DN, mods).getResultCode(), ResultCode.SUCCESS);
+    assertSame(groupManager.getGroupInstance(group1DN), group1Instance);
+    assertTrue(group1Instance.isMember(user1Entry));
+    assertEquals(groupManager.getGroupDNsOf(user1Entry), newHashSet(group1DN));
+    assertEquals(groupManager.getGroupDNsOf(user2Entry), newHashSet(group1DN));
+    assertEquals(groupManager.getGroupDNsOf(user3Entry), newHashSet());
+
+    // Replaced member values require a new group instance
+    mods = newArrayList(new Modification(ModificationType.REPLACE,
+        Attributes.create("member", "uid=user.2,ou=People,o=test", "uid=user.3,ou=People,o=test")));
+    assertEquals(conn.processModify(group1DN, mods).getResultCode(), ResultCode.SUCCESS);
+    assertNotSame(groupManager.getGroupInstance(group1DN), group1Instance);
+    group1Instance = groupManager.getGroupInstance(group1DN);
+    assertEquals(groupManager.getGroupDNsOf(user1Entry), newHashSet());
+    assertEquals(groupManager.getGroupDNsOf(user2Entry), newHashSet(group1DN));
+    assertEquals(groupManager.getGroupDNsOf(user3Entry), newHashSet(group1DN));
+
+    mods = newArrayList(new Modification(ModificationType.ADD, Attributes.create("description", "group")));
+    assertEquals(conn.processModify(group1DN, mods).getResultCode(), ResultCode.SUCCESS);
+    assertSame(groupManager.getGroupInstance(group1DN), group1Instance);
+    assertEquals(groupManager.getGroupDNsOf(user2Entry), newHashSet(group1DN));
+
+    mods = newArrayList(new Modification(ModificationType.DELETE,
+        Attributes.create("member", "uid=user.2,ou=People,o=test")));
+    assertEquals(conn.processModify(group1DN, mods).getResultCode(), ResultCode.SUCCESS);
+    assertSame(groupManager.getGroupInstance(group1DN), group1Instance);
+    assertFalse(group1Instance.isMember(user2Entry));
+    assertTrue(group1Instance.isMember(user3Entry));
+    assertEquals(groupManager.getGroupDNsOf(user2Entry), newHashSet());
+    assertEquals(groupManager.getGroupDNsOf(user3Entry), newHashSet(group1DN));
+  }
+
   /**
    * Invokes membership and nested group APIs using a group instance that has
    * been changed by the group manager via ldap modify.
@@ -0,0 +1,153 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DN.CompactDn;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class CompressedMemberDNSetTestCase extends ExtensionsTestCase
+{
+  private static final int NB_MEMBERS = 1000;
+
+  @Test
+  public void containsAllInitialMembers() throws Exception
+  {
+    final LinkedHashSet<CompactDn> memberDNs = newMemberDNs(NB_MEMBERS);
+    final CompressedMemberDNSet set = new CompressedMemberDNSet(memberDNs);
+
+    assertThat(set).hasSize(NB_MEMBERS);
+    for (CompactDn memberDN : memberDNs)
+    {
+      assertThat(set.contains(memberDN)).isTrue();
+    }
+    assertThat(set.contains(compact("UID=User.42,OU=people,DC=Example,DC=com"))).isTrue();
+    assertThat(set.contains(compact("uid=user.42,ou=Groups,dc=example,dc=com"))).isFalse();
+    assertThat(set.contains(compact("uid=user." + NB_MEMBERS + ",ou=People,dc=example,dc=com"))).isFalse();
+    assertThat(set.contains(compact("dc=com"))).isFalse();
+    assertThat(toStrings(set)).containsOnlyElementsOf(toStrings(memberDNs));
+  }
+
+  @Test
+  public void addsAndRemovesMembersAcrossBlocks() throws Exception
+  {
+    final List<CompactDn> memberDNs = new ArrayList<>(newMemberDNs(NB_MEMBERS));
+    Collections.shuffle(memberDNs, new Random(0));
+    final CompressedMemberDNSet set = new CompressedMemberDNSet(new LinkedHashSet<CompactDn>());
+
+    for (CompactDn memberDN : memberDNs)
+    {
+      assertThat(set.add(memberDN)).isTrue();
+    }
+    assertThat(set.add(memberDNs.get(0))).isFalse();
+    assertThat(set).hasSize(NB_MEMBERS);
+
+    final List<String> remainingDNs = new ArrayList<>();
+    for (int i = 0; i < memberDNs.size(); i++)
+    {
+      if (i % 2 == 0)
+      {
+        assertThat(set.remove(memberDNs.get(i))).isTrue();
+        assertThat(set.remove(memberDNs.get(i))).isFalse();
+      }
+      else
+      {
+        remainingDNs.add(memberDNs.get(i).toString());
+      }
+    }
+    assertThat(set).hasSize(NB_MEMBERS / 2);
+    assertThat(set.contains(memberDNs.get(0))).isFalse();
+    assertThat(set.contains(memberDNs.get(1))).isTrue();
+    assertThat(toStrings(set)).containsOnlyElementsOf(remainingDNs).hasSize(remainingDNs.size());
+  }
+
+  @Test
+  public void iteratorReadsSnapshot() throws Exception
+  {
+    final CompressedMemberDNSet set = new CompressedMemberDNSet(newMemberDNs(3));
+    final Iterator<CompactDn> it = set.iterator();
+    set.add(compact("uid=new,ou=People,dc=example,dc=com"));
+    set.remove(compact("uid=user.0,ou=People,dc=example,dc=com"));
+
+    final List<String> iterated = new ArrayList<>();
+    while (it.hasNext())
+    {
+      iterated.add(it.next().toString());
+    }
+    assertThat(iterated).containsExactly(
+        "uid=user.0,ou=People,dc=example,dc=com",
+        "uid=user.1,ou=People,dc=example,dc=com",
+        "uid=user.2,ou=People,dc=example,dc=com");
+  }
+
+  @Test
+  public void compressesMemberDNs() throws Exception
+  {
+    final LinkedHashSet<CompactDn> memberDNs = newMemberDNs(NB_MEMBERS);
+    long dnsLength = 0;
+    for (CompactDn memberDN : memberDNs)
+    {
+      dnsLength += memberDN.toString().length();
+    }
+
+    assertThat(new CompressedMemberDNSet(memberDNs).getSizeInBytes()).isLessThan(dnsLength);
+  }
+
+  private LinkedHashSet<CompactDn> newMemberDNs(int nbMembers)
+  {
+    final LinkedHashSet<CompactDn> memberDNs = new LinkedHashSet<>();
+    for (int i = 0; i < nbMembers; i++)
+    {
+      memberDNs.add(compact("uid=user." + i + ",ou=People,dc=example,dc=com"));
+    }
+    return memberDNs;
+  }
+
+  private CompactDn compact(String dn)
+  {
+    return DN.valueOf(dn).compact();
+  }
+
+  private List<String> toStrings(Iterable<CompactDn> dns)
+  {
+    final List<String> results = new ArrayList<>();
+    for (CompactDn dn : dns)
+    {
+      results.add(dn.toString());
+    }
+    return results;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.admin.std.server.ShardedWorkQueueCfg;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Operation;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the sharded work queue.
+ */
+@SuppressWarnings("javadoc")
+public class ShardedWorkQueueTestCase extends ExtensionsTestCase
+{
+  private static final int NUM_WORKER_THREADS = 2;
+
+  private ShardedWorkQueue workQueue;
+
+  /** The monitor of the server work queue, replaced by the one of the tested work queue. */
+  private MonitorProvider<? extends MonitorProviderCfg> serverWorkQueueMonitor;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void initializeWorkQueue() throws Exception
+  {
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProvider("work queue");
+
+    ShardedWorkQueueCfg configuration = mock(ShardedWorkQueueCfg.class);
+    when(configuration.getNumWorkerThreads()).thenReturn(NUM_WORKER_THREADS);
+    when(configuration.getMaxWorkQueueCapacity()).thenReturn(1000);
+
+    workQueue = new ShardedWorkQueue();
+    workQueue.initializeWorkQueue(configuration);
+  }
+
+  @AfterMethod
+  public void finalizeWorkQueue()
+  {
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("test"));
+    if (serverWorkQueueMonitor != null)
+    {
+      DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+    }
+  }
+
+  /**
+   * Submits operations concurrently to idle worker threads, so that worker
+   * threads about to park race with submitters. A lost wake up leaves an
+   * operation pending until a worker thread stops parking on timeout, which
+   * takes several seconds.
+   */
+  @Test(timeOut = 60000)
+  public void testNoLostWakeUp() throws Exception
+  {
+    final AtomicReference<CountDownLatch> processed = new AtomicReference<>();
+    final Operation[] operations = new Operation[NUM_WORKER_THREADS];
+    for (int i = 0; i < operations.length; i++)
+    {
+      operations[i] = newOperation(i, processed);
+    }
+
+    for (int round = 0; round < 2000; round++)
+    {
+      final CountDownLatch latch = new CountDownLatch(operations.length);
+      processed.set(latch);
+
+      final CountDownLatch startSubmitting = new CountDownLatch(1);
+      Thread[] submitters = new Thread[operations.length];
+      for (int i = 0; i < submitters.length; i++)
+      {
+        final Operation operation = operations[i];
+        submitters[i] = new Thread(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            try
+            {
+              startSubmitting.await();
+              workQueue.submitOperation(operation);
+            }
+            catch (Exception e)
+            {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+        submitters[i].start();
+      }
+      startSubmitting.countDown();
+      for (Thread submitter : submitters)
+      {
+        submitter.join();
+      }
+
+      assertTrue(latch.await(2, TimeUnit.SECONDS), "Operations were not processed in round " + round);
+    }
+    assertEquals(workQueue.getOpsSubmitted(), 2000L * operations.length);
+  }
+
+  @Test(timeOut = 60000)
+  public void testSubmitAfterShutdownIsRejected() throws Exception
+  {
+    final AtomicReference<CountDownLatch> processed = new AtomicReference<>(new CountDownLatch(1));
+    workQueue.submitOperation(newOperation(0, processed));
+    assertTrue(processed.get().await(10, TimeUnit.SECONDS));
+
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("test"));
+    assertTrue(workQueue.shutdownRequested());
+    try
+    {
+      workQueue.submitOperation(newOperation(1, processed));
+      fail("Expected the operation to be rejected");
+    }
+    catch (DirectoryException e)
+    {
+      assertEquals(e.getResultCode(), ResultCode.UNAVAILABLE);
+    }
+  }
+
+  private Operation newOperation(long connectionID, final AtomicReference<CountDownLatch> processed)
+  {
+    Operation operation = mock(Operation.class);
+    when(operation.getConnectionID()).thenReturn(connectionID);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        processed.get().countDown();
+        return null;
+      }
+    }).when(operation).run();
+    return operation;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.extensions;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.admin.std.server.MonitorProviderCfg;
+import org.opends.server.admin.std.server.VirtualThreadWorkQueueCfg;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.CancelResult;
+import org.opends.server.types.Operation;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A set of test cases for the virtual thread work queue.
+ */
+@SuppressWarnings("javadoc")
+public class VirtualThreadWorkQueueTestCase extends ExtensionsTestCase
+{
+  private VirtualThreadWorkQueue workQueue;
+
+  /** The monitor of the server work queue, replaced by the one of the tested work queue. */
+  private MonitorProvider<? extends MonitorProviderCfg> serverWorkQueueMonitor;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void initializeWorkQueue() throws Exception
+  {
+    serverWorkQueueMonitor = DirectoryServer.getMonitorProvider("work queue");
+
+    VirtualThreadWorkQueueCfg configuration = mock(VirtualThreadWorkQueueCfg.class);
+    when(configuration.getMaxWorkQueueCapacity()).thenReturn(1000);
+    when(configuration.getMaxConcurrentOperations()).thenReturn(1);
+
+    workQueue = new VirtualThreadWorkQueue();
+    workQueue.initializeWorkQueue(configuration);
+  }
+
+  @AfterMethod
+  public void finalizeWorkQueue()
+  {
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("test"));
+    if (serverWorkQueueMonitor != null)
+    {
+      DirectoryServer.registerMonitorProvider(serverWorkQueueMonitor);
+    }
+  }
+
+  @Test(timeOut = 60000)
+  public void testProcessOperations() throws Exception
+  {
+    final CountDownLatch processed = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++)
+    {
+      Operation operation = mock(Operation.class);
+      doAnswer(new Answer<Void>()
+      {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable
+        {
+          processed.countDown();
+          return null;
+        }
+      }).when(operation).run();
+      workQueue.submitOperation(operation);
+    }
+
+    assertTrue(processed.await(10, TimeUnit.SECONDS));
+    assertEquals(workQueue.getOpsSubmitted(), 100);
+  }
+
+  /**
+   * The shutdown must cancel the running operations and let them complete
+   * rather than interrupting them, and abort the operations which have not
+   * started running.
+   */
+  @Test(timeOut = 60000)
+  public void testShutdownCancelsRunningOperationsWithoutInterrupting() throws Exception
+  {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch canceled = new CountDownLatch(1);
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final AtomicBoolean completed = new AtomicBoolean();
+
+    Operation runningOperation = mock(Operation.class);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        running.countDown();
+        try
+        {
+          canceled.await();
+          completed.set(true);
+        }
+        catch (InterruptedException e)
+        {
+          interrupted.set(true);
+        }
+        return null;
+      }
+    }).when(runningOperation).run();
+    doAnswer(new Answer<CancelResult>()
+    {
+      @Override
+      public CancelResult answer(InvocationOnMock invocation) throws Throwable
+      {
+        canceled.countDown();
+        return null;
+      }
+    }).when(runningOperation).cancel(any(CancelRequest.class));
+
+    // Only one operation runs at a time: the second one waits for a slot.
+    Operation parkedOperation = mock(Operation.class);
+    workQueue.submitOperation(runningOperation);
+    assertTrue(running.await(10, TimeUnit.SECONDS));
+    workQueue.submitOperation(parkedOperation);
+
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("test"));
+
+    assertTrue(completed.get());
+    assertFalse(interrupted.get());
+    verify(runningOperation).cancel(any(CancelRequest.class));
+    verify(parkedOperation).abort(any(CancelRequest.class));
+    verify(parkedOperation, never()).run();
+    assertEquals(workQueue.getParkedOperations(), 0);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.forgerock.opendj.ldap.ModificationType.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.ldap.LDAPConstants.*;
+import static org.opends.server.util.CollectionUtils.*;
+import static org.testng.Assert.*;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DereferenceAliasesPolicy;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.Backend;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.controls.PersistentSearchControl;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ModifyOperation;
+import org.opends.server.tools.LDAPReader;
+import org.opends.server.tools.LDAPWriter;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Control;
+import org.opends.server.types.DN;
+import org.opends.server.types.Modification;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the batching of the search results written to LDAP clients.
+ */
+@SuppressWarnings("javadoc")
+public class LDAPWriteBatchTestCase extends LdapTestCase
+{
+  private static final String CONNECTION_HANDLER_DN = "cn=LDAP Connection Handler,cn=Connection Handlers,cn=config";
+  private static final int NUM_ENTRIES = 200;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+    for (int i = 0; i < NUM_ENTRIES; i++)
+    {
+      TestCaseUtils.addEntry(
+          "dn: uid=user." + i + ",o=test",
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "uid: user." + i,
+          "cn: User " + i,
+          "sn: " + i,
+          "description: " + i);
+    }
+  }
+
+  @AfterClass
+  public void restoreConfiguration() throws Exception
+  {
+    setWriteBatching("64 kilobytes", "10 ms");
+  }
+
+  @DataProvider
+  public Object[][] writeBatching()
+  {
+    return new Object[][] {
+      // Batching disabled.
+      { "0 b", "10 ms" },
+      { "64 kilobytes", "0 ms" },
+      // Batches holding all the entries.
+      { "1 megabytes", "1 s" },
+      // Batches written because they are full.
+      { "1 kilobytes", "1 s" },
+      // Entries larger than the batches.
+      { "10 b", "1 s" },
+    };
+  }
+
+  /**
+   * All the entries and the search result done must be received in order,
+   * whatever the batching of the search result entries.
+   */
+  @Test(dataProvider = "writeBatching")
+  public void testSearchResultsAreWrittenInOrder(String maxWriteBatchSize, String maxWriteBatchDelay)
+      throws Exception
+  {
+    setWriteBatching(maxWriteBatchSize, maxWriteBatchDelay);
+
+    try (Socket socket = new Socket("127.0.0.1", TestCaseUtils.getServerLdapPort());
+        LDAPReader r = new LDAPReader(socket);
+        LDAPWriter w = new LDAPWriter(socket))
+    {
+      socket.setSoTimeout(10000);
+      w.writeMessage(new LDAPMessage(1, newSearchRequest(SearchScope.SINGLE_LEVEL)));
+
+      for (int i = 0; i < NUM_ENTRIES; i++)
+      {
+        LDAPMessage message = r.readMessage();
+        assertEquals(message.getMessageID(), 1);
+        assertEquals(message.getProtocolOpType(), OP_TYPE_SEARCH_RESULT_ENTRY);
+      }
+      LDAPMessage message = r.readMessage();
+      assertEquals(message.getProtocolOpType(), OP_TYPE_SEARCH_RESULT_DONE);
+      assertEquals(message.getSearchResultDoneProtocolOp().getResultCode(), LDAPResultCode.SUCCESS);
+    }
+  }
+
+  /**
+   * The entries returned by a persistent search are batched, but no further
+   * response follows them: they must be written once they have waited for the
+   * maximum delay.
+   */
+  @Test(timeOut = 60000)
+  public void testBatchedResultsAreWrittenAfterDelay() throws Exception
+  {
+    setWriteBatching("1 megabytes", "100 ms");
+
+    try (Socket socket = new Socket("127.0.0.1", TestCaseUtils.getServerLdapPort());
+        LDAPReader r = new LDAPReader(socket);
+        LDAPWriter w = new LDAPWriter(socket))
+    {
+      socket.setSoTimeout(10000);
+      List<Control> controls = new ArrayList<>();
+      controls.add(new PersistentSearchControl(EnumSet.allOf(PersistentSearchChangeType.class), true, false));
+      w.writeMessage(new LDAPMessage(1, newSearchRequest(SearchScope.WHOLE_SUBTREE), controls));
+
+      Backend<?> backend = DirectoryServer.getBackend("test");
+      while (backend.getPersistentSearches().isEmpty())
+      {
+        Thread.sleep(10);
+      }
+
+      DN entryDN = DN.valueOf("uid=user.0,o=test");
+      ModifyOperation modifyOperation = getRootConnection().processModify(entryDN,
+          newArrayList(new Modification(REPLACE, Attributes.create("description", "modified"))));
+      assertEquals(modifyOperation.getResultCode(), ResultCode.SUCCESS);
+
+      long startTime = System.currentTimeMillis();
+      LDAPMessage message = r.readMessage();
+      assertEquals(message.getProtocolOpType(), OP_TYPE_SEARCH_RESULT_ENTRY);
+      assertEquals(message.getSearchResultEntryProtocolOp().getDN(), entryDN);
+      assertTrue(System.currentTimeMillis() - startTime < 5000);
+    }
+  }
+
+  private static SearchRequestProtocolOp newSearchRequest(SearchScope scope) throws Exception
+  {
+    return new SearchRequestProtocolOp(ByteString.valueOfUtf8("o=test"), scope,
+        DereferenceAliasesPolicy.NEVER, 0, 0, false, LDAPFilter.decode("(objectClass=person)"),
+        new LinkedHashSet<String>());
+  }
+
+  private static void setWriteBatching(String maxWriteBatchSize, String maxWriteBatchDelay) throws Exception
+  {
+    ModifyOperation modifyOperation = getRootConnection().processModify(DN.valueOf(CONNECTION_HANDLER_DN),
+        newArrayList(
+            new Modification(REPLACE, Attributes.create("ds-cfg-max-write-batch-size", maxWriteBatchSize)),
+            new Modification(REPLACE, Attributes.create("ds-cfg-max-write-batch-delay", maxWriteBatchDelay))));
+    assertEquals(modifyOperation.getResultCode(), ResultCode.SUCCESS);
+  }
+}
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2008 Sun Microsystems, Inc.
- *      Portions Copyright 2014 ForgeRock AS
+ *      Portions Copyright 2014-2016 ForgeRock AS
  */
 
 
@@ -212,6 +212,33 @@ public class TestSearchResultEntryProtocolOp extends LdapTestCase
                          protocolOp.getAttributes()));
   }
 
+  @Test(dataProvider = "entries")
+  public void testDirectEncodingMatchesASN1Writer(Entry entry) throws Exception
+  {
+    for (int messageID : new int[] { 1, 127, 128, 65536, Integer.MAX_VALUE })
+    {
+      LDAPMessage message = new LDAPMessage(messageID,
+          new SearchResultEntryProtocolOp(new SearchResultEntry(entry), 3));
+      ByteStringBuilder expected = new ByteStringBuilder();
+      message.write(ASN1.getWriter(expected));
+
+      SearchResultEntry encodableEntry =
+          SearchResultEntryEncoder.getEncodableEntry(message);
+      assertNotNull(encodableEntry);
+      ByteStringBuilder actual = new ByteStringBuilder();
+      SearchResultEntryEncoder.encode(messageID, encodableEntry, actual);
+      assertEquals(actual.toByteString(), expected.toByteString());
+    }
+  }
+
+  @Test(dataProvider = "entries")
+  public void testDirectEncodingNotUsedForLDAPv2(Entry entry) throws Exception
+  {
+    LDAPMessage message = new LDAPMessage(1,
+        new SearchResultEntryProtocolOp(new SearchResultEntry(entry), 2));
+    assertNull(SearchResultEntryEncoder.getEncodableEntry(message));
+  }
+
   @Test (expectedExceptions = LDAPException.class)
   public void testInvalidSequence() throws Exception
   {
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2008-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.plugin;
 
@@ -132,6 +132,7 @@ public class AssuredReplicationPluginTest extends ReplicationTestCase
   private static final int SAFE_READ_MANY_ERRORS = 4;
   private static final int SAFE_DATA_MANY_ERRORS = 5;
   private static final int NO_READ = 6;
+  private static final int CUMULATIVE_ACK_SCENARIO = 7;
 
   /** The tracer object for the debug logger. */
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
@@ -521,6 +522,9 @@ public class AssuredReplicationPluginTest extends ReplicationTestCase
         case NO_TIMEOUT_SCENARIO:
           executeNoTimeoutScenario();
           break;
+        case CUMULATIVE_ACK_SCENARIO:
+          executeCumulativeAckScenario();
+          break;
         case SAFE_READ_MANY_ERRORS:
           executeSafeReadManyErrorsScenario();
           break;
@@ -601,6 +605,26 @@ public class AssuredReplicationPluginTest extends ReplicationTestCase
       scenarioExecuted = true;
     }
 
+    /**
+     * Read the coming update, sleep some time then send back a cumulative ack
+     * whose watermark is newer than the update, with a watermark for another
+     * replica.
+     */
+    private void executeCumulativeAckScenario() throws Exception
+    {
+      UpdateMsg updateMsg = checkAssuredParametersOnReceivedUpdateMsg();
+
+      // Sleep before sending back the ack
+      sleep(NO_TIMEOUT_RS_SLEEP_TIME);
+
+      CSN csn = updateMsg.getCSN();
+      session.publish(new CumulativeAckMsg(Arrays.asList(
+          new CSN(csn.getTime() + 1000, 0, csn.getServerId()),
+          new CSN(csn.getTime() + 1000, 0, csn.getServerId() + 1))));
+
+      scenarioExecuted = true;
+    }
+
     /**
      * Receives an {@link UpdateMsg} and checks that received update assured
      * parameters are as defined at RS start.
@@ -1031,6 +1055,52 @@ public class AssuredReplicationPluginTest extends ReplicationTestCase
     }
   }
 
+  /**
+   * Tests that a DS performing a modification in safe data mode is released by
+   * a cumulative ack covering its update.
+   */
+  @Test
+  public void testSafeDataModeCumulativeAck() throws Exception
+  {
+    int TIMEOUT = 5000;
+    String testcase = "testSafeDataModeCumulativeAck";
+    try
+    {
+      // Create and start a RS expecting clients in safe data assured mode with
+      // safe data level 2
+      replicationServer = new FakeReplicationServer((byte)1, replServerPort, RS_SERVER_ID,
+        2, testcase);
+      replicationServer.start(CUMULATIVE_ACK_SCENARIO);
+
+      // Create a safe data assured domain
+      safeDataDomainCfgEntry = createAssuredDomain(AssuredMode.SAFE_DATA_MODE, 2, TIMEOUT);
+      // Wait for connection of domain to RS
+      waitForConnectionToRs(testcase, replicationServer);
+
+      // Make an LDAP update (add an entry)
+      long startTime = System.currentTimeMillis(); // Time the update has been initiated
+      String entry = "dn: ou=assured-sd-cumulative-ack-entry," + SAFE_DATA_DN + "\n" +
+        "objectClass: top\n" +
+        "objectClass: organizationalUnit\n";
+      addEntry(TestCaseUtils.entryFromLdifString(entry));
+
+      assertBlockedForLessThanTimeout(startTime, TIMEOUT);
+      assertTrue(replicationServer.isScenarioExecuted());
+
+      // Check monitoring values
+      Thread.sleep(1000); // Sleep a while as counters are updated just after sending thread is unblocked
+      DN baseDN = DN.valueOf(SAFE_DATA_DN);
+      new MonitorAssertions(baseDN)
+        .assertValue("assured-sd-sent-updates", 1)
+        .assertValue("assured-sd-acknowledged-updates", 1)
+        .assertRemainingValuesAreZero();
+      assertNoServerErrors(baseDN);
+    } finally
+    {
+      endTest(testcase);
+    }
+  }
+
   /**
    * Tests that a DS performing a modification in safe read mode receives the RS
    * ack and does not return before returning it.
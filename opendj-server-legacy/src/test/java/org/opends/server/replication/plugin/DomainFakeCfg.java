@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2007-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.plugin;
 
@@ -75,6 +75,8 @@ public class DomainFakeCfg implements ReplicationDomainCfg
   private ExternalChangelogDomainCfg eclCfg =
     new ExternalChangelogDomainFakeCfg(true, null, null);
   private int windowSize = 100;
+  private boolean compressMessageBatches = true;
+  private boolean compactConflictsHistorical;
 
   /**
    * Creates a new Domain with the provided information
@@ -340,6 +342,28 @@ public class DomainFakeCfg implements ReplicationDomainCfg
     return 1440;
   }
 
+  @Override
+  public boolean isCompressMessageBatches()
+  {
+    return compressMessageBatches;
+  }
+
+  public void setCompressMessageBatches(boolean compressMessageBatches)
+  {
+    this.compressMessageBatches = compressMessageBatches;
+  }
+
+  @Override
+  public boolean isCompactConflictsHistorical()
+  {
+    return compactConflictsHistorical;
+  }
+
+  public void setCompactConflictsHistorical(boolean compactConflictsHistorical)
+  {
+    this.compactConflictsHistorical = compactConflictsHistorical;
+  }
+
   @Override
   public String toString()
   {
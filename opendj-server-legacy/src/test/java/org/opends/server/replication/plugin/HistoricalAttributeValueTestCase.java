@@ -20,12 +20,17 @@
  *
  * CDDL HEADER END
  *
- *      Copyright 2015 ForgeRock AS
+ *      Copyright 2015-2016 ForgeRock AS
  */
 package org.opends.server.replication.plugin;
 
+import java.util.List;
+
 import org.assertj.core.api.Assertions;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -56,4 +61,37 @@ public class HistoricalAttributeValueTestCase extends ReplicationTestCase
     HistoricalAttributeValue val = new HistoricalAttributeValue(strVal);
     Assertions.assertThat(strVal).isEqualTo(val.toString());
   }
+
+  @Test(dataProvider = "values")
+  public void testDecodeStringForm(String strVal)
+  {
+    List<HistoricalAttributeValue> vals = HistoricalAttributeValue.decode(ByteString.valueOfUtf8(strVal));
+    Assertions.assertThat(vals).hasSize(1);
+    Assertions.assertThat(strVal).isEqualTo(vals.get(0).toString());
+  }
+
+  @Test
+  public void testDecodeCompactForm()
+  {
+    final String header = "description;FR:0000014f2d0c9f53000100000001:del";
+    ByteStringBuilder builder = new ByteStringBuilder();
+    builder.appendUtf8(header);
+    builder.appendByte(HistoricalAttributeValue.COMPACT_FORM_MARKER);
+    for (String value : new String[] { "deleted:value", "deleted*value" })
+    {
+      ByteString bytes = ByteString.valueOfUtf8(value);
+      builder.appendBERLength(bytes.length());
+      builder.appendBytes(bytes);
+    }
+    ByteString encodedValue = builder.toByteString();
+
+    List<HistoricalAttributeValue> vals = HistoricalAttributeValue.decode(encodedValue);
+    Assertions.assertThat(vals).hasSize(2);
+    Assertions.assertThat(vals.get(0).toString()).isEqualTo(header + ":deleted:value");
+    Assertions.assertThat(vals.get(1).toString()).isEqualTo(header + ":deleted*value");
+    Assertions.assertThat(HistoricalAttributeValue.getCSN(encodedValue))
+        .isEqualTo(new CSN("0000014f2d0c9f53000100000001"));
+    Assertions.assertThat(HistoricalAttributeValue.getAttributeDescriptionString(encodedValue))
+        .isEqualTo("description;FR");
+  }
 }
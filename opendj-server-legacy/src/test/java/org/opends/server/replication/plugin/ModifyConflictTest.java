@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.plugin;
 
@@ -120,6 +120,72 @@ public class ModifyConflictTest extends ReplicationTestCase
     assertEquals(hist.encodeAndPurge(), attr);
   }
 
+  /**
+   * Test that the many values added by the same change are encoded together
+   * and that conflicts are still resolved after reading them back.
+   */
+  @Test
+  public void addManyValuesCompactForm() throws Exception
+  {
+    Entry entry = initializeEntry();
+    EntryHistorical hist = EntryHistorical.newInstanceFromEntry(entry);
+
+    String[] values = new String[COMPACT_FORM_MIN_VALUES];
+    String[] addHistValues = new String[COMPACT_FORM_MIN_VALUES - 1];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = "value" + i;
+      if (i > 0)
+      {
+        addHistValues[i - 1] = ":000000000000000a000000000000:add:" + values[i];
+      }
+    }
+
+    // simulate a modify-add of many values done at time t10
+    hist.setCompactEncoding(true);
+    testModify(entry, hist, 10, true, newModification(ADD, DESCRIPTION, values));
+    Attribute histAttr = hist.encodeAndPurge();
+    assertThat(histAttr).hasSize(1);
+    entry.replaceAttribute(histAttr);
+
+    // an older delete of one of the values must be ignored
+    hist = EntryHistorical.newInstanceFromEntry(entry);
+    hist.setCompactEncoding(true);
+    testModify(entry, hist, 1, false, newModification(DELETE, DESCRIPTION, "value0"));
+    assertEquals(hist.encodeAndPurge(), histAttr);
+
+    // a newer delete of one of the values must be kept
+    hist = EntryHistorical.newInstanceFromEntry(entry);
+    hist.setCompactEncoding(true);
+    testModify(entry, hist, 11, true, newModification(DELETE, DESCRIPTION, "value0"));
+    Attribute attr = buildSyncHist(DESCRIPTION, addHistValues);
+    AttributeBuilder builder = new AttributeBuilder(attr);
+    builder.add(DESCRIPTION + ":000000000000000b000000000000:del:value0");
+    assertEquals(hist.encodeAndPurge(), builder.toAttribute());
+  }
+
+  /**
+   * Test that the many values added by the same change are encoded one by one
+   * unless compact encoding is enabled.
+   */
+  @Test
+  public void addManyValuesWithoutCompactForm() throws Exception
+  {
+    Entry entry = initializeEntry();
+    EntryHistorical hist = EntryHistorical.newInstanceFromEntry(entry);
+
+    String[] values = new String[COMPACT_FORM_MIN_VALUES];
+    String[] addHistValues = new String[COMPACT_FORM_MIN_VALUES];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = "value" + i;
+      addHistValues[i] = ":000000000000000a000000000000:add:" + values[i];
+    }
+
+    testModify(entry, hist, 10, true, newModification(ADD, DESCRIPTION, values));
+    assertEquals(hist.encodeAndPurge(), buildSyncHist(DESCRIPTION, addHistValues));
+  }
+
   /**
    * Test that conflict between a modify-replace and modify-add for
    * single-valued attributes are handled correctly.
@@ -0,0 +1,100 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.plugin;
+
+import static org.opends.server.TestCaseUtils.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.testng.Assert.*;
+
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSNGenerator;
+import org.opends.server.replication.common.ServerState;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.types.DN;
+import org.testng.annotations.Test;
+
+/**
+ * Test the dependencies computed by the RemotePendingChanges class.
+ */
+@SuppressWarnings("javadoc")
+public class RemotePendingChangesTest extends ReplicationTestCase
+{
+  private DeleteMsg newDeleteMsg(CSNGenerator gen, String dn) throws Exception
+  {
+    return new DeleteMsg(DN.valueOf(dn + "," + TEST_ROOT_DN_STRING), gen.newCSN(), dn);
+  }
+
+  private boolean hasDependencies(RemotePendingChanges pendingChanges, DeleteMsg msg)
+  {
+    return pendingChanges.checkDependencies(msg.createOperation(getRootConnection()), msg);
+  }
+
+  @Test
+  public void deleteDependsOnPendingDeleteOfSubordinate() throws Exception
+  {
+    final ServerState state = new ServerState();
+    final RemotePendingChanges pendingChanges = new RemotePendingChanges(state);
+    final CSNGenerator gen = new CSNGenerator(2, state);
+    final DeleteMsg childDelete = newDeleteMsg(gen, "uid=child,ou=people");
+    final DeleteMsg parentDelete = newDeleteMsg(gen, "ou=people");
+    final DeleteMsg otherDelete = newDeleteMsg(gen, "ou=groups");
+    assertTrue(pendingChanges.putRemoteUpdate(childDelete));
+    assertTrue(pendingChanges.putRemoteUpdate(parentDelete));
+    assertTrue(pendingChanges.putRemoteUpdate(otherDelete));
+    assertFalse(pendingChanges.putRemoteUpdate(otherDelete));
+
+    assertFalse(hasDependencies(pendingChanges, childDelete));
+    assertTrue(hasDependencies(pendingChanges, parentDelete));
+    assertFalse(hasDependencies(pendingChanges, otherDelete));
+    assertNull(pendingChanges.getNextUpdate());
+
+    pendingChanges.commit(childDelete.getCSN());
+    assertSame(pendingChanges.getNextUpdate(), parentDelete);
+    assertNull(pendingChanges.getNextUpdate());
+
+    pendingChanges.commit(parentDelete.getCSN());
+    pendingChanges.commit(otherDelete.getCSN());
+    assertEquals(pendingChanges.getQueueSize(), 0);
+  }
+
+  @Test
+  public void dependenciesFollowRenamedUpdates() throws Exception
+  {
+    final ServerState state = new ServerState();
+    final RemotePendingChanges pendingChanges = new RemotePendingChanges(state);
+    final CSNGenerator gen = new CSNGenerator(2, state);
+    final DeleteMsg childDelete = newDeleteMsg(gen, "uid=child,ou=people");
+    final DeleteMsg parentDelete = newDeleteMsg(gen, "ou=groups");
+    assertTrue(pendingChanges.putRemoteUpdate(childDelete));
+    assertTrue(pendingChanges.putRemoteUpdate(parentDelete));
+
+    // As done when resolving naming conflicts
+    childDelete.setDN(DN.valueOf("uid=child,ou=groups," + TEST_ROOT_DN_STRING));
+    pendingChanges.updateIndexes(childDelete.getCSN());
+
+    assertTrue(hasDependencies(pendingChanges, parentDelete));
+  }
+}
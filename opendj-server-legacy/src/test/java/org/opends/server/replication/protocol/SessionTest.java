@@ -0,0 +1,226 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.protocol;
+
+import static org.opends.server.replication.protocol.ProtocolVersion.*;
+import static org.testng.Assert.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.replication.ReplicationTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the framing of the replication messages sent on a {@link Session}.
+ */
+@SuppressWarnings("javadoc")
+public class SessionTest extends ReplicationTestCase
+{
+  private static final int TIMEOUT_MS = 10000;
+
+  private Session clientSession;
+  private Session serverSession;
+
+  @BeforeMethod
+  public void openSessions() throws Exception
+  {
+    final ReplSessionSecurity security = getReplSessionSecurity();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+    {
+      // Both ends of the TLS handshake must run concurrently.
+      final Future<Session> acceptedSession = executor.submit(new Callable<Session>()
+      {
+        @Override
+        public Session call() throws Exception
+        {
+          return security.createServerSession(serverSocket.accept(), TIMEOUT_MS);
+        }
+      });
+      final Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+      clientSession = security.createClientSession(socket, TIMEOUT_MS);
+      serverSession = acceptedSession.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @AfterMethod
+  public void closeSessions()
+  {
+    if (clientSession != null)
+    {
+      clientSession.close();
+    }
+    if (serverSession != null)
+    {
+      serverSession.close();
+    }
+  }
+
+  @DataProvider
+  public Object[][] batchCompression()
+  {
+    return new Object[][] { { true }, { false } };
+  }
+
+  /**
+   * Small messages are sent in plain batches, large ones in compressed
+   * batches unless compression is disabled.
+   */
+  @Test(dataProvider = "batchCompression", timeOut = 60000)
+  public void testBatchRoundTrip(boolean compressBatches) throws Exception
+  {
+    setProtocolVersion(clientSession, REPLICATION_PROTOCOL_V9, compressBatches);
+    setProtocolVersion(serverSession, REPLICATION_PROTOCOL_V9, compressBatches);
+
+    // Below the minimum compressed batch size.
+    assertRoundTrip(clientSession, serverSession, newEntryMsg(1, 100));
+    assertEquals(clientSession.getCompressionRatio(), 1.0);
+
+    // Large and highly compressible.
+    assertRoundTrip(clientSession, serverSession, newEntryMsg(2, 100000));
+    assertRoundTrip(serverSession, clientSession, newEntryMsg(3, 100000));
+    if (compressBatches)
+    {
+      assertTrue(clientSession.getCompressionRatio() > 1);
+      assertTrue(serverSession.getCompressionRatio() > 1);
+    }
+    else
+    {
+      assertEquals(clientSession.getCompressionRatio(), 1.0);
+      assertEquals(serverSession.getCompressionRatio(), 1.0);
+    }
+    assertEquals(clientSession.getSentBatches(), 2);
+    assertEquals(serverSession.getSentBatches(), 1);
+  }
+
+  /**
+   * Messages published in a row by the session thread are batched together,
+   * and all of them are received in order.
+   */
+  @Test(dataProvider = "batchCompression", timeOut = 60000)
+  public void testBatchOfSeveralMessages(boolean compressBatches) throws Exception
+  {
+    setProtocolVersion(clientSession, REPLICATION_PROTOCOL_V9, compressBatches);
+    setProtocolVersion(serverSession, REPLICATION_PROTOCOL_V9, compressBatches);
+    clientSession.start();
+    clientSession.waitForStartup();
+
+    final int nbMessages = 1000;
+    for (int i = 0; i < nbMessages; i++)
+    {
+      clientSession.publish(newEntryMsg(i, 1000));
+    }
+    for (int i = 0; i < nbMessages; i++)
+    {
+      assertEntryMsg(serverSession.receive(), newEntryMsg(i, 1000));
+    }
+    assertFalse(serverSession.hasBufferedMessages());
+    assertTrue(clientSession.getSentBatches() <= nbMessages);
+  }
+
+  /**
+   * Once one end has switched to protocol V9 while the other one still uses
+   * an older version, as happens at the end of the handshake, messages must
+   * still be received in both directions.
+   */
+  @Test(dataProvider = "batchCompression", timeOut = 60000)
+  public void testMixedProtocolVersions(boolean compressBatches) throws Exception
+  {
+    setProtocolVersion(clientSession, REPLICATION_PROTOCOL_V9, compressBatches);
+    setProtocolVersion(serverSession, REPLICATION_PROTOCOL_V8, compressBatches);
+
+    assertRoundTrip(clientSession, serverSession, newEntryMsg(1, 100));
+    assertRoundTrip(clientSession, serverSession, newEntryMsg(2, 100000));
+    assertRoundTrip(serverSession, clientSession, newEntryMsg(3, 100));
+    assertRoundTrip(serverSession, clientSession, newEntryMsg(4, 100000));
+    assertEquals(clientSession.getSentBatches(), 2);
+    assertEquals(serverSession.getSentBatches(), 0);
+
+    // Both ends now agree on protocol V9.
+    setProtocolVersion(serverSession, REPLICATION_PROTOCOL_V9, compressBatches);
+    assertRoundTrip(serverSession, clientSession, newEntryMsg(5, 100000));
+    assertEquals(serverSession.getSentBatches(), 1);
+  }
+
+  /** Two sessions using an older protocol version never send batches. */
+  @Test(timeOut = 60000)
+  public void testOlderProtocolVersion() throws Exception
+  {
+    setProtocolVersion(clientSession, REPLICATION_PROTOCOL_V8, true);
+    setProtocolVersion(serverSession, REPLICATION_PROTOCOL_V8, true);
+
+    assertRoundTrip(clientSession, serverSession, newEntryMsg(1, 100000));
+    assertRoundTrip(serverSession, clientSession, newEntryMsg(2, 100000));
+    assertEquals(clientSession.getSentBatches(), 0);
+    assertEquals(serverSession.getSentBatches(), 0);
+  }
+
+  private static void setProtocolVersion(Session session, short version, boolean compressBatches)
+  {
+    session.setProtocolVersion(version);
+    session.setBatchCompression(compressBatches);
+  }
+
+  private static void assertRoundTrip(Session sender, Session receiver, EntryMsg msg) throws Exception
+  {
+    sender.publish(msg);
+    assertEntryMsg(receiver.receive(), msg);
+    assertFalse(receiver.hasBufferedMessages());
+  }
+
+  private static void assertEntryMsg(ReplicationMsg received, EntryMsg expected)
+  {
+    assertTrue(received instanceof EntryMsg, "Unexpected message " + received);
+    final EntryMsg entryMsg = (EntryMsg) received;
+    assertEquals(entryMsg.getMsgId(), expected.getMsgId());
+    assertTrue(Arrays.equals(entryMsg.getEntryBytes(), expected.getEntryBytes()));
+  }
+
+  private static EntryMsg newEntryMsg(int msgId, int entrySize)
+  {
+    final byte[] entryBytes = new byte[entrySize];
+    for (int i = 0; i < entryBytes.length; i++)
+    {
+      entryBytes[i] = (byte) ('a' + i % 26);
+    }
+    return new EntryMsg(1, 2, entryBytes, msgId);
+  }
+}
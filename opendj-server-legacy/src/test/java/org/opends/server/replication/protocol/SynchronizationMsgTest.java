@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2006-2010 Sun Microsystems, Inc.
- *      Portions Copyright 2011-2015 ForgeRock AS
+ *      Portions Copyright 2011-2016 ForgeRock AS
  */
 package org.opends.server.replication.protocol;
 
@@ -755,6 +755,20 @@ public class SynchronizationMsgTest extends ReplicationTestCase
     assertEquals(decodedMsg.getCSN(), expectedMsg.getCSN());
   }
 
+  @Test
+  public void cumulativeAckMsgTest() throws Exception
+  {
+    final CSN csn1 = new CSN(System.currentTimeMillis(), 0, 42);
+    final CSN csn2 = new CSN(System.currentTimeMillis(), 3, 43);
+    final CumulativeAckMsg expectedMsg = new CumulativeAckMsg(newArrayList(csn1, csn2));
+
+    assertNull(expectedMsg.getBytes(REPLICATION_PROTOCOL_V9));
+    final byte[] bytes = expectedMsg.getBytes(REPLICATION_PROTOCOL_V10);
+    final ReplicationMsg decodedMsg = ReplicationMsg.generateMsg(bytes, REPLICATION_PROTOCOL_V10);
+    assertTrue(decodedMsg instanceof CumulativeAckMsg);
+    assertEquals(((CumulativeAckMsg) decodedMsg).getCSNs(), newArrayList(csn1, csn2));
+  }
+
   /**
    * Test that WindowMsg encoding and decoding works
    * by checking that : msg == new WindowMsg(msg.getBytes()).
@@ -0,0 +1,285 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.TestCaseUtils.*;
+import static org.opends.server.replication.protocol.ProtocolVersion.*;
+import static org.opends.server.util.CollectionUtils.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.TestCaseUtils;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.protocol.AckMsg;
+import org.opends.server.replication.protocol.CumulativeAckMsg;
+import org.opends.server.replication.protocol.ReplSessionSecurity;
+import org.opends.server.replication.protocol.ReplicationMsg;
+import org.opends.server.replication.protocol.Session;
+import org.opends.server.types.DN;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the acks sent by a replication server to the servers which sent it
+ * assured updates: the coalescing of these acks into cumulative acks, and the
+ * handling of the cumulative acks received from other replication servers.
+ */
+@SuppressWarnings("javadoc")
+public class AssuredAcksTest extends ReplicationTestCase
+{
+  private static final int TIMEOUT_MS = 10000;
+  private static final int REQUESTER_REPLICA_ID = 10;
+  private static final int OTHER_REPLICA_ID = 11;
+  private static final int ACKING_SERVER_ID = 2;
+
+  private ReplicationServer replicationServer;
+  private ReplicationServerDomain domain;
+  /** The session of the remote server which sent the assured updates. */
+  private Session requesterSession;
+  /** The session of the local replication server with this remote server. */
+  private Session localSession;
+  private DataServerHandler requester;
+  private ReplicationServerHandler ackingServer;
+
+  @BeforeMethod
+  public void setUpHandlers() throws Exception
+  {
+    replicationServer = new ReplicationServer(
+        new ReplServerFakeConfiguration(TestCaseUtils.findFreePort(), "assuredAcksTestDb", 0, 1, 0, 100, null));
+    domain = replicationServer.getReplicationServerDomain(DN.valueOf(TEST_ROOT_DN_STRING), true);
+
+    final ReplSessionSecurity security = getReplSessionSecurity();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+    {
+      final Future<Session> acceptedSession = executor.submit(new Callable<Session>()
+      {
+        @Override
+        public Session call() throws Exception
+        {
+          return security.createServerSession(serverSocket.accept(), TIMEOUT_MS);
+        }
+      });
+      final Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+      requesterSession = security.createClientSession(socket, TIMEOUT_MS);
+      localSession = acceptedSession.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+    requesterSession.setProtocolVersion(REPLICATION_PROTOCOL_V10);
+    localSession.setProtocolVersion(REPLICATION_PROTOCOL_V10);
+
+    requester = new DataServerHandler(localSession, 100, replicationServer, 100);
+    requester.serverId = REQUESTER_REPLICA_ID;
+    requester.replicationServerDomain = domain;
+    ackingServer = new ReplicationServerHandler(null, 100, replicationServer, 100);
+    ackingServer.serverId = ACKING_SERVER_ID;
+  }
+
+  @AfterMethod
+  public void tearDownHandlers() throws Exception
+  {
+    if (requesterSession != null)
+    {
+      requesterSession.close();
+    }
+    if (localSession != null)
+    {
+      localSession.close();
+    }
+    remove(replicationServer);
+  }
+
+  /** Acks without errors are only sent on flush, as one ack per replica. */
+  @Test(timeOut = 60000)
+  public void testAcksAreCoalesced() throws Exception
+  {
+    final CSN csn1 = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    final CSN csn2 = new CSN(1001, 2, REQUESTER_REPLICA_ID);
+    final CSN csn3 = new CSN(1002, 1, OTHER_REPLICA_ID);
+    requester.sendAck(new AckMsg(csn2));
+    requester.sendAck(new AckMsg(csn1));
+    requester.sendAck(new AckMsg(csn3));
+    requester.flushAcks();
+
+    // Acks are published synchronously: nothing was sent before the flush.
+    assertThat(receiveCumulativeAck().getCSNs()).containsOnly(csn2, csn3);
+  }
+
+  /** A single pending ack is sent as is. */
+  @Test(timeOut = 60000)
+  public void testSinglePendingAck() throws Exception
+  {
+    final CSN csn = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    requester.sendAck(new AckMsg(csn));
+    requester.flushAcks();
+
+    assertThat(receiveAck().getCSN()).isEqualTo(csn);
+  }
+
+  /** An ack with errors must not be coalesced, and must not overtake the pending acks. */
+  @Test(timeOut = 60000)
+  public void testErrorAckFlushesPendingAcks() throws Exception
+  {
+    final CSN csn1 = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    final CSN csn2 = new CSN(1001, 1, REQUESTER_REPLICA_ID);
+    requester.sendAck(new AckMsg(csn1));
+    final AckMsg timeoutAck = new AckMsg(csn2);
+    timeoutAck.setHasTimeout(true);
+    requester.sendAck(timeoutAck);
+
+    assertThat(receiveAck().getCSN()).isEqualTo(csn1);
+    final AckMsg ack = receiveAck();
+    assertThat(ack.getCSN()).isEqualTo(csn2);
+    assertThat(ack.hasTimeout()).isTrue();
+  }
+
+  /**
+   * A cumulative ack must not cover an older update of the same replica which
+   * still waits for acks: the acks of this replica are then sent one by one.
+   */
+  @Test(timeOut = 60000)
+  public void testAcksAreNotCoalescedOverWaitingUpdate() throws Exception
+  {
+    final CSN waitingCSN = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    final CSN csn1 = new CSN(1001, 1, REQUESTER_REPLICA_ID);
+    final CSN csn2 = new CSN(1002, 1, REQUESTER_REPLICA_ID);
+    final CSN otherCSN1 = new CSN(1000, 1, OTHER_REPLICA_ID);
+    final CSN otherCSN2 = new CSN(1001, 1, OTHER_REPLICA_ID);
+    requester.addWaitingAck(waitingCSN);
+    requester.sendAck(new AckMsg(csn1));
+    requester.sendAck(new AckMsg(otherCSN1));
+    requester.sendAck(new AckMsg(csn2));
+    requester.sendAck(new AckMsg(otherCSN2));
+    requester.flushAcks();
+
+    assertThat(receiveAck().getCSN()).isEqualTo(csn1);
+    assertThat(receiveAck().getCSN()).isEqualTo(csn2);
+    assertThat(receiveCumulativeAck().getCSNs()).containsOnly(otherCSN2);
+
+    // Once the older update is acknowledged, the acks can be coalesced again.
+    requester.removeWaitingAck(waitingCSN);
+    final CSN csn3 = new CSN(1003, 1, REQUESTER_REPLICA_ID);
+    final CSN csn4 = new CSN(1004, 1, REQUESTER_REPLICA_ID);
+    requester.sendAck(new AckMsg(csn3));
+    requester.sendAck(new AckMsg(csn4));
+    requester.flushAcks();
+    assertThat(receiveCumulativeAck().getCSNs()).containsOnly(csn4);
+  }
+
+  /** Servers using protocol versions without cumulative acks receive each ack immediately. */
+  @Test(timeOut = 60000)
+  public void testAcksAreSentImmediatelyToOlderServers() throws Exception
+  {
+    requesterSession.setProtocolVersion(REPLICATION_PROTOCOL_V9);
+    localSession.setProtocolVersion(REPLICATION_PROTOCOL_V9);
+    final CSN csn1 = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    final CSN csn2 = new CSN(1001, 1, REQUESTER_REPLICA_ID);
+    requester.sendAck(new AckMsg(csn1));
+    assertThat(receiveAck().getCSN()).isEqualTo(csn1);
+    requester.sendAck(new AckMsg(csn2));
+    assertThat(receiveAck().getCSN()).isEqualTo(csn2);
+  }
+
+  /**
+   * A cumulative ack received from a replication server acknowledges all the
+   * updates of a replica up to its watermark, and the resulting final acks are
+   * coalesced in turn.
+   */
+  @Test(timeOut = 60000)
+  public void testCumulativeAckResolvesUpdatesUpToWatermark() throws Exception
+  {
+    final CSN csn1 = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    final CSN csn2 = new CSN(1001, 1, REQUESTER_REPLICA_ID);
+    final CSN csn3 = new CSN(1002, 1, REQUESTER_REPLICA_ID);
+    final CSN otherCSN = new CSN(1000, 2, OTHER_REPLICA_ID);
+    for (CSN csn : newArrayList(csn1, csn2, csn3, otherCSN))
+    {
+      domain.addWaitingAcks(csn, newExpectedAcksInfo(csn));
+    }
+
+    // The watermark of the other replica is older than its waiting update.
+    domain.processCumulativeAck(
+        new CumulativeAckMsg(newArrayList(csn2, new CSN(999, 1, OTHER_REPLICA_ID))), ackingServer);
+
+    assertThat(receiveCumulativeAck().getCSNs()).containsOnly(csn2);
+    assertThat(requester.hasWaitingAcksBefore(csn3)).isFalse();
+    assertThat(requester.hasWaitingAcksBefore(new CSN(1001, 1, OTHER_REPLICA_ID))).isTrue();
+
+    domain.processCumulativeAck(new CumulativeAckMsg(newArrayList(csn3, otherCSN)), ackingServer);
+    assertThat(receiveCumulativeAck().getCSNs()).containsOnly(csn3, otherCSN);
+    assertThat(requester.hasWaitingAcksBefore(new CSN(1001, 1, OTHER_REPLICA_ID))).isFalse();
+  }
+
+  /** A plain ack received from a replication server only acknowledges its own update. */
+  @Test(timeOut = 60000)
+  public void testAckResolvesSingleUpdate() throws Exception
+  {
+    final CSN csn1 = new CSN(1000, 1, REQUESTER_REPLICA_ID);
+    final CSN csn2 = new CSN(1001, 1, REQUESTER_REPLICA_ID);
+    domain.addWaitingAcks(csn1, newExpectedAcksInfo(csn1));
+    domain.addWaitingAcks(csn2, newExpectedAcksInfo(csn2));
+
+    domain.processAck(new AckMsg(csn2), ackingServer);
+    assertThat(receiveAck().getCSN()).isEqualTo(csn2);
+    assertThat(requester.hasWaitingAcksBefore(new CSN(1002, 1, REQUESTER_REPLICA_ID))).isTrue();
+
+    domain.processAck(new AckMsg(csn1), ackingServer);
+    assertThat(receiveAck().getCSN()).isEqualTo(csn1);
+    assertThat(requester.hasWaitingAcksBefore(new CSN(1002, 1, REQUESTER_REPLICA_ID))).isFalse();
+  }
+
+  private ExpectedAcksInfo newExpectedAcksInfo(CSN csn)
+  {
+    return new SafeDataExpectedAcksInfo(csn, requester, (byte) 1, newArrayList(ACKING_SERVER_ID));
+  }
+
+  private AckMsg receiveAck() throws Exception
+  {
+    final ReplicationMsg msg = requesterSession.receive();
+    assertThat(msg).isInstanceOf(AckMsg.class);
+    return (AckMsg) msg;
+  }
+
+  private CumulativeAckMsg receiveCumulativeAck() throws Exception
+  {
+    final ReplicationMsg msg = requesterSession.receive();
+    assertThat(msg).isInstanceOf(CumulativeAckMsg.class);
+    return (CumulativeAckMsg) msg;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.Attribute;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LatencyHistogramTest extends DirectoryServerTestCase
+{
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void emptyHistogram() throws Exception
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertThat(histogram.getCounts()).containsOnly(0L);
+    assertThat(histogram.toAttribute("latencies")).isNull();
+  }
+
+  @Test
+  public void latenciesAreCountedInTheirBucket() throws Exception
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // bucket upper bounds are inclusive
+    histogram.record(0);
+    histogram.record(1);
+    histogram.record(2);
+    histogram.record(3);
+    histogram.record(5000);
+    histogram.record(5001);
+    histogram.record(Long.MAX_VALUE);
+
+    long[] counts = histogram.getCounts();
+    assertThat(counts[0]).isEqualTo(2);
+    assertThat(counts[1]).isEqualTo(1);
+    assertThat(counts[2]).isEqualTo(1);
+    assertThat(counts[counts.length - 2]).isEqualTo(1);
+    assertThat(counts[counts.length - 1]).isEqualTo(2);
+    long total = 0;
+    for (long count : counts)
+    {
+      total += count;
+    }
+    assertThat(total).isEqualTo(7);
+  }
+
+  @Test
+  public void onlyNonEmptyBucketsAreMonitored() throws Exception
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(7);
+    histogram.record(10);
+    histogram.record(6000);
+
+    Attribute attribute = histogram.toAttribute("latencies");
+    List<String> values = new ArrayList<>();
+    for (ByteString value : attribute)
+    {
+      values.add(value.toString());
+    }
+    assertThat(attribute.getName()).isEqualTo("latencies");
+    assertThat(values).containsOnly("<=10ms:2", ">5000ms:1");
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.replication.common.ServerState;
+import org.opends.server.replication.protocol.UpdateMsg;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SuppressWarnings("javadoc")
+public class RecentUpdatesCacheTest extends DirectoryServerTestCase
+{
+  private static final long MAX_BYTES = Long.MAX_VALUE;
+
+  @Test
+  public void readsUpdatesAfterStateOrderedByCSN() throws Exception
+  {
+    final RecentUpdatesCache cache = new RecentUpdatesCache(10, MAX_BYTES, new ServerState());
+    final UpdateMsg msg1 = newUpdateMsg(1, 1);
+    final UpdateMsg msg2 = newUpdateMsg(2, 2);
+    final UpdateMsg msg3 = newUpdateMsg(3, 1);
+    final UpdateMsg msg4 = newUpdateMsg(4, 2);
+    // replica 2 updates are received before those of replica 1
+    cache.add(msg2);
+    cache.add(msg4);
+    cache.add(msg1);
+    cache.add(msg3);
+
+    assertThat(cache.getUpdatesAfter(new ServerState())).containsExactly(msg1, msg2, msg3, msg4);
+    assertThat(cache.getUpdatesAfter(newState(msg1.getCSN(), msg2.getCSN()))).containsExactly(msg3, msg4);
+    assertThat(cache.getUpdatesAfter(newState(msg3.getCSN(), msg4.getCSN()))).isEmpty();
+    assertThat(cache.getHits()).isEqualTo(3);
+    assertThat(cache.getMisses()).isEqualTo(0);
+  }
+
+  @Test
+  public void readerMissingEvictedUpdatesFallsBackToChangelog() throws Exception
+  {
+    final RecentUpdatesCache cache = new RecentUpdatesCache(2, MAX_BYTES, new ServerState());
+    final UpdateMsg msg1 = newUpdateMsg(1, 1);
+    final UpdateMsg msg2 = newUpdateMsg(2, 1);
+    final UpdateMsg msg3 = newUpdateMsg(3, 1);
+    cache.add(msg1);
+    cache.add(msg2);
+    cache.add(msg3);
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getUpdatesAfter(new ServerState())).isNull();
+    assertThat(cache.getUpdatesAfter(newState(msg1.getCSN()))).containsExactly(msg2, msg3);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  public void updatesPublishedBeforeCreationAreNotCached() throws Exception
+  {
+    final UpdateMsg msg1 = newUpdateMsg(1, 1);
+    final UpdateMsg msg2 = newUpdateMsg(2, 1);
+    final RecentUpdatesCache cache = new RecentUpdatesCache(10, MAX_BYTES, newState(msg1.getCSN()));
+    cache.add(msg2);
+
+    assertThat(cache.getUpdatesAfter(new ServerState())).isNull();
+    assertThat(cache.getUpdatesAfter(newState(msg1.getCSN()))).containsExactly(msg2);
+
+    cache.clear();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.getUpdatesAfter(new ServerState())).isEmpty();
+  }
+
+  @Test
+  public void evictsOldestUpdatesAboveMaxBytes() throws Exception
+  {
+    final UpdateMsg msg1 = newUpdateMsg(1, 1);
+    final UpdateMsg msg2 = newUpdateMsg(2, 1);
+    final UpdateMsg msg3 = newUpdateMsg(3, 1);
+    final RecentUpdatesCache cache = new RecentUpdatesCache(10, msg1.size() * 2, new ServerState());
+    cache.add(msg1);
+    cache.add(msg2);
+    cache.add(msg3);
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getUpdatesAfter(newState(msg1.getCSN()))).containsExactly(msg2, msg3);
+  }
+
+  private UpdateMsg newUpdateMsg(long timeStamp, int serverId)
+  {
+    return new UpdateMsg(new CSN(timeStamp, 0, serverId), new byte[10]);
+  }
+
+  private ServerState newState(CSN... csns)
+  {
+    final ServerState state = new ServerState();
+    for (CSN csn : csns)
+    {
+      state.update(csn);
+    }
+    return state;
+  }
+}
@@ -22,7 +22,7 @@
  *
  *
  *      Copyright 2007-2009 Sun Microsystems, Inc.
- *      Portions Copyright 2013-2015 ForgeRock AS
+ *      Portions Copyright 2013-2016 ForgeRock AS
  */
 package org.opends.server.replication.server;
 
@@ -69,6 +69,11 @@ public class ReplServerFakeConfiguration implements ReplicationServerCfg
   /** The monitoring publisher period. */
   private long monitoringPeriod = 3000;
   private boolean computeChangenumber;
+  /** The maximum delay before syncing the changelog, -1 for unlimited. */
+  private long changelogSyncMaxDelay = -1;
+  private boolean changelogMemoryMappedReads;
+  private long changelogPurgeBatchPause;
+  private boolean compressMessageBatches = true;
 
   /** Constructor without group id, assured info and weight. */
   public ReplServerFakeConfiguration(
@@ -256,4 +261,48 @@ public class ReplServerFakeConfiguration implements ReplicationServerCfg
   {
     this.computeChangenumber = computeChangenumber;
   }
+
+  @Override
+  public long getChangelogSyncMaxDelay()
+  {
+    return changelogSyncMaxDelay;
+  }
+
+  public void setChangelogSyncMaxDelay(long changelogSyncMaxDelay)
+  {
+    this.changelogSyncMaxDelay = changelogSyncMaxDelay;
+  }
+
+  @Override
+  public boolean isChangelogMemoryMappedReads()
+  {
+    return changelogMemoryMappedReads;
+  }
+
+  public void setChangelogMemoryMappedReads(boolean changelogMemoryMappedReads)
+  {
+    this.changelogMemoryMappedReads = changelogMemoryMappedReads;
+  }
+
+  @Override
+  public long getChangelogPurgeBatchPause()
+  {
+    return changelogPurgeBatchPause;
+  }
+
+  public void setChangelogPurgeBatchPause(long changelogPurgeBatchPause)
+  {
+    this.changelogPurgeBatchPause = changelogPurgeBatchPause;
+  }
+
+  @Override
+  public boolean isCompressMessageBatches()
+  {
+    return compressMessageBatches;
+  }
+
+  public void setCompressMessageBatches(boolean compressMessageBatches)
+  {
+    this.compressMessageBatches = compressMessageBatches;
+  }
 }
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -33,6 +33,8 @@ import static org.opends.server.replication.server.changelog.file.BlockLogReader
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -259,6 +261,43 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
     }
   }
 
+  @Test(dataProvider = "recordsForSeek")
+  public void testSeekToRecordWithMappedReader(int blockSize, List<Record<Integer, Integer>> records, int key,
+      KeyMatchingStrategy matchingStrategy, PositionStrategy positionStrategy, Record<Integer, Integer> expectedRecord,
+      boolean shouldBeFound) throws Exception
+  {
+    writeRecords(blockSize, records);
+
+    // index every other block to exercise the index on small files
+    final SparseKeyIndex<Integer> keyIndex = new SparseKeyIndex<>(2);
+    try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize, keyIndex))
+    {
+      Pair<Boolean, Record<Integer, Integer>> result = reader.seekToRecord(key, matchingStrategy, positionStrategy);
+
+      final SoftAssertions softly = new SoftAssertions();
+      softly.assertThat(result.getFirst()).isEqualTo(shouldBeFound);
+      softly.assertThat(result.getSecond()).isEqualTo(expectedRecord);
+      softly.assertAll();
+    }
+  }
+
+  @Test
+  public void testMappedReadersShareKeyIndex() throws Exception
+  {
+    final int blockSize = 20;
+    writeRecords(blockSize, records(1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20));
+
+    final SparseKeyIndex<Integer> keyIndex = new SparseKeyIndex<>(3);
+    for (int key = 1; key <= 20; key++)
+    {
+      try (BlockLogReader<Integer, Integer> reader = newMappedReader(blockSize, keyIndex))
+      {
+        assertThat(reader.seekToRecord(key, EQUAL_TO_KEY, ON_MATCHING_KEY).getSecond()).isEqualTo(record(key));
+        assertThat(reader.readRecord()).isEqualTo(key < 20 ? record(key + 1) : null);
+      }
+    }
+  }
+
   @Test
   public void testGetClosestMarkerBeforeOrAtPosition() throws Exception
   {
@@ -465,6 +504,13 @@ public class BlockLogReaderWriterTest extends DirectoryServerTestCase
         RECORD_PARSER, blockSize);
   }
 
+  private BlockLogReader<Integer, Integer> newMappedReader(int blockSize, SparseKeyIndex<Integer> keyIndex)
+      throws Exception
+  {
+    final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(TEST_FILE.toPath()));
+    return BlockLogReader.newMappedReaderForTests(TEST_FILE, content, RECORD_PARSER, blockSize, keyIndex);
+  }
+
   private BlockLogReader<Integer, Integer> newReaderWithNullFile(int blockSize) throws FileNotFoundException
   {
     return BlockLogReader.newReaderForTests(null, null, RECORD_PARSER, blockSize);
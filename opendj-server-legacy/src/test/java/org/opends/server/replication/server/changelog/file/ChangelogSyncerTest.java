@@ -0,0 +1,191 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.replication.server.changelog.api.ChangelogException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("javadoc")
+public class ChangelogSyncerTest extends DirectoryServerTestCase
+{
+  private ChangelogSyncer syncer;
+
+  @BeforeClass
+  public static void classSetup() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    if (syncer != null)
+    {
+      syncer.initiateShutdown();
+      syncer.join();
+      syncer = null;
+    }
+  }
+
+  /**
+   * The first append is synchronized right away, and the appends received
+   * during its synchronization share the next one.
+   */
+  @Test(timeOut = 60000)
+  public void appendsReceivedDuringASyncShareTheNextSync() throws Exception
+  {
+    final FileReplicaDB replicaDB1 = mock(FileReplicaDB.class);
+    final FileReplicaDB replicaDB2 = mock(FileReplicaDB.class);
+    final CountDownLatch syncStarted = new CountDownLatch(1);
+    final CountDownLatch releaseSync = new CountDownLatch(1);
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        syncStarted.countDown();
+        releaseSync.await();
+        return null;
+      }
+    }).when(replicaDB1).syncToFileSystem();
+    // the delay would make the test time out if the syncs waited for it
+    syncer = new ChangelogSyncer(Long.MAX_VALUE / 2);
+    syncer.start();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(7);
+    try
+    {
+      final List<Future<Void>> futures = new ArrayList<>();
+      futures.add(executor.submit(awaitSync(replicaDB1)));
+      syncStarted.await();
+      for (int i = 0; i < 6; i++)
+      {
+        futures.add(executor.submit(awaitSync(i % 2 == 0 ? replicaDB1 : replicaDB2)));
+      }
+      while (syncer.getNbPendingAppends() < 6)
+      {
+        Thread.sleep(10);
+      }
+      releaseSync.countDown();
+      for (Future<Void> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+
+    verify(replicaDB1, times(2)).syncToFileSystem();
+    verify(replicaDB2, times(1)).syncToFileSystem();
+  }
+
+  /**
+   * Appends which are not waited for are synchronized with the next waited
+   * one, or at the latest once the maximum delay has elapsed.
+   */
+  @Test(timeOut = 60000)
+  public void appendsNotWaitedForAreSyncedLater() throws Exception
+  {
+    final FileReplicaDB replicaDB1 = mock(FileReplicaDB.class);
+    final FileReplicaDB replicaDB2 = mock(FileReplicaDB.class);
+    syncer = new ChangelogSyncer(Long.MAX_VALUE / 2);
+    syncer.start();
+
+    syncer.requestSync(replicaDB1, false);
+    assertThat(syncer.getNbPendingAppends()).isEqualTo(1);
+    verify(replicaDB1, never()).syncToFileSystem();
+
+    syncer.requestSync(replicaDB2, true);
+    verify(replicaDB1).syncToFileSystem();
+    verify(replicaDB2).syncToFileSystem();
+
+    syncer.setMaxDelay(100);
+    syncer.requestSync(replicaDB1, false);
+    verify(replicaDB1, timeout(10000).times(2)).syncToFileSystem();
+  }
+
+  @Test(expectedExceptions = ChangelogException.class)
+  public void syncFailureIsReportedToTheAppender() throws Exception
+  {
+    final FileReplicaDB replicaDB = mock(FileReplicaDB.class);
+    doThrow(new ChangelogException(LocalizableMessage.raw("sync failed"))).when(replicaDB).syncToFileSystem();
+    syncer = new ChangelogSyncer(0);
+    syncer.start();
+
+    syncer.requestSync(replicaDB, true);
+  }
+
+  @Test(timeOut = 60000)
+  public void pendingAppendsAreSyncedOnShutdown() throws Exception
+  {
+    final FileReplicaDB replicaDB = mock(FileReplicaDB.class);
+    syncer = new ChangelogSyncer(Long.MAX_VALUE / 2);
+    syncer.start();
+
+    syncer.requestSync(replicaDB, false);
+    verify(replicaDB, never()).syncToFileSystem();
+    syncer.initiateShutdown();
+    syncer.join();
+    verify(replicaDB).syncToFileSystem();
+
+    // appends after shutdown do not wait
+    syncer.requestSync(replicaDB, true);
+    verify(replicaDB).syncToFileSystem();
+  }
+
+  private Callable<Void> awaitSync(final FileReplicaDB replicaDB)
+  {
+    return new Callable<Void>()
+    {
+      @Override
+      public Void call() throws Exception
+      {
+        syncer.requestSync(replicaDB, true);
+        return null;
+      }
+    };
+  }
+}
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -106,6 +106,24 @@ public class LogFileTest extends DirectoryServerTestCase
     }
   }
 
+  /** The mapped content of a closed log file remains readable until its last reader is closed. */
+  @Test
+  public void testMemoryMappedCursorOutlivesLogFile() throws Exception
+  {
+    LogFile<String, String> changelog = LogFile.newReadOnlyLogFile(TEST_LOG_FILE, RECORD_PARSER, true);
+    try (DBCursor<Record<String, String>> cursor = changelog.getCursor())
+    {
+      changelog.close();
+      assertThatCursorCanBeFullyRead(cursor, 1, 10);
+    }
+
+    // a reader acquired after the close still reads the file
+    try (DBCursor<Record<String, String>> cursor = changelog.getCursor())
+    {
+      assertThatCursorCanBeFullyRead(cursor, 1, 10);
+    }
+  }
+
   @DataProvider
   Object[][] cursorPositionTo()
   {
@@ -21,7 +21,7 @@
  * CDDL HEADER END
  *
  *
- *      Copyright 2014-2015 ForgeRock AS.
+ *      Copyright 2014-2016 ForgeRock AS.
  */
 package org.opends.server.replication.server.changelog.file;
 
@@ -32,6 +32,7 @@ import static org.opends.server.replication.server.changelog.api.DBCursor.Positi
 import static org.opends.server.replication.server.changelog.file.LogFileTest.*;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.opends.server.DirectoryServerTestCase;
@@ -79,6 +80,12 @@ public class LogTest extends DirectoryServerTestCase
   }
 
   private Log<String, String> openLog(RecordParser<String, String> parser) throws ChangelogException
+  {
+    return openLog(parser, mock(ReplicationEnvironment.class));
+  }
+
+  private Log<String, String> openLog(RecordParser<String, String> parser, ReplicationEnvironment replicationEnv)
+      throws ChangelogException
   {
     // Each string record has a length of approximately 18 bytes
     // This size is set in order to have 2 records per log file before the rotation happens
@@ -88,8 +95,6 @@ public class LogTest extends DirectoryServerTestCase
     final int sizeLimitPerFileInBytes = 30;
     final LogRotationParameters rotationParams = new LogRotationParameters(sizeLimitPerFileInBytes,
         NO_TIME_BASED_LOG_ROTATION, NO_TIME_BASED_LOG_ROTATION);
-    final ReplicationEnvironment replicationEnv = mock(ReplicationEnvironment.class);
-
     return Log.openLog(replicationEnv, LOG_DIRECTORY, parser, rotationParams);
   }
 
@@ -361,6 +366,33 @@ public class LogTest extends DirectoryServerTestCase
     }
   }
 
+  @Test
+  public void testRotatedLogFilesHaveKeyIndex() throws Exception
+  {
+    final File[] rotatedLogFiles = LOG_DIRECTORY.listFiles(new FileFilter()
+    {
+      @Override
+      public boolean accept(File file)
+      {
+        return file.getName().endsWith(".log") && !file.getName().equals(Log.HEAD_LOG_FILE_NAME);
+      }
+    });
+    assertThat(rotatedLogFiles).isNotEmpty();
+    for (File rotatedLogFile : rotatedLogFiles)
+    {
+      assertThat(SparseKeyIndex.getIndexFile(rotatedLogFile)).exists();
+    }
+
+    try (Log<String, String> log = openLog(LogFileTest.RECORD_PARSER))
+    {
+      log.clear();
+    }
+    for (File rotatedLogFile : rotatedLogFiles)
+    {
+      assertThat(SparseKeyIndex.getIndexFile(rotatedLogFile)).doesNotExist();
+    }
+  }
+
   /** TODO : Should be re-enabled once the issue with robot functional test replication/totalupdate.txt is solved */
   @Test(enabled=false, expectedExceptions=ChangelogException.class)
   public void testClearWhenCursorIsOpened() throws Exception
@@ -420,6 +452,50 @@ public class LogTest extends DirectoryServerTestCase
     }
   }
 
+  @Test
+  public void testPurgeInSeveralBatches() throws Exception
+  {
+    try (Log<String, String> log = openLog(LogFileTest.RECORD_PARSER))
+    {
+      for (int i = 11; i <= 50; i++)
+      {
+        log.append(Record.from(String.format("key%03d", i), "value" + i));
+      }
+
+      assertThat(log.purgeUpTo("key049")).isEqualTo(Record.from("key049", "value49"));
+
+      assertThat(log.getPurgedLogFilesCount()).isGreaterThan(Log.MAX_LOG_FILES_PURGED_PER_BATCH);
+      assertThat(log.getPurgedBytes()).isGreaterThan(0);
+      try (DBCursor<Record<String, String>> cursor = log.getCursor())
+      {
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.getRecord()).isEqualTo(Record.from("key049", "value49"));
+        assertThatCursorCanBeFullyRead(cursor, 50, 50);
+      }
+      assertThat(log.purgeUpTo("key049")).isNull();
+    }
+  }
+
+  @Test
+  public void testPurgePausesBetweenBatches() throws Exception
+  {
+    final ReplicationEnvironment replicationEnv = mock(ReplicationEnvironment.class);
+    when(replicationEnv.getPurgeBatchPauseInMillis()).thenReturn(100L);
+    try (Log<String, String> log = openLog(LogFileTest.RECORD_PARSER, replicationEnv))
+    {
+      for (int i = 11; i <= 50; i++)
+      {
+        log.append(Record.from(String.format("key%03d", i), "value" + i));
+      }
+
+      // more than 2 full batches of log files are purged, with a pause after each of them
+      final long startTime = System.currentTimeMillis();
+      assertThat(log.purgeUpTo("key049")).isEqualTo(Record.from("key049", "value49"));
+      assertThat(log.getPurgedLogFilesCount()).isGreaterThan(2 * Log.MAX_LOG_FILES_PURGED_PER_BATCH);
+      assertThat(System.currentTimeMillis() - startTime).isGreaterThanOrEqualTo(200);
+    }
+  }
+
   /**
    * Similar to testPurge() test but with a concurrent cursor opened before starting the purge.
    * <p>
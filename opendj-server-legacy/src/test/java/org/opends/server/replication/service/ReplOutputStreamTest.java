@@ -0,0 +1,105 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at legal-notices/CDDLv1_0.txt
+ * or http://forgerock.org/license/CDDLv1.0.html.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at legal-notices/CDDLv1_0.txt.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information:
+ *      Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *      Copyright 2016 ForgeRock AS
+ */
+package org.opends.server.replication.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("javadoc")
+public class ReplOutputStreamTest extends DirectoryServerTestCase
+{
+  @BeforeClass
+  public static void classSetup() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void writesAreSentInOrderBeforeFlushReturns() throws Exception
+  {
+    final ReplicationDomain domain = mock(ReplicationDomain.class);
+    final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    doAnswer(new Answer<Void>()
+    {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable
+      {
+        final Object[] args = invocation.getArguments();
+        sent.add(new String((byte[]) args[0], (Integer) args[1], (Integer) args[2]));
+        // let the writer fill the pending writes
+        Thread.sleep(10);
+        return null;
+      }
+    }).when(domain).exportLDIFEntry(any(byte[].class), anyInt(), anyInt());
+
+    final ReplOutputStream output = new ReplOutputStream(domain);
+    final List<String> written = new ArrayList<>();
+    for (int i = 0; i < 20; i++)
+    {
+      final String entry = "dn: cn=entry" + i + "\n\n";
+      output.write(entry.getBytes(), 0, entry.length());
+      written.add(entry);
+    }
+    output.flush();
+    assertThat(sent).isEqualTo(written);
+
+    output.close();
+    assertThat(sent).isEqualTo(written);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void sendFailureIsReportedToTheWriter() throws Exception
+  {
+    final ReplicationDomain domain = mock(ReplicationDomain.class);
+    doThrow(new IOException("connection lost")).when(domain).exportLDIFEntry(any(byte[].class), anyInt(), anyInt());
+
+    final ReplOutputStream output = new ReplOutputStream(domain);
+    final byte[] entry = "dn: cn=entry\n\n".getBytes();
+    output.write(entry, 0, entry.length);
+    output.close();
+  }
+
+  @Test
+  public void closeWithoutWriteDoesNotSendAnything() throws Exception
+  {
+    final ReplicationDomain domain = mock(ReplicationDomain.class);
+    new ReplOutputStream(domain).close();
+    verify(domain, never()).exportLDIFEntry(any(byte[].class), anyInt(), anyInt());
+  }
+}